@@ -25,6 +25,15 @@ public class MongoConfiguration {
     @Value("${mongo.databaseName}")
     private String mongoDatabaseName;
 
+    /**
+     * Create a new listener which records the shapes of all queries so that they can be checked for collection scans.
+     * @return a <code>QueryShapeListener</code> object which records the queries sent to the Mongo Database.
+     */
+    @Bean
+    public QueryShapeListener queryShapeListener() {
+        return new QueryShapeListener();
+    }
+
     /**
      * Create a new client which can communicate with the Mongo Database. The url is provided as a parameter in the Spring
      * Boot application properties.
@@ -34,6 +43,7 @@ public class MongoConfiguration {
     public MongoClient mongo() {
         return MongoClients.create(MongoClientSettings.builder()
                 .applyConnectionString(new ConnectionString(mongoUrl))
+                .addCommandListener(queryShapeListener())
                 .build());
     }
 
@@ -0,0 +1,202 @@
+package de.davelee.trams.server.configuration;
+
+import de.davelee.trams.server.model.*;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ensure that the mongo database contains a compound index for every query of the repositories in Trams Server. The
+ * indexes are created in the background after the application has started. Afterwards the queries which are actually
+ * sent to the database are explained periodically and a warning is logged for every query shape which needs a full
+ * collection scan.
+ * @author Dave Lee
+ */
+@Component
+public class MongoIndexManager {
+
+    private final static Logger LOG = LoggerFactory.getLogger(MongoIndexManager.class);
+
+    /**
+     * The compound indexes to create. The fields of an index are ordered so that one index can serve all repository
+     * queries which use a prefix of its fields.
+     */
+    static final List<ManagedIndex> MANAGED_INDEXES = List.of(
+            new ManagedIndex(StopTime.class, List.of("company", "stopName", "departureTime")),
+            new ManagedIndex(StopTime.class, List.of("company", "routeNumber", "stopName")),
+            new ManagedIndex(StopTime.class, List.of("company", "generation", "stopName", "routeNumber")),
+            new ManagedIndex(StopTime.class, List.of("generation", "checkpoint")),
+            new ManagedIndex(Route.class, List.of("company", "routeNumber")),
+            new ManagedIndex(Stop.class, List.of("company", "name")),
+            new ManagedIndex(Timetable.class, List.of("company", "routeNumber", "name")),
+            new ManagedIndex(Vehicle.class, List.of("company", "allocatedRoute", "allocatedTour")),
+            new ManagedIndex(Vehicle.class, List.of("company", "fleetNumber")),
+            new ManagedIndex(Driver.class, List.of("company", "name")),
+            new ManagedIndex(Company.class, List.of("name", "playerName")),
+            new ManagedIndex(Company.class, List.of("playerName")),
+            new ManagedIndex(Customer.class, List.of("company", "emailAddress")),
+            new ManagedIndex(Feedback.class, List.of("company", "emailAddress")),
+            new ManagedIndex(Message.class, List.of("company", "folder", "sender", "dateTime")),
+            new ManagedIndex(Message.class, List.of("company", "folder", "dateTime")),
+            new ManagedIndex(Message.class, List.of("company", "sender", "dateTime")),
+            new ManagedIndex(Message.class, List.of("company", "dateTime")),
+            new ManagedIndex(Ticket.class, List.of("company", "type")),
+            new ManagedIndex(ServiceState.class, List.of("company")),
+            new ManagedIndex(Trip.class, List.of("company")),
+            new ManagedIndex(GenerationActivation.class, List.of("companies", "activatedAt")),
+            new ManagedIndex(CompilationActivation.class, List.of("company")),
+            new ManagedIndex(ImportCheckpoint.class, List.of("companies")),
+            new ManagedIndex(User.class, List.of("company", "userName")),
+            new ManagedIndex(Address.class, List.of("addressOperator", "address"))
+    );
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private QueryShapeListener queryShapeListener;
+
+    @Value("${mongo.ensureIndexes}")
+    private boolean ensureIndexesOnStartup;
+
+    @Value("${mongo.explainSeconds}")
+    private int explainSeconds;
+
+    private ScheduledExecutorService explainExecutor;
+
+    /**
+     * Start the creation of the indexes in the background once the application is ready so that the startup of the
+     * application is not delayed by index builds on large collections. Afterwards the recorded queries are explained
+     * at the configured interval.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void onApplicationReady ( ) {
+        if ( ensureIndexesOnStartup ) {
+            Thread.ofVirtual().name("mongo-index-manager").start(this::ensureIndexes);
+        }
+        if ( explainSeconds > 0 && explainExecutor == null ) {
+            explainExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("mongo-query-explainer").factory());
+            explainExecutor.scheduleWithFixedDelay(this::logCollectionScans, explainSeconds, explainSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop explaining the recorded queries.
+     */
+    @PreDestroy
+    public synchronized void stopExplaining ( ) {
+        if ( explainExecutor != null ) {
+            explainExecutor.shutdownNow();
+            explainExecutor = null;
+        }
+    }
+
+    /**
+     * Create all indexes which do not exist yet and log the progress of the index builds.
+     * @return a <code>int</code> with the number of indexes which could be ensured successfully.
+     */
+    public int ensureIndexes ( ) {
+        int numberOfIndexes = 0;
+        for ( ManagedIndex managedIndex : MANAGED_INDEXES ) {
+            String collectionName = mongoTemplate.getCollectionName(managedIndex.entityClass());
+            long startTime = System.currentTimeMillis();
+            try {
+                String indexName = mongoTemplate.indexOps(managedIndex.entityClass()).ensureIndex(managedIndex.toIndex());
+                numberOfIndexes++;
+                LOG.info("Ensured index {} on collection {} ({}/{}) in {} ms", indexName, collectionName,
+                        numberOfIndexes, MANAGED_INDEXES.size(), System.currentTimeMillis() - startTime);
+            } catch ( RuntimeException runtimeException ) {
+                //Continue with the other indexes - the queries for this collection will be slower but still work.
+                LOG.error("Could not ensure index {} on collection {}", managedIndex.getName(), collectionName, runtimeException);
+            }
+        }
+        LOG.info("Ensured {} of {} indexes", numberOfIndexes, MANAGED_INDEXES.size());
+        return numberOfIndexes;
+    }
+
+    /**
+     * Explain the queries whose shape has been recorded since the last run with their real filter and log a warning for
+     * every query which falls back to a collection scan. Each query shape is only explained once.
+     * @return a <code>List</code> of <code>ObservedQuery</code> objects which need a collection scan.
+     */
+    public List<QueryShapeListener.ObservedQuery> logCollectionScans ( ) {
+        return queryShapeListener.pollUnexplainedQueries().stream().filter(observedQuery -> {
+            try {
+                Document explanation = mongoTemplate.getDb().runCommand(new BsonDocument("explain",
+                        new BsonDocument("find", new BsonString(observedQuery.collectionName())).append("filter", observedQuery.filter()))
+                        .append("verbosity", new BsonString("queryPlanner")));
+                if ( containsCollectionScan(explanation.get("queryPlanner", Document.class).get("winningPlan")) ) {
+                    LOG.warn("Query {} on collection {} uses COLLSCAN", observedQuery.shape(), observedQuery.collectionName());
+                    return true;
+                }
+            } catch ( RuntimeException runtimeException ) {
+                LOG.error("Could not explain query {} on collection {}", observedQuery.shape(), observedQuery.collectionName(), runtimeException);
+            }
+            return false;
+        }).toList();
+    }
+
+    /**
+     * Check whether the supplied query plan or any of its input stages is a collection scan.
+     * @param plan a <code>Object</code> containing the query plan or one of its stages.
+     * @return a <code>boolean</code> which is true iff the plan contains a COLLSCAN stage.
+     */
+    static boolean containsCollectionScan ( final Object plan ) {
+        if ( plan instanceof Document stage ) {
+            if ( "COLLSCAN".equals(stage.getString("stage")) ) {
+                return true;
+            }
+            return stage.values().stream().anyMatch(MongoIndexManager::containsCollectionScan);
+        }
+        if ( plan instanceof List<?> stages ) {
+            return stages.stream().anyMatch(MongoIndexManager::containsCollectionScan);
+        }
+        return false;
+    }
+
+    /**
+     * This record represents a compound index with ascending keys on the collection of an entity.
+     * @param entityClass a <code>Class</code> with the entity stored in the collection.
+     * @param fields a <code>List</code> of <code>String</code> objects with the fields of the index in order.
+     */
+    record ManagedIndex ( Class<?> entityClass, List<String> fields ) {
+
+        /**
+         * Return the name of the index which is built from the fields so that existing indexes are recognised.
+         * @return a <code>String</code> containing the name of the index.
+         */
+        String getName ( ) {
+            return String.join("_", fields) + "_idx";
+        }
+
+        /**
+         * Convert this index into an index definition which can be created by spring data.
+         * @return a <code>Index</code> object containing the definition of the index.
+         */
+        Index toIndex ( ) {
+            Index index = new Index().named(getName());
+            for ( String field : fields ) {
+                index.on(field, Sort.Direction.ASC);
+            }
+            return index;
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+package de.davelee.trams.server.configuration;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Record the shape of every query which Trams Server sends to the mongo database. The shape of a query is its filter
+ * with all values replaced by their type so that queries which only differ in their values are recorded once. The
+ * first filter of each shape is kept so that the query can be explained later by the <code>MongoIndexManager</code>.
+ * @author Dave Lee
+ */
+public class QueryShapeListener implements CommandListener {
+
+    /**
+     * The maximum number of distinct query shapes which are recorded so that the memory usage is bounded.
+     */
+    static final int MAX_SHAPES = 1000;
+
+    private final Map<String, ObservedQuery> observedQueries = new ConcurrentHashMap<>();
+
+    private final Queue<ObservedQuery> unexplainedQueries = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Record the filters of find, count, aggregate and delete commands when the command is started.
+     * @param event a <code>CommandStartedEvent</code> object containing the command which is sent to the database.
+     */
+    @Override
+    public void commandStarted ( final CommandStartedEvent event ) {
+        recordCommand(event.getCommandName(), event.getCommand());
+    }
+
+    /**
+     * Record the filters of the supplied command if it is a find, count, aggregate or delete command.
+     * @param commandName a <code>String</code> containing the name of the command.
+     * @param command a <code>BsonDocument</code> containing the command which is sent to the database.
+     */
+    void recordCommand ( final String commandName, final BsonDocument command ) {
+        switch ( commandName ) {
+            case "find" -> recordQuery(command.get("find"), command.getDocument("filter", new BsonDocument()));
+            case "count" -> recordQuery(command.get("count"), command.getDocument("query", new BsonDocument()));
+            case "aggregate" -> {
+                //Only the first stage of the pipeline can use an index.
+                BsonArray pipeline = command.getArray("pipeline", new BsonArray());
+                if ( !pipeline.isEmpty() && pipeline.getFirst().isDocument() && pipeline.getFirst().asDocument().isDocument("$match") ) {
+                    recordQuery(command.get("aggregate"), pipeline.getFirst().asDocument().getDocument("$match"));
+                }
+            }
+            case "delete" -> {
+                for ( BsonValue delete : command.getArray("deletes", new BsonArray()) ) {
+                    recordQuery(command.get("delete"), delete.asDocument().getDocument("q", new BsonDocument()));
+                }
+            }
+            default -> { }
+        }
+    }
+
+    /**
+     * Return the queries whose shape has been recorded since the last call of this method.
+     * @return a <code>List</code> of <code>ObservedQuery</code> objects which have not been returned before.
+     */
+    public List<ObservedQuery> pollUnexplainedQueries ( ) {
+        List<ObservedQuery> queries = new ArrayList<>();
+        ObservedQuery query;
+        while ( (query = unexplainedQueries.poll()) != null ) {
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    /**
+     * This is a private helper method to record the filter of a query on a collection if its shape is new. Queries
+     * without a filter are ignored since they are expected to read the whole collection.
+     * @param collection a <code>BsonValue</code> containing the name of the collection which may not be a string for database commands.
+     * @param filter a <code>BsonDocument</code> containing the filter of the query.
+     */
+    private void recordQuery ( final BsonValue collection, final BsonDocument filter ) {
+        if ( collection == null || !collection.isString() || filter.isEmpty() || observedQueries.size() >= MAX_SHAPES ) {
+            return;
+        }
+        String collectionName = collection.asString().getValue();
+        String shape = toShape(filter).toJson();
+        String key = collectionName + ":" + shape;
+        if ( !observedQueries.containsKey(key) ) {
+            //The command document is only valid during the event so the filter must be copied.
+            ObservedQuery observedQuery = new ObservedQuery(collectionName, shape, filter.clone());
+            if ( observedQueries.putIfAbsent(key, observedQuery) == null ) {
+                unexplainedQueries.add(observedQuery);
+            }
+        }
+    }
+
+    /**
+     * Replace all values of the supplied filter with their type while keeping the field names and operators. Arrays
+     * are reduced to their distinct shapes so that <code>$in</code> queries with a different number of values have the
+     * same shape.
+     * @param value a <code>BsonValue</code> containing the filter or a part of the filter.
+     * @return a <code>BsonValue</code> containing the shape of the value.
+     */
+    static BsonValue toShape ( final BsonValue value ) {
+        if ( value.isDocument() ) {
+            BsonDocument shape = new BsonDocument();
+            value.asDocument().forEach((field, fieldValue) -> shape.append(field, toShape(fieldValue)));
+            return shape;
+        }
+        if ( value.isArray() ) {
+            BsonArray shape = new BsonArray();
+            for ( BsonValue element : value.asArray() ) {
+                BsonValue elementShape = toShape(element);
+                if ( !shape.contains(elementShape) ) {
+                    shape.add(elementShape);
+                }
+            }
+            return shape;
+        }
+        return new BsonString(value.getBsonType().name());
+    }
+
+    /**
+     * This record represents a query which was sent to the database.
+     * @param collectionName a <code>String</code> containing the name of the collection which was queried.
+     * @param shape a <code>String</code> containing the shape of the filter as JSON.
+     * @param filter a <code>BsonDocument</code> containing the first filter which was sent with this shape.
+     */
+    public record ObservedQuery ( String collectionName, String shape, BsonDocument filter ) { }
+
+}
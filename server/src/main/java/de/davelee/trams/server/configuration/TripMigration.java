@@ -0,0 +1,58 @@
+package de.davelee.trams.server.configuration;
+
+import de.davelee.trams.server.service.StopTimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Migrate the stop times which were stored with an embedded service before trips were stored separately in Trams
+ * Server. The migration runs in the background after the application has started and can be run repeatedly since
+ * only stop times which still embed their service are migrated. Stop times which have not been migrated yet can
+ * still be read in the meantime.
+ * @author Dave Lee
+ */
+@Component
+public class TripMigration {
+
+    private final static Logger LOG = LoggerFactory.getLogger(TripMigration.class);
+
+    @Autowired
+    private StopTimeService stopTimeService;
+
+    @Value("${mongo.migrateTrips}")
+    private boolean migrateTripsOnStartup;
+
+    /**
+     * Start the migration in the background once the application is ready so that the startup of the application is
+     * not delayed by large stop time collections.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady ( ) {
+        if ( migrateTripsOnStartup ) {
+            Thread.ofVirtual().name("trip-migration").start(this::migrateTrips);
+        }
+    }
+
+    /**
+     * Migrate all stop times which still embed their service and log the number of migrated stop times.
+     * @return a <code>long</code> with the number of stop times which were migrated.
+     */
+    public long migrateTrips ( ) {
+        long startTime = System.currentTimeMillis();
+        try {
+            long numberOfStopTimes = stopTimeService.migrateTrips();
+            LOG.info("Migrated the services of {} stop times into trips in {} ms", numberOfStopTimes, System.currentTimeMillis() - startTime);
+            return numberOfStopTimes;
+        } catch ( RuntimeException runtimeException ) {
+            //The stop times which were not migrated can still be read and are migrated on the next startup.
+            LOG.error("Could not migrate the services of the stop times into trips", runtimeException);
+            return 0;
+        }
+    }
+
+}
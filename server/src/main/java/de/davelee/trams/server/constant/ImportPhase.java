@@ -0,0 +1,52 @@
+package de.davelee.trams.server.constant;
+
+/**
+ * This class represents the various phases that an import job may go through.
+ * @author Dave Lee
+ */
+public enum ImportPhase {
+
+    /**
+     * Import has been accepted but is waiting for a free worker.
+     */
+    QUEUED,
+
+    /**
+     * Uploaded zip file is being extracted.
+     */
+    EXTRACTING,
+
+    /**
+     * Agencies, routes, trips, calendars and stops of the feed are being read.
+     */
+    READING_FEED,
+
+    /**
+     * Stop times are being read and written to the database.
+     */
+    IMPORTING_STOP_TIMES,
+
+    /**
+     * Import has finished successfully.
+     */
+    COMPLETED,
+
+    /**
+     * Import has finished but not all files could be processed.
+     */
+    FAILED,
+
+    /**
+     * Import was cancelled before it finished.
+     */
+    CANCELLED;
+
+    /**
+     * Check whether an import in this phase has finished.
+     * @return a <code>boolean</code> which is true iff the import has completed, failed or been cancelled.
+     */
+    public boolean isFinished ( ) {
+        return this == COMPLETED || this == FAILED || this == CANCELLED;
+    }
+
+}
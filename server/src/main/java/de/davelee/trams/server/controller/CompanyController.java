@@ -3,6 +3,7 @@ package de.davelee.trams.server.controller;
 import de.davelee.trams.server.model.Company;
 import de.davelee.trams.server.request.*;
 import de.davelee.trams.server.response.*;
+import de.davelee.trams.server.service.CompanyPurgeService;
 import de.davelee.trams.server.service.CompanyService;
 import de.davelee.trams.server.utils.DateUtils;
 import io.swagger.v3.oas.annotations.Operation;
@@ -29,6 +30,9 @@ public class CompanyController {
     @Autowired
     private CompanyService companyService;
 
+    @Autowired
+    private CompanyPurgeService companyPurgeService;
+
     /**
      * Add a company to the system.
      * @param companyRequest a <code>CompanyRequest</code> object representing the company to add.
@@ -272,4 +276,25 @@ public class CompanyController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Delete all data of a particular company so that the company can be reset. The company itself remains.
+     * @param company a <code>String</code> containing the name of the company.
+     * @return a <code>ResponseEntity</code> containing the number of deleted documents per collection.
+     */
+    @DeleteMapping("/data")
+    @CrossOrigin
+    @Operation(summary = "Purge company data", description="Delete all data of the particular company except the company itself and its users")
+    @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully purged company data")})
+    public ResponseEntity<PurgeCompanyResponse> purgeCompany (final String company ) {
+        //First of all, check if the company field is empty or null, then return bad request.
+        if (StringUtils.isBlank(company)) {
+            return ResponseEntity.badRequest().build();
+        }
+        //Now delete all data of the company and return the number of deleted documents.
+        return ResponseEntity.ok(PurgeCompanyResponse.builder()
+                .company(company)
+                .deletedDocuments(companyPurgeService.purgeCompany(company))
+                .build());
+    }
+
 }
@@ -0,0 +1,139 @@
+package de.davelee.trams.server.controller;
+
+import de.davelee.trams.server.model.ImportJob;
+import de.davelee.trams.server.request.ImportZipRequest;
+import de.davelee.trams.server.response.ImportJobResponse;
+import de.davelee.trams.server.service.FileSystemStorageService;
+import de.davelee.trams.server.service.ImportJobService;
+import de.davelee.trams.server.utils.DateUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class provides REST endpoints which provide operations associated with importing uploaded data in the background.
+ * @author Dave Lee
+ */
+@RestController
+@Tag(name="/api/importJob")
+@RequestMapping(value="/api/importJob")
+public class ImportJobController {
+
+    @Autowired
+    private ImportJobService importJobService;
+
+    @Autowired
+    private FileSystemStorageService fileSystemStorageService;
+
+    /**
+     * Upload a zip file containing files either fulfilling the GTFS specification or the CSV specification and import
+     * it in the background. The zip file is stored before this method returns the id of the job.
+     * Optionally a list of routes can be provided which should be imported and may be null if all routes should be imported.
+     * Optionally a valid from and valid to date can also be provided (which are only read in the csv import).
+     * @param importZipRequest a <code>ImportZipRequest</code> containing the zip file, list of routes to import
+     *                            and valid from and valid to dates.
+     * @return a <code>ResponseEntity</code> containing the status of the queued job.
+     */
+    @PostMapping("/")
+    @CrossOrigin
+    @Operation(summary = "Submit an import job", description="Upload a GTFS or CSV Zip file to TraMS and import it in the background")
+    @ApiResponses(value = {@ApiResponse(responseCode="202",description="Successfully submitted import job"), @ApiResponse(responseCode="422",description="Entity could not be processed because zip file or format was not valid"), @ApiResponse(responseCode="429",description="Too many import jobs are already running")})
+    public ResponseEntity<ImportJobResponse> submitImportJob(@ModelAttribute final ImportZipRequest importZipRequest) {
+        //Check that the request is valid.
+        if ( importZipRequest.getZipFile() == null || importZipRequest.getFileFormat() == null ||
+                !(importZipRequest.getFileFormat().contentEquals(ImportJobService.GTFS_FORMAT) || importZipRequest.getFileFormat().contentEquals(ImportJobService.CSV_FORMAT)) ) {
+            return ResponseEntity.unprocessableEntity().build();
+        }
+        List<String> routesToImport =  importZipRequest.getRoutesToImport() != null ?
+                Arrays.asList(importZipRequest.getRoutesToImport().split(",")) : new ArrayList<>();
+        //The uploaded file must be stored before the request finishes.
+        String archive = fileSystemStorageService.storeArchive(importZipRequest.getZipFile());
+        try {
+            ImportJob importJob = importJobService.submitJob(archive, importZipRequest.getZipFile().getOriginalFilename(),
+                    importZipRequest.getFileFormat(), routesToImport, importZipRequest.getValidFromDate(), importZipRequest.getValidToDate());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(convertToResponse(importJob, LocalDateTime.now()));
+        } catch ( RejectedExecutionException rejectedExecutionException ) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    /**
+     * Return the status of the supplied import job.
+     * @param id a <code>String</code> containing the id of the job.
+     * @return a <code>ResponseEntity</code> containing the phase and progress of the job.
+     */
+    @GetMapping("/")
+    @CrossOrigin
+    @Operation(summary = "Get the status of an import job", description="Return the phase, progress, throughput and estimated remaining time of an import job")
+    @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully returned import job"), @ApiResponse(responseCode="404",description="No import job found with this id")})
+    public ResponseEntity<ImportJobResponse> getImportJob(@RequestParam("id") final String id) {
+        ImportJob importJob = importJobService.getJob(id);
+        if ( importJob == null ) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(convertToResponse(importJob, LocalDateTime.now()));
+    }
+
+    /**
+     * Cancel the supplied import job. Data which has already been imported is kept.
+     * @param id a <code>String</code> containing the id of the job.
+     * @return a <code>ResponseEntity</code> containing the status of the job.
+     */
+    @DeleteMapping("/")
+    @CrossOrigin
+    @Operation(summary = "Cancel an import job", description="Cancel an import job which is queued or running")
+    @ApiResponses(value = {@ApiResponse(responseCode="202",description="Successfully requested cancellation of import job"), @ApiResponse(responseCode="404",description="No import job found with this id"), @ApiResponse(responseCode="409",description="Import job has already finished")})
+    public ResponseEntity<ImportJobResponse> cancelImportJob(@RequestParam("id") final String id) {
+        ImportJob importJob = importJobService.cancelJob(id);
+        if ( importJob == null ) {
+            return ResponseEntity.notFound().build();
+        } else if ( importJob.getPhase().isFinished() ) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(convertToResponse(importJob, LocalDateTime.now()));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(convertToResponse(importJob, LocalDateTime.now()));
+    }
+
+    /**
+     * This is a private helper method to convert an import job into a response. The throughput is calculated from the
+     * rows read since the job started and the remaining time is estimated from the bytes of the stop time files read so far.
+     * @param importJob a <code>ImportJob</code> object to convert.
+     * @param now a <code>LocalDateTime</code> object containing the current date and time.
+     * @return a <code>ImportJobResponse</code> object containing the status of the job.
+     */
+    private ImportJobResponse convertToResponse ( final ImportJob importJob, final LocalDateTime now ) {
+        long elapsedMillis = importJob.getStartedAt() == null ? 0 :
+                Duration.between(importJob.getStartedAt(), importJob.getFinishedAt() != null ? importJob.getFinishedAt() : now).toMillis();
+        Long estimatedSecondsRemaining = null;
+        if ( importJob.getPhase().isFinished() ) {
+            estimatedSecondsRemaining = 0L;
+        } else if ( importJob.getBytesRead() > 0 && importJob.getTotalBytes() >= importJob.getBytesRead() ) {
+            estimatedSecondsRemaining = elapsedMillis * (importJob.getTotalBytes() - importJob.getBytesRead()) / importJob.getBytesRead() / 1000;
+        }
+        return ImportJobResponse.builder()
+                .id(importJob.getId())
+                .fileName(importJob.getFileName())
+                .fileFormat(importJob.getFileFormat())
+                .phase(importJob.getPhase().name())
+                .rowsRead(importJob.getRowsRead())
+                .rowsWritten(importJob.getRowsWritten())
+                .rowsPerSecond(elapsedMillis > 0 ? importJob.getRowsRead() * 1000 / elapsedMillis : 0)
+                .estimatedSecondsRemaining(estimatedSecondsRemaining)
+                .startedAt(DateUtils.convertLocalDateTimeToDate(importJob.getStartedAt()))
+                .finishedAt(DateUtils.convertLocalDateTimeToDate(importJob.getFinishedAt()))
+                .cancelRequested(importJob.isCancelRequested())
+                .build();
+    }
+
+}
@@ -86,9 +86,7 @@ public class RoutesController {
         List<String> routeNumbers = stopTimeService.getAllRouteNumbersByStop(company, stop);
         //Convert the list of route numbers to a list of routes.
         List<Route> routes = new ArrayList<>();
-        for ( String routeNumber : routeNumbers ) {
-            routes.addAll(routeService.getRoutesByCompanyAndRouteNumber(company, routeNumber));
-        }
+        routeService.getRoutesByCompanyAndRouteNumbers(company, routeNumbers).values().forEach(routes::addAll);
         //If routes is null or empty then return 204.
         if ( routes == null || routes.size() == 0 ) {
             return ResponseEntity.noContent().build();
@@ -120,17 +118,8 @@ public class RoutesController {
         if (StringUtils.isBlank(company)) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
-        //Retrieve the routes for this company.
-        List<Route> routes = routeService.getRoutesByCompany(company);
-        //If routes is null or empty then return 204.
-        if ( routes == null || routes.size() == 0 ) {
-            return ResponseEntity.noContent().build();
-        }
-        //Otherwise delete all routes and return.
-        for ( Route route : routes ) {
-            routeService.deleteRoute(route);
-        }
-        return ResponseEntity.ok().build();
+        //Delete all routes for this company and return 204 if there were no routes.
+        return routeService.deleteRoutes(company) == 0 ? ResponseEntity.noContent().build() : ResponseEntity.ok().build();
     }
 
 }
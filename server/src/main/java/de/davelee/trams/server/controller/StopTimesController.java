@@ -1,10 +1,13 @@
 package de.davelee.trams.server.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.davelee.trams.server.model.*;
 import de.davelee.trams.server.request.GenerateStopTimesRequest;
 import de.davelee.trams.server.request.ResetServiceRequest;
 import de.davelee.trams.server.request.ServiceChangeRequest;
+import de.davelee.trams.server.response.GenerateStopTimesResponse;
 import de.davelee.trams.server.response.PositionResponse;
+import de.davelee.trams.server.response.PositionsResponse;
 import de.davelee.trams.server.response.ServiceTripResponse;
 import de.davelee.trams.server.response.StopTimeResponse;
 import de.davelee.trams.server.response.StopTimesResponse;
@@ -18,12 +21,17 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
 import java.time.*;
 import java.time.temporal.TemporalUnit;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * This class provides REST endpoints which provide operations associated with stop times in the TraMS Server API.
@@ -41,10 +49,13 @@ public class StopTimesController {
     private VehicleService vehicleService;
 
     @Autowired
-    private RouteService routeService;
+    private CompanyService companyService;
 
     @Autowired
-    private CompanyService companyService;
+    private DepartureBoardService departureBoardService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
 
     /**
      * Get the current position of the vehicle.
@@ -69,18 +80,62 @@ public class StopTimesController {
         Position position = stopTimeService.retrievePositionForAllocatedTour(company, allocatedTour, DateUtils.convertDateToLocalDateTime(dateTime),
                 vehicles.getFirst().getDelayInMinutes());
         // Return the position.
-        return ResponseEntity.ok(PositionResponse.builder()
+        return ResponseEntity.ok(translatePositionToResponse(position).build());
+    }
+
+    /**
+     * Get the current positions of all vehicles of a company which are allocated to a tour.
+     * @param company a <code>String</code> object containing the name of the company to return the vehicles for.
+     * @param dateTime a <code>String</code> with the current date and time.
+     * @return a <code>ResponseEntity</code> containing the positions of all allocated vehicles.
+     */
+    @Operation(summary = "Get current position of all vehicles", description="Get current position of all vehicles of a company which are allocated to a tour")
+    @GetMapping(value="/positions")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description="Successfully got the positions of vehicles"), @ApiResponse(responseCode="204",description="No allocated vehicles found")})
+    public ResponseEntity<PositionsResponse> getPositions(final String company, final String dateTime ) {
+        if ( StringUtils.isBlank(company) || StringUtils.isBlank(dateTime)) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Get all vehicles which are currently allocated to a tour - return no content if there are none.
+        List<Vehicle> vehicles = vehicleService.retrieveVehiclesByCompany(company).stream()
+                .filter(vehicle -> StringUtils.isNotBlank(vehicle.getAllocatedTour()))
+                .toList();
+        if ( vehicles.isEmpty() ) {
+            return ResponseEntity.noContent().build();
+        }
+        //Now calculate the current positions of all vehicles in one pass.
+        Map<String, Position> positions = stopTimeService.retrievePositionsForVehicles(company, vehicles, DateUtils.convertDateToLocalDateTime(dateTime));
+        PositionResponse[] positionResponses = vehicles.stream()
+                .map(vehicle -> translatePositionToResponse(positions.get(vehicle.getFleetNumber()))
+                        .fleetNumber(vehicle.getFleetNumber())
+                        .allocatedTour(vehicle.getAllocatedTour())
+                        .build())
+                .toArray(PositionResponse[]::new);
+        // Return the positions.
+        return ResponseEntity.ok(PositionsResponse.builder()
+                .count((long) positionResponses.length)
+                .positionResponses(positionResponses)
+                .build());
+    }
+
+    /**
+     * Private helper method to translate a position into a response which may be completed before it is built.
+     * @param position a <code>Position</code> object containing the position to translate.
+     * @return a <code>PositionResponse.PositionResponseBuilder</code> object containing the translated position.
+     */
+    private PositionResponse.PositionResponseBuilder translatePositionToResponse(final Position position) {
+        return PositionResponse.builder()
                 .stop(position.getStop())
                 .destination(position.getDestination())
                 .delay(position.getDelay())
-                .service(ServiceTripResponse.builder()
+                .service(position.getService() == null ? null : ServiceTripResponse.builder()
                         .tempStartStopPos(position.getService().getTempStartStopPos())
                         .tempEndStopPos(position.getService().getTempEndStopPos())
                         .stopList(translateStopsToStringArray(position.getService().getStopList()))
                         .outOfService(position.getService().isOutOfService())
                         .scheduleId(position.getService().getRouteSchedule().getRouteNumberAndScheduleId())
                         .serviceId(position.getService().getServiceId()).build())
-                .company(position.getCompany()).build());
+                .company(position.getCompany());
     }
 
     /**
@@ -96,7 +151,12 @@ public class StopTimesController {
     }
 
     /**
-     * Return the next departures and/or arrivals based on the supplied user parameters.
+     * Return the next departures and/or arrivals based on the supplied user parameters. If a page size is supplied,
+     * then at most this number of stop times is returned together with a continuation token which can be supplied in
+     * the next request to retrieve the following page. The stop times of each date are ordered by time and trip and
+     * the token contains the date, time and trip key of the last returned stop time so that the next page continues after
+     * this stop time even if stop times have been added or removed in the meantime. The token is only valid for the
+     * query parameters which it was issued for.
      * @param stopName a <code>String</code> containing the name of the stop to retrieve departures/arrivals from.
      * @param company a <code>String</code> containing the name of the company to retrieve times for.
      * @param startingTime a <code>String</code> containing the time to start retrieving departures/arrivals from which may be null if rest of day should be returned.
@@ -104,6 +164,8 @@ public class StopTimesController {
      * @param endDate a <code>String</code> containing the end date of a range of dates to retrieve stop times for in format yyyy-MM-dd. This parameter may be empty or missing if no range is desired.
      * @param departures a <code>boolean</code> which is true iff departure times should be returned.
      * @param arrivals a <code>boolean</code> which is true iff arrivals times should be returned.
+     * @param pageSize a <code>Integer</code> with the maximum number of stop times to return which may be missing if all stop times should be returned.
+     * @param pageToken a <code>String</code> containing the continuation token of the previous page which may be missing for the first page.
      * @return a <code>List</code> of <code>StopTime</code> objects which may be null if none were found.
      */
     @GetMapping("/")
@@ -113,59 +175,220 @@ public class StopTimesController {
     @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully returned stop times")})
     public ResponseEntity<StopTimesResponse> getStopTimes (final String stopName, final String company, final Optional<String> startingTime,
                                                            final String date, final String endDate, final boolean departures, final boolean arrivals,
-                                                           final Optional<String> scheduleNumber) {
+                                                           final Optional<String> scheduleNumber, final Optional<Integer> pageSize,
+                                                           final Optional<String> pageToken) {
         //First of all, check that all necessary parameters were filled and that at least one of departures or arrivals is true.
         if (StringUtils.isBlank(stopName) || StringUtils.isBlank(company) || StringUtils.isBlank(date)
-                || (!departures && !arrivals)) {
+                || (!departures && !arrivals) || (pageSize.isPresent() && pageSize.get() <= 0)) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
         //If end date is not empty or null, then set last date to the normal date to indicate no range otherwise end date.
-        LocalDate lastDate = StringUtils.isBlank(endDate) ? DateUtils.convertDateToLocalDate(date) : DateUtils.convertDateToLocalDate(endDate);
-        //Store the results of any service operations in a variable.
-        List<StopTime> stopTimeList = new ArrayList<>();
-        //Set the process date and start loop.
-        LocalDate processDate = DateUtils.convertDateToLocalDate(date);
-        //Do this loop until the process date matches end date.
-        do {
-            //If departures and a starting time specified then get departures.
-            if (departures && startingTime.isPresent()) {
-                stopTimeList.addAll(stopTimeService.getDepartures(stopName, company, startingTime.get(), scheduleNumber.isPresent() ? scheduleNumber.get() : ""));
-            }
-            //Otherwise arrivals and starting time then get arrivals.
-            else if (arrivals && startingTime.isPresent()) {
-                stopTimeList.addAll(stopTimeService.getArrivals(stopName, company, startingTime.get(), scheduleNumber.isPresent() ? scheduleNumber.get() : ""));
+        LocalDate firstDate = DateUtils.convertDateToLocalDate(date);
+        LocalDate lastDate = StringUtils.isBlank(endDate) ? firstDate : DateUtils.convertDateToLocalDate(endDate);
+        //Continue after the last stop time of the previous page which must have been issued for the same query.
+        String queryHash = hashQuery(stopName, company, startingTime, date, endDate, departures, arrivals, scheduleNumber);
+        PageKey pageKey = pageToken.map(StopTimesController::decodePageToken).orElse(null);
+        if ( pageToken.isPresent() && (pageKey == null || !pageKey.queryHash().equals(queryHash)
+                || pageKey.date().isBefore(firstDate) || pageKey.date().isAfter(lastDate)) ) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        int maxStopTimes = pageSize.orElse(Integer.MAX_VALUE);
+        Comparator<StopTime> pageOrder = getPageOrder(departures);
+        //Process one date at a time and stop as soon as the page is full.
+        List<StopTimeResponse> stopTimeResponses = new ArrayList<>();
+        String nextPageToken = null;
+        Iterator<StopTimeService.DateStopTimes> dates = retrieveStopTimes(stopName, company, startingTime, pageKey != null ? pageKey.date() : firstDate, lastDate, departures, arrivals, scheduleNumber).iterator();
+        while ( dates.hasNext() ) {
+            StopTimeService.DateStopTimes dateStopTimes = dates.next();
+            LocalDate processDate = dateStopTimes.date();
+            List<StopTime> stopTimeList = dateStopTimes.stopTimes().stream().sorted(pageOrder).toList();
+            int start = pageKey != null && pageKey.date().equals(processDate) ? findFirstAfter(stopTimeList, pageKey, pageOrder) : 0;
+            int end = (int) Math.min(stopTimeList.size(), (long) start + maxStopTimes - stopTimeResponses.size());
+            for ( int i = start; i < end; i++ ) {
+                stopTimeResponses.add(translateStopTimeToResponse(stopTimeList.get(i)));
             }
-            //In the final case return all departures for the specified date.
-            else if (departures) {
-                stopTimeList.addAll(stopTimeService.getDeparturesByDate(stopName, company, DateUtils.convertLocalDateToDate(processDate), scheduleNumber.isPresent() ? scheduleNumber.get() : ""));
+            //If the page is full then the next page continues after the last returned stop time.
+            if ( stopTimeResponses.size() == maxStopTimes ) {
+                if ( end < stopTimeList.size() || processDate.isBefore(lastDate) ) {
+                    StopTime lastStopTime = stopTimeList.get(end - 1);
+                    nextPageToken = encodePageToken(new PageKey(queryHash, processDate,
+                            departures ? lastStopTime.getDepartureTime() : lastStopTime.getArrivalTime(), getTripKey(lastStopTime)));
+                }
+                break;
             }
-            //Now increment the process date for next iteration if required.
-            processDate = processDate.plusDays(1);
-        } while ( ! processDate.isAfter(lastDate) );
+        }
         //If the list is empty or null then return no content.
-        if ( stopTimeList.isEmpty() ) {
+        if ( stopTimeResponses.isEmpty() ) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
-        //Now do the proessing into correct Response objects and return.
-        StopTimeResponse[] stopTimeResponses = new StopTimeResponse[stopTimeList.size()];
-        for ( int i = 0; i < stopTimeResponses.length; i++ ) {
-            stopTimeResponses[i] = StopTimeResponse.builder()
-                    .arrivalTime(DateUtils.convertLocalTimeToTime(stopTimeList.get(i).getArrivalTime()))
-                    .departureTime(DateUtils.convertLocalTimeToTime(stopTimeList.get(i).getDepartureTime()))
-                    .destination(stopTimeList.get(i).getDestination())
-                    .company(stopTimeList.get(i).getCompany())
-                    .journeyNumber(stopTimeList.get(i).getJourneyNumber())
-                    .operatingDays(StopTimeUtils.convertOperatingDaysToString(stopTimeList.get(i).getOperatingDays()))
-                    .routeNumber(stopTimeList.get(i).getRouteNumber())
-                    .scheduleNumber(Integer.parseInt(stopTimeList.get(i).getService().getRouteSchedule().getScheduleId()))
-                    .validFromDate(DateUtils.convertLocalDateTimeToDate(stopTimeList.get(i).getValidFromDate()))
-                    .validToDate(DateUtils.convertLocalDateTimeToDate(stopTimeList.get(i).getValidToDate()))
-                    .stopName(stopTimeList.get(i).getStopName())
-                    .build();
-        }
+        //Now return the processed response objects.
         return ResponseEntity.ok(StopTimesResponse.builder()
-                .count((long) stopTimeResponses.length)
-                .stopTimeResponses(stopTimeResponses).build());
+                .count((long) stopTimeResponses.size())
+                .stopTimeResponses(stopTimeResponses.toArray(StopTimeResponse[]::new))
+                .nextPageToken(nextPageToken).build());
+    }
+
+    /**
+     * Stream the departures and/or arrivals based on the supplied user parameters as newline-delimited JSON. The stop
+     * times are read from the in-memory timetable snapshot of the company and each stop time is written as soon as it
+     * has been produced so that only the response of one date is held in memory regardless of the length of the date range.
+     * @param stopName a <code>String</code> containing the name of the stop to retrieve departures/arrivals from.
+     * @param company a <code>String</code> containing the name of the company to retrieve times for.
+     * @param startingTime a <code>String</code> containing the time to start retrieving departures/arrivals from which may be null if rest of day should be returned.
+     * @param date a <code>String</code> containing the date to retrieve stop times for in format yyyy-MM-dd. If the endDate parameter is supplied then this is the start date for the range.
+     * @param endDate a <code>String</code> containing the end date of a range of dates to retrieve stop times for in format yyyy-MM-dd. This parameter may be empty or missing if no range is desired.
+     * @param departures a <code>boolean</code> which is true iff departure times should be returned.
+     * @param arrivals a <code>boolean</code> which is true iff arrivals times should be returned.
+     * @return a <code>ResponseEntity</code> containing the stream of stop times with one stop time per line.
+     */
+    @GetMapping(value="/stream", produces=MediaType.APPLICATION_NDJSON_VALUE)
+    @CrossOrigin
+    @Operation(summary = "Stream stop times", description="Stream the stop times as newline-delimited JSON.")
+    @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully streamed stop times")})
+    public ResponseEntity<StreamingResponseBody> streamStopTimes (final String stopName, final String company, final Optional<String> startingTime,
+                                                                  final String date, final String endDate, final boolean departures, final boolean arrivals,
+                                                                  final Optional<String> scheduleNumber) {
+        //First of all, check that all necessary parameters were filled and that at least one of departures or arrivals is true.
+        if (StringUtils.isBlank(stopName) || StringUtils.isBlank(company) || StringUtils.isBlank(date)
+                || (!departures && !arrivals)) {
+            return ResponseEntity.badRequest().build();
+        }
+        LocalDate firstDate = DateUtils.convertDateToLocalDate(date);
+        LocalDate lastDate = StringUtils.isBlank(endDate) ? firstDate : DateUtils.convertDateToLocalDate(endDate);
+        //Write the stop times of each date and flush them before the next date is processed.
+        StreamingResponseBody responseBody = outputStream -> {
+            Iterator<StopTimeService.DateStopTimes> dates = retrieveStopTimes(stopName, company, startingTime, firstDate, lastDate, departures, arrivals, scheduleNumber).iterator();
+            while ( dates.hasNext() ) {
+                for ( StopTime stopTime : dates.next().stopTimes() ) {
+                    outputStream.write(objectMapper.writeValueAsBytes(translateStopTimeToResponse(stopTime)));
+                    outputStream.write('\n');
+                }
+                outputStream.flush();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(responseBody);
+    }
+
+    /**
+     * This is a private helper method to retrieve the departures or arrivals for each date of a date range. The stop
+     * times of the stop are only retrieved once for the whole range.
+     * @param stopName a <code>String</code> containing the name of the stop to retrieve departures/arrivals from.
+     * @param company a <code>String</code> containing the name of the company to retrieve times for.
+     * @param startingTime a <code>String</code> containing the time to start retrieving departures/arrivals from which may be null if rest of day should be returned.
+     * @param fromDate a <code>LocalDate</code> with the first date to retrieve stop times for.
+     * @param toDate a <code>LocalDate</code> with the last date to retrieve stop times for.
+     * @param departures a <code>boolean</code> which is true iff departure times should be returned.
+     * @param arrivals a <code>boolean</code> which is true iff arrivals times should be returned.
+     * @param scheduleNumber a <code>String</code> containing the schedule number to filter by which may be missing.
+     * @return a <code>Stream</code> of <code>DateStopTimes</code> objects with the stop times of each date in the range.
+     */
+    private Stream<StopTimeService.DateStopTimes> retrieveStopTimes ( final String stopName, final String company, final Optional<String> startingTime,
+                                                                      final LocalDate fromDate, final LocalDate toDate, final boolean departures,
+                                                                      final boolean arrivals, final Optional<String> scheduleNumber ) {
+        //If departures and a starting time specified then get departures which are the same for each date.
+        if (departures && startingTime.isPresent()) {
+            List<StopTime> stopTimes = stopTimeService.getDepartures(stopName, company, startingTime.get(), scheduleNumber.orElse(""));
+            return fromDate.datesUntil(toDate.plusDays(1)).map(date -> new StopTimeService.DateStopTimes(date, stopTimes));
+        }
+        //Otherwise arrivals and starting time then get arrivals which are the same for each date.
+        else if (arrivals && startingTime.isPresent()) {
+            List<StopTime> stopTimes = stopTimeService.getArrivals(stopName, company, startingTime.get(), scheduleNumber.orElse(""));
+            return fromDate.datesUntil(toDate.plusDays(1)).map(date -> new StopTimeService.DateStopTimes(date, stopTimes));
+        }
+        //In the final case return all departures for each date of the range.
+        else if (departures) {
+            return stopTimeService.getDeparturesByDateRange(stopName, company, fromDate, toDate, scheduleNumber.orElse(""));
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * This is a private helper method to return the order of the stop times of a date within a page which is by time
+     * and then by trip key so that the last returned stop time identifies the position of the next page.
+     * @param departures a <code>boolean</code> which is true iff the departure time should be compared rather than the arrival time.
+     * @return a <code>Comparator</code> which orders stop times within a page.
+     */
+    private static Comparator<StopTime> getPageOrder ( final boolean departures ) {
+        return Comparator.comparing((StopTime stopTime) -> departures ? stopTime.getDepartureTime() : stopTime.getArrivalTime(),
+                        Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(StopTimesController::getTripKey);
+    }
+
+    /**
+     * This is a private helper method to return the key of the trip which a stop time belongs to. Imported stop times
+     * have no trip id so their route number and journey number identify the trip instead.
+     * @param stopTime a <code>StopTime</code> object to return the trip key for.
+     * @return a <code>String</code> containing the trip key.
+     */
+    private static String getTripKey ( final StopTime stopTime ) {
+        return stopTime.getTripId() != null ? stopTime.getTripId() : stopTime.getRouteNumber() + "/" + stopTime.getJourneyNumber();
+    }
+
+    /**
+     * This is a private helper method to find the first stop time of a date which comes after the stop time of the page key.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects which are sorted in page order.
+     * @param pageKey a <code>PageKey</code> object with the time and trip key of the last stop time of the previous page.
+     * @param pageOrder a <code>Comparator</code> with the page order of the stop times.
+     * @return a <code>int</code> with the index of the first stop time after the page key.
+     */
+    private static int findFirstAfter ( final List<StopTime> stopTimes, final PageKey pageKey, final Comparator<StopTime> pageOrder ) {
+        StopTime lastStopTime = StopTime.builder().departureTime(pageKey.time()).arrivalTime(pageKey.time()).tripId(pageKey.tripKey()).build();
+        int low = 0;
+        int high = stopTimes.size();
+        while ( low < high ) {
+            int middle = (low + high) >>> 1;
+            if ( pageOrder.compare(stopTimes.get(middle), lastStopTime) <= 0 ) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * This is a private helper method to calculate a hash of the query parameters which a continuation token is issued for.
+     * The page size is not part of the hash so that it may change between pages.
+     * @param stopName a <code>String</code> containing the name of the stop.
+     * @param company a <code>String</code> containing the name of the company.
+     * @param startingTime a <code>String</code> containing the starting time which may be missing.
+     * @param date a <code>String</code> containing the date or first date of the range.
+     * @param endDate a <code>String</code> containing the last date of the range which may be empty or null.
+     * @param departures a <code>boolean</code> which is true iff departure times are returned.
+     * @param arrivals a <code>boolean</code> which is true iff arrival times are returned.
+     * @param scheduleNumber a <code>String</code> containing the schedule number which may be missing.
+     * @return a <code>String</code> containing the hash of the query parameters.
+     */
+    private static String hashQuery ( final String stopName, final String company, final Optional<String> startingTime,
+                                      final String date, final String endDate, final boolean departures, final boolean arrivals,
+                                      final Optional<String> scheduleNumber ) {
+        return Integer.toHexString(Objects.hash(stopName, company, startingTime.orElse(""), date, StringUtils.defaultString(endDate),
+                departures, arrivals, scheduleNumber.orElse("")));
+    }
+
+    /**
+     * This is a private helper method to convert the key of the last stop time of a page into an opaque continuation token.
+     * @param pageKey a <code>PageKey</code> object with the query hash, date, time and trip key of the last stop time.
+     * @return a <code>String</code> containing the continuation token.
+     */
+    private static String encodePageToken ( final PageKey pageKey ) {
+        String token = pageKey.queryHash() + "/" + pageKey.date() + "/" + pageKey.time() + "/" + pageKey.tripKey();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * This is a private helper method to convert a continuation token back into the key of the last stop time of the previous page.
+     * @param pageToken a <code>String</code> containing the continuation token.
+     * @return a <code>PageKey</code> object with the query hash, date, time and trip key or null if the token is invalid.
+     */
+    private static PageKey decodePageToken ( final String pageToken ) {
+        try {
+            //The trip key is the last part so that it may contain the separator itself.
+            String[] key = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8).split("/", 4);
+            return new PageKey(key[0], LocalDate.parse(key[1]), LocalTime.parse(key[2]), key[3]);
+        } catch ( IllegalArgumentException | DateTimeException | ArrayIndexOutOfBoundsException exception ) {
+            return null;
+        }
     }
 
     /**
@@ -190,51 +413,60 @@ public class StopTimesController {
             final String operator,
             final String language,
             final String route) {
-        //Get the current date and time.
-        RealTimeModel realTimeModel = new RealTimeModel();
-        LocalDateTime localDateTime = LocalDateTime.now();
-        realTimeModel.setTimestamp(DateUtils.convertLocalDateTimeToDate(localDateTime));
-        List<RealTimeEntryModel> realTimeEntryModels = new ArrayList<>();
-        //Get the departures from this stop - optionally only for a particular route.
-        List<StopTime> stopTimes = stopTimeService.getDeparturesByDate(stop, operator, DateUtils.convertLocalDateTimeToDate(LocalDateTime.now()), "");
-        stopTimes.stream().
-                filter(stopTime -> stopTime.getDepartureTime().isAfter(LocalTime.of(localDateTime.getHour(), localDateTime.getMinute()))).
-                forEach(stopTime -> {
-                    RealTimeEntryModel realTimeEntryModel = new RealTimeEntryModel();
-                    realTimeEntryModel.setMins((int) Duration.between(LocalTime.now(), stopTime.getDepartureTime()).getSeconds() / 60);
-                    realTimeEntryModel.setRoute(routeService.getRoutesByCompanyAndRouteNumber(operator, stopTime.getRouteNumber()).getFirst());
-                    if ( stopTime.getDestination().contentEquals(stop)) {
-                        realTimeEntryModel.setDestination("Journey Terminates Here");
-                    } else {
-                        realTimeEntryModel.setDestination(stopTime.getDestination());
-                    }
-                    realTimeEntryModels.add(realTimeEntryModel);
-                });
-        //Sort the list now by minutes - this is necessary as Spring Data JPA only sorts by hours and not by minutes.
-        Comparator<RealTimeEntryModel> byMinutes = Comparator.comparingInt(RealTimeEntryModel::getMins);
-        Collections.sort(realTimeEntryModels, byMinutes);
-        //Trim list to the maximum number of real time elements.
-        realTimeModel.setRealTimeEntryModelList( (realTimeEntryModels.size() > numDepartures) ?
-                realTimeEntryModels.subList(0, numDepartures) : realTimeEntryModels );
-        return realTimeModel;
+        //Calculate the next departures for the current date and time.
+        return departureBoardService.getNextDepartures(stop, numDepartures, operator, route, LocalDateTime.now());
+    }
+
+    /**
+     * Subscribe to the next departures for a particular stop and operator. The complete departure board is sent
+     * immediately as a <code>board</code> event and afterwards only the changed and removed departures are sent as
+     * <code>delta</code> events whenever the board changes.
+     * @param stop a <code>String</code> with the name of the stop to retrieve departures for.
+     * @param numDepartures a <code>int</code> with the number of next departures to display.
+     * @param operator a <code>String</code> with the name of the operator to retrieve departures for.
+     * @param route a <code>String</code> with the name of the route to retrieve departures for (optional)
+     * @return a <code>ResponseEntity</code> containing the event stream for the departure board.
+     */
+    @GetMapping(value="/nextDepartures/stream", produces=MediaType.TEXT_EVENT_STREAM_VALUE)
+    @CrossOrigin
+    @Operation(summary = "Subscribe to the next departures for a particular stop", description="Stream the departure board and its changes as server-sent events.")
+    @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully subscribed to departure board")})
+    public ResponseEntity<SseEmitter> streamNextDepartures(final String stop, final int numDepartures, final String operator, final String route) {
+        //First of all, check if the stop or operator is empty or null, then return bad request.
+        if ( StringUtils.isBlank(stop) || StringUtils.isBlank(operator) ) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(departureBoardService.subscribe(stop, numDepartures, operator, route));
     }
 
     /**
      * Generate stop time entries within a specified time and frequency and save them to the database.
+     * The stop times are calculated in memory and then saved in bulk writes. In a dry run the stop times are only
+     * calculated and counted but not saved.
      * @param generateStopTimesRequest a <code>GenerateStopTimesRequest</code> object containing the information to
      *                                 generate stop times including stops, distances and frequencies.
-     * @return a <code>ResponseEntity</code> object containing the results of the endpoint.
+     * @param dryRun a <code>boolean</code> which is true iff the stop times should not be saved.
+     * @return a <code>ResponseEntity</code> object containing the number of stop times and the first generated trip.
      */
     @PostMapping("/generate")
     @CrossOrigin
     @Operation(summary = "Generate stop times", description="Generate the stop times for a route and frequency.")
     @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully returned stop times")})
-    public ResponseEntity<Void> generateStopTimes ( @RequestBody final GenerateStopTimesRequest generateStopTimesRequest ) {
+    public ResponseEntity<GenerateStopTimesResponse> generateStopTimes ( @RequestBody final GenerateStopTimesRequest generateStopTimesRequest, final boolean dryRun ) {
         // This is where we should now generate the schedules for the relevant timetable.
         if ( !(DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidFromDate()).minusDays(1)).isAfter(companyService.getTime(generateStopTimesRequest.getCompany()))
                 && !(DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidToDate()).plusDays(1)).isBefore(companyService.getTime(generateStopTimesRequest.getCompany())) ) {
-            stopTimeService.generateStopTimes(generateStopTimesRequest);
-            return ResponseEntity.ok().build();
+            List<StopTime> stopTimes = stopTimeService.calculateStopTimes(generateStopTimesRequest);
+            long count = dryRun ? stopTimes.size() : stopTimeService.insertStopTimes(generateStopTimesRequest.getCompany(), stopTimes);
+            // The first trip is the preview which are the first stop times since the stop times are sorted by trip.
+            int numberOfPreviewStopTimes = Math.min(generateStopTimesRequest.getStopNames() != null ? generateStopTimesRequest.getStopNames().length : 0, stopTimes.size());
+            return ResponseEntity.ok(GenerateStopTimesResponse.builder()
+                    .count(count)
+                    .dryRun(dryRun)
+                    .previewStopTimeResponses(stopTimes.subList(0, numberOfPreviewStopTimes).stream()
+                            .map(this::translateStopTimeToResponse)
+                            .toArray(StopTimeResponse[]::new))
+                    .build());
         } else {
             return ResponseEntity.status(500).build();
         }
@@ -294,4 +526,34 @@ public class StopTimesController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * This is a private helper method to convert a stop time to a response object.
+     * @param stopTime a <code>StopTime</code> object to convert.
+     * @return a <code>StopTimeResponse</code> object containing the information of the stop time.
+     */
+    private StopTimeResponse translateStopTimeToResponse ( final StopTime stopTime ) {
+        return StopTimeResponse.builder()
+                .arrivalTime(DateUtils.convertLocalTimeToTime(stopTime.getArrivalTime()))
+                .departureTime(DateUtils.convertLocalTimeToTime(stopTime.getDepartureTime()))
+                .destination(stopTime.getDestination())
+                .company(stopTime.getCompany())
+                .journeyNumber(stopTime.getJourneyNumber())
+                .operatingDays(StopTimeUtils.convertOperatingDaysToString(stopTime.getOperatingDays()))
+                .routeNumber(stopTime.getRouteNumber())
+                .scheduleNumber(Integer.parseInt(stopTime.getService().getRouteSchedule().getScheduleId()))
+                .validFromDate(DateUtils.convertLocalDateTimeToDate(stopTime.getValidFromDate()))
+                .validToDate(DateUtils.convertLocalDateTimeToDate(stopTime.getValidToDate()))
+                .stopName(stopTime.getStopName())
+                .build();
+    }
+
+    /**
+     * The key of the last stop time of a page after which the next page continues.
+     * @param queryHash the hash of the query parameters which the page was returned for.
+     * @param date the date of the last stop time of the page.
+     * @param time the departure or arrival time of the last stop time of the page.
+     * @param tripKey the trip id or for imported stop times the route and journey number of the last stop time of the page.
+     */
+    private record PageKey ( String queryHash, LocalDate date, LocalTime time, String tripKey ) { }
+
 }
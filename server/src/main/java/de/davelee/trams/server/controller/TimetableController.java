@@ -1,8 +1,11 @@
 package de.davelee.trams.server.controller;
 
 import de.davelee.trams.server.model.Timetable;
+import de.davelee.trams.server.model.TimetableCompilation;
 import de.davelee.trams.server.request.CreateTimetableRequest;
+import de.davelee.trams.server.response.CompileTimetableResponse;
 import de.davelee.trams.server.response.CreateTimetableResponse;
+import de.davelee.trams.server.service.TimetableCompilationService;
 import de.davelee.trams.server.service.TimetableService;
 import de.davelee.trams.server.utils.DateUtils;
 import de.davelee.trams.server.utils.FrequencyPatternUtils;
@@ -31,6 +34,9 @@ public class TimetableController {
     @Autowired
     private TimetableService timetableService;
 
+    @Autowired
+    private TimetableCompilationService timetableCompilationService;
+
     /**
      * Create a timetable based on the supplied timetable request.
      * @param createTimetableRequest a <code>CreateTimetableRequest</code> object containing the information about the timetable which should be created.
@@ -89,4 +95,41 @@ public class TimetableController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Compile all frequency patterns of a timetable stored in the database into stop times. Only the trips which have
+     * changed since the previous compilation of this timetable are saved or deleted.
+     * @param company a <code>String</code> containing the name of the company to search for.
+     * @param routeNumber a <code>String</code> containing the route number to search for.
+     * @param name a <code>String</code> containing the name of the timetable to compile.
+     * @return a <code>ResponseEntity</code> object containing the number of stop times which were created and replaced.
+     */
+    @PostMapping("/compile")
+    @CrossOrigin
+    @Operation(summary = "Compile a timetable", description="Compile the frequency patterns of a timetable into stop times")
+    @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully compiled timetable"), @ApiResponse(responseCode="404",description="Timetable not found")})
+    public ResponseEntity<CompileTimetableResponse> compileTimetable (final String company, final String routeNumber, final String name ) {
+        //First of all, check if the company field and/or name and/or route number fields are empty or null, then return bad request.
+        if (StringUtils.isBlank(company) || StringUtils.isBlank(routeNumber) || StringUtils.isBlank(name)) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        //Retrieve the timetable which should be compiled.
+        List<Timetable> timetables = timetableService.retrieveTimetablesByCompanyAndRouteNumberAndName(company, routeNumber, name);
+        if (timetables == null || timetables.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        //Compile the timetable and return the result.
+        TimetableCompilation timetableCompilation = timetableCompilationService.compileTimetable(timetables.getFirst());
+        return ResponseEntity.ok(CompileTimetableResponse.builder()
+                .company(company)
+                .routeNumber(routeNumber)
+                .name(name)
+                .compilationId(timetableCompilation.getCompilationId())
+                .numberOfStopTimes(timetableCompilation.getNumberOfStopTimes())
+                .numberOfReplacedStopTimes(timetableCompilation.getNumberOfReplacedStopTimes())
+                .numberOfInsertedTrips(timetableCompilation.getNumberOfInsertedTrips())
+                .numberOfDeletedTrips(timetableCompilation.getNumberOfDeletedTrips())
+                .numberOfUnchangedTrips(timetableCompilation.getNumberOfUnchangedTrips())
+                .build());
+    }
+
 }
@@ -7,6 +7,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -30,6 +31,9 @@ public class UploadController {
     @Autowired
     private FileSystemStorageService fileSystemStorageService;
 
+    @Value("${import.gtfsStreaming}")
+    private boolean gtfsStreaming;
+
     /**
      * Upload a zip file containing files either fulfilling the GTFS specification or the CSV specification.
      * Optionally a list of routes can be provided which should be imported and may be null if all routes should be imported.
@@ -44,19 +48,30 @@ public class UploadController {
     @Operation(summary = "Upload Data file", description="Upload a GTFS or CSV Zip file to TraMS")
     @ApiResponses(value = {@ApiResponse(responseCode="200",description="Successfully imported GTFS/CSV Data"), @ApiResponse(responseCode="422",description="Entity could not be processed because zip file was not valid")})
     public ResponseEntity<Void> handleFileUpload(@ModelAttribute final ImportZipRequest importZipRequest) {
-        String folderName = fileSystemStorageService.store(importZipRequest.getZipFile());
         List<String> routesToImport =  importZipRequest.getRoutesToImport() != null ?
                                         Arrays.asList(importZipRequest.getRoutesToImport().split(",")) : new ArrayList<>();
-        if ( importZipRequest.getFileFormat().contentEquals("General Transit Feed Specification (GTFS)")) {
-            if (gtfsDataService.readGTFSFile(folderName, routesToImport)) {
-                return ResponseEntity.ok().build();
-            }
-        } else if ( importZipRequest.getFileFormat().contentEquals("Comma Separated Value (CSV)")) {
-            if (csvDataService.readCSVFile(folderName, importZipRequest.getValidFromDate(), importZipRequest.getValidToDate())) {
-                return ResponseEntity.ok().build();
+        //Only the GTFS reader without streaming needs extracted files - all other imports read directly from the zip file.
+        boolean gtfsFormat = importZipRequest.getFileFormat().contentEquals("General Transit Feed Specification (GTFS)");
+        String folderName = gtfsFormat && !gtfsStreaming ? fileSystemStorageService.store(importZipRequest.getZipFile())
+                : fileSystemStorageService.storeArchive(importZipRequest.getZipFile());
+        //The upload is only needed on this server node until the import has finished.
+        try {
+            if ( gtfsFormat ) {
+                //In streaming mode GTFS feeds are read directly from the zip file without extracting or loading them completely.
+                boolean imported = gtfsStreaming ? gtfsDataService.readGTFSFileStreaming(folderName, routesToImport)
+                        : gtfsDataService.readGTFSFile(folderName, routesToImport);
+                if (imported) {
+                    return ResponseEntity.ok().build();
+                }
+            } else if ( importZipRequest.getFileFormat().contentEquals("Comma Separated Value (CSV)")) {
+                if (csvDataService.readCSVFile(folderName, importZipRequest.getValidFromDate(), importZipRequest.getValidToDate())) {
+                    return ResponseEntity.ok().build();
+                }
             }
+            return ResponseEntity.unprocessableEntity().build();
+        } finally {
+            fileSystemStorageService.delete(folderName);
         }
-        return ResponseEntity.unprocessableEntity().build();
     }
 
 }
@@ -0,0 +1,28 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * This class represents the authentication token of a logged in user which is shared between all server nodes. Only
+ * the hash of the token is stored and the token is removed by the database after it has expired.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@ToString
+public class AuthToken {
+
+    /**
+     * The id of the token which is the hash of the token.
+     */
+    private String id;
+
+    /**
+     * The time at which the token expires.
+     */
+    private Instant expiresAt;
+
+}
@@ -0,0 +1,43 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * This class represents the invalidation of a cache for a company on one server node which the other server nodes
+ * receive through a change stream so that they can invalidate their own cache for the company.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@ToString
+public class CacheInvalidation {
+
+    /**
+     * The id of the invalidation which is generated by the database.
+     */
+    private String id;
+
+    /**
+     * The name of the cache which was invalidated e.g. stopTimes or routes.
+     */
+    private String cache;
+
+    /**
+     * The name of the company whose cache entry was invalidated which is null if the cache was invalidated for all companies.
+     */
+    private String company;
+
+    /**
+     * The id of the server node which invalidated the cache.
+     */
+    private String instanceId;
+
+    /**
+     * The time at which the cache was invalidated.
+     */
+    private Instant createdAt;
+
+}
@@ -0,0 +1,72 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * This class represents the activation of the latest compilation of a timetable. The compiled stop times of the
+ * timetable are only visible if their trip is listed in the activation so that saving a single activation replaces
+ * all trips of the timetable at once.
+ * @author Dave Lee
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+@Setter
+@ToString
+@Document
+public class CompilationActivation {
+
+    /**
+     * The company, route number and name of the timetable which are used as id.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The name of the company which the timetable belongs to.
+     */
+    private String company;
+
+    /**
+     * The route number of the timetable.
+     */
+    private String routeNumber;
+
+    /**
+     * The name of the timetable.
+     */
+    private String timetableName;
+
+    /**
+     * The id of the compilation which was activated.
+     */
+    private String compilationId;
+
+    /**
+     * The hashes of the trips which are visible.
+     */
+    private List<String> tripHashes;
+
+    /**
+     * The date and time when the compilation was activated.
+     */
+    private LocalDateTime activatedAt;
+
+    /**
+     * Return the id of the activation of the supplied timetable.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @return a <code>String</code> with the id of the activation.
+     */
+    public static String getId ( final String company, final String routeNumber, final String timetableName ) {
+        return company + "/" + routeNumber + "/" + timetableName;
+    }
+
+}
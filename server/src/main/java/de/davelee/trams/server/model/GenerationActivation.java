@@ -0,0 +1,35 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * This class represents the activation of a generation of imported stop times for all companies of a completed import.
+ * The latest activation which lists a company determines the visible generation of the company so that inserting a
+ * single activation makes a completed import visible for all of its companies at once.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@ToString
+public class GenerationActivation {
+
+    /**
+     * The generation of imported stop times which is used as id.
+     */
+    private String id;
+
+    /**
+     * The names of the companies that this generation is visible for.
+     */
+    private List<String> companies;
+
+    /**
+     * The date and time when the generation was activated.
+     */
+    private LocalDateTime activatedAt;
+
+}
@@ -0,0 +1,55 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * This class represents the last checkpoint of an import which has not been completed yet. The id of the checkpoint
+ * is calculated from the content of the imported file and the import parameters so that running the same import again
+ * resumes the staging generation from the last checkpoint instead of importing all stop times again.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@ToString
+public class ImportCheckpoint {
+
+    /**
+     * The id of the checkpoint which is calculated from the content of the file and the import parameters.
+     */
+    private String id;
+
+    /**
+     * The generation of stop times which the import writes to.
+     */
+    private String generation;
+
+    /**
+     * The number of the last checkpoint which is 0 if no checkpoint has been written yet.
+     */
+    private long checkpointNumber;
+
+    /**
+     * The progress of each file of the import at the last checkpoint.
+     */
+    private List<ImportFileCheckpoint> files;
+
+    /**
+     * The names of the companies that stop times have been written for.
+     */
+    private List<String> companies;
+
+    /**
+     * The date and time when the import was started for the first time.
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * The date and time when the last checkpoint was written.
+     */
+    private LocalDateTime updatedAt;
+
+}
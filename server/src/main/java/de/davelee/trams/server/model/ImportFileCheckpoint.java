@@ -0,0 +1,26 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+
+/**
+ * This class represents the progress of a single file of an import at the last checkpoint. All stop times of the rows
+ * up to the number of committed rows have been written to the database when the checkpoint was written.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@ToString
+public class ImportFileCheckpoint {
+
+    /**
+     * The name of the file e.g. stop_times.txt
+     */
+    private String fileName;
+
+    /**
+     * The number of rows of the file whose stop times have been written to the database.
+     */
+    private long committedRows;
+
+}
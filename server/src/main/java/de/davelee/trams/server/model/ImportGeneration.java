@@ -0,0 +1,199 @@
+package de.davelee.trams.server.model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * This class represents the staging generation of stop times which a running import writes to. Each stop time is
+ * tagged with the generation and the number of the checkpoint which will cover it so that stop times written after the
+ * last checkpoint can be discarded when the import is resumed. A checkpoint is written after a configurable number of
+ * batches. Batches may be written by several workers at the same time but never while a checkpoint is written so that
+ * a checkpoint always covers exactly the stop times which are tagged with its number or a lower number. If a batch
+ * cannot be written then the generation fails and no further batches or checkpoints are written so that the stop
+ * times which the failed batch may have written partially are never covered by a checkpoint.
+ * @author Dave Lee
+ */
+public class ImportGeneration {
+
+    private final ImportCheckpoint importCheckpoint;
+
+    private final boolean resumed;
+
+    private final int checkpointBatches;
+
+    private final Consumer<ImportCheckpoint> checkpointWriter;
+
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    private final Map<String, Long> committedRows = new ConcurrentHashMap<>();
+
+    private final Set<String> companies = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger batchesSinceCheckpoint = new AtomicInteger();
+
+    private volatile boolean failed;
+
+    /**
+     * Create a new staging generation which continues from the supplied checkpoint.
+     * @param importCheckpoint a <code>ImportCheckpoint</code> object containing the last checkpoint of the import.
+     * @param resumed a <code>boolean</code> which is true iff the import was started before and is now resumed.
+     * @param checkpointBatches a <code>int</code> with the number of batches after which a checkpoint is written.
+     * @param checkpointWriter a <code>Consumer</code> which stores a checkpoint in the database.
+     */
+    public ImportGeneration ( final ImportCheckpoint importCheckpoint, final boolean resumed, final int checkpointBatches,
+                              final Consumer<ImportCheckpoint> checkpointWriter ) {
+        this.importCheckpoint = importCheckpoint;
+        this.resumed = resumed;
+        this.checkpointBatches = checkpointBatches;
+        this.checkpointWriter = checkpointWriter;
+        if ( importCheckpoint.getFiles() != null ) {
+            importCheckpoint.getFiles().forEach(file -> committedRows.put(file.getFileName(), file.getCommittedRows()));
+        }
+        if ( importCheckpoint.getCompanies() != null ) {
+            companies.addAll(importCheckpoint.getCompanies());
+        }
+    }
+
+    /**
+     * Return the id of the checkpoint of the import.
+     * @return a <code>String</code> with the id of the checkpoint.
+     */
+    public String getCheckpointId ( ) {
+        return importCheckpoint.getId();
+    }
+
+    /**
+     * Return the generation of stop times which the import writes to.
+     * @return a <code>String</code> with the generation.
+     */
+    public String getGeneration ( ) {
+        return importCheckpoint.getGeneration();
+    }
+
+    /**
+     * Return whether the import was started before and continues from its last checkpoint.
+     * @return a <code>boolean</code> which is true iff the import is resumed.
+     */
+    public boolean isResumed ( ) {
+        return resumed;
+    }
+
+    /**
+     * Return the number of rows of the supplied file whose stop times have already been written. These rows must not
+     * be imported again.
+     * @param fileName a <code>String</code> with the name of the file.
+     * @return a <code>long</code> with the number of committed rows which is 0 if no rows of the file have been committed.
+     */
+    public long getCommittedRows ( final String fileName ) {
+        return committedRows.getOrDefault(fileName, 0L);
+    }
+
+    /**
+     * Return the names of the companies that stop times have been written for by this import.
+     * @return a <code>List</code> of <code>String</code> objects with the names of the companies.
+     */
+    public List<String> getCompanies ( ) {
+        return List.copyOf(companies);
+    }
+
+    /**
+     * Return whether a batch could not be written so that the generation does not accept any further batches.
+     * @return a <code>boolean</code> which is true iff a batch of the generation has failed.
+     */
+    public boolean isFailed ( ) {
+        return failed;
+    }
+
+    /**
+     * Return the number of the last checkpoint which has been written.
+     * @return a <code>long</code> with the number of the last checkpoint.
+     */
+    public long getCheckpointNumber ( ) {
+        checkpointLock.readLock().lock();
+        try {
+            return importCheckpoint.getCheckpointNumber();
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tag the supplied stop times with this generation and write them with the supplied writer. Afterwards the rows of
+     * the file up to the supplied number are committed and a checkpoint is written if enough batches have been written
+     * since the last checkpoint. If the writer fails then the generation fails as well.
+     * @param fileName a <code>String</code> with the name of the file that the stop times were read from.
+     * @param rowNumber a <code>long</code> with the number of the last row of the file whose stop times are in this batch.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects which should be written.
+     * @param batchWriter a <code>Runnable</code> which writes the stop times to the database.
+     * @throws IllegalStateException if a batch of the generation has already failed.
+     */
+    public void writeBatch ( final String fileName, final long rowNumber, final List<StopTime> stopTimes, final Runnable batchWriter ) {
+        checkpointLock.readLock().lock();
+        try {
+            checkNotFailed();
+            long checkpoint = importCheckpoint.getCheckpointNumber() + 1;
+            for ( StopTime stopTime : stopTimes ) {
+                stopTime.setGeneration(importCheckpoint.getGeneration());
+                stopTime.setCheckpoint(checkpoint);
+                stopTime.setImported(true);
+                if ( stopTime.getCompany() != null ) {
+                    companies.add(stopTime.getCompany());
+                }
+            }
+            try {
+                batchWriter.run();
+            } catch ( RuntimeException | Error exception ) {
+                //Stop times of this batch may have been written partially and must not be covered by any checkpoint.
+                failed = true;
+                throw exception;
+            }
+            committedRows.merge(fileName, rowNumber, Math::max);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        if ( batchesSinceCheckpoint.incrementAndGet() >= checkpointBatches ) {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Write a new checkpoint containing the committed rows of all files. No batches are written while the checkpoint
+     * is written.
+     * @throws IllegalStateException if a batch of the generation has failed.
+     */
+    public void writeCheckpoint ( ) {
+        checkpointLock.writeLock().lock();
+        try {
+            checkNotFailed();
+            List<ImportFileCheckpoint> files = new ArrayList<>();
+            committedRows.forEach((fileName, rows) -> files.add(ImportFileCheckpoint.builder().fileName(fileName).committedRows(rows).build()));
+            importCheckpoint.setCheckpointNumber(importCheckpoint.getCheckpointNumber() + 1);
+            importCheckpoint.setFiles(files);
+            importCheckpoint.setCompanies(new ArrayList<>(companies));
+            importCheckpoint.setUpdatedAt(LocalDateTime.now());
+            checkpointWriter.accept(importCheckpoint);
+            batchesSinceCheckpoint.set(0);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This is a private helper method to ensure that no batch of the generation has failed.
+     * @throws IllegalStateException if a batch of the generation has failed.
+     */
+    private void checkNotFailed ( ) {
+        if ( failed ) {
+            throw new IllegalStateException("Generation " + importCheckpoint.getGeneration() + " has a failed batch");
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package de.davelee.trams.server.model;
+
+import de.davelee.trams.server.constant.ImportPhase;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * This class represents an import of an uploaded GTFS or CSV file which runs in the background. The job is stored in
+ * the database with its phase and progress so that its status can be retrieved and it can be cancelled on any server node.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@ToString
+public class ImportJob {
+
+    /**
+     * The id of the job.
+     */
+    private String id;
+
+    /**
+     * The name of the uploaded file.
+     */
+    private String fileName;
+
+    /**
+     * The format of the uploaded file which is either General Transit Feed Specification (GTFS) or Comma Separated Value (CSV).
+     */
+    private String fileFormat;
+
+    /**
+     * The phase that the import is currently in.
+     */
+    private ImportPhase phase;
+
+    /**
+     * The number of rows which were read from the files.
+     */
+    private long rowsRead;
+
+    /**
+     * The number of routes, stops and stop times which were written to the database.
+     */
+    private long rowsWritten;
+
+    /**
+     * The number of bytes of the stop time files which were read.
+     */
+    private long bytesRead;
+
+    /**
+     * The total number of bytes of the stop time files which is 0 if the size is not known.
+     */
+    private long totalBytes;
+
+    /**
+     * The date and time when the job was submitted.
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * The date and time when the import started which is null while the job is queued.
+     */
+    private LocalDateTime startedAt;
+
+    /**
+     * The date and time when the import finished which is null while the job is running.
+     */
+    private LocalDateTime finishedAt;
+
+    /**
+     * The date and time when the status of the job was last written by the server node which is running it. Jobs which
+     * have not been updated for too long are expired since the server node has stopped.
+     */
+    private LocalDateTime updatedAt;
+
+    /**
+     * Whether the job should be cancelled by the server node which is running it.
+     */
+    private boolean cancelRequested;
+
+}
@@ -0,0 +1,262 @@
+package de.davelee.trams.server.model;
+
+import de.davelee.trams.server.constant.ImportPhase;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents the counters of a single import which can be updated by several workers at the same time.
+ * An import counts the number of files, routes, stops and stop times which were processed and whether the import
+ * was successful. While the import is running the counters also show its phase and progress and the import can be
+ * cancelled.
+ * @author Dave Lee
+ */
+public class ImportStatistics {
+
+    /**
+     * The number of files which were processed.
+     */
+    private final AtomicLong numberOfFiles = new AtomicLong();
+
+    /**
+     * The number of new routes which were imported.
+     */
+    private final AtomicLong numberOfRoutes = new AtomicLong();
+
+    /**
+     * The number of new stops which were imported.
+     */
+    private final AtomicLong numberOfStops = new AtomicLong();
+
+    /**
+     * The number of stop times which were imported.
+     */
+    private final AtomicLong numberOfStopTimes = new AtomicLong();
+
+    /**
+     * The number of rows which were read from the files.
+     */
+    private final AtomicLong numberOfRowsRead = new AtomicLong();
+
+    /**
+     * The number of bytes of the stop time files which were read.
+     */
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * The total number of bytes of the stop time files which is 0 if the size is not known.
+     */
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /**
+     * Whether the import was successful which is only true if all files could be processed.
+     */
+    private volatile boolean successful = true;
+
+    /**
+     * Whether the import should stop as soon as possible.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Whether the imported data has been made visible so that the import can no longer be cancelled.
+     */
+    private volatile boolean activated;
+
+    /**
+     * The phase that the import is currently in.
+     */
+    private volatile ImportPhase phase = ImportPhase.QUEUED;
+
+    /**
+     * Increment the number of files which were processed by one.
+     */
+    public void incrementFiles ( ) {
+        numberOfFiles.incrementAndGet();
+    }
+
+    /**
+     * Increment the number of new routes which were imported by one.
+     */
+    public void incrementRoutes ( ) {
+        numberOfRoutes.incrementAndGet();
+    }
+
+    /**
+     * Increment the number of new stops which were imported by the supplied number.
+     * @param number a <code>long</code> with the number of stops which were imported.
+     */
+    public void addStops ( final long number ) {
+        numberOfStops.addAndGet(number);
+    }
+
+    /**
+     * Increment the number of stop times which were imported by the supplied number.
+     * @param number a <code>long</code> with the number of stop times which were imported.
+     */
+    public void addStopTimes ( final long number ) {
+        numberOfStopTimes.addAndGet(number);
+    }
+
+    /**
+     * Increment the number of rows which were read by the supplied number.
+     * @param number a <code>long</code> with the number of rows which were read.
+     */
+    public void addRowsRead ( final long number ) {
+        numberOfRowsRead.addAndGet(number);
+    }
+
+    /**
+     * Increment the number of bytes of the stop time files which were read by the supplied number.
+     * @param number a <code>long</code> with the number of bytes which were read.
+     */
+    public void addBytesRead ( final long number ) {
+        bytesRead.addAndGet(number);
+    }
+
+    /**
+     * Increment the total number of bytes of the stop time files by the supplied number.
+     * @param number a <code>long</code> with the size of a stop time file in bytes.
+     */
+    public void addTotalBytes ( final long number ) {
+        totalBytes.addAndGet(number);
+    }
+
+    /**
+     * Set the phase that the import is currently in.
+     * @param phase a <code>ImportPhase</code> with the current phase.
+     */
+    public void setPhase ( final ImportPhase phase ) {
+        this.phase = phase;
+    }
+
+    /**
+     * Request the import to stop as soon as possible. Data which has already been written is kept.
+     */
+    public void cancel ( ) {
+        cancelled = true;
+    }
+
+    /**
+     * Mark the imported data as visible. A cancellation which is requested afterwards does not change the result.
+     */
+    public void markActivated ( ) {
+        activated = true;
+    }
+
+    /**
+     * Mark the import as failed.
+     */
+    public void markFailed ( ) {
+        successful = false;
+    }
+
+    /**
+     * Return the number of files which were processed.
+     * @return a <code>long</code> with the number of files.
+     */
+    public long getNumberOfFiles ( ) {
+        return numberOfFiles.get();
+    }
+
+    /**
+     * Return the number of new routes which were imported.
+     * @return a <code>long</code> with the number of routes.
+     */
+    public long getNumberOfRoutes ( ) {
+        return numberOfRoutes.get();
+    }
+
+    /**
+     * Return the number of new stops which were imported.
+     * @return a <code>long</code> with the number of stops.
+     */
+    public long getNumberOfStops ( ) {
+        return numberOfStops.get();
+    }
+
+    /**
+     * Return the number of stop times which were imported.
+     * @return a <code>long</code> with the number of stop times.
+     */
+    public long getNumberOfStopTimes ( ) {
+        return numberOfStopTimes.get();
+    }
+
+    /**
+     * Return the number of rows which were read from the files.
+     * @return a <code>long</code> with the number of rows.
+     */
+    public long getNumberOfRowsRead ( ) {
+        return numberOfRowsRead.get();
+    }
+
+    /**
+     * Return the number of rows which were written to the database.
+     * @return a <code>long</code> with the number of routes, stops and stop times.
+     */
+    public long getNumberOfRowsWritten ( ) {
+        return getNumberOfRoutes() + getNumberOfStops() + getNumberOfStopTimes();
+    }
+
+    /**
+     * Return the number of bytes of the stop time files which were read.
+     * @return a <code>long</code> with the number of bytes.
+     */
+    public long getBytesRead ( ) {
+        return bytesRead.get();
+    }
+
+    /**
+     * Return the total number of bytes of the stop time files.
+     * @return a <code>long</code> with the number of bytes which is 0 if the size is not known.
+     */
+    public long getTotalBytes ( ) {
+        return totalBytes.get();
+    }
+
+    /**
+     * Return the phase that the import is currently in.
+     * @return a <code>ImportPhase</code> with the current phase.
+     */
+    public ImportPhase getPhase ( ) {
+        return phase;
+    }
+
+    /**
+     * Return whether the import should stop as soon as possible.
+     * @return a <code>boolean</code> which is true iff the import has been cancelled.
+     */
+    public boolean isCancelled ( ) {
+        return cancelled;
+    }
+
+    /**
+     * Return whether the imported data has been made visible.
+     * @return a <code>boolean</code> which is true iff the imported data has been activated.
+     */
+    public boolean isActivated ( ) {
+        return activated;
+    }
+
+    /**
+     * Return whether the import was successful.
+     * @return a <code>boolean</code> which is true iff all files could be processed.
+     */
+    public boolean isSuccessful ( ) {
+        return successful;
+    }
+
+    /**
+     * Return a string representation of the counters.
+     * @return a <code>String</code> containing all counters.
+     */
+    @Override
+    public String toString ( ) {
+        return "ImportStatistics(numberOfFiles=" + getNumberOfFiles() + ", numberOfRoutes=" + getNumberOfRoutes()
+                + ", numberOfStops=" + getNumberOfStops() + ", numberOfStopTimes=" + getNumberOfStopTimes()
+                + ", numberOfRowsRead=" + getNumberOfRowsRead() + ", successful=" + isSuccessful()
+                + ", phase=" + getPhase() + ")";
+    }
+
+}
@@ -42,10 +42,13 @@ public class OperatingDays {
      * @return a <code>boolean</code> which is true iff this stop time operates on the supplied date.
      */
     public boolean checkIfOperatingDay ( final LocalDateTime currentDateTime ) {
-        if ( disruptedOperatingDays != null && disruptedOperatingDays.contains(currentDateTime) ) {
+        //Only the date is relevant so that a time other than midnight does not prevent a match.
+        final LocalDate currentDate = currentDateTime.toLocalDate();
+        if ( disruptedOperatingDays != null && disruptedOperatingDays.stream().anyMatch(date -> date.toLocalDate().isEqual(currentDate)) ) {
             return false;
         }
-        return operatingDays.contains(currentDateTime.getDayOfWeek()) || specialOperatingDays.contains(currentDateTime);
+        return (operatingDays != null && operatingDays.contains(currentDateTime.getDayOfWeek()))
+                || (specialOperatingDays != null && specialOperatingDays.stream().anyMatch(date -> date.toLocalDate().isEqual(currentDate)));
     }
 
 }
@@ -0,0 +1,508 @@
+package de.davelee.trams.server.model;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class represents a compact array-based timetable of all stop times for a particular company which can be
+ * searched with the round-based public transit routing algorithm (RAPTOR). Stop times are grouped into trips and
+ * trips with the same sequence of stops are grouped into routes. All times are held as minutes after midnight in
+ * flat arrays so that a search does not have to create any objects apart from the labels for each round. The stop
+ * times themselves stay in the timetable snapshot of the company and are only created for the legs of a journey.
+ * Trips which run past midnight keep the day that they started on so their times after midnight are held as minutes
+ * of 1440 or more. A journey can therefore continue past midnight on a trip which started before midnight but trips
+ * of the previous day which are still running after midnight are not found for a journey starting after midnight.
+ * @author Dave Lee
+ */
+public class RaptorTimetable {
+
+    /**
+     * The value of a label for a stop which has not been reached yet.
+     */
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /**
+     * The number of minutes of a day.
+     */
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * The names of all stops in this timetable indexed by stop number.
+     */
+    private final String[] stopNames;
+
+    /**
+     * The stop number for each stop name.
+     */
+    private final Map<String, Integer> stopIndexes;
+
+    /**
+     * The position of the first stop of each route in the route stops array with one additional entry at the end.
+     */
+    private final int[] routeStopOffsets;
+
+    /**
+     * The stop numbers of the stops served by each route in the order that they are served.
+     */
+    private final int[] routeStops;
+
+    /**
+     * The number of the first trip of each route with one additional entry at the end.
+     */
+    private final int[] routeTripOffsets;
+
+    /**
+     * The route number that each trip belongs to.
+     */
+    private final int[] tripRoutes;
+
+    /**
+     * The position of the first stop time of each trip in the time arrays.
+     */
+    private final int[] tripTimeOffsets;
+
+    /**
+     * The calendar of each trip which determines on which days the trip runs.
+     */
+    private final ServiceCalendar[] tripCalendars;
+
+    /**
+     * The arrival minute of each stop time of each trip counted from midnight of the day that the trip started on.
+     */
+    private final int[] arrivalMinutes;
+
+    /**
+     * The departure minute of each stop time of each trip counted from midnight of the day that the trip started on.
+     */
+    private final int[] departureMinutes;
+
+    /**
+     * The snapshot containing the stop times of the trips.
+     */
+    private final TimetableSnapshot snapshot;
+
+    /**
+     * The position of the stop time in the snapshot for each entry in the time arrays.
+     */
+    private final int[] tripStopTimes;
+
+    /**
+     * The position of the first entry of each stop in the stop routes arrays with one additional entry at the end.
+     */
+    private final int[] stopRouteOffsets;
+
+    /**
+     * The routes serving each stop.
+     */
+    private final int[] stopRoutes;
+
+    /**
+     * The position of the stop within the route for each entry in the stop routes array.
+     */
+    private final int[] stopRoutePositions;
+
+    /**
+     * Create a new timetable for the supplied stop times which should all belong to the same company. Stop times
+     * belong to the same trip if they have the same trip id, route number, journey number, destination, service and
+     * operating days.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects to build the timetable from.
+     */
+    public RaptorTimetable ( final List<StopTime> stopTimes ) {
+        this(new TimetableSnapshot(stopTimes));
+    }
+
+    /**
+     * Create a new timetable for the stop times of the supplied snapshot. Stop times belong to the same trip if they
+     * have the same trip id, route number, journey number, destination, service and operating days.
+     * @param snapshot a <code>TimetableSnapshot</code> object containing the stop times of a company.
+     */
+    public RaptorTimetable ( final TimetableSnapshot snapshot ) {
+        this.snapshot = snapshot;
+        //Group the stop times into trips and sort each trip by time.
+        Map<TripKey, List<Integer>> trips = new LinkedHashMap<>();
+        for ( int position = 0; position < snapshot.size(); position++ ) {
+            if ( snapshot.getDepartureMinute(position) != -1 ) {
+                trips.computeIfAbsent(getTripKey(snapshot, position), key -> new ArrayList<>()).add(position);
+            }
+        }
+        //Assign stop numbers and group trips with the same sequence of stops into patterns.
+        Map<String, Integer> stopNumbers = new HashMap<>();
+        Map<List<Integer>, List<List<Integer>>> patterns = new LinkedHashMap<>();
+        int[] dayOffsets = new int[snapshot.size()];
+        for ( List<Integer> trip : trips.values() ) {
+            if ( trip.size() < 2 ) {
+                continue;
+            }
+            trip.sort(Comparator.comparingInt(snapshot::getDepartureMinute));
+            continuePastMidnight(snapshot, trip, dayOffsets);
+            List<Integer> stopSequence = new ArrayList<>(trip.size());
+            for ( int position : trip ) {
+                stopSequence.add(stopNumbers.computeIfAbsent(snapshot.getStopName(position), key -> stopNumbers.size()));
+            }
+            patterns.computeIfAbsent(stopSequence, key -> new ArrayList<>()).add(trip);
+        }
+        this.stopNames = new String[stopNumbers.size()];
+        stopNumbers.forEach((stopName, stopNumber) -> stopNames[stopNumber] = stopName);
+        this.stopIndexes = Map.copyOf(stopNumbers);
+        //Split the patterns into routes where no trip overtakes another trip.
+        List<List<Integer>> routeStopSequences = new ArrayList<>();
+        List<List<List<Integer>>> routeTrips = new ArrayList<>();
+        for ( Map.Entry<List<Integer>, List<List<Integer>>> pattern : patterns.entrySet() ) {
+            pattern.getValue().sort(Comparator.comparingInt(trip -> getDepartureMinute(snapshot, dayOffsets, trip.getFirst())));
+            List<List<List<Integer>>> fifoRoutes = new ArrayList<>();
+            for ( List<Integer> trip : pattern.getValue() ) {
+                List<List<Integer>> fifoRoute = fifoRoutes.stream()
+                        .filter(existingTrips -> isNotOvertaking(snapshot, dayOffsets, existingTrips.getLast(), trip))
+                        .findFirst().orElse(null);
+                if ( fifoRoute == null ) {
+                    fifoRoute = new ArrayList<>();
+                    fifoRoutes.add(fifoRoute);
+                }
+                fifoRoute.add(trip);
+            }
+            for ( List<List<Integer>> fifoRoute : fifoRoutes ) {
+                routeStopSequences.add(pattern.getKey());
+                routeTrips.add(fifoRoute);
+            }
+        }
+        //Fill the route and trip arrays.
+        int numRoutes = routeTrips.size();
+        int numTrips = routeTrips.stream().mapToInt(List::size).sum();
+        int numTimes = 0;
+        for ( int r = 0; r < numRoutes; r++ ) {
+            numTimes += routeTrips.get(r).size() * routeStopSequences.get(r).size();
+        }
+        this.routeStopOffsets = new int[numRoutes + 1];
+        this.routeStops = new int[routeStopSequences.stream().mapToInt(List::size).sum()];
+        this.routeTripOffsets = new int[numRoutes + 1];
+        this.tripRoutes = new int[numTrips];
+        this.tripTimeOffsets = new int[numTrips];
+        this.tripCalendars = new ServiceCalendar[numTrips];
+        this.arrivalMinutes = new int[numTimes];
+        this.departureMinutes = new int[numTimes];
+        this.tripStopTimes = new int[numTimes];
+        int stopPos = 0; int tripPos = 0; int timePos = 0;
+        int[] numStopRoutes = new int[stopNames.length + 1];
+        for ( int r = 0; r < numRoutes; r++ ) {
+            routeStopOffsets[r] = stopPos;
+            for ( int stopNumber : routeStopSequences.get(r) ) {
+                routeStops[stopPos++] = stopNumber;
+                numStopRoutes[stopNumber]++;
+            }
+            routeTripOffsets[r] = tripPos;
+            for ( List<Integer> trip : routeTrips.get(r) ) {
+                tripRoutes[tripPos] = r;
+                tripTimeOffsets[tripPos] = timePos;
+                tripCalendars[tripPos] = snapshot.getServiceCalendar(trip.getFirst());
+                for ( int position : trip ) {
+                    arrivalMinutes[timePos] = getArrivalMinute(snapshot, dayOffsets, position);
+                    departureMinutes[timePos] = getDepartureMinute(snapshot, dayOffsets, position);
+                    tripStopTimes[timePos++] = position;
+                }
+                tripPos++;
+            }
+        }
+        routeStopOffsets[numRoutes] = stopPos;
+        routeTripOffsets[numRoutes] = tripPos;
+        //Fill the arrays of routes serving each stop.
+        this.stopRouteOffsets = new int[stopNames.length + 1];
+        for ( int s = 0; s < stopNames.length; s++ ) {
+            stopRouteOffsets[s + 1] = stopRouteOffsets[s] + numStopRoutes[s];
+        }
+        this.stopRoutes = new int[stopRouteOffsets[stopNames.length]];
+        this.stopRoutePositions = new int[stopRoutes.length];
+        int[] nextStopRoute = Arrays.copyOf(stopRouteOffsets, stopNames.length);
+        for ( int r = 0; r < numRoutes; r++ ) {
+            for ( int p = 0; p < routeStopOffsets[r + 1] - routeStopOffsets[r]; p++ ) {
+                int stopNumber = routeStops[routeStopOffsets[r] + p];
+                stopRoutes[nextStopRoute[stopNumber]] = r;
+                stopRoutePositions[nextStopRoute[stopNumber]++] = p;
+            }
+        }
+    }
+
+    /**
+     * Find the journey which reaches the destination stop as early as possible when starting from the supplied stop at
+     * the supplied date and time. Out of all journeys with the earliest arrival the journey with the fewest trips is
+     * returned.
+     * @param fromStopName a <code>String</code> with the name of the stop where the journey starts.
+     * @param toStopName a <code>String</code> with the name of the stop where the journey should end.
+     * @param date a <code>LocalDate</code> with the date of the journey which determines which trips run.
+     * @param departureTime a <code>LocalTime</code> with the earliest time that the journey may start.
+     * @param maxRounds a <code>int</code> with the maximum number of trips that the journey may consist of.
+     * @param changeMinutes a <code>int</code> with the minimum number of minutes needed to change between trips.
+     * @return a <code>List</code> of <code>Leg</code> objects in the order that they should be travelled which is empty
+     * if no journey could be found.
+     */
+    public List<Leg> findJourney ( final String fromStopName, final String toStopName, final LocalDate date,
+                                   final LocalTime departureTime, final int maxRounds, final int changeMinutes ) {
+        Integer source = stopIndexes.get(fromStopName);
+        Integer target = stopIndexes.get(toStopName);
+        if ( source == null || target == null || source.equals(target) ) {
+            return List.of();
+        }
+        int numStops = stopNames.length; int numRoutes = routeTripOffsets.length - 1;
+        //Labels for each round - parent trips of -1 mean that the label was copied from the previous round.
+        int[][] arrivals = new int[maxRounds + 1][];
+        int[][] parentTrips = new int[maxRounds + 1][];
+        int[][] parentBoardPositions = new int[maxRounds + 1][];
+        int[][] parentAlightPositions = new int[maxRounds + 1][];
+        int[] bestArrivals = new int[numStops];
+        Arrays.fill(bestArrivals, UNREACHED);
+        arrivals[0] = new int[numStops];
+        Arrays.fill(arrivals[0], UNREACHED);
+        parentTrips[0] = new int[numStops];
+        Arrays.fill(parentTrips[0], -1);
+        arrivals[0][source] = departureTime.toSecondOfDay() / 60;
+        bestArrivals[source] = arrivals[0][source];
+        boolean[] marked = new boolean[numStops];
+        marked[source] = true;
+        int[] routeStartPositions = new int[numRoutes];
+        Arrays.fill(routeStartPositions, -1);
+        for ( int k = 1; k <= maxRounds; k++ ) {
+            arrivals[k] = arrivals[k - 1].clone();
+            parentTrips[k] = new int[numStops];
+            Arrays.fill(parentTrips[k], -1);
+            parentBoardPositions[k] = new int[numStops];
+            parentAlightPositions[k] = new int[numStops];
+            //Collect the routes serving the stops which were improved in the last round.
+            List<Integer> routeQueue = new ArrayList<>();
+            for ( int s = 0; s < numStops; s++ ) {
+                if ( !marked[s] ) {
+                    continue;
+                }
+                marked[s] = false;
+                for ( int i = stopRouteOffsets[s]; i < stopRouteOffsets[s + 1]; i++ ) {
+                    if ( routeStartPositions[stopRoutes[i]] == -1 ) {
+                        routeQueue.add(stopRoutes[i]);
+                        routeStartPositions[stopRoutes[i]] = stopRoutePositions[i];
+                    } else {
+                        routeStartPositions[stopRoutes[i]] = Math.min(routeStartPositions[stopRoutes[i]], stopRoutePositions[i]);
+                    }
+                }
+            }
+            if ( routeQueue.isEmpty() ) {
+                break;
+            }
+            //Traverse each route from the first marked stop and hop on the earliest possible trip.
+            for ( int r : routeQueue ) {
+                int trip = -1; int boardPosition = -1;
+                int numRouteStops = routeStopOffsets[r + 1] - routeStopOffsets[r];
+                for ( int p = routeStartPositions[r]; p < numRouteStops; p++ ) {
+                    int s = routeStops[routeStopOffsets[r] + p];
+                    if ( trip != -1 ) {
+                        int arrival = arrivalMinutes[tripTimeOffsets[trip] + p];
+                        if ( arrival < bestArrivals[s] && arrival < bestArrivals[target] ) {
+                            arrivals[k][s] = arrival;
+                            bestArrivals[s] = arrival;
+                            parentTrips[k][s] = trip;
+                            parentBoardPositions[k][s] = boardPosition;
+                            parentAlightPositions[k][s] = p;
+                            marked[s] = true;
+                        }
+                    }
+                    if ( arrivals[k - 1][s] != UNREACHED ) {
+                        int readyTime = arrivals[k - 1][s] + (s == source ? 0 : changeMinutes);
+                        if ( trip == -1 || readyTime < departureMinutes[tripTimeOffsets[trip] + p] ) {
+                            int earliestTrip = findEarliestTrip(r, p, readyTime, date);
+                            if ( earliestTrip != -1 && (trip == -1 || departureMinutes[tripTimeOffsets[earliestTrip] + p] < departureMinutes[tripTimeOffsets[trip] + p]) ) {
+                                trip = earliestTrip;
+                                boardPosition = p;
+                            }
+                        }
+                    }
+                }
+                routeStartPositions[r] = -1;
+            }
+        }
+        if ( bestArrivals[target] == UNREACHED ) {
+            return List.of();
+        }
+        //Find the first round which reached the destination at the earliest time and trace the legs back.
+        int round = 0;
+        while ( arrivals[round][target] != bestArrivals[target] ) {
+            round++;
+        }
+        List<Leg> legs = new ArrayList<>();
+        int stop = target;
+        while ( stop != source && round > 0 ) {
+            if ( parentTrips[round][stop] == -1 ) {
+                round--;
+                continue;
+            }
+            int trip = parentTrips[round][stop];
+            legs.addFirst(new Leg(snapshot.getStopTime(tripStopTimes[tripTimeOffsets[trip] + parentBoardPositions[round][stop]]),
+                    snapshot.getStopTime(tripStopTimes[tripTimeOffsets[trip] + parentAlightPositions[round][stop]])));
+            stop = routeStops[routeStopOffsets[tripRoutes[trip]] + parentBoardPositions[round][stop]];
+            round--;
+        }
+        return legs;
+    }
+
+    /**
+     * Return the number of stops in this timetable.
+     * @return a <code>int</code> with the number of stops.
+     */
+    public int getNumberOfStops ( ) {
+        return stopNames.length;
+    }
+
+    /**
+     * Return the number of routes in this timetable. Trips with the same sequence of stops form a route.
+     * @return a <code>int</code> with the number of routes.
+     */
+    public int getNumberOfRoutes ( ) {
+        return routeTripOffsets.length - 1;
+    }
+
+    /**
+     * Return the number of trips in this timetable.
+     * @return a <code>int</code> with the number of trips.
+     */
+    public int getNumberOfTrips ( ) {
+        return tripRoutes.length;
+    }
+
+    /**
+     * Private helper method to find the earliest trip of a route which departs from the supplied position at or after
+     * the supplied time and runs on the supplied date.
+     * @param route a <code>int</code> with the number of the route.
+     * @param position a <code>int</code> with the position of the stop within the route.
+     * @param readyTime a <code>int</code> with the earliest minute-of-day that the trip may depart.
+     * @param date a <code>LocalDate</code> with the date that the trip must run on.
+     * @return a <code>int</code> with the number of the trip or -1 if no trip could be found.
+     */
+    private int findEarliestTrip ( final int route, final int position, final int readyTime, final LocalDate date ) {
+        int low = routeTripOffsets[route]; int high = routeTripOffsets[route + 1];
+        while ( low < high ) {
+            int middle = (low + high) >>> 1;
+            if ( departureMinutes[tripTimeOffsets[middle] + position] < readyTime ) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for ( int trip = low; trip < routeTripOffsets[route + 1]; trip++ ) {
+            if ( tripCalendars[trip].runsOn(date) && tripCalendars[trip].isValidOn(date) ) {
+                return trip;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Private helper method to check that the second trip does not arrive or depart earlier than the first trip at any
+     * stop so that both trips can belong to the same route.
+     * @param snapshot a <code>TimetableSnapshot</code> object containing the stop times of the trips.
+     * @param dayOffsets a <code>int</code> array with the minutes to add to each stop time which runs after midnight.
+     * @param firstTrip a <code>List</code> of stop time positions representing the earlier trip.
+     * @param secondTrip a <code>List</code> of stop time positions representing the later trip.
+     * @return a <code>boolean</code> which is true iff the second trip never overtakes the first trip.
+     */
+    private static boolean isNotOvertaking ( final TimetableSnapshot snapshot, final int[] dayOffsets, final List<Integer> firstTrip,
+                                             final List<Integer> secondTrip ) {
+        for ( int i = 0; i < firstTrip.size(); i++ ) {
+            if ( getArrivalMinute(snapshot, dayOffsets, secondTrip.get(i)) < getArrivalMinute(snapshot, dayOffsets, firstTrip.get(i))
+                    || getDepartureMinute(snapshot, dayOffsets, secondTrip.get(i)) < getDepartureMinute(snapshot, dayOffsets, firstTrip.get(i)) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Private helper method to restore the order of a trip which runs past midnight. The stop times of the trip are
+     * sorted by minute of the day so the stop times after midnight come first. The largest gap between two
+     * consecutive stop times, including the gap from the last back to the first stop time of the day, is where the
+     * trip does not run. If this gap is not the gap across the end of the day then the trip starts after the gap and
+     * the stop times before the gap run on the next day. This holds for all trips which take less than 12 hours.
+     * @param snapshot a <code>TimetableSnapshot</code> object containing the stop times of the trip.
+     * @param trip a <code>List</code> of stop time positions sorted by departure minute which is reordered if necessary.
+     * @param dayOffsets a <code>int</code> array where the minutes of a day are set for each stop time after midnight.
+     */
+    private static void continuePastMidnight ( final TimetableSnapshot snapshot, final List<Integer> trip, final int[] dayOffsets ) {
+        int largestGap = snapshot.getDepartureMinute(trip.getFirst()) + MINUTES_PER_DAY - snapshot.getDepartureMinute(trip.getLast());
+        int firstStopTime = 0;
+        for ( int i = 1; i < trip.size(); i++ ) {
+            int gap = snapshot.getDepartureMinute(trip.get(i)) - snapshot.getDepartureMinute(trip.get(i - 1));
+            if ( gap > largestGap ) {
+                largestGap = gap;
+                firstStopTime = i;
+            }
+        }
+        for ( int i = 0; i < firstStopTime; i++ ) {
+            dayOffsets[trip.get(i)] = MINUTES_PER_DAY;
+        }
+        Collections.rotate(trip, -firstStopTime);
+    }
+
+    /**
+     * Private helper method to return the departure minute of a stop time counted from midnight of the day that its
+     * trip started on.
+     * @param snapshot a <code>TimetableSnapshot</code> object containing the stop time.
+     * @param dayOffsets a <code>int</code> array with the minutes to add to each stop time which runs after midnight.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the departure minute which may be 1440 or more.
+     */
+    private static int getDepartureMinute ( final TimetableSnapshot snapshot, final int[] dayOffsets, final int position ) {
+        return snapshot.getDepartureMinute(position) + dayOffsets[position];
+    }
+
+    /**
+     * Private helper method to return the arrival minute of a stop time counted from midnight of the day that its trip
+     * started on. A stop time which departs after midnight may still have arrived before midnight.
+     * @param snapshot a <code>TimetableSnapshot</code> object containing the stop time.
+     * @param dayOffsets a <code>int</code> array with the minutes to add to each stop time which runs after midnight.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the arrival minute which may be 1440 or more.
+     */
+    private static int getArrivalMinute ( final TimetableSnapshot snapshot, final int[] dayOffsets, final int position ) {
+        int arrivalMinute = snapshot.getArrivalMinute(position) + dayOffsets[position];
+        return arrivalMinute > getDepartureMinute(snapshot, dayOffsets, position) ? arrivalMinute - MINUTES_PER_DAY : arrivalMinute;
+    }
+
+    /**
+     * Private helper method to return the key identifying the trip that a stop time belongs to.
+     * @param snapshot a <code>TimetableSnapshot</code> object containing the stop time.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>TripKey</code> object identifying the trip.
+     */
+    private static TripKey getTripKey ( final TimetableSnapshot snapshot, final int position ) {
+        ServiceTrip serviceTrip = snapshot.getService(position);
+        return new TripKey(snapshot.getTripIdId(position), snapshot.getRouteNumberId(position), snapshot.getJourneyNumberId(position), snapshot.getDestinationId(position),
+                serviceTrip != null ? serviceTrip.getServiceId() : null,
+                serviceTrip != null && serviceTrip.getRouteSchedule() != null ? serviceTrip.getRouteSchedule().getScheduleId() : null,
+                snapshot.getServiceCalendar(position));
+    }
+
+    /**
+     * A single trip of a journey from the boarding stop to the alighting stop.
+     * @param boardingStopTime the stop time where the trip is boarded.
+     * @param alightingStopTime the stop time where the trip is left.
+     */
+    public record Leg ( StopTime boardingStopTime, StopTime alightingStopTime ) { }
+
+    /**
+     * The attributes which identify the trip that a stop time belongs to. Texts are interned by the snapshot so they
+     * can be compared by id and calendars are compared by value. Imported stop times have no trip id and are identified
+     * by their journey number which is unique within the imported file.
+     * @param tripId the id of the trip id of the stop time.
+     * @param routeNumber the id of the route number of the stop time.
+     * @param journeyNumber the id of the journey number of the stop time.
+     * @param destination the id of the destination of the stop time.
+     * @param serviceId the id of the service of the stop time.
+     * @param scheduleId the id of the schedule of the stop time.
+     * @param serviceCalendar the compiled operating days of the stop time.
+     */
+    private record TripKey ( int tripId, int routeNumber, int journeyNumber, int destination, String serviceId,
+                             String scheduleId, ServiceCalendar serviceCalendar ) { }
+
+}
@@ -7,10 +7,29 @@ package de.davelee.trams.server.model;
  */
 public class RealTimeEntryModel {
 	
+	private String departureId;
 	private Route route;
 	private String destination;
+	private String departureTime;
+	private int delay;
 	private int mins;
 
+	/**
+	 * Return the id of the departure for this real time entry which stays the same while the departure is displayed.
+	 * @return a <code>String</code> containing the id of the departure.
+	 */
+	public String getDepartureId() {
+		return departureId;
+	}
+
+	/**
+	 * Set the id of the departure for this real time entry which stays the same while the departure is displayed.
+	 * @param departureId a <code>String</code> containing the id of the departure.
+	 */
+	public void setDepartureId(final String departureId) {
+		this.departureId = departureId;
+	}
+
 	/**
 	 * Return the route object containing the route information for this real time entry.
 	 * @return a <code>Route</code> containing the route information.
@@ -44,7 +63,41 @@ public class RealTimeEntryModel {
 	}
 
 	/**
-	 * Return the number of minutes until departure for this real time entry.
+	 * Return the scheduled departure time for this real time entry in the format HH:mm.
+	 * @return a <code>String</code> containing the scheduled departure time.
+	 */
+	public String getDepartureTime() {
+		return departureTime;
+	}
+
+	/**
+	 * Set the scheduled departure time for this real time entry in the format HH:mm.
+	 * @param departureTime a <code>String</code> containing the scheduled departure time.
+	 */
+	public void setDepartureTime(final String departureTime) {
+		this.departureTime = departureTime;
+	}
+
+	/**
+	 * Return the delay in minutes of the vehicle running the departure for this real time entry.
+	 * @return a <code>int</code> containing the delay in minutes.
+	 */
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Set the delay in minutes of the vehicle running the departure for this real time entry.
+	 * @param delay a <code>int</code> containing the delay in minutes.
+	 */
+	public void setDelay(final int delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * Return the number of minutes until the expected departure including the delay for this real time entry at the
+	 * time when the entry was calculated. Subscribers of a departure board should calculate the minutes from the
+	 * departure time and the delay instead since entries are only sent again when they change.
 	 * @return a <code>int</code> containing the number of minutes.
 	 */
 	public int getMins() {
@@ -52,7 +105,7 @@ public class RealTimeEntryModel {
 	}
 
 	/**
-	 * Set the number of minutes until departure for this real time entry.
+	 * Set the number of minutes until the expected departure including the delay for this real time entry.
 	 * @param mins a <code>int</code> containing the number of minutes.
 	 */
 	public void setMins(final int mins) {
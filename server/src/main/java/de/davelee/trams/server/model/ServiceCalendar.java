@@ -0,0 +1,311 @@
+package de.davelee.trams.server.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class represents the compiled form of the operating days of a stop time. It consists of a 7-bit weekday mask
+ * and a day-indexed bitset which covers the validity window and all special and disrupted operating days, so that
+ * checking whether a service runs on a particular date is a single bit test. Calendars are immutable and are usually
+ * shared between all stop times which have the same operating days and validity window. Since the cache of calendars
+ * is bounded, calendars are compared by value so that equal calendars compiled at different times can be grouped.
+ * @author Dave Lee
+ */
+public final class ServiceCalendar {
+
+    /**
+     * The maximum number of distinct calendars which are cached before the cache is cleared.
+     */
+    private static final int MAX_CACHED_CALENDARS = 10000;
+
+    /**
+     * The calendars which have already been compiled indexed by their operating days and validity window.
+     */
+    private static final Map<CalendarKey, ServiceCalendar> CALENDARS = new ConcurrentHashMap<>();
+
+    /**
+     * A calendar which does not run on any day which is used if no operating days are available.
+     */
+    private static final ServiceCalendar NEVER = new ServiceCalendar(0, null, null, 0, new BitSet(), 0);
+
+    /**
+     * The days of the week on which the service runs with Monday as bit 0 and Sunday as bit 6.
+     */
+    private final int weekdayMask;
+
+    /**
+     * The date from which the service is valid (inclusive) which may be null if there is no restriction.
+     */
+    private final LocalDate validFromDate;
+
+    /**
+     * The date until which the service is valid (inclusive) which may be null if there is no restriction.
+     */
+    private final LocalDate validToDate;
+
+    /**
+     * The epoch day of the first day which is covered by the bitset.
+     */
+    private final long firstEpochDay;
+
+    /**
+     * The days on which the service runs starting from the first epoch day.
+     */
+    private final BitSet serviceDays;
+
+    /**
+     * The number of days which are covered by the bitset.
+     */
+    private final int numDays;
+
+    /**
+     * The hash code of this calendar which is calculated once since calendars are immutable.
+     */
+    private final int hashCode;
+
+    /**
+     * Private constructor to create a calendar - calendars should be retrieved using the compile method.
+     * @param weekdayMask a <code>int</code> with the days of the week on which the service runs.
+     * @param validFromDate a <code>LocalDate</code> from which the service is valid.
+     * @param validToDate a <code>LocalDate</code> until which the service is valid.
+     * @param firstEpochDay a <code>long</code> with the epoch day of the first day covered by the bitset.
+     * @param serviceDays a <code>BitSet</code> with the days on which the service runs.
+     * @param numDays a <code>int</code> with the number of days covered by the bitset.
+     */
+    private ServiceCalendar ( final int weekdayMask, final LocalDate validFromDate, final LocalDate validToDate,
+                              final long firstEpochDay, final BitSet serviceDays, final int numDays ) {
+        this.weekdayMask = weekdayMask;
+        this.validFromDate = validFromDate;
+        this.validToDate = validToDate;
+        this.firstEpochDay = firstEpochDay;
+        this.serviceDays = serviceDays;
+        this.numDays = numDays;
+        this.hashCode = Objects.hash(weekdayMask, validFromDate, validToDate, firstEpochDay, serviceDays, numDays);
+    }
+
+    /**
+     * Return the compiled calendar for the supplied operating days and validity window. Each distinct combination is
+     * only compiled once and the same calendar object is returned for all further calls.
+     * @param operatingDays a <code>OperatingDays</code> object containing the operating days which may be null.
+     * @param validFromDate a <code>LocalDateTime</code> from which the service is valid which may be null.
+     * @param validToDate a <code>LocalDateTime</code> until which the service is valid which may be null.
+     * @return a <code>ServiceCalendar</code> object which can be shared between stop times.
+     */
+    public static ServiceCalendar compile ( final OperatingDays operatingDays, final LocalDateTime validFromDate,
+                                            final LocalDateTime validToDate ) {
+        if ( operatingDays == null ) {
+            return NEVER;
+        }
+        CalendarKey calendarKey = new CalendarKey(copyOf(operatingDays.getOperatingDays()),
+                toDates(operatingDays.getSpecialOperatingDays()), toDates(operatingDays.getDisruptedOperatingDays()),
+                validFromDate != null ? validFromDate.toLocalDate() : null, validToDate != null ? validToDate.toLocalDate() : null);
+        ServiceCalendar serviceCalendar = CALENDARS.get(calendarKey);
+        if ( serviceCalendar == null ) {
+            if ( CALENDARS.size() >= MAX_CACHED_CALENDARS ) {
+                CALENDARS.clear();
+            }
+            serviceCalendar = CALENDARS.computeIfAbsent(calendarKey, ServiceCalendar::build);
+        }
+        return serviceCalendar;
+    }
+
+    /**
+     * Check if the service runs on the supplied date. This means that either the service runs on this day of the week or
+     * on this specific date and that the service is not disrupted on this date. The validity window is not checked.
+     * @param date a <code>LocalDate</code> containing the date to check.
+     * @return a <code>boolean</code> which is true iff the service runs on the supplied date.
+     */
+    public boolean runsOn ( final LocalDate date ) {
+        long offset = date.toEpochDay() - firstEpochDay;
+        if ( offset >= 0 && offset < numDays ) {
+            return serviceDays.get((int) offset);
+        }
+        return runsOnDayOfWeek(date.getDayOfWeek());
+    }
+
+    /**
+     * Check if the supplied date lies within the validity window of this calendar (both dates inclusive).
+     * @param date a <code>LocalDate</code> containing the date to check.
+     * @return a <code>boolean</code> which is true iff the date lies within the validity window.
+     */
+    public boolean isValidOn ( final LocalDate date ) {
+        return (validFromDate == null || !date.isBefore(validFromDate)) && (validToDate == null || !date.isAfter(validToDate));
+    }
+
+    /**
+     * Return the days between the supplied dates (both inclusive) on which the service runs. Bit 0 of the returned
+     * bitset represents the from date.
+     * @param fromDate a <code>LocalDate</code> with the first date of the range.
+     * @param toDate a <code>LocalDate</code> with the last date of the range.
+     * @return a <code>BitSet</code> with one bit per day in the range which is set iff the service runs on that day.
+     */
+    public BitSet getServiceDays ( final LocalDate fromDate, final LocalDate toDate ) {
+        BitSet result = new BitSet();
+        int rangeLength = (int) (toDate.toEpochDay() - fromDate.toEpochDay() + 1);
+        for ( int i = 0; i < rangeLength; i++ ) {
+            if ( runsOn(fromDate.plusDays(i)) ) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the days between the supplied dates (both inclusive) which lie within the validity window. Bit 0 of the
+     * returned bitset represents the from date so that the result can be intersected with the service days.
+     * @param fromDate a <code>LocalDate</code> with the first date of the range.
+     * @param toDate a <code>LocalDate</code> with the last date of the range.
+     * @return a <code>BitSet</code> with one bit per day in the range which is set iff the day is within the validity window.
+     */
+    public BitSet getValidDays ( final LocalDate fromDate, final LocalDate toDate ) {
+        BitSet result = new BitSet();
+        long firstValidDay = validFromDate != null ? Math.max(fromDate.toEpochDay(), validFromDate.toEpochDay()) : fromDate.toEpochDay();
+        long lastValidDay = validToDate != null ? Math.min(toDate.toEpochDay(), validToDate.toEpochDay()) : toDate.toEpochDay();
+        if ( firstValidDay <= lastValidDay ) {
+            result.set((int) (firstValidDay - fromDate.toEpochDay()), (int) (lastValidDay - fromDate.toEpochDay() + 1));
+        }
+        return result;
+    }
+
+    /**
+     * Check if the service runs on the supplied day of the week according to the weekday mask.
+     * @param dayOfWeek a <code>DayOfWeek</code> to check.
+     * @return a <code>boolean</code> which is true iff the day of the week is contained in the mask.
+     */
+    public boolean runsOnDayOfWeek ( final DayOfWeek dayOfWeek ) {
+        return (weekdayMask & (1 << (dayOfWeek.getValue() - 1))) != 0;
+    }
+
+    /**
+     * Return the date from which the service is valid.
+     * @return a <code>LocalDate</code> which may be null if there is no restriction.
+     */
+    public LocalDate getValidFromDate ( ) {
+        return validFromDate;
+    }
+
+    /**
+     * Return the date until which the service is valid.
+     * @return a <code>LocalDate</code> which may be null if there is no restriction.
+     */
+    public LocalDate getValidToDate ( ) {
+        return validToDate;
+    }
+
+    /**
+     * Check if the supplied object is a calendar with the same weekdays, validity window and service days.
+     * @param object a <code>Object</code> to compare with this calendar.
+     * @return a <code>boolean</code> which is true iff the supplied object is an equal calendar.
+     */
+    @Override
+    public boolean equals ( final Object object ) {
+        if ( this == object ) {
+            return true;
+        }
+        if ( !(object instanceof ServiceCalendar serviceCalendar) || hashCode != serviceCalendar.hashCode ) {
+            return false;
+        }
+        return weekdayMask == serviceCalendar.weekdayMask && firstEpochDay == serviceCalendar.firstEpochDay
+                && numDays == serviceCalendar.numDays && Objects.equals(validFromDate, serviceCalendar.validFromDate)
+                && Objects.equals(validToDate, serviceCalendar.validToDate) && serviceDays.equals(serviceCalendar.serviceDays);
+    }
+
+    /**
+     * Return the hash code of this calendar which is consistent with equals.
+     * @return a <code>int</code> with the hash code.
+     */
+    @Override
+    public int hashCode ( ) {
+        return hashCode;
+    }
+
+    /**
+     * Private helper method to compile a calendar from the supplied key.
+     * @param calendarKey a <code>CalendarKey</code> containing the normalised operating days and validity window.
+     * @return a <code>ServiceCalendar</code> object which has been compiled.
+     */
+    private static ServiceCalendar build ( final CalendarKey calendarKey ) {
+        int weekdayMask = 0;
+        for ( DayOfWeek dayOfWeek : calendarKey.daysOfWeek() ) {
+            weekdayMask |= 1 << (dayOfWeek.getValue() - 1);
+        }
+        //Determine the range of days which the bitset has to cover.
+        LocalDate firstDay = null; LocalDate lastDay = null;
+        for ( LocalDate date : concat(calendarKey) ) {
+            firstDay = (firstDay == null || date.isBefore(firstDay)) ? date : firstDay;
+            lastDay = (lastDay == null || date.isAfter(lastDay)) ? date : lastDay;
+        }
+        if ( firstDay == null ) {
+            return new ServiceCalendar(weekdayMask, null, null, 0, new BitSet(), 0);
+        }
+        int numDays = (int) (lastDay.toEpochDay() - firstDay.toEpochDay() + 1);
+        BitSet serviceDays = new BitSet(numDays);
+        for ( int i = 0; i < numDays; i++ ) {
+            if ( (weekdayMask & (1 << (firstDay.plusDays(i).getDayOfWeek().getValue() - 1))) != 0 ) {
+                serviceDays.set(i);
+            }
+        }
+        for ( LocalDate specialDay : calendarKey.specialDays() ) {
+            serviceDays.set((int) (specialDay.toEpochDay() - firstDay.toEpochDay()));
+        }
+        for ( LocalDate disruptedDay : calendarKey.disruptedDays() ) {
+            serviceDays.clear((int) (disruptedDay.toEpochDay() - firstDay.toEpochDay()));
+        }
+        return new ServiceCalendar(weekdayMask, calendarKey.validFromDate(), calendarKey.validToDate(),
+                firstDay.toEpochDay(), serviceDays, numDays);
+    }
+
+    /**
+     * Private helper method to return all dates which must be covered by the bitset of the supplied key.
+     * @param calendarKey a <code>CalendarKey</code> containing the normalised operating days and validity window.
+     * @return a <code>List</code> of <code>LocalDate</code> objects.
+     */
+    private static List<LocalDate> concat ( final CalendarKey calendarKey ) {
+        List<LocalDate> dates = new ArrayList<>(calendarKey.specialDays());
+        dates.addAll(calendarKey.disruptedDays());
+        if ( calendarKey.validFromDate() != null ) {
+            dates.add(calendarKey.validFromDate());
+        }
+        if ( calendarKey.validToDate() != null ) {
+            dates.add(calendarKey.validToDate());
+        }
+        return dates;
+    }
+
+    /**
+     * Private helper method to copy a list which may be null.
+     * @param daysOfWeek a <code>List</code> of <code>DayOfWeek</code> objects which may be null.
+     * @return a <code>List</code> of <code>DayOfWeek</code> objects which is never null.
+     */
+    private static List<DayOfWeek> copyOf ( final List<DayOfWeek> daysOfWeek ) {
+        return daysOfWeek != null ? daysOfWeek.stream().filter(Objects::nonNull).distinct().sorted().toList() : List.of();
+    }
+
+    /**
+     * Private helper method to convert a list of date times which may be null into a list of dates.
+     * @param dateTimes a <code>List</code> of <code>LocalDateTime</code> objects which may be null.
+     * @return a <code>List</code> of <code>LocalDate</code> objects which is never null.
+     */
+    private static List<LocalDate> toDates ( final List<LocalDateTime> dateTimes ) {
+        return dateTimes != null ? dateTimes.stream().filter(Objects::nonNull).map(LocalDateTime::toLocalDate).distinct().sorted().toList() : List.of();
+    }
+
+    /**
+     * The normalised operating days and validity window which identify a distinct calendar.
+     * @param daysOfWeek the days of the week on which the service runs.
+     * @param specialDays the additional dates on which the service runs.
+     * @param disruptedDays the dates on which the service does not run.
+     * @param validFromDate the date from which the service is valid.
+     * @param validToDate the date until which the service is valid.
+     */
+    private record CalendarKey ( List<DayOfWeek> daysOfWeek, List<LocalDate> specialDays, List<LocalDate> disruptedDays,
+                                 LocalDate validFromDate, LocalDate validToDate ) { }
+
+}
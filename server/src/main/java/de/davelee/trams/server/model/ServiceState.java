@@ -0,0 +1,69 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * This class represents the current state of a service which has been changed during the game e.g. because it is out
+ * of service or shortened to reduce delays. The state is stored separately from the stop times and identified by the
+ * company, the route schedule and the service id. Services without a state run normally.
+ * @author Dave Lee
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+@Setter
+@ToString
+@Document
+public class ServiceState {
+
+    /**
+     * The id of the service state which is built from the company, the schedule id and the service id.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The company running the service.
+     */
+    private String company;
+
+    /**
+     * The id of the route and schedule running the service e.g. 3/1
+     */
+    private String scheduleId;
+
+    /**
+     * The id of the service.
+     */
+    private String serviceId;
+
+    /**
+     * True if and only if this service is out of service and not running.
+     */
+    private boolean outOfService;
+
+    /**
+     * Allow a service to start later to reduce delays etc.
+     */
+    private int tempStartStopPos;
+
+    /**
+     * Allow a service to end before to reduce delays etc.
+     */
+    private int tempEndStopPos;
+
+    /**
+     * Build the id of a service state from the supplied information.
+     * @param company a <code>String</code> containing the company running the service.
+     * @param scheduleId a <code>String</code> containing the id of the route and schedule running the service.
+     * @param serviceId a <code>String</code> containing the id of the service.
+     * @return a <code>String</code> containing the id of the service state.
+     */
+    public static String buildId ( final String company, final String scheduleId, final String serviceId ) {
+        return company + "/" + scheduleId + "/" + serviceId;
+    }
+
+}
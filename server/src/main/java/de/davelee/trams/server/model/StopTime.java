@@ -2,6 +2,7 @@ package de.davelee.trams.server.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.math.BigInteger;
@@ -60,10 +61,15 @@ public class StopTime {
     private String routeNumber;
 
     /**
-     * The service for this journey,
+     * The service for this journey which is stored as a trip and only loaded with the stop time.
      */
     private ServiceTrip service;
 
+    /**
+     * The id of the trip which stores the service for this journey.
+     */
+    private String tripId;
+
     /**
      * The date from which this stop occurs (inclusive).
      */
@@ -89,6 +95,85 @@ public class StopTime {
      */
     private String footnote;
 
+    /**
+     * The name of the timetable which this stop time was compiled from which is null if the stop time was not compiled.
+     */
+    private String timetableName;
+
+    /**
+     * The id of the compilation of the timetable which created this stop time.
+     */
+    private String compilationId;
+
+    /**
+     * The hash of the content of the compiled trip which this stop time belongs to.
+     */
+    private String tripHash;
+
+    /**
+     * The generation of the import which wrote this stop time which is null if the stop time was not imported.
+     */
+    private String generation;
+
+    /**
+     * The number of the checkpoint of the import which covers this stop time which is null if the stop time was not imported.
+     */
+    private Long checkpoint;
+
+    /**
+     * Whether this stop time was written by an import. Imported stop times are replaced by the next import of their company.
+     */
+    private boolean imported;
+
+    /**
+     * The compiled calendar of the operating days and validity window which is not persisted but built on first use.
+     */
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private ServiceCalendar serviceCalendar;
+
+    /**
+     * Set the date from which this stop occurs and discard the compiled calendar.
+     * @param validFromDate a <code>LocalDateTime</code> containing the date from which this stop occurs (inclusive).
+     */
+    public void setValidFromDate ( final LocalDateTime validFromDate ) {
+        this.validFromDate = validFromDate;
+        this.serviceCalendar = null;
+    }
+
+    /**
+     * Set the date until which this stop occurs and discard the compiled calendar.
+     * @param validToDate a <code>LocalDateTime</code> containing the date until which this stop occurs (inclusive).
+     */
+    public void setValidToDate ( final LocalDateTime validToDate ) {
+        this.validToDate = validToDate;
+        this.serviceCalendar = null;
+    }
+
+    /**
+     * Set the operating days on which this stop takes place and discard the compiled calendar.
+     * @param operatingDays a <code>OperatingDays</code> object containing the operating days.
+     */
+    public void setOperatingDays ( final OperatingDays operatingDays ) {
+        this.operatingDays = operatingDays;
+        this.serviceCalendar = null;
+    }
+
+    /**
+     * Return the compiled calendar for the operating days and validity window of this stop time. The calendar is
+     * compiled on first use and shared with all other stop times which have the same operating days. If the operating
+     * days object is modified directly then the operating days must be set again so that the calendar is recompiled.
+     * @return a <code>ServiceCalendar</code> object which can be used to check on which days this stop takes place.
+     */
+    public ServiceCalendar getServiceCalendar ( ) {
+        if ( serviceCalendar == null ) {
+            serviceCalendar = ServiceCalendar.compile(operatingDays, validFromDate, validToDate);
+        }
+        return serviceCalendar;
+    }
+
     /**
      * Return the stop time based on the desired type which can either be Departure to return departure time or Arrival to return arrival time.
      * @param type a <code>String</code> with the type of stop times which can be either Departure or Arrival.
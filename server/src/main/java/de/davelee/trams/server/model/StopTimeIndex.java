@@ -0,0 +1,77 @@
+package de.davelee.trams.server.model;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * This class represents an in-memory index of all stop times for a particular company and stop. The index is a view
+ * of the timetable snapshot of the company which holds the stop times of each stop sorted by departure and by arrival
+ * minute-of-day so that the next stop times after a particular time can be found with a binary search followed by a
+ * bounded scan.
+ * @author Dave Lee
+ */
+public class StopTimeIndex {
+
+    /**
+     * The snapshot containing the stop times of the company.
+     */
+    private final TimetableSnapshot snapshot;
+
+    /**
+     * The number of the stop within the snapshot which is -1 if the stop has no stop times.
+     */
+    private final int stopNumber;
+
+    /**
+     * Create a new index for the supplied stop of a timetable snapshot.
+     * @param snapshot a <code>TimetableSnapshot</code> object containing the stop times of the company.
+     * @param stopNumber a <code>int</code> with the number of the stop which is -1 if the stop has no stop times.
+     */
+    StopTimeIndex ( final TimetableSnapshot snapshot, final int stopNumber ) {
+        this.snapshot = snapshot;
+        this.stopNumber = stopNumber;
+    }
+
+    /**
+     * Return all stop times in this index in the order that they were loaded from the database.
+     * @return a <code>List</code> of <code>StopTime</code> objects.
+     */
+    public List<StopTime> getStopTimes ( ) {
+        return snapshot.getStopTimes(stopNumber);
+    }
+
+    /**
+     * Return all stop times which have a time of the desired type sorted by that time.
+     * @param type a <code>String</code> with the type of stop times which can be either Departure or Arrival.
+     * @return a <code>List</code> of <code>StopTime</code> objects.
+     */
+    public List<StopTime> getSortedStopTimes ( final String type ) {
+        return snapshot.getSortedStopTimes(stopNumber, type);
+    }
+
+    /**
+     * Return the stop times of the desired type which lie between the supplied from and to times (both inclusive) in
+     * time order. Only those stop times which match the supplied filter are returned and the scan stops as soon as
+     * the limit has been reached.
+     * @param type a <code>String</code> with the type of stop times which can be either Departure or Arrival.
+     * @param fromTime a <code>LocalTime</code> object with the earliest time that should be returned.
+     * @param toTime a <code>LocalTime</code> object with the latest time that should be returned.
+     * @param filter a <code>Predicate</code> which stop times must fulfil to be returned.
+     * @param limit a <code>int</code> with the maximum number of stop times to return.
+     * @return a <code>List</code> of <code>StopTime</code> objects sorted by time.
+     */
+    public List<StopTime> getTimesBetween ( final String type, final LocalTime fromTime, final LocalTime toTime,
+                                            final Predicate<StopTime> filter, final int limit ) {
+        return snapshot.getTimesBetween(stopNumber, type, fromTime, toTime, filter, limit);
+    }
+
+    /**
+     * Return the number of stop times held in this index.
+     * @return a <code>int</code> with the number of stop times.
+     */
+    public int size ( ) {
+        return snapshot.countStopTimes(stopNumber);
+    }
+
+}
@@ -0,0 +1,48 @@
+package de.davelee.trams.server.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * This class represents the result of compiling a timetable into stop times. A compilation has an id which is stored
+ * in all stop times which it created, the number of stop times which were created and deleted and the number of
+ * trips which were inserted, deleted or kept because they had not changed.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@ToString
+public class TimetableCompilation {
+
+    /**
+     * The id of this compilation.
+     */
+    private String compilationId;
+
+    /**
+     * The number of stop times which were created by this compilation.
+     */
+    private long numberOfStopTimes;
+
+    /**
+     * The number of stop times of previous compilations which were deleted.
+     */
+    private long numberOfReplacedStopTimes;
+
+    /**
+     * The number of trips which were new or changed and were saved.
+     */
+    private int numberOfInsertedTrips;
+
+    /**
+     * The number of trips which were no longer part of the timetable and were deleted.
+     */
+    private int numberOfDeletedTrips;
+
+    /**
+     * The number of trips which had not changed and were kept.
+     */
+    private int numberOfUnchangedTrips;
+
+}
@@ -0,0 +1,737 @@
+package de.davelee.trams.server.model;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * This class represents a read-optimised snapshot of all stop times of a particular company which is held in memory.
+ * The stop times are stored column by column in primitive arrays: texts are interned into int ids, times are stored as
+ * minutes after midnight and calendars and services are shared by all stop times which use them. The company is
+ * stored once since all stop times belong to it. The snapshot can be built from a stream of stop times so that the
+ * loaded stop times do not have to be held in memory at the same time. Stop time objects are only created for the
+ * stop times which are returned by a query. Each stop time takes 36 bytes in the columns and up to 16 bytes in the
+ * order arrays by stop, departure, arrival and route which are sorted with counting sorts over primitive arrays.
+ * @author Dave Lee
+ */
+public class TimetableSnapshot {
+
+    /**
+     * The value of a time column if the stop time has no time of this type.
+     */
+    private static final short NO_TIME = -1;
+
+    /**
+     * The value of a text or service column if the stop time has no value.
+     */
+    private static final int NO_VALUE = -1;
+
+    /**
+     * The number of stop times which the columns can hold before they have to grow for the first time.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The time for each minute of the day so that times are not created for every returned stop time.
+     */
+    private static final LocalTime[] TIMES = IntStream.range(0, 24 * 60)
+            .mapToObj(minute -> LocalTime.of(minute / 60, minute % 60))
+            .toArray(LocalTime[]::new);
+
+    /**
+     * The name of the company which all stop times of this snapshot belong to.
+     */
+    private final String company;
+
+    /**
+     * The names of all stops in this snapshot indexed by stop number.
+     */
+    private final String[] stopNames;
+
+    /**
+     * The stop number for each stop name.
+     */
+    private final Map<String, Integer> stopNumbers;
+
+    /**
+     * All other texts of the stop times indexed by their id.
+     */
+    private final String[] values;
+
+    /**
+     * The id for each text.
+     */
+    private final Map<String, Integer> valueIds;
+
+    /**
+     * The distinct calendars of the stop times.
+     */
+    private final Calendar[] calendars;
+
+    /**
+     * The distinct services of the stop times.
+     */
+    private final ServiceTrip[] services;
+
+    /**
+     * The stop number of each stop time.
+     */
+    private final int[] stops;
+
+    /**
+     * The id of the route number of each stop time.
+     */
+    private final int[] routeNumbers;
+
+    /**
+     * The id of the destination of each stop time.
+     */
+    private final int[] destinations;
+
+    /**
+     * The id of the journey number of each stop time.
+     */
+    private final int[] journeyNumbers;
+
+    /**
+     * The id of the footnote of each stop time.
+     */
+    private final int[] footnotes;
+
+    /**
+     * The id of the trip id of each stop time.
+     */
+    private final int[] tripIds;
+
+    /**
+     * The arrival minute-of-day of each stop time.
+     */
+    private final short[] arrivalMinutes;
+
+    /**
+     * The departure minute-of-day of each stop time.
+     */
+    private final short[] departureMinutes;
+
+    /**
+     * The number of the calendar of each stop time.
+     */
+    private final int[] calendarNumbers;
+
+    /**
+     * The number of the service of each stop time.
+     */
+    private final int[] serviceNumbers;
+
+    /**
+     * The position of the first entry of each stop in the stop order arrays with one additional entry at the end.
+     */
+    private final int[] stopOffsets;
+
+    /**
+     * The stop times grouped by stop in the order that they were loaded from the database.
+     */
+    private final int[] stopTimesByStop;
+
+    /**
+     * The position of the first entry of each stop in the departure order array with one additional entry at the end.
+     */
+    private final int[] departureOffsets;
+
+    /**
+     * The stop times with a departure time grouped by stop and sorted by departure time.
+     */
+    private final int[] stopTimesByDeparture;
+
+    /**
+     * The position of the first entry of each stop in the arrival order array with one additional entry at the end.
+     */
+    private final int[] arrivalOffsets;
+
+    /**
+     * The stop times with an arrival time grouped by stop and sorted by arrival time.
+     */
+    private final int[] stopTimesByArrival;
+
+    /**
+     * The position of the first entry of each route number id in the route order array with one additional entry at the end.
+     */
+    private final int[] routeOffsets;
+
+    /**
+     * The stop times with a route number grouped by route number and sorted by departure time.
+     */
+    private final int[] stopTimesByRoute;
+
+    /**
+     * The stop times of each tour sorted by departure time per route number id which are grouped on first use.
+     */
+    private final Map<Integer, Map<String, int[]>> tourStopTimes = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new snapshot for the supplied stop times which should all belong to the same company. Stop times without
+     * a stop name cannot be queried and are therefore not part of the snapshot.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects which have been loaded from the database.
+     */
+    public TimetableSnapshot ( final List<StopTime> stopTimes ) {
+        this(stopTimes.stream().map(StopTime::getCompany).filter(Objects::nonNull).findFirst().orElse(null), stopTimes.stream());
+    }
+
+    /**
+     * Create a new snapshot for the stop times of the supplied company which are read one by one from the supplied
+     * stream. Stop times without a stop name cannot be queried and are therefore not part of the snapshot.
+     * @param company a <code>String</code> containing the name of the company which all stop times belong to.
+     * @param stopTimes a <code>Stream</code> of <code>StopTime</code> objects which are read from the database.
+     */
+    public TimetableSnapshot ( final String company, final Stream<StopTime> stopTimes ) {
+        this.company = company;
+        //Intern the texts, calendars and services while filling the columns which grow as stop times are read.
+        Columns columns = new Columns();
+        Map<String, Integer> stopNumbers = new LinkedHashMap<>();
+        Map<String, Integer> valueIds = new HashMap<>();
+        Map<CalendarKey, Integer> calendarIds = new HashMap<>();
+        List<Calendar> calendars = new ArrayList<>();
+        Map<ServiceTrip, Integer> serviceIds = new IdentityHashMap<>();
+        stopTimes.filter(stopTime -> stopTime.getStopName() != null).forEachOrdered(stopTime -> {
+            int i = columns.add();
+            columns.stops[i] = stopNumbers.computeIfAbsent(stopTime.getStopName(), key -> stopNumbers.size());
+            columns.routeNumbers[i] = intern(valueIds, stopTime.getRouteNumber());
+            columns.destinations[i] = intern(valueIds, stopTime.getDestination());
+            columns.journeyNumbers[i] = intern(valueIds, stopTime.getJourneyNumber());
+            columns.footnotes[i] = intern(valueIds, stopTime.getFootnote());
+            columns.tripIds[i] = intern(valueIds, stopTime.getTripId());
+            columns.arrivalMinutes[i] = toMinute(stopTime.getArrivalTime());
+            columns.departureMinutes[i] = toMinute(stopTime.getDepartureTime());
+            columns.calendarNumbers[i] = calendarIds.computeIfAbsent(new CalendarKey(stopTime.getServiceCalendar(), stopTime.getValidFromDate(), stopTime.getValidToDate()), key -> {
+                calendars.add(new Calendar(stopTime.getOperatingDays(), stopTime.getValidFromDate(), stopTime.getValidToDate(), stopTime.getServiceCalendar()));
+                return calendars.size() - 1;
+            });
+            columns.serviceNumbers[i] = stopTime.getService() != null ? serviceIds.computeIfAbsent(stopTime.getService(), key -> serviceIds.size()) : NO_VALUE;
+        });
+        int numStopTimes = columns.size;
+        this.stops = Arrays.copyOf(columns.stops, numStopTimes);
+        this.routeNumbers = Arrays.copyOf(columns.routeNumbers, numStopTimes);
+        this.destinations = Arrays.copyOf(columns.destinations, numStopTimes);
+        this.journeyNumbers = Arrays.copyOf(columns.journeyNumbers, numStopTimes);
+        this.footnotes = Arrays.copyOf(columns.footnotes, numStopTimes);
+        this.tripIds = Arrays.copyOf(columns.tripIds, numStopTimes);
+        this.arrivalMinutes = Arrays.copyOf(columns.arrivalMinutes, numStopTimes);
+        this.departureMinutes = Arrays.copyOf(columns.departureMinutes, numStopTimes);
+        this.calendarNumbers = Arrays.copyOf(columns.calendarNumbers, numStopTimes);
+        this.serviceNumbers = Arrays.copyOf(columns.serviceNumbers, numStopTimes);
+        this.stopNames = stopNumbers.keySet().toArray(String[]::new);
+        this.stopNumbers = Map.copyOf(stopNumbers);
+        this.values = new String[valueIds.size()];
+        valueIds.forEach((value, id) -> values[id] = value);
+        this.valueIds = Map.copyOf(valueIds);
+        this.calendars = calendars.toArray(Calendar[]::new);
+        this.services = new ServiceTrip[serviceIds.size()];
+        serviceIds.forEach((service, id) -> services[id] = service);
+        //Group the stop times by stop keeping the order of the database.
+        this.stopOffsets = new int[stopNames.length + 1];
+        for ( int stop : stops ) {
+            stopOffsets[stop + 1]++;
+        }
+        for ( int s = 0; s < stopNames.length; s++ ) {
+            stopOffsets[s + 1] += stopOffsets[s];
+        }
+        this.stopTimesByStop = new int[numStopTimes];
+        int[] nextPositions = Arrays.copyOf(stopOffsets, stopNames.length);
+        for ( int i = 0; i < numStopTimes; i++ ) {
+            stopTimesByStop[nextPositions[stops[i]]++] = i;
+        }
+        //Sort the stop times of each stop by departure and by arrival time.
+        this.departureOffsets = new int[stopNames.length + 1];
+        this.stopTimesByDeparture = sortByTime(departureMinutes, departureOffsets);
+        this.arrivalOffsets = new int[stopNames.length + 1];
+        this.stopTimesByArrival = sortByTime(arrivalMinutes, arrivalOffsets);
+        //Group the stop times by route number and sort them by departure time with stop times without times first.
+        int[] stopTimesWithRoute = IntStream.range(0, numStopTimes).filter(position -> routeNumbers[position] != NO_VALUE).toArray();
+        int[] stopTimesByMinute = sortByKey(stopTimesWithRoute, position -> getDepartureMinute(position) + 1, new int[TIMES.length + 2]);
+        this.routeOffsets = new int[values.length + 1];
+        this.stopTimesByRoute = sortByKey(stopTimesByMinute, position -> routeNumbers[position], routeOffsets);
+    }
+
+    /**
+     * Return the index of all stop times of the supplied stop.
+     * @param stopName a <code>String</code> containing the name of the stop to return the index for.
+     * @return a <code>StopTimeIndex</code> object which is empty if the stop has no stop times.
+     */
+    public StopTimeIndex getIndex ( final String stopName ) {
+        return new StopTimeIndex(this, stopNumbers.getOrDefault(stopName, NO_VALUE));
+    }
+
+    /**
+     * Return all stop times of the supplied route number sorted by departure time. Stop times with the same departure
+     * time keep the order that they were loaded from the database.
+     * @param routeNumber a <code>String</code> containing the route number to return the stop times for.
+     * @return a <code>List</code> of <code>StopTime</code> objects which is empty if the route has no stop times.
+     */
+    public List<StopTime> getStopTimesOfRoute ( final String routeNumber ) {
+        Integer routeNumberId = valueIds.get(routeNumber);
+        if ( routeNumberId == null ) {
+            return new ArrayList<>();
+        }
+        return getStopTimes(stopTimesByRoute, routeOffsets[routeNumberId], routeOffsets[routeNumberId + 1]);
+    }
+
+    /**
+     * Return the stop times of the supplied route number which are run by the supplied tour sorted by departure time.
+     * The stop times of the route are grouped by tour once for all tours of the route on the first call. Only those
+     * stop times of the tour which match the supplied filter are returned.
+     * @param routeNumber a <code>String</code> containing the route number to return the stop times for.
+     * @param tour a <code>String</code> containing the route number and schedule id of the tour.
+     * @param filter a <code>Predicate</code> which stop times must fulfil to be returned.
+     * @return a <code>List</code> of <code>StopTime</code> objects which is empty if the tour has no stop times.
+     */
+    public List<StopTime> getStopTimesOfTour ( final String routeNumber, final String tour, final Predicate<StopTime> filter ) {
+        Integer routeNumberId = valueIds.get(routeNumber);
+        List<StopTime> stopTimes = new ArrayList<>();
+        if ( routeNumberId == null ) {
+            return stopTimes;
+        }
+        for ( int position : tourStopTimes.computeIfAbsent(routeNumberId, this::groupByTour).getOrDefault(tour, new int[0]) ) {
+            StopTime stopTime = getStopTime(position);
+            if ( filter.test(stopTime) ) {
+                stopTimes.add(stopTime);
+            }
+        }
+        return stopTimes;
+    }
+
+    /**
+     * Return the name of the company which all stop times of this snapshot belong to.
+     * @return a <code>String</code> containing the name of the company which may be null if the snapshot is empty.
+     */
+    public String getCompany ( ) {
+        return company;
+    }
+
+    /**
+     * Return the number of stop times held in this snapshot.
+     * @return a <code>int</code> with the number of stop times.
+     */
+    public int size ( ) {
+        return stops.length;
+    }
+
+    /**
+     * Return the number of distinct calendars held in this snapshot.
+     * @return a <code>int</code> with the number of calendars.
+     */
+    public int getNumberOfCalendars ( ) {
+        return calendars.length;
+    }
+
+    /**
+     * Create the stop time at the supplied position of the snapshot. The texts, times, calendar and service of the stop
+     * time are shared with all other stop times created by this snapshot.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>StopTime</code> object containing the stop time.
+     */
+    public StopTime getStopTime ( final int position ) {
+        Calendar calendar = calendars[calendarNumbers[position]];
+        return StopTime.builder()
+                .stopName(stopNames[stops[position]])
+                .company(company)
+                .arrivalTime(getTime(arrivalMinutes[position]))
+                .departureTime(getTime(departureMinutes[position]))
+                .destination(getValue(destinations[position]))
+                .routeNumber(getValue(routeNumbers[position]))
+                .service(serviceNumbers[position] != NO_VALUE ? services[serviceNumbers[position]] : null)
+                .validFromDate(calendar.validFromDate())
+                .validToDate(calendar.validToDate())
+                .operatingDays(calendar.operatingDays())
+                .journeyNumber(getValue(journeyNumbers[position]))
+                .footnote(getValue(footnotes[position]))
+                .tripId(getValue(tripIds[position]))
+                .serviceCalendar(calendar.serviceCalendar())
+                .build();
+    }
+
+    /**
+     * Return the name of the stop of the stop time at the supplied position.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>String</code> containing the name of the stop.
+     */
+    String getStopName ( final int position ) {
+        return stopNames[stops[position]];
+    }
+
+    /**
+     * Return the arrival minute-of-day of the stop time at the supplied position which is the departure minute if the
+     * journey starts at this stop.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the number of minutes after midnight or -1 if the stop time has no times.
+     */
+    int getArrivalMinute ( final int position ) {
+        return arrivalMinutes[position] != NO_TIME ? arrivalMinutes[position] : departureMinutes[position];
+    }
+
+    /**
+     * Return the departure minute-of-day of the stop time at the supplied position which is the arrival minute if the
+     * journey ends at this stop.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the number of minutes after midnight or -1 if the stop time has no times.
+     */
+    int getDepartureMinute ( final int position ) {
+        return departureMinutes[position] != NO_TIME ? departureMinutes[position] : arrivalMinutes[position];
+    }
+
+    /**
+     * Return the id of the route number of the stop time at the supplied position.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the id of the route number which is -1 if the stop time has no route number.
+     */
+    int getRouteNumberId ( final int position ) {
+        return routeNumbers[position];
+    }
+
+    /**
+     * Return the id of the trip id of the stop time at the supplied position.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the id of the trip id which is -1 if the stop time has no trip id.
+     */
+    int getTripIdId ( final int position ) {
+        return tripIds[position];
+    }
+
+    /**
+     * Return the id of the journey number of the stop time at the supplied position.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the id of the journey number which is -1 if the stop time has no journey number.
+     */
+    int getJourneyNumberId ( final int position ) {
+        return journeyNumbers[position];
+    }
+
+    /**
+     * Return the id of the destination of the stop time at the supplied position.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>int</code> with the id of the destination which is -1 if the stop time has no destination.
+     */
+    int getDestinationId ( final int position ) {
+        return destinations[position];
+    }
+
+    /**
+     * Return the service of the stop time at the supplied position.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>ServiceTrip</code> object which may be null if the stop time has no service.
+     */
+    ServiceTrip getService ( final int position ) {
+        return serviceNumbers[position] != NO_VALUE ? services[serviceNumbers[position]] : null;
+    }
+
+    /**
+     * Return the compiled calendar of the stop time at the supplied position.
+     * @param position a <code>int</code> with the position of the stop time in the snapshot.
+     * @return a <code>ServiceCalendar</code> object which is shared by all stop times with the same calendar.
+     */
+    ServiceCalendar getServiceCalendar ( final int position ) {
+        return calendars[calendarNumbers[position]].serviceCalendar();
+    }
+
+    /**
+     * Return all stop times of the supplied stop in the order that they were loaded from the database.
+     * @param stop a <code>int</code> with the number of the stop which is -1 if the stop does not exist.
+     * @return a <code>List</code> of <code>StopTime</code> objects.
+     */
+    List<StopTime> getStopTimes ( final int stop ) {
+        if ( stop == NO_VALUE ) {
+            return List.of();
+        }
+        return getStopTimes(stopTimesByStop, stopOffsets[stop], stopOffsets[stop + 1]);
+    }
+
+    /**
+     * Return the number of stop times of the supplied stop.
+     * @param stop a <code>int</code> with the number of the stop which is -1 if the stop does not exist.
+     * @return a <code>int</code> with the number of stop times.
+     */
+    int countStopTimes ( final int stop ) {
+        return stop != NO_VALUE ? stopOffsets[stop + 1] - stopOffsets[stop] : 0;
+    }
+
+    /**
+     * Return all stop times of the supplied stop which have a time of the desired type sorted by that time.
+     * @param stop a <code>int</code> with the number of the stop which is -1 if the stop does not exist.
+     * @param type a <code>String</code> with the type of stop times which can be either Departure or Arrival.
+     * @return a <code>List</code> of <code>StopTime</code> objects.
+     */
+    List<StopTime> getSortedStopTimes ( final int stop, final String type ) {
+        if ( stop == NO_VALUE ) {
+            return List.of();
+        }
+        int[] offsets = getOffsets(type);
+        return getStopTimes(getSortedStopTimes(type), offsets[stop], offsets[stop + 1]);
+    }
+
+    /**
+     * Return the stop times of the supplied stop and the desired type which lie between the supplied from and to times
+     * (both inclusive) in time order. Only those stop times which match the supplied filter are returned and the scan
+     * stops as soon as the limit has been reached.
+     * @param stop a <code>int</code> with the number of the stop which is -1 if the stop does not exist.
+     * @param type a <code>String</code> with the type of stop times which can be either Departure or Arrival.
+     * @param fromTime a <code>LocalTime</code> object with the earliest time that should be returned.
+     * @param toTime a <code>LocalTime</code> object with the latest time that should be returned.
+     * @param filter a <code>Predicate</code> which stop times must fulfil to be returned.
+     * @param limit a <code>int</code> with the maximum number of stop times to return.
+     * @return a <code>List</code> of <code>StopTime</code> objects sorted by time.
+     */
+    List<StopTime> getTimesBetween ( final int stop, final String type, final LocalTime fromTime, final LocalTime toTime,
+                                     final Predicate<StopTime> filter, final int limit ) {
+        List<StopTime> results = new ArrayList<>();
+        if ( stop == NO_VALUE ) {
+            return results;
+        }
+        int[] sortedStopTimes = getSortedStopTimes(type);
+        short[] minutes = type.contentEquals("Departure") ? departureMinutes : arrivalMinutes;
+        int[] offsets = getOffsets(type);
+        //Times are stored in minutes so a starting time with seconds excludes the stop times at the start of the minute.
+        int fromMinute = fromTime.getHour() * 60 + fromTime.getMinute() + (fromTime.getSecond() > 0 || fromTime.getNano() > 0 ? 1 : 0);
+        int toMinute = toTime.getHour() * 60 + toTime.getMinute();
+        for ( int i = lowerBound(sortedStopTimes, minutes, offsets[stop], offsets[stop + 1], fromMinute);
+              i < offsets[stop + 1] && minutes[sortedStopTimes[i]] <= toMinute && results.size() < limit; i++ ) {
+            StopTime stopTime = getStopTime(sortedStopTimes[i]);
+            if ( filter.test(stopTime) ) {
+                results.add(stopTime);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Private helper method to create the stop times at the supplied positions of an order array.
+     * @param order a <code>int</code> array containing positions of stop times.
+     * @param from a <code>int</code> with the first entry of the order array to create (inclusive).
+     * @param to a <code>int</code> with the last entry of the order array to create (exclusive).
+     * @return a <code>List</code> of <code>StopTime</code> objects.
+     */
+    private List<StopTime> getStopTimes ( final int[] order, final int from, final int to ) {
+        List<StopTime> stopTimes = new ArrayList<>(to - from);
+        for ( int i = from; i < to; i++ ) {
+            stopTimes.add(getStopTime(order[i]));
+        }
+        return stopTimes;
+    }
+
+    /**
+     * Private helper method to group the stop times of the supplied route number by the tour running them. Stop times
+     * which are not run by any tour are left out.
+     * @param routeNumberId a <code>int</code> with the id of the route number.
+     * @return a <code>Map</code> with the route number and schedule id of each tour and its stop times sorted by departure time.
+     */
+    private Map<String, int[]> groupByTour ( final int routeNumberId ) {
+        //Count the stop times of each tour first so that the positions can be stored in arrays of the right size.
+        String[] tours = new String[routeOffsets[routeNumberId + 1] - routeOffsets[routeNumberId]];
+        Map<String, int[]> tourSizes = new HashMap<>();
+        for ( int i = 0; i < tours.length; i++ ) {
+            ServiceTrip service = getService(stopTimesByRoute[routeOffsets[routeNumberId] + i]);
+            if ( service != null && service.getRouteSchedule() != null ) {
+                tours[i] = service.getRouteSchedule().getRouteNumberAndScheduleId();
+                tourSizes.computeIfAbsent(tours[i], tour -> new int[1])[0]++;
+            }
+        }
+        Map<String, int[]> tourPositions = new HashMap<>();
+        tourSizes.forEach((tour, size) -> tourPositions.put(tour, new int[size[0]]));
+        for ( int i = 0; i < tours.length; i++ ) {
+            if ( tours[i] != null ) {
+                int[] size = tourSizes.get(tours[i]);
+                tourPositions.get(tours[i])[tourPositions.get(tours[i]).length - size[0]--] = stopTimesByRoute[routeOffsets[routeNumberId] + i];
+            }
+        }
+        return tourPositions;
+    }
+
+    /**
+     * Private helper method to return the sorted order array matching the supplied type.
+     * @param type a <code>String</code> with the type of stop times which can be either Departure or Arrival.
+     * @return a <code>int</code> array with the positions of the stop times sorted by stop and time.
+     */
+    private int[] getSortedStopTimes ( final String type ) {
+        return type.contentEquals("Departure") ? stopTimesByDeparture : stopTimesByArrival;
+    }
+
+    /**
+     * Private helper method to return the offsets of the sorted order array matching the supplied type.
+     * @param type a <code>String</code> with the type of stop times which can be either Departure or Arrival.
+     * @return a <code>int</code> array with the first entry of each stop in the sorted order array.
+     */
+    private int[] getOffsets ( final String type ) {
+        return type.contentEquals("Departure") ? departureOffsets : arrivalOffsets;
+    }
+
+    /**
+     * Private helper method to sort the stop times of each stop which have a time in the supplied column by that time.
+     * Stop times with the same time keep the order of the database.
+     * @param minutes a <code>short</code> array with the minute-of-day of each stop time.
+     * @param offsets a <code>int</code> array which is filled with the first entry of each stop in the returned array.
+     * @return a <code>int</code> array with the positions of the stop times sorted by stop and time.
+     */
+    private int[] sortByTime ( final short[] minutes, final int[] offsets ) {
+        //Sort by time first and then by stop which keeps the time order within each stop.
+        int[] stopTimesWithTime = IntStream.range(0, minutes.length).filter(position -> minutes[position] != NO_TIME).toArray();
+        int[] stopTimesByMinute = sortByKey(stopTimesWithTime, position -> minutes[position], new int[TIMES.length + 1]);
+        return sortByKey(stopTimesByMinute, position -> stops[position], offsets);
+    }
+
+    /**
+     * Private helper method to sort the supplied stop times by a small non-negative key with a counting sort. Stop
+     * times with the same key keep their order.
+     * @param positions a <code>int</code> array with the positions of the stop times to sort.
+     * @param keys a <code>IntUnaryOperator</code> which returns the key of the stop time at a position.
+     * @param offsets a <code>int</code> array with one entry per key and one additional entry which is filled with the
+     *                first entry of each key in the returned array.
+     * @return a <code>int</code> array with the positions of the stop times sorted by key.
+     */
+    private static int[] sortByKey ( final int[] positions, final IntUnaryOperator keys, final int[] offsets ) {
+        for ( int position : positions ) {
+            offsets[keys.applyAsInt(position) + 1]++;
+        }
+        for ( int key = 1; key < offsets.length; key++ ) {
+            offsets[key] += offsets[key - 1];
+        }
+        int[] sortedPositions = new int[positions.length];
+        int[] nextPositions = Arrays.copyOf(offsets, offsets.length - 1);
+        for ( int position : positions ) {
+            sortedPositions[nextPositions[keys.applyAsInt(position)]++] = position;
+        }
+        return sortedPositions;
+    }
+
+    /**
+     * Private helper method to find the first entry within a range of an order array whose minute is greater than or
+     * equal to the supplied minute.
+     * @param order a <code>int</code> array with the positions of stop times sorted by time within the range.
+     * @param minutes a <code>short</code> array with the minute-of-day of each stop time.
+     * @param from a <code>int</code> with the first entry of the range (inclusive).
+     * @param to a <code>int</code> with the last entry of the range (exclusive).
+     * @param minute a <code>int</code> with the minute to search for.
+     * @return a <code>int</code> with the first entry where the minute is not smaller than the supplied minute.
+     */
+    private static int lowerBound ( final int[] order, final short[] minutes, final int from, final int to, final int minute ) {
+        int low = from; int high = to;
+        while ( low < high ) {
+            int middle = (low + high) >>> 1;
+            if ( minutes[order[middle]] < minute ) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Private helper method to return the id of the supplied text and add the text if it has no id yet.
+     * @param valueIds a <code>Map</code> with the id of each text which has been added so far.
+     * @param value a <code>String</code> containing the text which may be null.
+     * @return a <code>int</code> with the id of the text which is -1 if the text is null.
+     */
+    private static int intern ( final Map<String, Integer> valueIds, final String value ) {
+        return value != null ? valueIds.computeIfAbsent(value, key -> valueIds.size()) : NO_VALUE;
+    }
+
+    /**
+     * Private helper method to return the text with the supplied id.
+     * @param id a <code>int</code> with the id of the text which is -1 for no text.
+     * @return a <code>String</code> containing the text which may be null.
+     */
+    private String getValue ( final int id ) {
+        return id != NO_VALUE ? values[id] : null;
+    }
+
+    /**
+     * Private helper method to convert a time into the minute of the day.
+     * @param time a <code>LocalTime</code> object to convert which may be null.
+     * @return a <code>short</code> with the number of minutes after midnight which is -1 if no time was supplied.
+     */
+    private static short toMinute ( final LocalTime time ) {
+        return time != null ? (short) (time.getHour() * 60 + time.getMinute()) : NO_TIME;
+    }
+
+    /**
+     * Private helper method to convert a minute of the day into a time.
+     * @param minute a <code>short</code> with the number of minutes after midnight which is -1 for no time.
+     * @return a <code>LocalTime</code> object which may be null.
+     */
+    private static LocalTime getTime ( final short minute ) {
+        return minute != NO_TIME ? TIMES[minute] : null;
+    }
+
+    /**
+     * The columns of the stop times while the snapshot is built which grow as stop times are added.
+     */
+    private static class Columns {
+
+        private int size;
+
+        private int[] stops = new int[INITIAL_CAPACITY];
+
+        private int[] routeNumbers = new int[INITIAL_CAPACITY];
+
+        private int[] destinations = new int[INITIAL_CAPACITY];
+
+        private int[] journeyNumbers = new int[INITIAL_CAPACITY];
+
+        private int[] footnotes = new int[INITIAL_CAPACITY];
+
+        private int[] tripIds = new int[INITIAL_CAPACITY];
+
+        private short[] arrivalMinutes = new short[INITIAL_CAPACITY];
+
+        private short[] departureMinutes = new short[INITIAL_CAPACITY];
+
+        private int[] calendarNumbers = new int[INITIAL_CAPACITY];
+
+        private int[] serviceNumbers = new int[INITIAL_CAPACITY];
+
+        /**
+         * Add a new stop time to the columns and grow the columns if they are full.
+         * @return a <code>int</code> with the position of the new stop time in the columns.
+         */
+        int add ( ) {
+            if ( size == stops.length ) {
+                int capacity = stops.length * 2;
+                stops = Arrays.copyOf(stops, capacity);
+                routeNumbers = Arrays.copyOf(routeNumbers, capacity);
+                destinations = Arrays.copyOf(destinations, capacity);
+                journeyNumbers = Arrays.copyOf(journeyNumbers, capacity);
+                footnotes = Arrays.copyOf(footnotes, capacity);
+                tripIds = Arrays.copyOf(tripIds, capacity);
+                arrivalMinutes = Arrays.copyOf(arrivalMinutes, capacity);
+                departureMinutes = Arrays.copyOf(departureMinutes, capacity);
+                calendarNumbers = Arrays.copyOf(calendarNumbers, capacity);
+                serviceNumbers = Arrays.copyOf(serviceNumbers, capacity);
+            }
+            return size++;
+        }
+
+    }
+
+    /**
+     * A calendar which is shared by all stop times with the same operating days and validity window.
+     * @param operatingDays the operating days of the stop times.
+     * @param validFromDate the date from which the stop times occur (inclusive).
+     * @param validToDate the date until which the stop times occur (inclusive).
+     * @param serviceCalendar the compiled calendar of the operating days and validity window.
+     */
+    private record Calendar ( OperatingDays operatingDays, LocalDateTime validFromDate, LocalDateTime validToDate,
+                              ServiceCalendar serviceCalendar ) { }
+
+    /**
+     * The attributes which identify a calendar. Compiled calendars are compared by value so stop times with the same
+     * operating days share a calendar.
+     * @param serviceCalendar the compiled calendar of the stop times.
+     * @param validFromDate the date from which the stop times occur (inclusive).
+     * @param validToDate the date until which the stop times occur (inclusive).
+     */
+    private record CalendarKey ( ServiceCalendar serviceCalendar, LocalDateTime validFromDate, LocalDateTime validToDate ) { }
+
+}
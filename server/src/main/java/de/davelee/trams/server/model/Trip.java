@@ -0,0 +1,80 @@
+package de.davelee.trams.server.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+/**
+ * This class represents a service trip as it is stored in the database. The stop times of a trip only store the id of
+ * the trip so that the stop list and the route schedule of a trip are stored once and not in every stop time.
+ * @author Dave Lee
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Getter
+@Setter
+@ToString
+@Document
+public class Trip {
+
+    /**
+     * The id of the trip which is derived from its content.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The company running the trip.
+     */
+    private String company;
+
+    /**
+     * The id of the service.
+     */
+    private String serviceId;
+
+    /**
+     * The route schedule for this trip.
+     */
+    private RouteSchedule routeSchedule;
+
+    /**
+     * The list of stops belonging to this trip.
+     */
+    private List<Stop> stopList;
+
+    /**
+     * Create a trip to be stored in the database from the supplied service.
+     * @param id a <code>String</code> containing the id of the trip.
+     * @param company a <code>String</code> containing the company running the trip.
+     * @param service a <code>ServiceTrip</code> object containing the service which runs the trip.
+     * @return a <code>Trip</code> object containing the trip to store.
+     */
+    public static Trip fromServiceTrip ( final String id, final String company, final ServiceTrip service ) {
+        return Trip.builder()
+                .id(id)
+                .company(company)
+                .serviceId(service.getServiceId())
+                .routeSchedule(service.getRouteSchedule())
+                .stopList(service.getStopList())
+                .build();
+    }
+
+    /**
+     * Convert this trip into the service which is returned as part of the stop times. The state of the service is
+     * stored separately and is therefore not set.
+     * @return a <code>ServiceTrip</code> object containing the service which runs this trip.
+     */
+    public ServiceTrip toServiceTrip ( ) {
+        return ServiceTrip.builder()
+                .serviceId(serviceId)
+                .routeSchedule(routeSchedule)
+                .stopList(stopList)
+                .tempEndStopPos(stopList != null ? stopList.size() - 1 : 0)
+                .build();
+    }
+
+}
@@ -0,0 +1,21 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.AuthToken;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.time.Instant;
+
+/**
+ * This class enables as part of Spring Data access to the authentication token objects stored in the Mongo DB.
+ * @author Dave Lee
+ */
+public interface AuthTokenRepository extends MongoRepository<AuthToken, String> {
+
+    /**
+     * Delete all tokens which expired before the supplied time directly in the database without loading them.
+     * @param time a <code>Instant</code> with the time before which tokens have expired.
+     * @return a <code>long</code> with the number of deleted tokens.
+     */
+    long deleteByExpiresAtBefore (final Instant time);
+
+}
@@ -0,0 +1,28 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.CompilationActivation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+/**
+ * This class enables as part of Spring Data access to the compilation activation objects stored in the Mongo DB.
+ * @author Dave Lee
+ */
+public interface CompilationActivationRepository extends MongoRepository<CompilationActivation, String> {
+
+    /**
+     * Find all activations of the timetables of the supplied company.
+     * @param company a <code>String</code> containing the name of the company to find activations for.
+     * @return a <code>List</code> of <code>CompilationActivation</code> objects of the company.
+     */
+    List<CompilationActivation> findByCompany ( final String company );
+
+    /**
+     * Delete all activations of the timetables of the supplied company.
+     * @param company a <code>String</code> containing the name of the company to delete activations for.
+     * @return a <code>long</code> with the number of deleted activations.
+     */
+    long deleteByCompany ( final String company );
+
+}
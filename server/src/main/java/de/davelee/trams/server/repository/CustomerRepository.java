@@ -27,4 +27,11 @@ public interface CustomerRepository extends MongoRepository<Customer, Long> {
      */
     List<Customer> findByCompany (@Param("company") final String company );
 
+    /**
+     * Delete all customers matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete customers for.
+     * @return a <code>long</code> with the number of deleted customers.
+     */
+    long deleteByCompany (final String company);
+
 }
@@ -26,4 +26,19 @@ public interface DriverRepository extends MongoRepository<Driver, String> {
      */
     List<Driver> findByCompany (final String company);
 
+    /**
+     * Delete all drivers matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete drivers for.
+     * @return a <code>long</code> with the number of deleted drivers.
+     */
+    long deleteByCompany (final String company);
+
+    /**
+     * Delete all drivers matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete drivers for.
+     * @param name a <code>String</code> containing the beginning of the name of the drivers to delete.
+     * @return a <code>long</code> with the number of deleted drivers.
+     */
+    long deleteByCompanyAndNameStartsWith (final String company, final String name);
+
 }
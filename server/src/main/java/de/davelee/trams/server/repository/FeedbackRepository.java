@@ -35,4 +35,11 @@ public interface FeedbackRepository extends MongoRepository<Feedback, Long> {
      */
     Feedback findById ( @Param("id") final ObjectId objectId);
 
+    /**
+     * Delete all feedbacks matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete feedbacks for.
+     * @return a <code>long</code> with the number of deleted feedbacks.
+     */
+    long deleteByCompany (final String company);
+
 }
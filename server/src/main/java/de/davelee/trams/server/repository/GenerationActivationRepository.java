@@ -0,0 +1,29 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.GenerationActivation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * This class enables as part of Spring Data access to the generation activation objects stored in the Mongo DB.
+ * @author Dave Lee
+ */
+public interface GenerationActivationRepository extends MongoRepository<GenerationActivation, String> {
+
+    /**
+     * Find the latest activation which lists the supplied company.
+     * @param company a <code>String</code> containing the name of the company to find the activation for.
+     * @return a <code>Optional</code> containing the latest activation of the company if the company has one.
+     */
+    Optional<GenerationActivation> findFirstByCompaniesOrderByActivatedAtDesc ( final String company );
+
+    /**
+     * Find all activations which list the supplied company.
+     * @param company a <code>String</code> containing the name of the company to find activations for.
+     * @return a <code>List</code> of <code>GenerationActivation</code> objects listing the company.
+     */
+    List<GenerationActivation> findByCompanies ( final String company );
+
+}
@@ -0,0 +1,21 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.ImportCheckpoint;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+/**
+ * This class enables as part of Spring Data access to the import checkpoint objects stored in the Mongo DB.
+ * @author Dave Lee
+ */
+public interface ImportCheckpointRepository extends MongoRepository<ImportCheckpoint, String> {
+
+    /**
+     * Find all checkpoints of imports which have written stop times for the supplied company.
+     * @param company a <code>String</code> containing the name of the company to find checkpoints for.
+     * @return a <code>List</code> of <code>ImportCheckpoint</code> objects listing the company.
+     */
+    List<ImportCheckpoint> findByCompanies ( final String company );
+
+}
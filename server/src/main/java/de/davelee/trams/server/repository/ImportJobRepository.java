@@ -0,0 +1,12 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.ImportJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * This class enables as part of Spring Data access to the import job objects stored in the Mongo DB.
+ * @author Dave Lee
+ */
+public interface ImportJobRepository extends MongoRepository<ImportJob, String> {
+
+}
@@ -85,4 +85,11 @@ public interface MessageRepository extends MongoRepository<Message, Long> {
      */
     List<Message> findByCompanyAndDateTime (@Param("company") final String company, @Param("dateTime") final LocalDateTime dateTime);
 
+    /**
+     * Delete all messages matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete messages for.
+     * @return a <code>long</code> with the number of deleted messages.
+     */
+    long deleteByCompany (final String company);
+
 }
@@ -26,4 +26,11 @@ public interface RouteRepository extends MongoRepository<Route, String> {
      */
     List<Route> findByCompanyAndRouteNumber (final String company, final String routeNumber);
 
+    /**
+     * Delete all routes matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete routes for.
+     * @return a <code>long</code> with the number of deleted routes.
+     */
+    long deleteByCompany (final String company);
+
 }
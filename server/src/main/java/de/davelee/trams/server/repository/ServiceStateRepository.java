@@ -0,0 +1,28 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.ServiceState;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+/**
+ * This class enables as part of Spring Data access to the service state objects stored in the Mongo DB.
+ * @author Dave Lee
+ */
+public interface ServiceStateRepository extends MongoRepository<ServiceState, String> {
+
+    /**
+     * Return a list of service states for this company.
+     * @param company a <code>String</code> containing the name of the company to retrieve service states for.
+     * @return a <code>List</code> of <code>ServiceState</code> objects containing the matching service states.
+     */
+    List<ServiceState> findByCompany (final String company);
+
+    /**
+     * Delete all service states matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete service states for.
+     * @return a <code>long</code> with the number of deleted service states.
+     */
+    long deleteByCompany (final String company);
+
+}
@@ -26,4 +26,11 @@ public interface StopRepository extends MongoRepository<Stop, String> {
      */
     List<Stop> findByCompanyAndName (final String company, final String name);
 
+    /**
+     * Delete all stops matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete stops for.
+     * @return a <code>long</code> with the number of deleted stops.
+     */
+    long deleteByCompany (final String company);
+
 }
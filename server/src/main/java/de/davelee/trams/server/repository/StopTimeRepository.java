@@ -4,13 +4,14 @@ import de.davelee.trams.server.model.StopTime;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
  * This class enables as part of Spring Data access to the stop time objects stored in the Mongo DB.
  * @author Dave Lee
  */
-public interface StopTimeRepository extends MongoRepository<StopTime, Long> {
+public interface StopTimeRepository extends MongoRepository<StopTime, Long>, StopTimeRepositoryCustom {
 
     /**
      * Find all departures and/or arrivals for a particular company and stop name.
@@ -29,18 +30,70 @@ public interface StopTimeRepository extends MongoRepository<StopTime, Long> {
     List<StopTime> findByCompanyAndRouteNumber(@Param("company") final String company, @Param("routeNumber") final String routeNumber );
 
     /**
-     * Count all stop times matching a particular stop, company and route number.
-     * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
-     * @param stopName a <code>String</code> containing the name of the stop to find departures and/or arrivals for.
-     * @param routeNumber a <code>String</code> containing the route number to retrieve stop times for.
-     * @return a <code>long</code> with the number of stop times for this route number.
+     * Delete all stop times matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete stop times for.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    long deleteByCompany (final String company);
+
+    /**
+     * Delete all stop times matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete stop times for.
+     * @param routeNumber a <code>String</code> containing the route number to delete stop times for.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    long deleteByCompanyAndRouteNumber (final String company, final String routeNumber);
+
+    /**
+     * Delete all imported stop times of the company which do not belong to the supplied generation.
+     * @param company a <code>String</code> containing the name of the company to delete stop times for.
+     * @param generation a <code>String</code> containing the generation to keep.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    long deleteByCompanyAndImportedIsTrueAndGenerationNot (final String company, final String generation);
+
+    /**
+     * Delete all stop times of the supplied generation.
+     * @param generation a <code>String</code> containing the generation to delete stop times for.
+     * @return a <code>long</code> with the number of deleted stop times.
      */
-    long countByCompanyAndStopNameAndRouteNumber(@Param("company") final String company, @Param("stopName") final String stopName, @Param("routeNumber") final String routeNumber );
+    long deleteByGeneration (final String generation);
 
     /**
-     * Return a list of stop times owned by this company.
-     * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
-     * @return a <code>List</code> of <code>StopTime</code> objects containing the matching stop times.
+     * Delete all stop times of the supplied generation which were written after the supplied checkpoint.
+     * @param generation a <code>String</code> containing the generation to delete stop times for.
+     * @param checkpoint a <code>long</code> with the number of the last checkpoint whose stop times should be kept.
+     * @return a <code>long</code> with the number of deleted stop times.
      */
-    List<StopTime> findByCompany (final String company);
+    long deleteByGenerationAndCheckpointGreaterThan (final String generation, final long checkpoint);
+
+    /**
+     * Delete all stop times of a timetable which belong to one of the supplied trips.
+     * @param company a <code>String</code> containing the name of the company to delete stop times for.
+     * @param routeNumber a <code>String</code> containing the route number to delete stop times for.
+     * @param timetableName a <code>String</code> containing the name of the timetable to delete stop times for.
+     * @param tripHashes a <code>Collection</code> of <code>String</code> objects containing the hashes of the trips to delete.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    long deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn (final String company, final String routeNumber, final String timetableName, final Collection<String> tripHashes);
+
+    /**
+     * Delete all stop times of a timetable which were compiled without a trip hash.
+     * @param company a <code>String</code> containing the name of the company to delete stop times for.
+     * @param routeNumber a <code>String</code> containing the route number to delete stop times for.
+     * @param timetableName a <code>String</code> containing the name of the timetable to delete stop times for.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    long deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIsNull (final String company, final String routeNumber, final String timetableName);
+
+    /**
+     * Delete all stop times of a timetable which were created by the supplied compilation.
+     * @param company a <code>String</code> containing the name of the company to delete stop times for.
+     * @param routeNumber a <code>String</code> containing the route number to delete stop times for.
+     * @param timetableName a <code>String</code> containing the name of the timetable to delete stop times for.
+     * @param compilationId a <code>String</code> containing the id of the compilation whose stop times should be deleted.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    long deleteByCompanyAndRouteNumberAndTimetableNameAndCompilationId (final String company, final String routeNumber, final String timetableName, final String compilationId);
+
 }
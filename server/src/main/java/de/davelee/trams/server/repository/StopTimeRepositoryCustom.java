@@ -0,0 +1,64 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.StopTime;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * This interface provides additional operations on the stop time objects stored in the Mongo DB which cannot be
+ * expressed as Spring Data query methods.
+ * @author Dave Lee
+ */
+public interface StopTimeRepositoryCustom {
+
+    /**
+     * Insert the supplied stop times in a single unordered bulk write so that the database can process the documents
+     * in parallel and one failing document does not stop the remaining documents from being inserted. The service of
+     * each stop time is saved once as a trip and the stop times only store the id of the trip.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects to insert.
+     * @return a <code>int</code> with the number of stop times which were inserted.
+     */
+    int insertUnordered ( final List<StopTime> stopTimes );
+
+    /**
+     * Stream all stop times of the supplied company which are visible with the supplied active generation from a
+     * database cursor so that the stop times do not have to be loaded at once. These are the stop times of the active
+     * generation and the stop times which were not imported. If the company has no active generation then all stop
+     * times without a generation are visible. The stream must be closed after use.
+     * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
+     * @param generation a <code>String</code> containing the active generation of the company which may be null.
+     * @return a <code>Stream</code> of <code>StopTime</code> objects containing the visible stop times.
+     */
+    Stream<StopTime> streamVisible ( final String company, final String generation );
+
+    /**
+     * Count the stop times of the supplied company, stop and route number which are visible with the supplied active
+     * generation in the same way as streamVisible.
+     * @param company a <code>String</code> containing the name of the company to count stop times for.
+     * @param stopName a <code>String</code> containing the name of the stop to count stop times for.
+     * @param routeNumber a <code>String</code> containing the route number to count stop times for.
+     * @param generation a <code>String</code> containing the active generation of the company which may be null.
+     * @return a <code>long</code> with the number of visible stop times.
+     */
+    long countVisible ( final String company, final String stopName, final String routeNumber, final String generation );
+
+    /**
+     * Return the distinct trip hashes of the stop times which were compiled from the supplied timetable without
+     * loading the stop times.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @return a <code>List</code> of <code>String</code> objects containing the trip hashes.
+     */
+    List<String> findTripHashes ( final String company, final String routeNumber, final String timetableName );
+
+    /**
+     * Move the services which are embedded in stop times stored before trips were normalised into trips and replace
+     * them with the id of the trip. The stop times are migrated in batches until no embedded services are left.
+     * @param batchSize a <code>int</code> with the number of stop times to migrate per bulk write.
+     * @return a <code>long</code> with the number of stop times which were migrated.
+     */
+    long migrateEmbeddedTrips ( final int batchSize );
+
+}
@@ -0,0 +1,168 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.ServiceTrip;
+import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.model.Trip;
+import de.davelee.trams.server.utils.StopTimeUtils;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * This class implements the additional operations on the stop time objects stored in the Mongo DB using the mongo
+ * template.
+ * @author Dave Lee
+ */
+public class StopTimeRepositoryCustomImpl implements StopTimeRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Insert the supplied stop times in a single unordered bulk write so that the database can process the documents
+     * in parallel and one failing document does not stop the remaining documents from being inserted. The service of
+     * each stop time is saved once as a trip and the stop times only store the id of the trip.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects to insert.
+     * @return a <code>int</code> with the number of stop times which were inserted.
+     */
+    public int insertUnordered ( final List<StopTime> stopTimes ) {
+        if ( stopTimes.isEmpty() ) {
+            return 0;
+        }
+        //The stop times of a trip share the same service so the id of each service is only calculated once.
+        Map<ServiceTrip, String> tripIds = new IdentityHashMap<>();
+        Map<String, Trip> trips = new LinkedHashMap<>();
+        List<Document> documents = new ArrayList<>(stopTimes.size());
+        for ( StopTime stopTime : stopTimes ) {
+            if ( stopTime.getService() != null ) {
+                String tripId = tripIds.computeIfAbsent(stopTime.getService(), service -> StopTimeUtils.calculateTripId(stopTime.getCompany(), service));
+                trips.putIfAbsent(tripId, Trip.fromServiceTrip(tripId, stopTime.getCompany(), stopTime.getService()));
+                stopTime.setTripId(tripId);
+            }
+            //Convert the stop time without its service which is stored in the trip.
+            Document document = new Document();
+            mongoTemplate.getConverter().write(stopTime, document);
+            document.remove("service");
+            documents.add(document);
+        }
+        saveTrips(trips.values());
+        return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, StopTime.class)
+                .insert(documents)
+                .execute()
+                .getInsertedCount();
+    }
+
+    /**
+     * Stream all stop times of the supplied company which are visible with the supplied active generation from a
+     * database cursor so that the stop times do not have to be loaded at once. These are the stop times of the active
+     * generation and the stop times which were not imported. If the company has no active generation then all stop
+     * times without a generation are visible. The stream must be closed after use.
+     * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
+     * @param generation a <code>String</code> containing the active generation of the company which may be null.
+     * @return a <code>Stream</code> of <code>StopTime</code> objects containing the visible stop times.
+     */
+    public Stream<StopTime> streamVisible ( final String company, final String generation ) {
+        return mongoTemplate.stream(Query.query(getVisibleCriteria(company, generation)), StopTime.class);
+    }
+
+    /**
+     * Count the stop times of the supplied company, stop and route number which are visible with the supplied active
+     * generation in the same way as streamVisible.
+     * @param company a <code>String</code> containing the name of the company to count stop times for.
+     * @param stopName a <code>String</code> containing the name of the stop to count stop times for.
+     * @param routeNumber a <code>String</code> containing the route number to count stop times for.
+     * @param generation a <code>String</code> containing the active generation of the company which may be null.
+     * @return a <code>long</code> with the number of visible stop times.
+     */
+    public long countVisible ( final String company, final String stopName, final String routeNumber, final String generation ) {
+        return mongoTemplate.count(Query.query(getVisibleCriteria(company, generation)
+                .and("stopName").is(stopName).and("routeNumber").is(routeNumber)), StopTime.class);
+    }
+
+    /**
+     * This is a private helper method to build the criteria matching the visible stop times of a company. Once the
+     * company has an active generation only the imported stop times of this generation are visible so that switching
+     * the active generation replaces all imported stop times at once. Stop times which were not imported stay visible.
+     * @param company a <code>String</code> containing the name of the company.
+     * @param generation a <code>String</code> containing the active generation of the company which may be null.
+     * @return a <code>Criteria</code> object matching the visible stop times.
+     */
+    private Criteria getVisibleCriteria ( final String company, final String generation ) {
+        Criteria criteria = Criteria.where("company").is(company);
+        if ( generation == null ) {
+            return criteria.and("generation").is(null);
+        }
+        return criteria.orOperator(Criteria.where("generation").is(generation),
+                Criteria.where("imported").ne(true));
+    }
+
+    /**
+     * Return the distinct trip hashes of the stop times which were compiled from the supplied timetable without
+     * loading the stop times.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @return a <code>List</code> of <code>String</code> objects containing the trip hashes.
+     */
+    public List<String> findTripHashes ( final String company, final String routeNumber, final String timetableName ) {
+        Query query = Query.query(Criteria.where("company").is(company)
+                .and("routeNumber").is(routeNumber)
+                .and("timetableName").is(timetableName));
+        return mongoTemplate.findDistinct(query, "tripHash", StopTime.class, String.class);
+    }
+
+    /**
+     * Move the services which are embedded in stop times stored before trips were normalised into trips and replace
+     * them with the id of the trip. The stop times are migrated in batches until no embedded services are left.
+     * @param batchSize a <code>int</code> with the number of stop times to migrate per bulk write.
+     * @return a <code>long</code> with the number of stop times which were migrated.
+     */
+    public long migrateEmbeddedTrips ( final int batchSize ) {
+        Query query = Query.query(Criteria.where("service").ne(null).and("tripId").exists(false)).limit(batchSize);
+        long numberOfStopTimes = 0;
+        List<StopTime> stopTimes;
+        while ( !(stopTimes = mongoTemplate.find(query, StopTime.class)).isEmpty() ) {
+            Map<String, Trip> trips = new LinkedHashMap<>();
+            BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, StopTime.class);
+            for ( StopTime stopTime : stopTimes ) {
+                String tripId = StopTimeUtils.calculateTripId(stopTime.getCompany(), stopTime.getService());
+                trips.putIfAbsent(tripId, Trip.fromServiceTrip(tripId, stopTime.getCompany(), stopTime.getService()));
+                bulkOperations.updateOne(Query.query(Criteria.where("_id").is(stopTime.getId())), new Update().set("tripId", tripId).unset("service"));
+            }
+            //Save the trips first so that every stop time always has a service.
+            saveTrips(trips.values());
+            int numberOfMigratedStopTimes = bulkOperations.execute().getModifiedCount();
+            //Stop if no stop time could be migrated since the same stop times would be found again.
+            if ( numberOfMigratedStopTimes == 0 ) {
+                break;
+            }
+            numberOfStopTimes += numberOfMigratedStopTimes;
+        }
+        return numberOfStopTimes;
+    }
+
+    /**
+     * This is a private helper method to save the supplied trips in a single unordered bulk write. Trips which already
+     * exist are replaced since the id of a trip is derived from its content.
+     * @param trips a <code>Collection</code> of <code>Trip</code> objects to save.
+     */
+    private void saveTrips ( final Collection<Trip> trips ) {
+        if ( trips.isEmpty() ) {
+            return;
+        }
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Trip.class);
+        for ( Trip trip : trips ) {
+            bulkOperations.replaceOne(Query.query(Criteria.where("_id").is(trip.getId())), trip, FindAndReplaceOptions.options().upsert());
+        }
+        bulkOperations.execute();
+    }
+
+}
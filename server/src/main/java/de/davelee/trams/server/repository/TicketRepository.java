@@ -27,4 +27,11 @@ public interface TicketRepository extends MongoRepository<Ticket, Long> {
      */
     List<Ticket> findByCompanyAndType (@Param("company") final String company, @Param("type") final String type);
 
+    /**
+     * Delete all tickets matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete tickets for.
+     * @return a <code>long</code> with the number of deleted tickets.
+     */
+    long deleteByCompany (final String company);
+
 }
@@ -36,4 +36,28 @@ public interface TimetableRepository extends MongoRepository<Timetable, String>
      */
     List<Timetable> findByCompany (final String company);
 
+    /**
+     * Delete all timetables matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete timetables for.
+     * @return a <code>long</code> with the number of deleted timetables.
+     */
+    long deleteByCompany (final String company);
+
+    /**
+     * Delete all timetables matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete timetables for.
+     * @param routeNumber a <code>String</code> containing the route number to delete timetables for.
+     * @return a <code>long</code> with the number of deleted timetables.
+     */
+    long deleteByCompanyAndRouteNumber (final String company, final String routeNumber);
+
+    /**
+     * Delete all timetables matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete timetables for.
+     * @param routeNumber a <code>String</code> containing the route number to delete timetables for.
+     * @param name a <code>String</code> containing the name of the timetables to delete.
+     * @return a <code>long</code> with the number of deleted timetables.
+     */
+    long deleteByCompanyAndRouteNumberAndName (final String company, final String routeNumber, final String name);
+
 }
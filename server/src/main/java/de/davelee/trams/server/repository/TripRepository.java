@@ -0,0 +1,19 @@
+package de.davelee.trams.server.repository;
+
+import de.davelee.trams.server.model.Trip;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * This class enables as part of Spring Data access to the trip objects stored in the Mongo DB.
+ * @author Dave Lee
+ */
+public interface TripRepository extends MongoRepository<Trip, String> {
+
+    /**
+     * Delete all trips matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete trips for.
+     * @return a <code>long</code> with the number of deleted trips.
+     */
+    long deleteByCompany (final String company);
+
+}
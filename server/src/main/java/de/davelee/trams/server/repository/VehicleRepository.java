@@ -43,4 +43,11 @@ public interface VehicleRepository extends MongoRepository<Vehicle, String> {
      */
     List<Vehicle> findByCompanyAndAllocatedRoute ( final String company, final String allocatedRoute );
 
+    /**
+     * Delete all vehicles matching the supplied criteria directly in the database without loading them.
+     * @param company a <code>String</code> containing the name of the company to delete vehicles for.
+     * @return a <code>long</code> with the number of deleted vehicles.
+     */
+    long deleteByCompany (final String company);
+
 }
@@ -0,0 +1,64 @@
+package de.davelee.trams.server.response;
+
+import lombok.*;
+
+/**
+ * This class is part of the TraMS Server REST API. It represents a response to compiling a timetable into stop times
+ * containing the id of the compilation, the number of stop times which were created and deleted and the number of
+ * trips which were inserted, deleted or kept.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class CompileTimetableResponse {
+
+    /**
+     * The name of the company which the timetable belongs to.
+     */
+    private String company;
+
+    /**
+     * The route number of the timetable.
+     */
+    private String routeNumber;
+
+    /**
+     * The name of the timetable.
+     */
+    private String name;
+
+    /**
+     * The id of the compilation which is stored in all of its stop times.
+     */
+    private String compilationId;
+
+    /**
+     * The number of stop times which were created.
+     */
+    private Long numberOfStopTimes;
+
+    /**
+     * The number of stop times of previous compilations which were deleted.
+     */
+    private Long numberOfReplacedStopTimes;
+
+    /**
+     * The number of trips which were new or changed and were saved.
+     */
+    private Integer numberOfInsertedTrips;
+
+    /**
+     * The number of trips which were no longer part of the timetable and were deleted.
+     */
+    private Integer numberOfDeletedTrips;
+
+    /**
+     * The number of trips which had not changed and were kept.
+     */
+    private Integer numberOfUnchangedTrips;
+
+}
@@ -0,0 +1,36 @@
+package de.davelee.trams.server.response;
+
+import de.davelee.trams.server.model.RealTimeEntryModel;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * This class is part of the TraMS Server REST API. It represents the changes of a departure board which are pushed
+ * to subscribers of the board. Entries are identified by their departure id.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class DepartureBoardDeltaResponse {
+
+    /**
+     * The timestamp when the board was calculated.
+     */
+    private String timestamp;
+
+    /**
+     * The entries which are new or whose content has changed.
+     */
+    private List<RealTimeEntryModel> changedEntries;
+
+    /**
+     * The departure ids of the entries which are no longer displayed.
+     */
+    private List<String> removedDepartureIds;
+
+}
@@ -0,0 +1,27 @@
+package de.davelee.trams.server.response;
+
+import lombok.*;
+
+/**
+ * This class is part of the TraMS Server REST API. It represents a response from the server containing the number of
+ * stop times which were generated for a route and the stop times of the first generated trip as a preview. If the
+ * generation was a dry run, then the stop times were not saved.
+ * @author Dave Lee
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class GenerateStopTimesResponse {
+
+    //a count of the number of stop times which were generated.
+    private Long count;
+
+    //true iff the stop times were only generated and not saved.
+    private boolean dryRun;
+
+    //an array of the stop times of the first generated trip.
+    private StopTimeResponse[] previewStopTimeResponses;
+
+}
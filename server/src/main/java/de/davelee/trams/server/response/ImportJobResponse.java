@@ -0,0 +1,73 @@
+package de.davelee.trams.server.response;
+
+import lombok.*;
+
+/**
+ * This class is part of the TraMS Server REST API. It represents a response containing the status of an import job
+ * with its phase, the number of rows read and written, the throughput and the estimated remaining time.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ImportJobResponse {
+
+    /**
+     * The id of the import job.
+     */
+    private String id;
+
+    /**
+     * The name of the uploaded file.
+     */
+    private String fileName;
+
+    /**
+     * The format of the uploaded file.
+     */
+    private String fileFormat;
+
+    /**
+     * The phase that the import is currently in.
+     */
+    private String phase;
+
+    /**
+     * The number of rows which were read from the files.
+     */
+    private Long rowsRead;
+
+    /**
+     * The number of routes, stops and stop times which were written to the database.
+     */
+    private Long rowsWritten;
+
+    /**
+     * The number of rows read per second since the import started.
+     */
+    private Long rowsPerSecond;
+
+    /**
+     * The estimated number of seconds until the import has finished which is null if it cannot be estimated.
+     */
+    private Long estimatedSecondsRemaining;
+
+    /**
+     * The date and time when the import started in format dd-MM-yyyy HH:mm which is null while the job is queued.
+     */
+    private String startedAt;
+
+    /**
+     * The date and time when the import finished in format dd-MM-yyyy HH:mm which is null while the job is running.
+     */
+    private String finishedAt;
+
+    /**
+     * Whether the job has been cancelled.
+     */
+    private Boolean cancelRequested;
+
+}
@@ -16,6 +16,16 @@ import lombok.*;
 @ToString
 public class PositionResponse {
 
+    /**
+     * The fleet number of the vehicle running the tour (only set if the positions of several vehicles are returned).
+     */
+    private String fleetNumber;
+
+    /**
+     * The tour that the vehicle is allocated to (only set if the positions of several vehicles are returned).
+     */
+    private String allocatedTour;
+
     /**
      * The company running the tour.
      */
@@ -0,0 +1,24 @@
+package de.davelee.trams.server.response;
+
+import lombok.*;
+
+/**
+ * This class is part of the TraMS Server REST API. It represents a response from the server containing the current
+ * positions of all vehicles of a company which are allocated to a tour. As well as containing the positions in form of
+ * an array of <code>PositionResponse</code> objects, the object also contains a simple count of the positions.
+ * @author Dave Lee
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+public class PositionsResponse {
+
+    //a count of the number of positions which were calculated by the server.
+    private Long count;
+
+    //an array of all positions calculated by the server.
+    private PositionResponse[] positionResponses;
+
+}
@@ -0,0 +1,30 @@
+package de.davelee.trams.server.response;
+
+import lombok.*;
+
+import java.util.Map;
+
+/**
+ * This class is part of the TraMS Server REST API. It represents a response containing the company
+ * and the number of documents which were deleted per collection when the company was purged.
+ * @author Dave Lee
+ */
+@Builder
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class PurgeCompanyResponse {
+
+    /**
+     * The name of the company.
+     */
+    private String company;
+
+    /**
+     * The number of deleted documents per collection.
+     */
+    private Map<String, Long> deletedDocuments;
+
+}
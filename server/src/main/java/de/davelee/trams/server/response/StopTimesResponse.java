@@ -5,7 +5,8 @@ import lombok.*;
 /**
  * This class is part of the TraMS Server REST API. It represents a response from the server containing details
  * of all matched stop times according to specified criteria. As well as containing details about the stop times in form of
- * an array of <code>StopTimeResponse</code> objects, the object also contains a simple count of the stop times.
+ * an array of <code>StopTimeResponse</code> objects, the object also contains a simple count of the stop times and a
+ * continuation token if further stop times can be retrieved as the next page.
  * @author Dave Lee
  */
 @Builder
@@ -21,4 +22,7 @@ public class StopTimesResponse {
     //an array of all stop times found by the server.
     private StopTimeResponse[] stopTimeResponses;
 
+    //a continuation token to retrieve the next page of stop times which is null if there are no further stop times.
+    private String nextPageToken;
+
 }
@@ -0,0 +1,40 @@
+package de.davelee.trams.server.service;
+
+/**
+ * This interface defines the storage of the authentication tokens of logged in users. The store is selected with the
+ * token.store property: memory keeps the tokens of this server node in memory and mongo shares the tokens between all
+ * server nodes in a collection which removes expired tokens automatically. Times are supplied in milliseconds since
+ * the epoch so that checking a token does not need to create any objects.
+ * @author Dave Lee
+ */
+public interface AuthTokenStore {
+
+    /**
+     * Store the supplied token until the supplied expiry time.
+     * @param token a <code>String</code> containing the token to store.
+     * @param expiryTime a <code>long</code> with the time in milliseconds after which the token is no longer valid.
+     */
+    void store ( final String token, final long expiryTime );
+
+    /**
+     * Check if the supplied token is stored and has not expired at the supplied time.
+     * @param token a <code>String</code> containing the token to check.
+     * @param currentTime a <code>long</code> with the current time in milliseconds.
+     * @return a <code>boolean</code> which is true iff the token is valid.
+     */
+    boolean isValid ( final String token, final long currentTime );
+
+    /**
+     * Remove the supplied token so that it is no longer valid.
+     * @param token a <code>String</code> containing the token to remove.
+     */
+    void remove ( final String token );
+
+    /**
+     * Remove all tokens which have expired before the supplied time.
+     * @param currentTime a <code>long</code> with the current time in milliseconds.
+     * @return a <code>long</code> with the number of removed tokens.
+     */
+    long removeExpired ( final long currentTime );
+
+}
@@ -0,0 +1,191 @@
+package de.davelee.trams.server.service;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import de.davelee.trams.server.model.CacheInvalidation;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class provides a service which shares the invalidation of in-memory caches between all server nodes. Each
+ * invalidation is written to the database and the other server nodes receive it through a change stream and publish
+ * it as an application event which the caches listen to. Change streams require a replica set so the sharing of
+ * invalidations must be enabled with the cacheInvalidation.enabled property if more than one server node is running.
+ * Repeated invalidations of the same cache and company within a short interval are written only once.
+ * @author Dave Lee
+ */
+@Service
+public class CacheInvalidationService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Value("${cacheInvalidation.enabled}")
+    private boolean enabled;
+
+    @Value("${cacheInvalidation.timeToLiveMinutes}")
+    private long timeToLiveMinutes;
+
+    @Value("${cacheInvalidation.coalesceMillis}")
+    private long coalesceMillis;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final Set<PendingInvalidation> pendingInvalidations = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService flushExecutor;
+
+    private MessageListenerContainer messageListenerContainer;
+
+    /**
+     * Inform all other server nodes that the supplied cache has been invalidated for the supplied company. Nothing is
+     * written if the sharing of invalidations is not enabled. Invalidations are collected for the configured interval
+     * and each cache and company is written once at the end of the interval so that many writes to the same company
+     * only cause a single invalidation on the other server nodes.
+     * @param cache a <code>String</code> with the name of the cache which was invalidated.
+     * @param company a <code>String</code> containing the name of the company which is null for all companies.
+     */
+    public void publish ( final String cache, final String company ) {
+        if ( !enabled ) {
+            return;
+        }
+        if ( coalesceMillis <= 0 ) {
+            mongoTemplate.insert(createInvalidation(new PendingInvalidation(cache, company)));
+            return;
+        }
+        pendingInvalidations.add(new PendingInvalidation(cache, company));
+        if ( flushScheduled.compareAndSet(false, true) ) {
+            getFlushExecutor().schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all invalidations which have been collected since the last flush in a single write.
+     */
+    void flush ( ) {
+        //Invalidations published from now on are written by the next flush.
+        flushScheduled.set(false);
+        List<CacheInvalidation> cacheInvalidations = new ArrayList<>();
+        Iterator<PendingInvalidation> iterator = pendingInvalidations.iterator();
+        while ( iterator.hasNext() ) {
+            cacheInvalidations.add(createInvalidation(iterator.next()));
+            iterator.remove();
+        }
+        if ( !cacheInvalidations.isEmpty() ) {
+            mongoTemplate.insertAll(cacheInvalidations);
+        }
+    }
+
+    /**
+     * Start listening to the invalidations of the other server nodes once the application has started. Old
+     * invalidations are removed by the database using a time-to-live index.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void startListening ( ) {
+        if ( !enabled || messageListenerContainer != null ) {
+            return;
+        }
+        mongoTemplate.indexOps(CacheInvalidation.class).ensureIndex(new Index().on("createdAt", Sort.Direction.ASC)
+                .named("createdAt_ttl").expire(Duration.ofMinutes(timeToLiveMinutes)));
+        messageListenerContainer = new DefaultMessageListenerContainer(mongoTemplate);
+        //Only new invalidations are relevant and not their removal by the database.
+        messageListenerContainer.register(ChangeStreamRequest.builder(this::receive)
+                .collection(mongoTemplate.getCollectionName(CacheInvalidation.class))
+                .filter(Aggregation.newAggregation(Aggregation.match(Criteria.where("operationType").is("insert"))))
+                .build(), CacheInvalidation.class);
+        messageListenerContainer.start();
+    }
+
+    /**
+     * Stop listening to the invalidations of the other server nodes and write the invalidations which are still pending.
+     */
+    @PreDestroy
+    public synchronized void stopListening ( ) {
+        if ( messageListenerContainer != null ) {
+            messageListenerContainer.stop();
+            messageListenerContainer = null;
+        }
+        if ( flushExecutor != null ) {
+            flushExecutor.shutdownNow();
+            flushExecutor = null;
+            flush();
+        }
+    }
+
+    /**
+     * Publish an invalidation received from the change stream to the caches of this server node. Invalidations of this
+     * server node are ignored because the caches have already been invalidated.
+     * @param message a <code>Message</code> object containing the invalidation which was written to the database.
+     */
+    void receive ( final Message<ChangeStreamDocument<Document>, CacheInvalidation> message ) {
+        CacheInvalidation cacheInvalidation = message.getBody();
+        if ( cacheInvalidation != null && !instanceId.equals(cacheInvalidation.getInstanceId()) ) {
+            applicationEventPublisher.publishEvent(cacheInvalidation);
+        }
+    }
+
+    /**
+     * This is a private helper method to create the invalidation of this server node which is written to the database.
+     * @param pendingInvalidation a <code>PendingInvalidation</code> object containing the cache and company.
+     * @return a <code>CacheInvalidation</code> object which can be written to the database.
+     */
+    private CacheInvalidation createInvalidation ( final PendingInvalidation pendingInvalidation ) {
+        return CacheInvalidation.builder()
+                .cache(pendingInvalidation.cache())
+                .company(pendingInvalidation.company())
+                .instanceId(instanceId)
+                .createdAt(Instant.now())
+                .build();
+    }
+
+    /**
+     * This is a private helper method to start the thread which writes the collected invalidations.
+     * @return a <code>ScheduledExecutorService</code> which writes the collected invalidations.
+     */
+    private synchronized ScheduledExecutorService getFlushExecutor ( ) {
+        if ( flushExecutor == null ) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("cache-invalidation-flush").factory());
+        }
+        return flushExecutor;
+    }
+
+    /**
+     * An invalidation which has been published but not written to the database yet.
+     * @param cache the name of the cache which was invalidated.
+     * @param company the name of the company which is null for all companies.
+     */
+    private record PendingInvalidation ( String cache, String company ) { }
+
+}
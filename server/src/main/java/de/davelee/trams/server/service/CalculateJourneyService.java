@@ -2,6 +2,8 @@ package de.davelee.trams.server.service;
 
 import de.davelee.trams.server.model.Address;
 import de.davelee.trams.server.model.JourneyInstruction;
+import de.davelee.trams.server.model.RaptorTimetable;
+import de.davelee.trams.server.model.Route;
 import de.davelee.trams.server.model.Stop;
 import de.davelee.trams.server.model.StopTime;
 import de.davelee.trams.server.request.JourneyRequest;
@@ -9,6 +11,7 @@ import de.davelee.trams.server.utils.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
@@ -19,7 +22,8 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Service containing methods to calculate and plan journeys. A maximum of one change (excluding walking) currently exists.
+ * Service containing methods to calculate and plan journeys. Journeys between stops are found with the round-based
+ * public transit routing algorithm (RAPTOR) which supports any number of changes up to the configured round limit.
  * @author Dave Lee
  */
 @Service
@@ -37,6 +41,12 @@ public class CalculateJourneyService {
     @Autowired
     private StopTimeService stopTimeService;
 
+    @Value("${journeyPlanner.maxRounds}")
+    private int maxRounds;
+
+    @Value("${journeyPlanner.changeMinutes}")
+    private int changeMinutes;
+
     private final static Logger LOG = LoggerFactory.getLogger(CalculateJourneyService.class);
 
     /**
@@ -72,33 +82,31 @@ public class CalculateJourneyService {
         if ( endStop == null ) {
             endStop = stopService.getStop(journeyRequest.getOperator(), suggestStopService.suggestNearestStop(journeyRequest.getOperator(), journeyRequest.getTo()));
         }
-        //2. Determine path to destination.
-        String changeStop = determineChangeStop(startStop.getName(), endStop.getName(), journeyRequest.getOperator());
-        //If no change stop possible then return existing list of journey instructions.
-        if ( changeStop == null ) {
+        if ( endStop == null ) {
             return journeyInstructionList;
         }
-        //2. Get the next departures for the current station.
-        final LocalTime currentFinalTime = LocalTime.of(currentDateTime.getHour(), currentDateTime.getMinute());
-        List<StopTime> stopTimes = stopTimeService.getDepartures(startStop.getName(), journeyRequest.getOperator(), DateUtils.convertLocalTimeToTime(currentFinalTime), "");
-        JourneyInstruction firstRouteJourneyInstruction = travelOn(stopTimes.getFirst().getDestination(), journeyRequest.getOperator(), stopTimes.getFirst().getRouteNumber(), DateUtils.convertLocalTimeToTime(stopTimes.getFirst().getDepartureTime()), 10);
-        currentDateTime = currentDateTime.plusMinutes(Duration.between(LocalTime.of(currentDateTime.getHour(), currentDateTime.getMinute()), stopTimes.getFirst().getDepartureTime()).toMinutes() + firstRouteJourneyInstruction.getDurationInMins());
-        journeyInstructionList.add(firstRouteJourneyInstruction);
-        //Check if we need to change or if we have already reached our destination.
-        if ( isJourneyEnd(changeStop, journeyRequest.getTo()) ) {
+        //2. Determine the earliest journey to the end stop with any number of changes up to the round limit.
+        List<RaptorTimetable.Leg> legs = stopTimeService.getTimetable(journeyRequest.getOperator()).findJourney(startStop.getName(),
+                endStop.getName(), currentDateTime.toLocalDate(), currentDateTime.toLocalTime(), maxRounds, changeMinutes);
+        //If no journey possible then return existing list of journey instructions.
+        if ( legs.isEmpty() ) {
             return journeyInstructionList;
         }
-        //Calculate the journey instruction for changing.
-        JourneyInstruction changeJourneyInstruction = new JourneyInstruction("CHANGE", DateUtils.convertLocalTimeToTime(currentDateTime.toLocalTime()), 2, "", null, changeStop);
-        currentDateTime = currentDateTime.plusMinutes(changeJourneyInstruction.getDurationInMins());
-        journeyInstructionList.add(changeJourneyInstruction);
-        //3. Get the next departures for the change station.
-        final LocalTime currentFinalTime2 = LocalTime.of(currentDateTime.getHour(), currentDateTime.getMinute());
-        List<StopTime> secondStopTimes = stopTimeService.getDepartures(changeStop, journeyRequest.getOperator(), DateUtils.convertLocalTimeToTime(currentFinalTime2), "");
-        //Calculate journey duration based on waiting time and actual travel time.
-        JourneyInstruction secondRouteJourneyInstruction = travelOn(secondStopTimes.getFirst().getDestination(), journeyRequest.getOperator(), secondStopTimes.getFirst().getRouteNumber(), DateUtils.convertLocalTimeToTime(secondStopTimes.getFirst().getDepartureTime()), 19);
-        currentDateTime = currentDateTime.plusMinutes(Duration.between(LocalTime.of(currentDateTime.getHour(), currentDateTime.getMinute()), secondStopTimes.getFirst().getDepartureTime()).toMinutes() + secondRouteJourneyInstruction.getDurationInMins());
-        journeyInstructionList.add(secondRouteJourneyInstruction);
+        //3. Travel on each leg and change between legs.
+        for ( int i = 0; i < legs.size(); i++ ) {
+            if ( i > 0 ) {
+                //Calculate the journey instruction for changing including the waiting time for the next leg.
+                LocalTime changeArrivalTime = getArrivalTime(legs.get(i-1).alightingStopTime());
+                journeyInstructionList.add(new JourneyInstruction("CHANGE", DateUtils.convertLocalTimeToTime(changeArrivalTime),
+                        getMinutesBetween(changeArrivalTime, getDepartureTime(legs.get(i).boardingStopTime())),
+                        "", null, legs.get(i).boardingStopTime().getStopName()));
+            }
+            journeyInstructionList.add(travelOn(legs.get(i), journeyRequest.getOperator()));
+        }
+        LocalTime arrivalTime = getArrivalTime(legs.getLast().alightingStopTime());
+        //A journey which arrives earlier in the day than it started continues past midnight.
+        currentDateTime = LocalDateTime.of(arrivalTime.isBefore(currentDateTime.toLocalTime()) ? currentDateTime.toLocalDate().plusDays(1)
+                : currentDateTime.toLocalDate(), arrivalTime);
         //4. If the end point is not a station then we have to walk it.
         if ( !isJourneyEnd(endStop.getName(), journeyRequest.getTo()) ) {
             JourneyInstruction walkDestinationJourneyInstruction = walkFromNearestStopToDestination(journeyRequest.getOperator(), journeyRequest.getTo(), DateUtils.convertLocalTimeToTime(currentDateTime.toLocalTime()));
@@ -159,49 +167,49 @@ public class CalculateJourneyService {
     }
 
     /**
-     * Private helper method to travel on a particular route at a particular time to a particular destination.
-     * @param destination a <code>String</code> where the journey on this route will end.
+     * Private helper method to travel on a particular leg of the journey from the boarding stop to the alighting stop.
+     * The destination of the instruction is the destination of the route and the direction is empty as clients of the
+     * journey planner expect. The stop where the leg is left is the stop of the next change instruction.
+     * @param leg a <code>RaptorTimetable.Leg</code> object containing the stop times where the route is boarded and left.
      * @param operator a <code>String</code> with the operator to use.
-     * @param routeNumber a <code>String</code> with the route number to use.
-     * @param time a <code>String</code> with the time that the route will depart.
-     * @param durationInMins a <code>int</code> with the duration of the journey.
      * @return a <code>JourneyInstruction</code> which wraps information about this stage of the journey.
      */
-    private JourneyInstruction travelOn ( final String destination, final String operator, final String routeNumber, final String time, final int durationInMins ) {
-        return new JourneyInstruction("ROUTE", time, durationInMins, "",
-                routeService.getRoutesByCompanyAndRouteNumber(operator, routeNumber).getFirst(), destination);
+    private JourneyInstruction travelOn ( final RaptorTimetable.Leg leg, final String operator ) {
+        LocalTime departureTime = getDepartureTime(leg.boardingStopTime());
+        List<Route> routes = routeService.getRoutesByCompanyAndRouteNumber(operator, leg.boardingStopTime().getRouteNumber());
+        return new JourneyInstruction("ROUTE", DateUtils.convertLocalTimeToTime(departureTime),
+                getMinutesBetween(departureTime, getArrivalTime(leg.alightingStopTime())),
+                "", routes.isEmpty() ? null : routes.getFirst(), leg.boardingStopTime().getDestination());
     }
 
     /**
-     * Determine the stop where we can change to reach our final destination. In some cases this may
-     * be already the final destination if we can reach it directly.
-     * @param startStopName a <code>String</code> with our starting stop.
-     * @param endStopName a <code>String</code> with the final destination we are trying to reach.
-     * @param operator a <code>String</code> containing the operator to use.
-     * @return a <code>String</code> containing the stop name where we can change or null if no change is possible.
+     * Private helper method to return the departure time of a stop time or the arrival time if the journey ends there.
+     * @param stopTime a <code>StopTime</code> object to return the departure time for.
+     * @return a <code>LocalTime</code> object containing the departure time.
      */
-    private String determineChangeStop ( final String startStopName, final String endStopName, final String operator ) {
-        //Get all start routes.
-        List<String> startRoutes = stopTimeService.getAllRouteNumbersByStop(operator, startStopName);
-        //Get all end routes.
-        List<String> endRoutes = stopTimeService.getAllRouteNumbersByStop(operator, endStopName);
-        // If the same route number is available, then we change at last stop.
-        for ( String startRoute: startRoutes  ){
-            for ( String endRoute: endRoutes ) {
-                if ( startRoute.contentEquals(endRoute) ) {
-                    return endStopName;
-                }
-            }
-        }
-        // Otherwise, we go through the routes and check if the stops exist.
-        List<StopTime> stopTimesStartRoute = stopTimeService.getDepartures(startStopName, operator, DateUtils.convertLocalTimeToTime(LocalTime.now()), "");
-        for ( StopTime stopTimeStartRoute: stopTimesStartRoute ) {
-            if ( endRoutes.contains(stopTimeStartRoute.getRouteNumber()) ) {
-                return stopTimeStartRoute.getStopName();
-            }
-        }
-        //Otherwise return null indicating no change stop possible.
-        return null;
+    private LocalTime getDepartureTime ( final StopTime stopTime ) {
+        return stopTime.getDepartureTime() != null ? stopTime.getDepartureTime() : stopTime.getArrivalTime();
+    }
+
+    /**
+     * Private helper method to return the arrival time of a stop time or the departure time if the journey starts there.
+     * @param stopTime a <code>StopTime</code> object to return the arrival time for.
+     * @return a <code>LocalTime</code> object containing the arrival time.
+     */
+    private LocalTime getArrivalTime ( final StopTime stopTime ) {
+        return stopTime.getArrivalTime() != null ? stopTime.getArrivalTime() : stopTime.getDepartureTime();
+    }
+
+    /**
+     * Private helper method to return the number of minutes between two times where the end time is on the next day
+     * if it is earlier than the start time.
+     * @param startTime a <code>LocalTime</code> object containing the start time.
+     * @param endTime a <code>LocalTime</code> object containing the end time.
+     * @return a <code>int</code> with the number of minutes between both times.
+     */
+    private int getMinutesBetween ( final LocalTime startTime, final LocalTime endTime ) {
+        long minutes = Duration.between(startTime, endTime).toMinutes();
+        return (int) (minutes < 0 ? minutes + Duration.ofDays(1).toMinutes() : minutes);
     }
 
 }
@@ -0,0 +1,109 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.repository.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * This class provides a service for resetting a company in Trams Server by deleting all of its data. The deletions are
+ * executed directly in the database and in parallel across the collections so that no documents have to be loaded.
+ * The company itself and its users are not deleted.
+ * @author Dave Lee
+ */
+@Service
+public class CompanyPurgeService {
+
+    @Autowired
+    private StopTimeRepository stopTimeRepository;
+
+    @Autowired
+    private StopRepository stopRepository;
+
+    @Autowired
+    private RouteRepository routeRepository;
+
+    @Autowired
+    private TimetableRepository timetableRepository;
+
+    @Autowired
+    private VehicleRepository vehicleRepository;
+
+    @Autowired
+    private DriverRepository driverRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private TicketRepository ticketRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private FeedbackRepository feedbackRepository;
+
+    @Autowired
+    private ServiceStateRepository serviceStateRepository;
+
+    @Autowired
+    private TripRepository tripRepository;
+
+    @Autowired
+    private CompilationActivationRepository compilationActivationRepository;
+
+    @Autowired
+    private ImportGenerationService importGenerationService;
+
+    @Autowired
+    private StopTimeIndexService stopTimeIndexService;
+
+    @Autowired
+    private RouteService routeService;
+
+    /**
+     * Delete all data of the supplied company from all collections in parallel.
+     * @param company a <code>String</code> containing the name of the company to delete the data for.
+     * @return a <code>Map</code> with the name of each collection and the number of documents which were deleted.
+     */
+    public Map<String, Long> purgeCompany ( final String company ) {
+        //Define the deletion for each collection.
+        Map<String, Supplier<Long>> deletions = new LinkedHashMap<>();
+        deletions.put("stopTime", () -> stopTimeRepository.deleteByCompany(company));
+        deletions.put("stop", () -> stopRepository.deleteByCompany(company));
+        deletions.put("route", () -> routeRepository.deleteByCompany(company));
+        deletions.put("timetable", () -> timetableRepository.deleteByCompany(company));
+        deletions.put("vehicle", () -> vehicleRepository.deleteByCompany(company));
+        deletions.put("driver", () -> driverRepository.deleteByCompany(company));
+        deletions.put("message", () -> messageRepository.deleteByCompany(company));
+        deletions.put("ticket", () -> ticketRepository.deleteByCompany(company));
+        deletions.put("customer", () -> customerRepository.deleteByCompany(company));
+        deletions.put("feedback", () -> feedbackRepository.deleteByCompany(company));
+        deletions.put("serviceState", () -> serviceStateRepository.deleteByCompany(company));
+        deletions.put("trip", () -> tripRepository.deleteByCompany(company));
+        deletions.put("compilationActivation", () -> compilationActivationRepository.deleteByCompany(company));
+        //Imports of the company must not be resumed or stay active since their stop times are deleted.
+        deletions.put("importCheckpoint", () -> importGenerationService.deleteCheckpoints(company));
+        deletions.put("generationActivation", () -> importGenerationService.deleteActivations(company));
+        //Run all deletions at the same time - closing the executor waits until all deletions have finished.
+        Map<String, CompletableFuture<Long>> results = new LinkedHashMap<>();
+        try ( ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor() ) {
+            deletions.forEach((collection, deletion) -> results.put(collection, CompletableFuture.supplyAsync(deletion, executorService)));
+        } finally {
+            stopTimeIndexService.invalidate(company);
+            routeService.invalidateRoutes(company);
+        }
+        //Collect the number of deleted documents per collection.
+        Map<String, Long> deletedDocuments = new LinkedHashMap<>();
+        results.forEach((collection, result) -> deletedDocuments.put(collection, result.join()));
+        return deletedDocuments;
+    }
+
+}
@@ -2,7 +2,15 @@ package de.davelee.trams.server.service;
 
 import de.davelee.trams.server.model.Company;
 import de.davelee.trams.server.repository.CompanyRepository;
+import org.bson.Document;
+import org.bson.types.Decimal128;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -19,6 +27,9 @@ public class CompanyService {
     @Autowired
     private CompanyRepository companyRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     /**
      * Save the specified company object in the database.
      * @param company a <code>Company</code> object to save in the database.
@@ -66,9 +77,12 @@ public class CompanyService {
      * @return a <code>BigDecimal</code> containing the current balance of the company.
      */
     public BigDecimal adjustBalance ( final Company company, final BigDecimal value ) {
-        company.setBalance(company.getBalance().add(value));
-        if ( companyRepository.save(company) != null ) {
-            return company.getBalance();
+        //Add the value in the database so that concurrent adjustments are not lost.
+        Company updatedCompany = updateCompany(company, "balance", decimalToString(new Document("$add",
+                List.of(new Document("$toDecimal", "$balance"), new Decimal128(value)))));
+        if ( updatedCompany != null ) {
+            company.setBalance(updatedCompany.getBalance());
+            return updatedCompany.getBalance();
         }
         return BigDecimal.valueOf(Integer.MIN_VALUE);
     }
@@ -80,18 +94,15 @@ public class CompanyService {
      * @return a <code>BigDecimal</code> containing the current satisfaction rate of the company.
      */
     public BigDecimal adjustSatisfactionRate ( final Company company, final BigDecimal satisfactionRate ) {
-        company.setSatisfactionRate(company.getSatisfactionRate().add(satisfactionRate));
-        //If satisfaction rate is below 0 then set it to 0.
-        if ( company.getSatisfactionRate().compareTo(BigDecimal.ZERO) == -1 ) {
-            company.setSatisfactionRate(BigDecimal.ZERO);
-        }
-        //If satisfaction rate is above 100 then set it 100.
-        if ( company.getSatisfactionRate().compareTo(BigDecimal.valueOf(100.0)) == 1 ) {
-            company.setSatisfactionRate(BigDecimal.valueOf(100.0));
-        }
+        //Add the value in the database and keep the satisfaction rate between 0 and 100.
+        Document adjustedSatisfactionRate = new Document("$add", List.of(new Document("$toDecimal", "$satisfactionRate"),
+                new Decimal128(satisfactionRate)));
+        Company updatedCompany = updateCompany(company, "satisfactionRate", decimalToString(new Document("$min",
+                List.of(new Decimal128(BigDecimal.valueOf(100.0)), new Document("$max", List.of(new Decimal128(BigDecimal.ZERO), adjustedSatisfactionRate))))));
         //Return satisfaction rate if it could be saved successfully.
-        if ( companyRepository.save(company) != null ) {
-            return company.getSatisfactionRate();
+        if ( updatedCompany != null ) {
+            company.setSatisfactionRate(updatedCompany.getSatisfactionRate());
+            return updatedCompany.getSatisfactionRate();
         }
         return BigDecimal.valueOf(Integer.MIN_VALUE);
     }
@@ -103,11 +114,12 @@ public class CompanyService {
      * @return a <code>LocalDateTime</code> containing the current time of the company.
      */
     public LocalDateTime addTime (final Company company, final int minutes ) {
-        //Add time in minutes to the current time
-        company.setTime(company.getTime().plusMinutes(minutes));
+        //Add time in minutes to the current time in the database.
+        Company updatedCompany = updateCompany(company, "time", new Document("$add", List.of("$time", minutes * 60000L)));
         //Return time if it could be saved successfully.
-        if ( companyRepository.save(company) != null ) {
-            return company.getTime();
+        if ( updatedCompany != null ) {
+            company.setTime(updatedCompany.getTime());
+            return updatedCompany.getTime();
         }
         return null;
     }
@@ -159,4 +171,28 @@ public class CompanyService {
         companies.forEach(companyRepository::delete);
     }
 
+    /**
+     * This is a private helper method to set the supplied field of the company to the result of the supplied expression
+     * in a single atomic operation in the database.
+     * @param company a <code>Company</code> object which should be updated.
+     * @param field a <code>String</code> with the name of the field to update.
+     * @param expression a <code>Document</code> containing the aggregation expression which calculates the new value.
+     * @return a <code>Company</code> object containing the company after the update or null if the company was not found.
+     */
+    private Company updateCompany ( final Company company, final String field, final Document expression ) {
+        return mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(company.getId())),
+                AggregationUpdate.update().set(field).toValue((AggregationExpression) context -> expression),
+                FindAndModifyOptions.options().returnNew(true), Company.class);
+    }
+
+    /**
+     * This is a private helper method to convert the result of a decimal expression into a string since decimal
+     * values are stored as strings.
+     * @param expression a <code>Document</code> containing the aggregation expression which calculates the decimal value.
+     * @return a <code>Document</code> containing the expression which converts the value into a string.
+     */
+    private Document decimalToString ( final Document expression ) {
+        return new Document("$toString", expression);
+    }
+
 }
@@ -0,0 +1,452 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.RealTimeEntryModel;
+import de.davelee.trams.server.model.RealTimeModel;
+import de.davelee.trams.server.model.Route;
+import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.model.Vehicle;
+import de.davelee.trams.server.response.DepartureBoardDeltaResponse;
+import de.davelee.trams.server.utils.DateUtils;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class provides a service for departure boards which are shown on station displays. Displays can subscribe to
+ * the board of an operator and stop and receive the changes of the board as server-sent events. Each board is only
+ * calculated once per refresh for all of its subscribers and only the entries whose departure time, destination, route
+ * or delay have changed are pushed. Subscribers calculate the minutes until departure themselves from the timestamp.
+ * The routes and vehicles of each operator are loaded once per refresh for all of its boards. Events are sent on
+ * virtual threads so that a slow subscriber never delays the other subscribers or boards.
+ * @author Dave Lee
+ */
+@Service
+public class DepartureBoardService {
+
+    private final static Logger LOG = LoggerFactory.getLogger(DepartureBoardService.class);
+
+    @Autowired
+    private StopTimeService stopTimeService;
+
+    @Autowired
+    private RouteService routeService;
+
+    @Autowired
+    private VehicleService vehicleService;
+
+    @Value("${departureBoard.refreshSeconds}")
+    private int refreshSeconds;
+
+    @Value("${departureBoard.timeoutMinutes}")
+    private int timeoutMinutes;
+
+    private final Map<BoardKey, Board> boards = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService refreshExecutor;
+
+    private Executor sendExecutor;
+
+    /**
+     * Calculate all remaining departures for today for the supplied stop and operator sorted by the number of minutes
+     * until the expected departure. The routes and the delays of the vehicles of the operator are loaded once for all
+     * departures.
+     * @param stop a <code>String</code> with the name of the stop to retrieve departures for.
+     * @param operator a <code>String</code> with the name of the operator to retrieve departures for.
+     * @param dateTime a <code>LocalDateTime</code> object containing the current date and time.
+     * @return a <code>List</code> of <code>RealTimeEntryModel</code> objects containing the remaining departures.
+     */
+    public List<RealTimeEntryModel> calculateDepartures ( final String stop, final String operator, final LocalDateTime dateTime ) {
+        return calculateDepartures(stop, operator, dateTime, loadRoutes(operator), loadTourDelays(operator));
+    }
+
+    /**
+     * This is a private helper method to calculate all remaining departures for today for the supplied stop and
+     * operator with the supplied routes and delays of the operator.
+     * @param stop a <code>String</code> with the name of the stop to retrieve departures for.
+     * @param operator a <code>String</code> with the name of the operator to retrieve departures for.
+     * @param dateTime a <code>LocalDateTime</code> object containing the current date and time.
+     * @param routes a <code>Map</code> with the routes of the operator indexed by route number.
+     * @param tourDelays a <code>Map</code> with the delay in minutes of each allocated tour of the operator.
+     * @return a <code>List</code> of <code>RealTimeEntryModel</code> objects containing the remaining departures.
+     */
+    private List<RealTimeEntryModel> calculateDepartures ( final String stop, final String operator, final LocalDateTime dateTime,
+                                                           final Map<String, Route> routes, final Map<String, Integer> tourDelays ) {
+        //Get the departures from this stop which have not departed yet.
+        LocalTime currentTime = LocalTime.of(dateTime.getHour(), dateTime.getMinute());
+        List<RealTimeEntryModel> realTimeEntryModels = new ArrayList<>();
+        for ( StopTime stopTime : stopTimeService.getDeparturesByDate(stop, operator, DateUtils.convertLocalDateTimeToDate(dateTime), "") ) {
+            if ( stopTime.getDepartureTime().isAfter(currentTime) ) {
+                RealTimeEntryModel realTimeEntryModel = new RealTimeEntryModel();
+                realTimeEntryModel.setDepartureId(stopTime.getRouteNumber() + "/" + stopTime.getJourneyNumber() + "/" + stopTime.getDepartureTime());
+                realTimeEntryModel.setDepartureTime(DateUtils.convertLocalTimeToTime(stopTime.getDepartureTime()));
+                realTimeEntryModel.setDelay(getDelay(stopTime, tourDelays));
+                realTimeEntryModel.setMins((int) Duration.between(dateTime.toLocalTime(), stopTime.getDepartureTime()).getSeconds() / 60 + realTimeEntryModel.getDelay());
+                realTimeEntryModel.setRoute(routes.get(stopTime.getRouteNumber()));
+                if ( stopTime.getDestination().contentEquals(stop)) {
+                    realTimeEntryModel.setDestination("Journey Terminates Here");
+                } else {
+                    realTimeEntryModel.setDestination(stopTime.getDestination());
+                }
+                realTimeEntryModels.add(realTimeEntryModel);
+            }
+        }
+        //Sort the list now by minutes.
+        realTimeEntryModels.sort(Comparator.comparingInt(RealTimeEntryModel::getMins));
+        return realTimeEntryModels;
+    }
+
+    /**
+     * This is a private helper method to load all routes of the supplied operator indexed by route number.
+     * @param operator a <code>String</code> with the name of the operator to load routes for.
+     * @return a <code>Map</code> with the routes of the operator indexed by route number.
+     */
+    private Map<String, Route> loadRoutes ( final String operator ) {
+        Map<String, Route> routes = new HashMap<>();
+        List<Route> operatorRoutes = routeService.getRoutesByCompany(operator);
+        if ( operatorRoutes != null ) {
+            operatorRoutes.forEach(route -> routes.putIfAbsent(route.getRouteNumber(), route));
+        }
+        return routes;
+    }
+
+    /**
+     * This is a private helper method to load the delays of the vehicles of the supplied operator by the tour which
+     * they are allocated to.
+     * @param operator a <code>String</code> with the name of the operator to load delays for.
+     * @return a <code>Map</code> with the delay in minutes of each allocated tour of the operator.
+     */
+    private Map<String, Integer> loadTourDelays ( final String operator ) {
+        Map<String, Integer> tourDelays = new HashMap<>();
+        List<Vehicle> vehicles = vehicleService.retrieveVehiclesByCompany(operator);
+        if ( vehicles != null ) {
+            vehicles.stream().filter(vehicle -> vehicle.getAllocatedTour() != null)
+                    .forEach(vehicle -> tourDelays.merge(vehicle.getAllocatedTour(), vehicle.getDelayInMinutes(), Math::max));
+        }
+        return tourDelays;
+    }
+
+    /**
+     * This is a private helper method to return the delay of the vehicle running the tour of a stop time.
+     * @param stopTime a <code>StopTime</code> object to return the delay for.
+     * @param tourDelays a <code>Map</code> with the delay in minutes of each allocated tour.
+     * @return a <code>int</code> with the delay in minutes which is 0 if no vehicle runs the tour of the stop time.
+     */
+    private static int getDelay ( final StopTime stopTime, final Map<String, Integer> tourDelays ) {
+        if ( stopTime.getService() == null || stopTime.getService().getRouteSchedule() == null ) {
+            return 0;
+        }
+        return tourDelays.getOrDefault(stopTime.getService().getRouteSchedule().getRouteNumberAndScheduleId(), 0);
+    }
+
+    /**
+     * Return a model of the next departures for a particular stop and operator. As before the departure boards were
+     * streamed the minutes until departure are the scheduled minutes without the delays of the vehicles which are only
+     * taken into account by the streamed departure boards. If a route is supplied then only the departures of this
+     * route are returned as documented by the endpoint.
+     * @param stop a <code>String</code> with the name of the stop to retrieve departures for.
+     * @param numDepartures a <code>int</code> with the number of next departures to return.
+     * @param operator a <code>String</code> with the name of the operator to retrieve departures for.
+     * @param route a <code>String</code> with the name of the route to retrieve departures for (optional)
+     * @param dateTime a <code>LocalDateTime</code> object containing the current date and time.
+     * @return a <code>RealTimeModel</code> with the next departures matching the specified criteria.
+     */
+    public RealTimeModel getNextDepartures ( final String stop, final int numDepartures, final String operator, final String route, final LocalDateTime dateTime ) {
+        List<RealTimeEntryModel> departures = calculateDepartures(stop, operator, dateTime, loadRoutes(operator), Map.of());
+        return createRealTimeModel(selectEntries(departures, numDepartures, route), dateTime);
+    }
+
+    /**
+     * Subscribe to the departure board of a particular stop and operator. The complete board is sent immediately as a
+     * <code>board</code> event and afterwards only the changes are sent as <code>delta</code> events.
+     * @param stop a <code>String</code> with the name of the stop to retrieve departures for.
+     * @param numDepartures a <code>int</code> with the number of next departures to display.
+     * @param operator a <code>String</code> with the name of the operator to retrieve departures for.
+     * @param route a <code>String</code> with the name of the route to retrieve departures for (optional)
+     * @return a <code>SseEmitter</code> object which sends the events to the subscriber.
+     */
+    public SseEmitter subscribe ( final String stop, final int numDepartures, final String operator, final String route ) {
+        return subscribe(stop, numDepartures, operator, route, new SseEmitter(TimeUnit.MINUTES.toMillis(timeoutMinutes)));
+    }
+
+    /**
+     * Subscribe the supplied emitter to the departure board of a particular stop and operator.
+     * @param stop a <code>String</code> with the name of the stop to retrieve departures for.
+     * @param numDepartures a <code>int</code> with the number of next departures to display.
+     * @param operator a <code>String</code> with the name of the operator to retrieve departures for.
+     * @param route a <code>String</code> with the name of the route to retrieve departures for (optional)
+     * @param emitter a <code>SseEmitter</code> object which sends the events to the subscriber.
+     * @return a <code>SseEmitter</code> object which sends the events to the subscriber.
+     */
+    SseEmitter subscribe ( final String stop, final int numDepartures, final String operator, final String route, final SseEmitter emitter ) {
+        startRefresh();
+        BoardKey boardKey = new BoardKey(operator, stop);
+        Subscriber subscriber = new Subscriber(emitter, numDepartures, route);
+        emitter.onCompletion(() -> unsubscribe(boardKey, subscriber));
+        emitter.onTimeout(() -> unsubscribe(boardKey, subscriber));
+        emitter.onError(throwable -> unsubscribe(boardKey, subscriber));
+        //Send the complete board before the subscriber is added so that no delta can arrive before the board.
+        LocalDateTime dateTime = LocalDateTime.now();
+        Board existingBoard = boards.get(boardKey);
+        List<RealTimeEntryModel> departures = existingBoard != null ? existingBoard.departures : null;
+        if ( departures == null ) {
+            departures = calculateDepartures(stop, operator, dateTime);
+        }
+        subscriber.lastEntries = selectEntries(departures, numDepartures, route);
+        if ( send(boardKey, subscriber, "board", createRealTimeModel(subscriber.lastEntries, dateTime)) ) {
+            //The next refresh sends the changes since the board was calculated to the new subscriber.
+            List<RealTimeEntryModel> calculatedDepartures = departures;
+            boards.compute(boardKey, (key, board) -> {
+                Board subscribedBoard = board != null ? board : new Board();
+                if ( subscribedBoard.departures == null ) {
+                    subscribedBoard.departures = calculatedDepartures;
+                }
+                subscribedBoard.subscribers.add(subscriber);
+                return subscribedBoard;
+            });
+        }
+        return emitter;
+    }
+
+    /**
+     * Calculate all boards which have subscribers once and push the changes to each subscriber. The routes and the
+     * vehicles of each operator are only loaded once for all of its boards. The changes are sent on virtual threads
+     * and a subscriber which is still receiving its previous changes is skipped until the next refresh which then
+     * sends all changes since the last changes which it has received.
+     * @param dateTime a <code>LocalDateTime</code> object containing the current date and time.
+     */
+    void refreshBoards ( final LocalDateTime dateTime ) {
+        Map<String, Map<String, Route>> operatorRoutes = new HashMap<>();
+        Map<String, Map<String, Integer>> operatorTourDelays = new HashMap<>();
+        boards.forEach((boardKey, board) -> {
+            try {
+                List<RealTimeEntryModel> departures = calculateDepartures(boardKey.stop(), boardKey.operator(), dateTime,
+                        operatorRoutes.computeIfAbsent(boardKey.operator(), this::loadRoutes),
+                        operatorTourDelays.computeIfAbsent(boardKey.operator(), this::loadTourDelays));
+                board.departures = departures;
+                for ( Subscriber subscriber : board.subscribers ) {
+                    if ( !subscriber.sending.compareAndSet(false, true) ) {
+                        continue;
+                    }
+                    List<RealTimeEntryModel> entries = selectEntries(departures, subscriber.numDepartures, subscriber.route);
+                    DepartureBoardDeltaResponse delta = calculateDelta(subscriber.lastEntries, entries, DateUtils.convertLocalDateTimeToDate(dateTime));
+                    subscriber.lastEntries = entries;
+                    if ( delta.getChangedEntries().isEmpty() && delta.getRemovedDepartureIds().isEmpty() ) {
+                        subscriber.sending.set(false);
+                        continue;
+                    }
+                    try {
+                        sendExecutor.execute(() -> {
+                            try {
+                                send(boardKey, subscriber, "delta", delta);
+                            } finally {
+                                subscriber.sending.set(false);
+                            }
+                        });
+                    } catch ( RejectedExecutionException rejectedExecutionException ) {
+                        //The refresh has been stopped in the meantime.
+                        subscriber.sending.set(false);
+                    }
+                }
+            } catch ( RuntimeException runtimeException ) {
+                //Continue with the other boards and try this board again at the next refresh.
+                LOG.error("Could not refresh departure board for stop {} of operator {}", boardKey.stop(), boardKey.operator(), runtimeException);
+            }
+        });
+    }
+
+    /**
+     * Calculate the changes between the entries which were last sent to a subscriber and the current entries. An entry
+     * has only changed if its departure time, destination, route or delay has changed and not if only the minutes until
+     * departure have been counted down.
+     * @param previousEntries a <code>List</code> of <code>RealTimeEntryModel</code> objects which were last sent.
+     * @param currentEntries a <code>List</code> of <code>RealTimeEntryModel</code> objects which should be displayed now.
+     * @param timestamp a <code>String</code> containing the timestamp of the current entries.
+     * @return a <code>DepartureBoardDeltaResponse</code> object containing the changed and removed entries.
+     */
+    static DepartureBoardDeltaResponse calculateDelta ( final List<RealTimeEntryModel> previousEntries, final List<RealTimeEntryModel> currentEntries,
+                                                        final String timestamp ) {
+        Map<String, RealTimeEntryModel> remainingEntries = new LinkedHashMap<>();
+        previousEntries.forEach(entry -> remainingEntries.put(entry.getDepartureId(), entry));
+        List<RealTimeEntryModel> changedEntries = new ArrayList<>();
+        for ( RealTimeEntryModel currentEntry : currentEntries ) {
+            RealTimeEntryModel previousEntry = remainingEntries.remove(currentEntry.getDepartureId());
+            if ( previousEntry == null || previousEntry.getDelay() != currentEntry.getDelay()
+                    || !Objects.equals(previousEntry.getDepartureTime(), currentEntry.getDepartureTime())
+                    || !Objects.equals(previousEntry.getDestination(), currentEntry.getDestination())
+                    || !Objects.equals(getRouteNumber(previousEntry), getRouteNumber(currentEntry)) ) {
+                changedEntries.add(currentEntry);
+            }
+        }
+        return DepartureBoardDeltaResponse.builder()
+                .timestamp(timestamp)
+                .changedEntries(changedEntries)
+                .removedDepartureIds(new ArrayList<>(remainingEntries.keySet()))
+                .build();
+    }
+
+    /**
+     * This is a private helper method to return the route number of an entry.
+     * @param entry a <code>RealTimeEntryModel</code> object to return the route number for.
+     * @return a <code>String</code> with the route number which is null if the route is not known.
+     */
+    private static String getRouteNumber ( final RealTimeEntryModel entry ) {
+        return entry.getRoute() != null ? entry.getRoute().getRouteNumber() : null;
+    }
+
+    /**
+     * Return the number of boards which currently have subscribers.
+     * @return a <code>int</code> with the number of boards.
+     */
+    public int getNumberOfBoards ( ) {
+        return boards.size();
+    }
+
+    /**
+     * Stop refreshing the boards and close all subscriptions.
+     */
+    @PreDestroy
+    public synchronized void stopRefresh ( ) {
+        if ( refreshExecutor != null ) {
+            refreshExecutor.shutdownNow();
+            refreshExecutor = null;
+        }
+        if ( sendExecutor instanceof ExecutorService executorService ) {
+            executorService.shutdownNow();
+        }
+        sendExecutor = null;
+        boards.values().forEach(board -> board.subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+        boards.clear();
+    }
+
+    /**
+     * This is a private helper method to start refreshing the boards when the first subscriber subscribes.
+     */
+    private synchronized void startRefresh ( ) {
+        if ( sendExecutor == null ) {
+            sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        }
+        if ( refreshExecutor == null ) {
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("departure-board-refresh").factory());
+            refreshExecutor.scheduleAtFixedRate(() -> refreshBoards(LocalDateTime.now()), refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * This is a private helper method to remove a subscriber and the board if it has no subscribers any more.
+     * @param boardKey a <code>BoardKey</code> object identifying the board.
+     * @param subscriber a <code>Subscriber</code> object which should be removed.
+     */
+    private void unsubscribe ( final BoardKey boardKey, final Subscriber subscriber ) {
+        boards.computeIfPresent(boardKey, (key, board) -> {
+            board.subscribers.remove(subscriber);
+            return board.subscribers.isEmpty() ? null : board;
+        });
+    }
+
+    /**
+     * This is a private helper method to send an event to a subscriber. If the event cannot be sent, then the
+     * subscriber is removed.
+     * @param boardKey a <code>BoardKey</code> object identifying the board.
+     * @param subscriber a <code>Subscriber</code> object which should receive the event.
+     * @param name a <code>String</code> with the name of the event.
+     * @param data a <code>Object</code> containing the data of the event.
+     * @return a <code>boolean</code> which is true iff the event was sent.
+     */
+    private boolean send ( final BoardKey boardKey, final Subscriber subscriber, final String name, final Object data ) {
+        try {
+            subscriber.emitter.send(SseEmitter.event().name(name).data(data));
+            return true;
+        } catch ( IOException | IllegalStateException exception ) {
+            unsubscribe(boardKey, subscriber);
+            return false;
+        }
+    }
+
+    /**
+     * This is a private helper method to select the entries which should be displayed by a subscriber.
+     * @param departures a <code>List</code> of <code>RealTimeEntryModel</code> objects containing all remaining departures.
+     * @param numDepartures a <code>int</code> with the number of next departures to display.
+     * @param route a <code>String</code> with the name of the route to display departures for (optional)
+     * @return a <code>List</code> of <code>RealTimeEntryModel</code> objects which should be displayed.
+     */
+    private static List<RealTimeEntryModel> selectEntries ( final List<RealTimeEntryModel> departures, final int numDepartures, final String route ) {
+        return departures.stream()
+                .filter(entry -> StringUtils.isBlank(route) || (entry.getRoute() != null && route.equals(entry.getRoute().getRouteNumber())))
+                .limit(Math.max(numDepartures, 0))
+                .toList();
+    }
+
+    /**
+     * This is a private helper method to create a real time model containing the supplied entries.
+     * @param entries a <code>List</code> of <code>RealTimeEntryModel</code> objects which should be displayed.
+     * @param dateTime a <code>LocalDateTime</code> object containing the current date and time.
+     * @return a <code>RealTimeModel</code> object containing the timestamp and the entries.
+     */
+    private static RealTimeModel createRealTimeModel ( final List<RealTimeEntryModel> entries, final LocalDateTime dateTime ) {
+        RealTimeModel realTimeModel = new RealTimeModel();
+        realTimeModel.setTimestamp(DateUtils.convertLocalDateTimeToDate(dateTime));
+        realTimeModel.setRealTimeEntryModelList(entries);
+        return realTimeModel;
+    }
+
+    /**
+     * This record identifies a departure board by the operator and the stop.
+     * @param operator a <code>String</code> with the name of the operator.
+     * @param stop a <code>String</code> with the name of the stop.
+     */
+    private record BoardKey ( String operator, String stop ) { }
+
+    /**
+     * This class represents a departure board which is shared by all of its subscribers.
+     */
+    private static class Board {
+
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+        private volatile List<RealTimeEntryModel> departures;
+
+    }
+
+    /**
+     * This class represents a subscriber of a departure board with the entries which were last sent to it.
+     */
+    private static class Subscriber {
+
+        private final SseEmitter emitter;
+
+        private final int numDepartures;
+
+        private final String route;
+
+        private volatile List<RealTimeEntryModel> lastEntries = List.of();
+
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        /**
+         * Create a new subscriber.
+         * @param emitter a <code>SseEmitter</code> object which sends the events to the subscriber.
+         * @param numDepartures a <code>int</code> with the number of next departures to display.
+         * @param route a <code>String</code> with the name of the route to display departures for (optional)
+         */
+        Subscriber ( final SseEmitter emitter, final int numDepartures, final String route ) {
+            this.emitter = emitter;
+            this.numDepartures = numDepartures;
+            this.route = route;
+        }
+
+    }
+
+}
@@ -52,20 +52,20 @@ public class DriverService {
     /**
      * Delete all drivers currently stored in the database for the specified company.
      * @param company a <code>String</code> object containing the name of the company to delete drivers for.
+     * @return a <code>long</code> with the number of deleted drivers.
      */
-    public void deleteDrivers(final String company) {
-        List<Driver> drivers = retrieveDriversByCompany(company);
-        drivers.forEach(driverRepository::delete);
+    public long deleteDrivers(final String company) {
+        return driverRepository.deleteByCompany(company);
     }
 
     /**
      * Delete all drivers currently stored in the database with the specified name for the specified company.
      * @param company a <code>String</code> object containing the name of the company to delete drivers for.
      * @param name a <code>String</code> object containing the name of the driver.
+     * @return a <code>long</code> with the number of deleted drivers.
      */
-    public void deleteDriversByCompanyAndName(final String company, final String name) {
-        List<Driver> drivers = retrieveDriversByCompanyAndName(company, name);
-        drivers.forEach(driverRepository::delete);
+    public long deleteDriversByCompanyAndName(final String company, final String name) {
+        return driverRepository.deleteByCompanyAndNameStartsWith(company, name);
     }
 }
 
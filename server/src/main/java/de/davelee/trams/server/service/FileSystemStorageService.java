@@ -2,6 +2,8 @@ package de.davelee.trams.server.service;
 
 import de.davelee.trams.server.configuration.StorageConfiguration;
 import de.davelee.trams.server.exception.StorageException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileSystemUtils;
@@ -9,8 +11,10 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
 import java.nio.file.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 /**
  * This class provides a service for storing and extracting zip files.
@@ -18,6 +22,11 @@ import java.util.zip.ZipInputStream;
 @Service
 public class FileSystemStorageService {
 
+    /**
+     * The size of the buffers used to read files from directories and zip files and to extract zip files.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final Path rootLocation;
 
     /**
@@ -56,27 +65,46 @@ public class FileSystemStorageService {
      * @return a <code>String</code> containing the path to the directory where the extracted file contents are stored.
      */
     public String store(final MultipartFile file) {
+        return extract(storeArchive(file));
+    }
+
+    /**
+     * Extract a zip file which has already been stored into a directory with the same name (except without file
+     * extension) next to the zip file.
+     * @param archive a <code>String</code> with the path to the stored zip file.
+     * @return a <code>String</code> containing the path to the directory where the extracted file contents are stored.
+     */
+    public String extract(final String archive) {
+        return extractZipFile(archive);
+    }
+
+    /**
+     * Store the supplied file in the configured upload directory without extracting it. This allows the contents of
+     * large zip files to be listed and read directly from the zip file with the listFiles and openFile methods. Each upload is stored in its own
+     * directory so that uploads of files with the same name do not overwrite each other.
+     * @param file a <code>MultipartFile</code> object containing the file to upload to the directory.
+     * @return a <code>String</code> containing the path to the stored file.
+     */
+    public String storeArchive(final MultipartFile file) {
         try {
             if (file.isEmpty()) {
                 throw new StorageException("Failed to store empty file.");
             } else if ( file.getOriginalFilename() == null ) {
                 throw new StorageException("Filename was not valid. Please verify and try again");
             }
-            Path destinationFile = this.rootLocation.resolve(
+            Path uploadDirectory = Files.createDirectory(this.rootLocation.resolve(UUID.randomUUID().toString()));
+            Path destinationFile = uploadDirectory.resolve(
                     Paths.get(file.getOriginalFilename()))
                     .normalize().toAbsolutePath();
-            if (!destinationFile.getParent().equals(this.rootLocation.toAbsolutePath())) {
+            if (!destinationFile.getParent().equals(uploadDirectory.toAbsolutePath())) {
                 // This is a security check
+                FileSystemUtils.deleteRecursively(uploadDirectory);
                 throw new StorageException(
                         "Cannot store file outside current directory.");
             }
-            try (InputStream inputStream = file.getInputStream()) {
-                Files.copy(inputStream, destinationFile,
-                        StandardCopyOption.REPLACE_EXISTING);
-                return extractZipFile(destinationFile.toString());
-            } catch ( FileAlreadyExistsException fileAlreadyExistsException ) {
-                return extractZipFile(destinationFile.toString());
-            }
+            //The multipart implementation can move an upload which is already stored on disk instead of copying it.
+            file.transferTo(destinationFile.toFile());
+            return destinationFile.toString();
         }
         catch (IOException e) {
             throw new StorageException("Failed to store file.", e);
@@ -84,49 +112,186 @@ public class FileSystemStorageService {
     }
 
     /**
-     * This method extracts the supplied zip file path to a directory with the same name (except without file extension)
-     * Method based on code from https://www.baeldung.com/java-compress-and-uncompress
+     * Delete the upload which contains the supplied stored file or extracted directory once it has been imported.
+     * Locations outside the configured upload directory are not deleted.
+     * @param location a <code>String</code> with the path returned by the store or storeArchive method.
+     */
+    public void delete(final String location) {
+        Path rootPath = rootLocation.toAbsolutePath().normalize();
+        Path path = Paths.get(location).toAbsolutePath().normalize();
+        if ( path.startsWith(rootPath) && !path.equals(rootPath) ) {
+            FileSystemUtils.deleteRecursively(rootPath.resolve(rootPath.relativize(path).getName(0)).toFile());
+        }
+    }
+
+    /**
+     * Return the names of all files with the supplied suffix which are either contained in the supplied directory or
+     * in the supplied zip file. Files in a zip file may also be contained in a single sub folder of the zip file. The
+     * files are listed directly from the zip file without extracting the zip file.
+     * @param location a <code>String</code> with the path to the directory or zip file containing the files.
+     * @param suffix a <code>String</code> with the suffix of the files to list e.g. .csv
+     * @return a <code>List</code> of <code>String</code> objects with the names of the files sorted by name which is empty if there are no matching files.
+     * @throws IOException if the directory or zip file cannot be read.
+     */
+    public List<String> listFiles(final String location, final String suffix) throws IOException {
+        if ( !location.endsWith(".zip") ) {
+            Path path = Paths.get(location);
+            if ( !Files.isDirectory(path) ) {
+                return List.of();
+            }
+            try ( Stream<Path> files = Files.list(path) ) {
+                return files.filter(Files::isRegularFile)
+                        .map(file -> file.getFileName().toString())
+                        .filter(name -> name.endsWith(suffix))
+                        .sorted().toList();
+            }
+        }
+        try ( FileSystem zipFileSystem = FileSystems.newFileSystem(Paths.get(location)) ) {
+            return findEntries(zipFileSystem)
+                    .map(entry -> entry.getFileName().toString())
+                    .filter(name -> name.endsWith(suffix))
+                    .distinct().sorted().toList();
+        }
+    }
+
+    /**
+     * Open a single file which is either contained in the supplied directory or in the supplied zip file. Files in a
+     * zip file may also be contained in a single sub folder of the zip file. The file is read directly from the zip
+     * file system without extracting the zip file and is buffered with a large buffer.
+     * @param location a <code>String</code> with the path to the directory or zip file containing the file.
+     * @param fileName a <code>String</code> with the name of the file to open e.g. stop_times.txt
+     * @return a <code>InputStream</code> to read the file which must be closed by the caller or null if the file does not exist.
+     * @throws IOException if the directory or zip file cannot be read.
+     */
+    public InputStream openFile(final String location, final String fileName) throws IOException {
+        if ( !location.endsWith(".zip") ) {
+            Path path = Paths.get(location, fileName);
+            return Files.exists(path) ? new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE) : null;
+        }
+        FileSystem zipFileSystem = FileSystems.newFileSystem(Paths.get(location));
+        Path entry = findEntry(zipFileSystem, fileName);
+        if ( entry == null ) {
+            zipFileSystem.close();
+            return null;
+        }
+        //Closing the stream should also close the zip file system.
+        return new BufferedInputStream(Files.newInputStream(entry), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    zipFileSystem.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Return the size of a single file which is either contained in the supplied directory or in the supplied zip
+     * file. For files in a zip file the uncompressed size is returned.
+     * @param location a <code>String</code> with the path to the directory or zip file containing the file.
+     * @param fileName a <code>String</code> with the name of the file e.g. stop_times.txt
+     * @return a <code>long</code> with the size of the file in bytes which is 0 if the file does not exist or the size is not known.
+     * @throws IOException if the directory or zip file cannot be read.
+     */
+    public long getFileSize(final String location, final String fileName) throws IOException {
+        if ( !location.endsWith(".zip") ) {
+            Path path = Paths.get(location, fileName);
+            return Files.exists(path) ? Files.size(path) : 0;
+        }
+        try ( FileSystem zipFileSystem = FileSystems.newFileSystem(Paths.get(location)) ) {
+            Path entry = findEntry(zipFileSystem, fileName);
+            return entry != null ? Math.max(Files.size(entry), 0) : 0;
+        }
+    }
+
+    /**
+     * Return a fingerprint of the content of the supplied directory or zip file which is the same whenever the same
+     * files are uploaded again. For zip files the fingerprint is calculated from the names, sizes and checksums of the
+     * entries so that the zip file does not have to be read completely.
+     * @param location a <code>String</code> with the path to the directory or zip file.
+     * @return a <code>String</code> with the fingerprint as hex string.
+     * @throws IOException if the directory or zip file cannot be read.
+     */
+    public String getFingerprint(final String location) throws IOException {
+        MessageDigest messageDigest = DigestUtils.getSha256Digest();
+        if ( !location.endsWith(".zip") ) {
+            for ( String fileName : listFiles(location, "") ) {
+                DigestUtils.updateDigest(messageDigest, fileName);
+                try ( InputStream inputStream = openFile(location, fileName) ) {
+                    DigestUtils.updateDigest(messageDigest, inputStream);
+                }
+            }
+            return Hex.encodeHexString(messageDigest.digest());
+        }
+        try ( FileSystem zipFileSystem = FileSystems.newFileSystem(Paths.get(location));
+              Stream<Path> entries = findEntries(zipFileSystem) ) {
+            for ( Path entry : entries.sorted().toList() ) {
+                DigestUtils.updateDigest(messageDigest, entry + ":" + Files.size(entry) + ":" + Files.getAttribute(entry, "zip:crc"));
+            }
+        }
+        return Hex.encodeHexString(messageDigest.digest());
+    }
+
+    /**
+     * This is a private helper method to find a file in a zip file which may also be contained in a single sub folder.
+     * @param zipFileSystem a <code>FileSystem</code> object for the zip file to search in.
+     * @param fileName a <code>String</code> with the name of the file to find.
+     * @return a <code>Path</code> object for the file in the zip file which is null if the file does not exist.
+     * @throws IOException if the zip file cannot be read.
+     */
+    private Path findEntry(final FileSystem zipFileSystem, final String fileName) throws IOException {
+        try ( Stream<Path> entries = findEntries(zipFileSystem) ) {
+            return entries.filter(entry -> entry.getFileName().toString().equals(fileName))
+                    .findFirst().orElse(null);
+        }
+    }
+
+    /**
+     * This is a private helper method to return all files in a zip file except the meta data added by Mac OS.
+     * @param zipFileSystem a <code>FileSystem</code> object for the zip file.
+     * @return a <code>Stream</code> of <code>Path</code> objects for the files in the zip file which must be closed by the caller.
+     * @throws IOException if the zip file cannot be read.
+     */
+    private Stream<Path> findEntries(final FileSystem zipFileSystem) throws IOException {
+        Path root = zipFileSystem.getPath("/");
+        return Files.walk(root)
+                .filter(Files::isRegularFile)
+                .filter(entry -> !root.relativize(entry).getName(0).toString().equals("__MACOSX"));
+    }
+
+    /**
+     * This method extracts the supplied zip file path to a directory with the same name (except without file extension).
+     * The entries are copied from the zip file system with large buffers and entries which would be extracted outside
+     * of the directory are rejected.
      * @param zipFilePath a <code>String</code> with the path to the zip file to extract.
      * @return a <code>String</code> with the path to the directory containing the extracted files.
      */
     private String extractZipFile(final String zipFilePath) {
-        File destDir = new File(zipFilePath.replace(".zip", ""));
-        try {
-            if ( !destDir.mkdir() && !destDir.exists() ) {
-                throw new StorageException("Failed to create directory to contain extracted files");
-            }
-            byte[] buffer = new byte[1024];
-            ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFilePath));
-            ZipEntry zipEntry = zis.getNextEntry();
-            while (zipEntry != null) {
-                File newFile = new File(destDir + "/" + zipEntry.getName());
-                if (zipEntry.isDirectory()) {
-                    if (!newFile.isDirectory() && !newFile.mkdirs() && !newFile.exists()) {
-                        throw new IOException("Failed to create directory " + newFile);
-                    }
+        Path destinationDirectory = Paths.get(zipFilePath.replace(".zip", "")).toAbsolutePath().normalize();
+        try ( FileSystem zipFileSystem = FileSystems.newFileSystem(Paths.get(zipFilePath));
+              Stream<Path> entries = Files.walk(zipFileSystem.getPath("/")) ) {
+            Files.createDirectories(destinationDirectory);
+            for ( Path entry : (Iterable<Path>) entries::iterator ) {
+                Path destinationFile = destinationDirectory.resolve(entry.toString().substring(1)).normalize();
+                if ( !destinationFile.startsWith(destinationDirectory) ) {
+                    // This is a security check
+                    throw new StorageException("Cannot extract file outside current directory.");
+                }
+                if ( Files.isDirectory(entry) ) {
+                    Files.createDirectories(destinationFile);
                 } else {
-                    // fix for Windows-created archives
-                    File parent = newFile.getParentFile();
-                    if (!parent.isDirectory() && !parent.mkdirs() && !parent.exists()) {
-                        throw new IOException("Failed to create directory " + parent);
-                    }
-
-                    // write file content
-                    FileOutputStream fos = new FileOutputStream(newFile);
-                    int len;
-                    while ((len = zis.read(buffer)) > 0) {
-                        fos.write(buffer, 0, len);
+                    try ( InputStream inputStream = Files.newInputStream(entry);
+                          OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(destinationFile), BUFFER_SIZE) ) {
+                        inputStream.transferTo(outputStream);
                     }
-                    fos.close();
                 }
-                zipEntry = zis.getNextEntry();
             }
-            zis.closeEntry();
-            zis.close();
-        } catch ( Exception exception ) {
-            exception.printStackTrace();
+        } catch ( IOException exception ) {
+            throw new StorageException("Failed to extract file.", exception);
         }
-        return destDir.getAbsolutePath();
+        return destinationDirectory.toString();
     }
 
 }
@@ -1,6 +1,9 @@
 package de.davelee.trams.server.service;
 
 import de.davelee.trams.server.constant.OperatingDaysAbbreviations;
+import de.davelee.trams.server.constant.ImportPhase;
+import de.davelee.trams.server.model.ImportGeneration;
+import de.davelee.trams.server.model.ImportStatistics;
 import de.davelee.trams.server.model.OperatingDays;
 import de.davelee.trams.server.model.Route;
 import de.davelee.trams.server.model.Stop;
@@ -9,20 +12,26 @@ import de.davelee.trams.server.repository.RouteRepository;
 import de.davelee.trams.server.repository.StopRepository;
 import de.davelee.trams.server.repository.StopTimeRepository;
 import de.davelee.trams.server.utils.DateUtils;
-import de.davelee.trams.server.utils.RouteUtils;
-import de.davelee.trams.server.utils.StopUtils;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.text.WordUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class provides a service for importing CSV files which match the following specification:
@@ -40,75 +49,196 @@ public class ImportCSVDataService {
     @Autowired
     private StopTimeRepository stopTimeRepository;
 
-    private int stopTimeCounter;
+    @Autowired
+    private StopTimeIndexService stopTimeIndexService;
+
+    @Autowired
+    private RouteService routeService;
+
+    @Autowired
+    private FileSystemStorageService fileSystemStorageService;
+
+    @Autowired
+    private ImportGenerationService importGenerationService;
+
+    @Value("${import.batchSize}")
+    private int batchSize;
+
+    private final static Logger LOG = LoggerFactory.getLogger(ImportCSVDataService.class);
 
     /**
-     * Read a csv folder and extract all departures from the supplied file and store them in the mongo db.
-     * @param directory a <code>String</code> containing the directory to load the data from.
+     * Read a csv folder or zip file and extract all departures from the supplied file and store them in the mongo db.
+     * @param directory a <code>String</code> containing the directory or zip file to load the data from.
      * @param validFromDate a <code>String</code> containing the valid from date in format yyyy-MM-dd
      * @param validToDate a <code>String</code> containing the valid to date in format yyyy-MM-dd
      * @return a <code>boolean</code> which is true iff the file could be read successfully.
      */
     public boolean readCSVFile(final String directory, final String validFromDate, final String validToDate) {
-        //Set counter for stopTime objects to ensure a valid identifier.
-        stopTimeCounter = 0;
+        return importCSVFiles(directory, validFromDate, validToDate).isSuccessful();
+    }
+
+    /**
+     * Read a csv folder or zip file and extract all departures from the supplied file and store them in the mongo db.
+     * Each csv file is processed by its own worker on a virtual thread. Routes and stops which already exist or which
+     * have already been imported by another worker are detected with a registry which is shared by all workers of this import.
+     * @param directory a <code>String</code> containing the directory or zip file to load the data from.
+     * @param validFromDate a <code>String</code> containing the valid from date in format yyyy-MM-dd
+     * @param validToDate a <code>String</code> containing the valid to date in format yyyy-MM-dd
+     * @return a <code>ImportStatistics</code> object containing the number of imported objects and if the import was successful.
+     */
+    public ImportStatistics importCSVFiles(final String directory, final String validFromDate, final String validToDate) {
+        return importCSVFiles(directory, validFromDate, validToDate, new ImportStatistics());
+    }
 
+    /**
+     * Read a csv folder or zip file and extract all departures from the supplied file and store them in the mongo db.
+     * The csv files of a zip file are read directly from the zip file without extracting it. The phase and progress
+     * of the import are reported in the supplied counters and the workers stop if they are cancelled.
+     * @param directory a <code>String</code> containing the directory or zip file to load the data from.
+     * @param validFromDate a <code>String</code> containing the valid from date in format yyyy-MM-dd
+     * @param validToDate a <code>String</code> containing the valid to date in format yyyy-MM-dd
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     * @return a <code>ImportStatistics</code> object containing the number of imported objects and if the import was successful.
+     */
+    public ImportStatistics importCSVFiles(final String directory, final String validFromDate, final String validToDate,
+                                           final ImportStatistics importStatistics) {
         //Check that the directory exists - otherwise return false.
         if ( !directory.startsWith("/") && ImportCSVDataService.class.getClassLoader().getResource(directory) == null ) {
-            return false;
+            importStatistics.markFailed();
+            return importStatistics;
         }
 
-        //Get all csv files in the directory.
-        final File directoryPath = directory.startsWith("/") ? new File(directory) :
-                                        new File(ImportCSVDataService.class.getClassLoader().getResource(directory).getFile());
-        File[] directoryFiles = directoryPath.listFiles((dir, name) -> name.endsWith(".csv"));
+        //Get all csv files in the directory or zip file.
+        final String location = directory.startsWith("/") ? directory :
+                                        new File(ImportCSVDataService.class.getClassLoader().getResource(directory).getFile()).getAbsolutePath();
+        List<String> csvFileNames;
+        try {
+            csvFileNames = fileSystemStorageService.listFiles(location, ".csv");
+        } catch ( IOException exception ) {
+            LOG.error("Could not list csv files of " + location, exception);
+            csvFileNames = List.of();
+        }
 
         //If there are no csv files in the directory then return false.
-        if ( directoryFiles == null || directoryFiles.length == 0 ) {
-            return false;
+        if ( csvFileNames.isEmpty() ) {
+            importStatistics.markFailed();
+            return importStatistics;
         }
 
         //Determine operator name based on name of zip file.
         String[] directorySplitPath = directory.split(FileSystems.getDefault().getSeparator());
-        String operatorName = directorySplitPath[directorySplitPath.length-1].replace("-", " ");
-        operatorName = WordUtils.capitalizeFully(operatorName);
+        String operatorName = StringUtils.removeEnd(directorySplitPath[directorySplitPath.length-1], ".zip").replace("-", " ");
+        final String operator = WordUtils.capitalizeFully(operatorName);
 
-        //Loop through all of the files and begin to process them in helper methods.
-        for ( File csvFile : directoryFiles ) {
-            if (!loadCSVFile(csvFile.getAbsolutePath(), operatorName, validFromDate, validToDate)) {
-                return false;
+        //Write the stop times to a staging generation which only becomes visible once all files have been imported.
+        final ImportGeneration importGeneration;
+        try {
+            importGeneration = importGenerationService.startImport(location, "CSV", validFromDate, validToDate);
+        } catch ( IOException exception ) {
+            LOG.error("Could not start import of " + location, exception);
+            importStatistics.markFailed();
+            return importStatistics;
+        }
+
+        //Process each file on its own worker - closing the executor waits until all files have been processed.
+        importStatistics.setPhase(ImportPhase.IMPORTING_STOP_TIMES);
+        for ( String csvFileName : csvFileNames ) {
+            try {
+                importStatistics.addTotalBytes(fileSystemStorageService.getFileSize(location, csvFileName));
+            } catch ( IOException exception ) {
+                LOG.warn("Could not determine size of csv file " + csvFileName, exception);
+            }
+        }
+        ImportRegistry importRegistry = new ImportRegistry(routeRepository.findByCompany(operator), stopRepository.findByCompany(operator));
+        try {
+            try ( ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor() ) {
+                for ( String csvFileName : csvFileNames ) {
+                    executorService.submit(() -> {
+                        try {
+                            if (!loadCSVFile(location, csvFileName, operator, validFromDate, validToDate, importRegistry, importGeneration, importStatistics)) {
+                                importStatistics.markFailed();
+                            }
+                        } catch ( RuntimeException runtimeException ) {
+                            LOG.error("Could not import csv file " + csvFileName, runtimeException);
+                            importStatistics.markFailed();
+                        }
+                    });
+                }
+            }
+            //A failed import keeps its staging generation so that it can be resumed from the last checkpoint.
+            if ( importStatistics.isCancelled() ) {
+                importGenerationService.discard(importGeneration);
+            } else if ( importStatistics.isSuccessful() ) {
+                importGenerationService.activate(importGeneration);
+                importStatistics.markActivated();
             }
+        } finally {
+            //Routes and stop times may have been added even if a file failed so the caches are no longer valid.
+            stopTimeIndexService.invalidate(operator);
+            routeService.invalidateRoutes(operator);
         }
 
-        //If all csv files could be processed successfully, then return true.
-        return true;
+        //Return the counters which also show if all csv files could be processed successfully.
+        return importStatistics;
 
     }
 
     /**
      * This method attempts to load the supplied csv file, read all data and upload it to the database. If it is
-     * successful and data goes into the database, then it returns true. Otherwise it returns false.
-     * @param csvFilePath a <code>String</code> containing the path to the csv file to load.
+     * successful and data goes into the database, then it returns true. Otherwise it returns false. The file is read
+     * record by record and stop times are written to the database in batches. The stop times of rows which were
+     * committed before the last checkpoint of a resumed import are skipped.
+     * @param location a <code>String</code> containing the path to the directory or zip file containing the csv file.
+     * @param csvFileName a <code>String</code> containing the name of the csv file to load.
      * @param operatorName a <code>String</code> containing the name of the operator.
      * @param validFromDate a <code>String</code> containing the valid from date in format yyyy-MM-dd
      * @param validToDate a <code>String</code> containing the valid to date in format yyyy-MM-dd
+     * @param importRegistry a <code>ImportRegistry</code> containing the routes and stops which already exist.
+     * @param importGeneration a <code>ImportGeneration</code> object containing the staging generation of this import.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
      * @return a <code>boolean</code> which is true iff the csv file could be read and processed successfully.
      */
-    private boolean loadCSVFile ( final String csvFilePath, final String operatorName, final String validFromDate,
-                                  final String validToDate ) {
+    private boolean loadCSVFile ( final String location, final String csvFileName, final String operatorName,
+                                  final String validFromDate, final String validToDate, final ImportRegistry importRegistry,
+                                  final ImportGeneration importGeneration, final ImportStatistics importStatistics ) {
+        InputStream inputStream;
         try {
-            Reader reader = new FileReader(csvFilePath);
-            CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withDelimiter(';').withTrim());
+            inputStream = fileSystemStorageService.openFile(location, csvFileName);
+        } catch ( IOException exception ) {
+            LOG.error("Could not open csv file " + csvFileName, exception);
+            return false;
+        }
+        if ( inputStream == null ) {
+            return false;
+        }
+        try ( Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+              CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withDelimiter(';').withTrim()) ) {
             String destination = ""; ArrayList<OperatingDays> operatingDays = new ArrayList<>();
             LocalDateTime validFromLocalDate = DateUtils.convertBackwardDateToLocalDateTime(validFromDate);
             LocalDateTime validToLocalDate = DateUtils.convertBackwardDateToLocalDateTime(validToDate);
             ArrayList<String> routeNumberList = new ArrayList<>();
+            //The columns are only numbered within a file so the journey numbers also contain the name of the file.
+            String journeyPrefix = FilenameUtils.getBaseName(csvFileName) + "/";
             Map<String, String> footnotes = new HashMap<>();
-            for(CSVRecord record : csvParser.getRecords()) {
+            List<StopTime> stopTimeBatch = new ArrayList<>();
+            List<Stop> stopBatch = new ArrayList<>();
+            long committedRows = importGeneration.getCommittedRows(csvFileName);
+            long position = 0;
+            for(CSVRecord record : csvParser) {
+                //Stop reading as soon as the import is cancelled.
+                if ( importStatistics.isCancelled() ) {
+                    return false;
+                }
+                importStatistics.addRowsRead(1);
+                importStatistics.addBytesRead(record.getCharacterPosition() - position);
+                position = record.getCharacterPosition();
                 if ( record.get(0).startsWith("Route:") ) {
                     for ( int i = 1; i < record.size(); i++ ) {
                         if ( record.get(i).isEmpty() ) continue; //Do not add empty data.
-                        importRoute(record.get(i), operatorName);
+                        if ( importRegistry.registerRoute(record.get(i)) ) {
+                            importRoute(record.get(i), operatorName);
+                            importStatistics.incrementRoutes();
+                        }
                         routeNumberList.add(record.get(i));
                     }
                 }
@@ -128,8 +258,12 @@ public class ImportCSVDataService {
                     footnotes.put(footnoteSplit[0].trim(), footnoteSplit[1].trim());
                 }
                 else {
-                    if (!StopUtils.hasStopAlreadyBeenImported(record.get(0), operatorName, stopRepository)) {
-                        importStop(record.get(0), operatorName);
+                    //The stop times of rows up to the last checkpoint have already been imported.
+                    if ( record.getRecordNumber() <= committedRows ) {
+                        continue;
+                    }
+                    if ( importRegistry.registerStop(record.get(0)) ) {
+                        stopBatch.add(createStop(record.get(0), operatorName));
                     }
                     for ( int i = 1; i < record.size(); i++ ) {
                         if ( record.get(i).isEmpty() ) continue;
@@ -145,7 +279,7 @@ public class ImportCSVDataService {
                                     .validFromDate(validFromLocalDate)
                                     .validToDate(validToLocalDate)
                                     .operatingDays(operatingDays.get(i - 1))
-                                    .journeyNumber("" + i)
+                                    .journeyNumber(journeyPrefix + i)
                                     .footnote(footnotes.get(record.get(i).substring(6)))
                                     .build();
                         } else {
@@ -159,19 +293,25 @@ public class ImportCSVDataService {
                                     .validFromDate(validFromLocalDate)
                                     .validToDate(validToLocalDate)
                                     .operatingDays(operatingDays.get(i - 1))
-                                    .journeyNumber("" + i)
+                                    .journeyNumber(journeyPrefix + i)
                                     .build();
                         }
                         if ( stopTime != null ) {
-                            stopTimeRepository.insert(stopTime);
-                            stopTimeCounter++;
+                            stopTimeBatch.add(stopTime);
                         }
                     }
+                    if ( stopTimeBatch.size() >= batchSize ) {
+                        importGeneration.writeBatch(csvFileName, record.getRecordNumber(), stopTimeBatch,
+                                () -> writeBatch(stopTimeBatch, stopBatch, importStatistics));
+                    }
                 }
             }
+            importGeneration.writeBatch(csvFileName, csvParser.getRecordNumber(), stopTimeBatch,
+                    () -> writeBatch(stopTimeBatch, stopBatch, importStatistics));
+            importStatistics.incrementFiles();
             return true;
         } catch ( IOException exception ) {
-            exception.printStackTrace();
+            LOG.error("Could not read csv file " + csvFileName, exception);
             return false;
         }
     }
@@ -182,28 +322,48 @@ public class ImportCSVDataService {
      * @param operatorName a <code>String</code> object which contains the name of the operator of this route.
      */
     private void importRoute (final String routeNumber, final String operatorName ) {
-        if ( !RouteUtils.hasRouteAlreadyBeenImported(routeNumber, operatorName, routeRepository) ) {
-            Route route = Route.builder()
-                    .routeNumber(routeNumber)
-                    .id(UUID.randomUUID().toString())
-                    .company(operatorName)
-                    .build();
-            routeRepository.insert(route);
-        }
+        Route route = Route.builder()
+                .routeNumber(routeNumber)
+                .id(UUID.randomUUID().toString())
+                .company(operatorName)
+                .build();
+        routeRepository.insert(route);
     }
 
     /**
-     * This is a private helper method to import the supplied stop to the database.
+     * This is a private helper method to create the supplied stop so that it can be imported to the database.
      * @param stopName a <code>String</code> object containing the name of the stop to add.
      * @param company a <code>String</code> object containing the name of the company serving the stop.
+     * @return a <code>Stop</code> object which can be stored in the database.
      */
-    private void importStop ( final String stopName, final String company ) {
-        Stop stop = Stop.builder()
+    private Stop createStop ( final String stopName, final String company ) {
+        return Stop.builder()
                 .id(UUID.randomUUID().toString())
                 .name(stopName)
                 .company(company)
                 .build();
-        stopRepository.insert(stop);
+    }
+
+    /**
+     * This is a private helper method to write the stop times which have been read from the rows of a csv timetable
+     * since the previous batch together with the stops of these rows which did not exist yet. Empty lists are skipped
+     * so that the final call after the last row of a file does not send an empty insert. The counters of the import
+     * are only increased once the insert has succeeded and both lists are cleared afterwards.
+     * @param stopTimeBatch a <code>List</code> of <code>StopTime</code> objects to insert.
+     * @param stopBatch a <code>List</code> of <code>Stop</code> objects to insert.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     */
+    private void writeBatch ( final List<StopTime> stopTimeBatch, final List<Stop> stopBatch, final ImportStatistics importStatistics ) {
+        if ( !stopBatch.isEmpty() ) {
+            stopRepository.insert(stopBatch);
+            importStatistics.addStops(stopBatch.size());
+            stopBatch.clear();
+        }
+        if ( !stopTimeBatch.isEmpty() ) {
+            stopTimeRepository.insertUnordered(stopTimeBatch);
+            importStatistics.addStopTimes(stopTimeBatch.size());
+            stopTimeBatch.clear();
+        }
     }
 
     /**
@@ -230,6 +390,48 @@ public class ImportCSVDataService {
         return operatingDays;
     }
 
+    /**
+     * This class represents the routes and stops of an operator which already exist or which have been imported by
+     * any worker of the current import. Registering is thread-safe so that each route and stop is only imported once.
+     */
+    private static class ImportRegistry {
+
+        private final Set<String> routeNumbers = ConcurrentHashMap.newKeySet();
+
+        private final Set<String> stopNames = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Create a new registry containing the supplied routes and stops which already exist in the database.
+         * @param routes a <code>List</code> of <code>Route</code> objects which already exist.
+         * @param stops a <code>List</code> of <code>Stop</code> objects which already exist.
+         */
+        ImportRegistry ( final List<Route> routes, final List<Stop> stops ) {
+            if ( routes != null ) {
+                routes.forEach(route -> routeNumbers.add(route.getRouteNumber()));
+            }
+            if ( stops != null ) {
+                stops.forEach(stop -> stopNames.add(stop.getName()));
+            }
+        }
+
+        /**
+         * Register the supplied route number.
+         * @param routeNumber a <code>String</code> with the route number to register.
+         * @return a <code>boolean</code> which is true iff the route was not registered before and should be imported.
+         */
+        boolean registerRoute ( final String routeNumber ) {
+            return routeNumbers.add(routeNumber);
+        }
+
+        /**
+         * Register the supplied stop name.
+         * @param stopName a <code>String</code> with the name of the stop to register.
+         * @return a <code>boolean</code> which is true iff the stop was not registered before and should be imported.
+         */
+        boolean registerStop ( final String stopName ) {
+            return stopNames.add(stopName);
+        }
 
+    }
 
 }
@@ -1,5 +1,8 @@
 package de.davelee.trams.server.service;
 
+import de.davelee.trams.server.constant.ImportPhase;
+import de.davelee.trams.server.model.ImportGeneration;
+import de.davelee.trams.server.model.ImportStatistics;
 import de.davelee.trams.server.model.OperatingDays;
 import de.davelee.trams.server.model.Route;
 import de.davelee.trams.server.model.Stop;
@@ -9,19 +12,37 @@ import de.davelee.trams.server.repository.StopTimeRepository;
 import de.davelee.trams.server.repository.StopRepository;
 import de.davelee.trams.server.utils.DateUtils;
 import de.davelee.trams.server.utils.RouteUtils;
-import de.davelee.trams.server.utils.StopUtils;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.model.*;
 import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -31,6 +52,10 @@ import java.util.stream.Collectors;
 @Service
 public class ImportGTFSDataService {
 
+    private final static Logger LOG = LoggerFactory.getLogger(ImportGTFSDataService.class);
+
+    private static final String STOP_TIMES_FILE = "stop_times.txt";
+
     @Autowired
     private RouteRepository routeRepository;
 
@@ -40,6 +65,21 @@ public class ImportGTFSDataService {
     @Autowired
     private StopTimeRepository stopTimeRepository;
 
+    @Autowired
+    private StopTimeIndexService stopTimeIndexService;
+
+    @Autowired
+    private RouteService routeService;
+
+    @Autowired
+    private FileSystemStorageService fileSystemStorageService;
+
+    @Autowired
+    private ImportGenerationService importGenerationService;
+
+    @Value("${import.batchSize}")
+    private int batchSize;
+
     /**
      * Read a gtfs folder and extract all departures from the supplied file and store them in the mongo db.
      * @param directory a <code>String</code> containing the directory to load the data from.
@@ -48,73 +88,358 @@ public class ImportGTFSDataService {
      * @return a <code>boolean</code> which is true iff the file could be read successfully.
      */
     public boolean readGTFSFile(final String directory, final List<String> routesToImport) {
-        //Set counter for stopTime objects to ensure a valid identifier.
-        int stopTimeCounter = 0;
+        return readGTFSFile(directory, routesToImport, new ImportStatistics());
+    }
 
+    /**
+     * Read a gtfs folder and extract all departures from the supplied file and store them in the mongo db. The phase
+     * and progress of the import are reported in the supplied counters and the import stops if they are cancelled.
+     * @param directory a <code>String</code> containing the directory to load the data from.
+     * @param routesToImport a <code>List</code> of <code>String</code> containing the list of routes to import. If the list is empty then all routes
+     *                       should be imported.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     * @return a <code>boolean</code> which is true iff the file could be read successfully and the import was not cancelled.
+     */
+    public boolean readGTFSFile(final String directory, final List<String> routesToImport, final ImportStatistics importStatistics) {
         //Check that the directory exists - otherwise return false.
         if ( !directory.startsWith("/") && ImportGTFSDataService.class.getClassLoader().getResource(directory) == null ) {
             return false;
         }
         //Create a new reader with directory and a variable to store all data.
+        Map<String, String> agencyNames = new HashMap<>();
         try {
-            GtfsReader reader = new GtfsReader();
-            reader.setInputLocation(directory.startsWith("/") ?
+            File directoryPath = directory.startsWith("/") ?
                     new File(directory) :
-                    new File(ImportGTFSDataService.class.getClassLoader().getResource(directory).getFile()));
+                    new File(ImportGTFSDataService.class.getClassLoader().getResource(directory).getFile());
+            GtfsReader reader = new GtfsReader();
+            reader.setInputLocation(directoryPath);
             GtfsDaoImpl store = new GtfsDaoImpl();
             reader.setEntityStore(store);
 
             //Run the importer for data from the files.
+            importStatistics.setPhase(ImportPhase.READING_FEED);
             reader.run();
 
+            //Build the lookup tables once so that they do not have to be searched for each stop time.
+            for ( Agency agency : store.getAllAgencies() ) {
+                agencyNames.put(agency.getId(), agency.getName());
+            }
+            Map<String, List<ServiceCalendar>> serviceCalendars = store.getAllCalendars().stream()
+                    .collect(Collectors.groupingBy(serviceCalendar -> serviceCalendar.getServiceId().getId()));
+            Map<String, ServiceDays> serviceDays = new HashMap<>();
+            Map<String, Set<String>> importedStops = new HashMap<>();
+
             //Import the route information.
             if (!routesToImport.isEmpty()) {
                 //Import only the selected routes as long as routesToImport is not empty.
                 for (org.onebusaway.gtfs.model.Route route : store.getAllRoutes()) {
                     if (shouldRouteBeImported(route, routesToImport)) {
-                        importRoute(route, store.getAgencyForId(route.getAgency().getId()));
+                        importRoute(route, store.getAgencyForId(route.getAgency().getId()), importStatistics);
                     }
                 }
             } else {
                 //Otherwise import all routes as routesToImport is empty.
                 for (org.onebusaway.gtfs.model.Route route : store.getAllRoutes()) {
-                    importRoute(route, store.getAgencyForId(route.getAgency().getId()));
+                    importRoute(route, store.getAgencyForId(route.getAgency().getId()), importStatistics);
                 }
             }
 
-            //Import the stop time information.
+            //Import the stop time information in batches into a staging generation. The order of the stop times in the
+            //store is not stable between runs so this import cannot be resumed from a checkpoint and starts again instead.
+            importStatistics.setPhase(ImportPhase.IMPORTING_STOP_TIMES);
+            ImportGeneration importGeneration = importGenerationService.startNewImport(directoryPath.getAbsolutePath(), "GTFS-STORE", routesToImport.toString());
+            long rowNumber = 0;
+            List<StopTime> stopTimeBatch = new ArrayList<>(batchSize);
+            List<Stop> stopBatch = new ArrayList<>();
             for (org.onebusaway.gtfs.model.StopTime gtfsStopTime : store.getAllStopTimes()) {
-                if ((!routesToImport.isEmpty() && shouldRouteBeImported(gtfsStopTime.getTrip().getRoute(), routesToImport))) {
+                if ( importStatistics.isCancelled() ) {
+                    break;
+                }
+                importStatistics.addRowsRead(1);
+                rowNumber++;
+                if (routesToImport.isEmpty() || shouldRouteBeImported(gtfsStopTime.getTrip().getRoute(), routesToImport)) {
+                    String company = agencyNames.get(gtfsStopTime.getTrip().getId().getAgencyId());
 
                     //Do not add duplicate stops to the database.
-                    if (!StopUtils.hasStopAlreadyBeenImported(gtfsStopTime.getStop().getName(), store.getAgencyForId(gtfsStopTime.getTrip().getId().getAgencyId()).getName(), stopRepository)) {
-                        importStop(gtfsStopTime.getStop(), store.getAgencyForId(gtfsStopTime.getTrip().getId().getAgencyId()).getName());
+                    Set<String> companyStops = importedStops.computeIfAbsent(company, this::loadImportedStops);
+                    if (companyStops.add(gtfsStopTime.getStop().getName())) {
+                        stopBatch.add(convertStop(gtfsStopTime.getStop(), company));
                     }
 
                     //Add the StopTime information to the database.
-                    List<ServiceCalendar> serviceCalendarList = store.getAllCalendars().stream().filter(sc -> sc.getServiceId().getId().contentEquals(gtfsStopTime.getTrip().getServiceId().getId())).collect(Collectors.toList());
-                    StopTime stopTime = StopTime.builder()
-                            .company(store.getAgencyForId(gtfsStopTime.getTrip().getId().getAgencyId()).getName())
+                    ServiceDays tripServiceDays = serviceDays.computeIfAbsent(gtfsStopTime.getTrip().getServiceId().getId(),
+                            serviceId -> getServiceDays(serviceCalendars.getOrDefault(serviceId, List.of())));
+                    stopTimeBatch.add(StopTime.builder()
+                            .company(company)
                             .departureTime(DateUtils.convertTimeToLocalTime(convertTimeToHoursAndMinutes(gtfsStopTime.getDepartureTime())))
                             .arrivalTime(DateUtils.convertTimeToLocalTime(convertTimeToHoursAndMinutes(gtfsStopTime.getArrivalTime())))
                             .stopName(gtfsStopTime.getStop().getName())
                             .destination(gtfsStopTime.getTrip().getTripHeadsign())
                             .routeNumber(gtfsStopTime.getTrip().getRoute().getShortName())
                             .journeyNumber(gtfsStopTime.getTrip().getId().getId())
-                            .validFromDate( serviceCalendarList.size() == 1 ? LocalDateTime.of(serviceCalendarList.get(0).getStartDate().getYear(), serviceCalendarList.get(0).getStartDate().getMonth(), serviceCalendarList.get(0).getStartDate().getDay(), 0,0): null )
-                            .validToDate( serviceCalendarList.size() == 1 ? LocalDateTime.of(serviceCalendarList.get(0).getEndDate().getYear(), serviceCalendarList.get(0).getEndDate().getMonth(), serviceCalendarList.get(0).getEndDate().getDay(), 0, 0): null )
-                            .operatingDays(serviceCalendarList.size() == 1 ? getOperatingDays(serviceCalendarList.get(0)) : null)
-                            .build();
-                    stopTimeRepository.insert(stopTime);
-                    stopTimeCounter++;
+                            .validFromDate(tripServiceDays.validFromDate())
+                            .validToDate(tripServiceDays.validToDate())
+                            .operatingDays(tripServiceDays.operatingDays())
+                            .build());
+                    if ( stopTimeBatch.size() >= batchSize ) {
+                        importGeneration.writeBatch(STOP_TIMES_FILE, rowNumber, stopTimeBatch, () -> writeBatch(stopTimeBatch, stopBatch, importStatistics));
+                    }
                 }
             }
-            return true;
+            importGeneration.writeBatch(STOP_TIMES_FILE, rowNumber, stopTimeBatch, () -> writeBatch(stopTimeBatch, stopBatch, importStatistics));
+            finishImport(importGeneration, !importStatistics.isCancelled(), importStatistics);
+            return !importStatistics.isCancelled();
         } catch ( IOException ioException ) {
+            LOG.error("Could not import gtfs feed " + directory, ioException);
             return false;
+        } finally {
+            //Routes and stop times may have been added even if the import failed so the caches are no longer valid.
+            invalidateCaches(agencyNames);
         }
     }
 
+    /**
+     * Read a gtfs feed in streaming mode and store all departures in the mongo db. In contrast to readGTFSFile the
+     * feed is never loaded into memory completely. Only agencies, routes, trips, calendars and stops are kept in lookup
+     * tables while stop_times.txt is read row by row and written to the database in batches. The feed can be read
+     * either from a directory or directly from a zip file.
+     * @param location a <code>String</code> containing the directory or zip file to load the data from.
+     * @param routesToImport a <code>List</code> of <code>String</code> containing the list of routes to import. If the list is empty then all routes
+     *                       should be imported.
+     * @return a <code>boolean</code> which is true iff the feed could be read successfully.
+     */
+    public boolean readGTFSFileStreaming(final String location, final List<String> routesToImport) {
+        return readGTFSFileStreaming(location, routesToImport, new ImportStatistics());
+    }
+
+    /**
+     * Read a gtfs feed in streaming mode and store all departures in the mongo db. The phase and progress of the
+     * import are reported in the supplied counters and the import stops if they are cancelled. The progress of the
+     * stop times is measured in bytes so that the remaining time can be estimated.
+     * @param location a <code>String</code> containing the directory or zip file to load the data from.
+     * @param routesToImport a <code>List</code> of <code>String</code> containing the list of routes to import. If the list is empty then all routes
+     *                       should be imported.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     * @return a <code>boolean</code> which is true iff the feed could be read successfully and the import was not cancelled.
+     */
+    public boolean readGTFSFileStreaming(final String location, final List<String> routesToImport, final ImportStatistics importStatistics) {
+        Map<String, String> agencyNames = new HashMap<>();
+        try {
+            //Read the agencies - if the feed only has one agency then the agency id may be empty.
+            importStatistics.setPhase(ImportPhase.READING_FEED);
+            if ( !readFeedFile(location, "agency.txt", importStatistics, record -> agencyNames.put(getValue(record, "agency_id"), record.get("agency_name"))) ) {
+                return false;
+            }
+            String defaultAgencyName = agencyNames.size() == 1 ? agencyNames.values().iterator().next() : null;
+            //Read the routes and import those routes which should be imported.
+            Map<String, GtfsRouteInfo> routes = new HashMap<>();
+            if ( !readFeedFile(location, "routes.txt", importStatistics, record -> {
+                String routeNumber = getValue(record, "route_short_name");
+                String company = agencyNames.getOrDefault(getValue(record, "agency_id"), defaultAgencyName);
+                if ( routesToImport.isEmpty() || routesToImport.contains(routeNumber) ) {
+                    routes.put(record.get("route_id"), new GtfsRouteInfo(routeNumber, company));
+                    importRoute(routeNumber, record.get("route_id"), company, importStatistics);
+                }
+            }) ) {
+                return false;
+            }
+            //Read the calendars so that all trips of a service share the same operating days.
+            Map<String, ServiceDays> serviceDays = new HashMap<>();
+            readFeedFile(location, "calendar.txt", importStatistics, record -> serviceDays.put(record.get("service_id"), new ServiceDays(
+                    convertServiceDate(record.get("start_date")), convertServiceDate(record.get("end_date")),
+                    getOperatingDays(Integer.parseInt(record.get("monday")), Integer.parseInt(record.get("tuesday")),
+                            Integer.parseInt(record.get("wednesday")), Integer.parseInt(record.get("thursday")),
+                            Integer.parseInt(record.get("friday")), Integer.parseInt(record.get("saturday")),
+                            Integer.parseInt(record.get("sunday"))))));
+            //Read the trips of those routes which should be imported.
+            ServiceDays noServiceDays = new ServiceDays(null, null, null);
+            Map<String, GtfsTripInfo> trips = new HashMap<>();
+            if ( !readFeedFile(location, "trips.txt", importStatistics, record -> {
+                GtfsRouteInfo route = routes.get(record.get("route_id"));
+                if ( route != null ) {
+                    trips.put(record.get("trip_id"), new GtfsTripInfo(route, getValue(record, "trip_headsign"),
+                            serviceDays.getOrDefault(record.get("service_id"), noServiceDays)));
+                }
+            }) ) {
+                return false;
+            }
+            //Read the stops.
+            Map<String, org.onebusaway.gtfs.model.Stop> stops = new HashMap<>();
+            if ( !readFeedFile(location, "stops.txt", importStatistics, record -> {
+                org.onebusaway.gtfs.model.Stop stop = new org.onebusaway.gtfs.model.Stop();
+                stop.setId(new AgencyAndId(null, record.get("stop_id")));
+                stop.setName(getValue(record, "stop_name"));
+                stop.setLat(Double.parseDouble(record.get("stop_lat")));
+                stop.setLon(Double.parseDouble(record.get("stop_lon")));
+                stops.put(record.get("stop_id"), stop);
+            }) ) {
+                return false;
+            }
+            //Stream the stop times row by row and write them in batches into a staging generation.
+            importStatistics.setPhase(ImportPhase.IMPORTING_STOP_TIMES);
+            importStatistics.addTotalBytes(fileSystemStorageService.getFileSize(location, STOP_TIMES_FILE));
+            ImportGeneration importGeneration = importGenerationService.startImport(location, "GTFS", routesToImport.toString());
+            long committedRows = importGeneration.getCommittedRows(STOP_TIMES_FILE);
+            AtomicLong rowNumber = new AtomicLong();
+            Map<String, Set<String>> importedStops = new HashMap<>();
+            List<StopTime> stopTimeBatch = new ArrayList<>(batchSize);
+            List<Stop> stopBatch = new ArrayList<>();
+            boolean stopTimesRead = readFeedFile(location, STOP_TIMES_FILE, importStatistics, record -> {
+                rowNumber.set(record.getRecordNumber());
+                //The stop times up to the last checkpoint have already been imported.
+                if ( record.getRecordNumber() <= committedRows ) {
+                    return;
+                }
+                GtfsTripInfo trip = trips.get(record.get("trip_id"));
+                org.onebusaway.gtfs.model.Stop stop = stops.get(record.get("stop_id"));
+                String arrivalTime = getValue(record, "arrival_time");
+                String departureTime = getValue(record, "departure_time");
+                if ( trip == null || stop == null || (arrivalTime.isEmpty() && departureTime.isEmpty()) ) {
+                    return;
+                }
+                //Do not add duplicate stops to the database.
+                if ( importedStops.computeIfAbsent(trip.route().company(), this::loadImportedStops).add(stop.getName()) ) {
+                    stopBatch.add(convertStop(stop, trip.route().company()));
+                }
+                stopTimeBatch.add(StopTime.builder()
+                        .company(trip.route().company())
+                        .departureTime(DateUtils.convertTimeToLocalTime(convertTimeToHoursAndMinutes(convertTimeToSeconds(departureTime.isEmpty() ? arrivalTime : departureTime))))
+                        .arrivalTime(DateUtils.convertTimeToLocalTime(convertTimeToHoursAndMinutes(convertTimeToSeconds(arrivalTime.isEmpty() ? departureTime : arrivalTime))))
+                        .stopName(stop.getName())
+                        .destination(trip.headsign())
+                        .routeNumber(trip.route().routeNumber())
+                        .journeyNumber(record.get("trip_id"))
+                        .validFromDate(trip.serviceDays().validFromDate())
+                        .validToDate(trip.serviceDays().validToDate())
+                        .operatingDays(trip.serviceDays().operatingDays())
+                        .build());
+                if ( stopTimeBatch.size() >= batchSize ) {
+                    importGeneration.writeBatch(STOP_TIMES_FILE, record.getRecordNumber(), stopTimeBatch, () -> writeBatch(stopTimeBatch, stopBatch, importStatistics));
+                }
+            });
+            importGeneration.writeBatch(STOP_TIMES_FILE, rowNumber.get(), stopTimeBatch, () -> writeBatch(stopTimeBatch, stopBatch, importStatistics));
+            finishImport(importGeneration, stopTimesRead, importStatistics);
+            return stopTimesRead;
+        } catch ( IOException | RuntimeException exception ) {
+            LOG.error("Could not import gtfs feed " + location, exception);
+            return false;
+        } finally {
+            //Routes and stop times may have been added even if the import failed so the caches are no longer valid.
+            invalidateCaches(agencyNames);
+        }
+    }
+
+    /**
+     * This is a private helper method to invalidate the cached routes and stop times of all companies of a feed once
+     * per company.
+     * @param agencyNames a <code>Map</code> with the name of the company of each agency in the feed.
+     */
+    private void invalidateCaches ( final Map<String, String> agencyNames ) {
+        for ( String company : new HashSet<>(agencyNames.values()) ) {
+            stopTimeIndexService.invalidate(company);
+            routeService.invalidateRoutes(company);
+        }
+    }
+
+    /**
+     * This is a private helper method to make the staging generation of a successful import visible. The generation of
+     * a cancelled import is discarded while the generation of a failed import is kept so that it can be resumed.
+     * @param importGeneration a <code>ImportGeneration</code> object containing the staging generation of the import.
+     * @param successful a <code>boolean</code> which is true iff all stop times have been imported.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     */
+    private void finishImport ( final ImportGeneration importGeneration, final boolean successful, final ImportStatistics importStatistics ) {
+        if ( importStatistics.isCancelled() ) {
+            importGenerationService.discard(importGeneration);
+        } else if ( successful ) {
+            importGenerationService.activate(importGeneration);
+            importStatistics.markActivated();
+        }
+    }
+
+    /**
+     * This is a private helper method to read a single file of a gtfs feed record by record without loading the whole
+     * file into memory. The rows are counted and for the stop times also the bytes which were read from the file so
+     * that they can be compared with the size of the file. Since the reader buffers the file, the bytes read may be
+     * ahead of the current row by at most the size of the buffer. Reading stops as soon as the import is cancelled.
+     * @param location a <code>String</code> containing the directory or zip file to load the file from.
+     * @param fileName a <code>String</code> containing the name of the file to read.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     * @param recordConsumer a <code>Consumer</code> which processes each record of the file.
+     * @return a <code>boolean</code> which is true iff the file exists and could be read completely.
+     * @throws IOException if the file cannot be read.
+     */
+    private boolean readFeedFile ( final String location, final String fileName, final ImportStatistics importStatistics,
+                                   final Consumer<CSVRecord> recordConsumer ) throws IOException {
+        InputStream fileInputStream = fileSystemStorageService.openFile(location, fileName);
+        if ( fileInputStream == null ) {
+            return false;
+        }
+        ByteCountingInputStream inputStream = new ByteCountingInputStream(fileInputStream);
+        try ( BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+              CSVParser csvParser = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true)
+                      .setIgnoreSurroundingSpaces(true).build().parse(skipByteOrderMark(reader)) ) {
+            boolean countBytes = STOP_TIMES_FILE.equals(fileName);
+            long position = 0;
+            for ( CSVRecord record : csvParser ) {
+                if ( importStatistics.isCancelled() ) {
+                    return false;
+                }
+                recordConsumer.accept(record);
+                importStatistics.addRowsRead(1);
+                if ( countBytes ) {
+                    importStatistics.addBytesRead(inputStream.getByteCount() - position);
+                    position = inputStream.getByteCount();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This is a private helper method to skip the byte order mark which some gtfs feeds contain at the start of a file.
+     * @param reader a <code>BufferedReader</code> positioned at the start of the file.
+     * @return a <code>BufferedReader</code> positioned after the byte order mark if one was present.
+     * @throws IOException if the file cannot be read.
+     */
+    private BufferedReader skipByteOrderMark ( final BufferedReader reader ) throws IOException {
+        reader.mark(1);
+        if ( reader.read() != '\uFEFF' ) {
+            reader.reset();
+        }
+        return reader;
+    }
+
+    /**
+     * This is a private helper method to return the value of an optional column of a gtfs record.
+     * @param record a <code>CSVRecord</code> containing the record.
+     * @param column a <code>String</code> with the name of the column.
+     * @return a <code>String</code> with the value which is empty if the column does not exist.
+     */
+    private String getValue ( final CSVRecord record, final String column ) {
+        return record.isMapped(column) && record.isSet(column) ? record.get(column) : "";
+    }
+
+    /**
+     * Private helper method to convert a gtfs time in the format H:mm:ss which may be greater than 24 hours into
+     * the number of seconds after midnight.
+     * @param time a <code>String</code> with the time in the format H:mm:ss.
+     * @return a <code>int</code> with the number of seconds after midnight.
+     */
+    private int convertTimeToSeconds ( final String time ) {
+        String[] timeParts = time.split(":");
+        return Integer.parseInt(timeParts[0]) * 3600 + Integer.parseInt(timeParts[1]) * 60 + Integer.parseInt(timeParts[2]);
+    }
+
+    /**
+     * Private helper method to convert a gtfs service date in the format yyyyMMdd into a date at midnight.
+     * @param serviceDate a <code>String</code> with the date in the format yyyyMMdd.
+     * @return a <code>LocalDateTime</code> with the converted date at midnight.
+     */
+    private LocalDateTime convertServiceDate ( final String serviceDate ) {
+        return LocalDate.parse(serviceDate, DateTimeFormatter.BASIC_ISO_DATE).atStartOfDay();
+    }
+
     /**
      * This is a private helper method which determines that a route should be imported if it is contained in the list
      * of routes to import.
@@ -135,30 +460,97 @@ public class ImportGTFSDataService {
      * This is a private helper method to import the supplied route to the database.
      * @param route a <code>Route</code> object which should be imported.
      * @param agency a <code>Agency</code> object which contains the name of the operator of this route.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     */
+    private void importRoute (final org.onebusaway.gtfs.model.Route route, final Agency agency, final ImportStatistics importStatistics ) {
+        importRoute(route.getShortName(), route.getId().getId(), agency.getName(), importStatistics);
+    }
+
+    /**
+     * This is a private helper method to import the supplied route to the database if it does not exist yet.
+     * @param routeNumber a <code>String</code> with the route number of the route.
+     * @param id a <code>String</code> with the id of the route in the gtfs feed.
+     * @param company a <code>String</code> with the name of the operator of this route.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
      */
-    private void importRoute (final org.onebusaway.gtfs.model.Route route, final Agency agency ) {
-        if ( !RouteUtils.hasRouteAlreadyBeenImported(route.getShortName(), agency.getName(), routeRepository) ) {
+    private void importRoute (final String routeNumber, final String id, final String company, final ImportStatistics importStatistics ) {
+        if ( !RouteUtils.hasRouteAlreadyBeenImported(routeNumber, company, routeRepository) ) {
             routeRepository.insert( Route.builder()
-                    .routeNumber(route.getShortName())
-                    .id(route.getId().getId())
-                    .company(agency.getName())
+                    .routeNumber(routeNumber)
+                    .id(id)
+                    .company(company)
                     .build());
+            importStatistics.incrementRoutes();
         }
     }
 
     /**
-     * This is a private helper method to import the supplied stop to the database.
+     * This is a private helper method to convert the supplied stop into a stop which can be imported to the database.
      * @param stop a <code>Stop</code> object which should be imported.
      * @param company a <code>String</code> with the name of the company serving the stop.
+     * @return a <code>Stop</code> object which can be stored in the database.
      */
-    private void importStop ( final org.onebusaway.gtfs.model.Stop stop, final String company ) {
-        stopRepository.insert(Stop.builder()
+    private Stop convertStop ( final org.onebusaway.gtfs.model.Stop stop, final String company ) {
+        return Stop.builder()
                 .id(stop.getId().getId())
                 .latitude(stop.getLat())
                 .longitude(stop.getLon())
                 .name(stop.getName())
                 .company(company)
-                .build());
+                .build();
+    }
+
+    /**
+     * This is a private helper method to load the names of all stops which have already been imported for a company
+     * so that duplicate stops can be detected without querying the database for each stop time.
+     * @param company a <code>String</code> with the name of the company to load the stops for.
+     * @return a <code>Set</code> of <code>String</code> objects with the names of the stops which already exist.
+     */
+    private Set<String> loadImportedStops ( final String company ) {
+        Set<String> stopNames = new HashSet<>();
+        List<Stop> stops = stopRepository.findByCompany(company);
+        if ( stops != null ) {
+            stops.forEach(stop -> stopNames.add(stop.getName()));
+        }
+        return stopNames;
+    }
+
+    /**
+     * This is a private helper method to write the stop times which have been read from stop_times.txt since the
+     * previous batch. The import generation calls this method after it has assigned the stop times to the staging
+     * generation. The stops of the batch whose name was seen for the first time for their company are inserted as
+     * well since stops are not staged. The stop times are inserted unordered in a single bulk write and both lists are
+     * cleared afterwards so that they can be reused for the next batch.
+     * @param stopTimeBatch a <code>List</code> of <code>StopTime</code> objects to insert.
+     * @param stopBatch a <code>List</code> of <code>Stop</code> objects to insert.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this import.
+     */
+    private void writeBatch ( final List<StopTime> stopTimeBatch, final List<Stop> stopBatch, final ImportStatistics importStatistics ) {
+        if ( !stopBatch.isEmpty() ) {
+            stopRepository.insert(stopBatch);
+            importStatistics.addStops(stopBatch.size());
+            stopBatch.clear();
+        }
+        stopTimeRepository.insertUnordered(stopTimeBatch);
+        importStatistics.addStopTimes(stopTimeBatch.size());
+        stopTimeBatch.clear();
+    }
+
+    /**
+     * This is a private helper method to convert the calendars of a service into the validity window and operating
+     * days which are shared by all stop times of this service.
+     * @param serviceCalendarList a <code>List</code> of <code>ServiceCalendar</code> objects for the service.
+     * @return a <code>ServiceDays</code> object which contains null values unless exactly one calendar exists.
+     */
+    private ServiceDays getServiceDays ( final List<ServiceCalendar> serviceCalendarList ) {
+        if ( serviceCalendarList.size() != 1 ) {
+            return new ServiceDays(null, null, null);
+        }
+        ServiceCalendar serviceCalendar = serviceCalendarList.getFirst();
+        return new ServiceDays(
+                LocalDateTime.of(serviceCalendar.getStartDate().getYear(), serviceCalendar.getStartDate().getMonth(), serviceCalendar.getStartDate().getDay(), 0, 0),
+                LocalDateTime.of(serviceCalendar.getEndDate().getYear(), serviceCalendar.getEndDate().getMonth(), serviceCalendar.getEndDate().getDay(), 0, 0),
+                getOperatingDays(serviceCalendar));
     }
 
     /**
@@ -187,38 +579,98 @@ public class ImportGTFSDataService {
      * @return a <code>OperatingDays</code> object containing the operating days of this service.
      */
     private OperatingDays getOperatingDays (final ServiceCalendar serviceCalendar ) {
+        return getOperatingDays(serviceCalendar.getMonday(), serviceCalendar.getTuesday(), serviceCalendar.getWednesday(),
+                serviceCalendar.getThursday(), serviceCalendar.getFriday(), serviceCalendar.getSaturday(), serviceCalendar.getSunday());
+    }
+
+    /**
+     * This helper method converts the flags for each day of the week into a list of operating days.
+     * @param dayFlags a <code>int</code> array with one flag from Monday to Sunday which is 1 iff the service runs on that day.
+     * @return a <code>OperatingDays</code> object containing the operating days of this service.
+     */
+    private OperatingDays getOperatingDays ( final int... dayFlags ) {
         //Create empty list
         List<DayOfWeek> operatingDays = new ArrayList<>();
-        //Monday
-        if ( serviceCalendar.getMonday() == 1 ) {
-            operatingDays.add(DayOfWeek.MONDAY);
-        }
-        //Tuesday
-        if ( serviceCalendar.getTuesday() == 1 ) {
-            operatingDays.add(DayOfWeek.TUESDAY);
+        for ( int i = 0; i < dayFlags.length; i++ ) {
+            if ( dayFlags[i] == 1 ) {
+                operatingDays.add(DayOfWeek.of(i + 1));
+            }
         }
-        //Wednesday
-        if ( serviceCalendar.getWednesday() == 1 ) {
-            operatingDays.add(DayOfWeek.WEDNESDAY);
+        //Return complete list of operating days.
+        return OperatingDays.builder().operatingDays(operatingDays).build();
+    }
+
+    /**
+     * The route number and company of a route in a gtfs feed.
+     * @param routeNumber the short name of the route.
+     * @param company the name of the company operating the route.
+     */
+    private record GtfsRouteInfo ( String routeNumber, String company ) { }
+
+    /**
+     * The information about a trip in a gtfs feed which is needed to convert its stop times.
+     * @param route the route of the trip.
+     * @param headsign the destination displayed for the trip.
+     * @param serviceDays the validity window and operating days of the trip.
+     */
+    private record GtfsTripInfo ( GtfsRouteInfo route, String headsign, ServiceDays serviceDays ) { }
+
+    /**
+     * The validity window and operating days which are shared by all stop times of a service.
+     * @param validFromDate the date from which the service is valid.
+     * @param validToDate the date until which the service is valid.
+     * @param operatingDays the days on which the service runs.
+     */
+    private record ServiceDays ( LocalDateTime validFromDate, LocalDateTime validToDate, OperatingDays operatingDays ) { }
+
+    /**
+     * An input stream which counts the bytes which have been read from the underlying stream.
+     */
+    private static class ByteCountingInputStream extends FilterInputStream {
+
+        private long byteCount;
+
+        /**
+         * Create a new input stream which counts the bytes read from the supplied stream.
+         * @param inputStream a <code>InputStream</code> to read the bytes from.
+         */
+        ByteCountingInputStream ( final InputStream inputStream ) {
+            super(inputStream);
         }
-        //Thursday
-        if ( serviceCalendar.getThursday() == 1 ) {
-            operatingDays.add(DayOfWeek.THURSDAY);
+
+        @Override
+        public int read ( ) throws IOException {
+            int value = super.read();
+            if ( value != -1 ) {
+                byteCount++;
+            }
+            return value;
         }
-        //Friday
-        if ( serviceCalendar.getFriday() == 1 ) {
-            operatingDays.add(DayOfWeek.FRIDAY);
+
+        @Override
+        public int read ( final byte[] buffer, final int offset, final int length ) throws IOException {
+            int numberOfBytes = super.read(buffer, offset, length);
+            if ( numberOfBytes > 0 ) {
+                byteCount += numberOfBytes;
+            }
+            return numberOfBytes;
         }
-        //Saturday
-        if ( serviceCalendar.getSaturday() == 1 ) {
-            operatingDays.add(DayOfWeek.SATURDAY);
+
+        @Override
+        public long skip ( final long length ) throws IOException {
+            long numberOfBytes = super.skip(length);
+            byteCount += numberOfBytes;
+            return numberOfBytes;
         }
-        //Sunday
-        if ( serviceCalendar.getSunday() == 1 ) {
-            operatingDays.add(DayOfWeek.SUNDAY);
+
+        /**
+         * Return the number of bytes which have been read so far.
+         * @return a <code>long</code> with the number of bytes read.
+         */
+        long getByteCount ( ) {
+            return byteCount;
         }
-        //Return complete list of operating days.
-        return OperatingDays.builder().operatingDays(operatingDays).build();
+
     }
 
 }
@@ -0,0 +1,227 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.GenerationActivation;
+import de.davelee.trams.server.model.ImportCheckpoint;
+import de.davelee.trams.server.model.ImportGeneration;
+import de.davelee.trams.server.repository.GenerationActivationRepository;
+import de.davelee.trams.server.repository.ImportCheckpointRepository;
+import de.davelee.trams.server.repository.StopTimeRepository;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * This class provides a service for writing imported stop times to staging generations. An import writes its stop
+ * times to a new generation which is invisible until the import has been completed. Then the generation becomes the
+ * active generation of all companies of the import with a single activation document and the stop times of the
+ * previous generations are deleted. Imports which fail keep their generation and their last checkpoint so that running
+ * the same import again resumes from the last checkpoint without writing any stop time twice. Only stop times are
+ * staged: routes and stops are written directly by the imports and remain if an import is discarded.
+ * @author Dave Lee
+ */
+@Service
+public class ImportGenerationService {
+
+    @Autowired
+    private ImportCheckpointRepository importCheckpointRepository;
+
+    @Autowired
+    private GenerationActivationRepository generationActivationRepository;
+
+    @Autowired
+    private StopTimeRepository stopTimeRepository;
+
+    @Autowired
+    private FileSystemStorageService fileSystemStorageService;
+
+    @Value("${import.checkpointBatches}")
+    private int checkpointBatches;
+
+    private final static Logger LOG = LoggerFactory.getLogger(ImportGenerationService.class);
+
+    /**
+     * Start an import of the supplied directory or zip file. If the same content has already been imported with the
+     * same parameters but the import was not completed, then the import is resumed from its last checkpoint and the
+     * stop times which were written after the last checkpoint are deleted. Otherwise a new generation is created.
+     * @param location a <code>String</code> with the path to the directory or zip file to import.
+     * @param parameters a <code>String</code> array with the format and the parameters of the import.
+     * @return a <code>ImportGeneration</code> object which the stop times of the import should be written to.
+     * @throws IOException if the directory or zip file cannot be read.
+     */
+    public ImportGeneration startImport ( final String location, final String... parameters ) throws IOException {
+        String checkpointId = getCheckpointId(location, parameters);
+        Optional<ImportCheckpoint> importCheckpoint = importCheckpointRepository.findById(checkpointId);
+        if ( importCheckpoint.isPresent() ) {
+            //The stop times after the last checkpoint will be imported again.
+            long numberOfDeletedStopTimes = stopTimeRepository.deleteByGenerationAndCheckpointGreaterThan(
+                    importCheckpoint.get().getGeneration(), importCheckpoint.get().getCheckpointNumber());
+            LOG.info("Resuming import of {} from checkpoint {} after deleting {} stop times", location,
+                    importCheckpoint.get().getCheckpointNumber(), numberOfDeletedStopTimes);
+            return new ImportGeneration(importCheckpoint.get(), true, checkpointBatches, importCheckpointRepository::save);
+        }
+        return createImport(checkpointId);
+    }
+
+    /**
+     * Start an import of the supplied directory or zip file which cannot be resumed because its rows are not read in a
+     * stable order. The stop times of a previous attempt of the same import are discarded and a new generation is
+     * created.
+     * @param location a <code>String</code> with the path to the directory or zip file to import.
+     * @param parameters a <code>String</code> array with the format and the parameters of the import.
+     * @return a <code>ImportGeneration</code> object which the stop times of the import should be written to.
+     * @throws IOException if the directory or zip file cannot be read.
+     */
+    public ImportGeneration startNewImport ( final String location, final String... parameters ) throws IOException {
+        String checkpointId = getCheckpointId(location, parameters);
+        importCheckpointRepository.findById(checkpointId).ifPresent(importCheckpoint -> {
+            long numberOfDeletedStopTimes = stopTimeRepository.deleteByGeneration(importCheckpoint.getGeneration());
+            LOG.info("Restarting import of {} after deleting {} stop times of the previous attempt", location, numberOfDeletedStopTimes);
+        });
+        return createImport(checkpointId);
+    }
+
+    /**
+     * This is a private helper method to calculate the id of the checkpoint of an import from the content of the
+     * supplied directory or zip file and the import parameters.
+     * @param location a <code>String</code> with the path to the directory or zip file to import.
+     * @param parameters a <code>String</code> array with the format and the parameters of the import.
+     * @return a <code>String</code> with the id of the checkpoint.
+     * @throws IOException if the directory or zip file cannot be read.
+     */
+    private String getCheckpointId ( final String location, final String... parameters ) throws IOException {
+        return DigestUtils.sha256Hex(fileSystemStorageService.getFingerprint(location) + "/" + Arrays.toString(parameters));
+    }
+
+    /**
+     * This is a private helper method to create a new generation for the import with the supplied checkpoint id.
+     * @param checkpointId a <code>String</code> with the id of the checkpoint of the import.
+     * @return a <code>ImportGeneration</code> object which the stop times of the import should be written to.
+     */
+    private ImportGeneration createImport ( final String checkpointId ) {
+        //Store the checkpoint at once so that stop times written before the first checkpoint can be discarded.
+        ImportCheckpoint newImportCheckpoint = ImportCheckpoint.builder()
+                .id(checkpointId)
+                .generation(UUID.randomUUID().toString())
+                .checkpointNumber(0)
+                .files(new ArrayList<>())
+                .companies(new ArrayList<>())
+                .createdAt(LocalDateTime.now())
+                .updatedAt(LocalDateTime.now())
+                .build();
+        importCheckpointRepository.save(newImportCheckpoint);
+        return new ImportGeneration(newImportCheckpoint, false, checkpointBatches, importCheckpointRepository::save);
+    }
+
+    /**
+     * Make the stop times of the supplied generation visible for all companies that the import has written stop times
+     * for. The generation is activated for all companies with a single write of the activation document which hides
+     * all other imported stop times of these companies at once so that readers see either all old or all new stop
+     * times. Only afterwards the imported stop times of the previous generations and the checkpoint are deleted. Stop
+     * times which were not imported are not affected.
+     * @param importGeneration a <code>ImportGeneration</code> object containing the generation of the completed import.
+     */
+    public void activate ( final ImportGeneration importGeneration ) {
+        List<String> companies = importGeneration.getCompanies();
+        if ( companies.isEmpty() ) {
+            importCheckpointRepository.deleteById(importGeneration.getCheckpointId());
+            return;
+        }
+        generationActivationRepository.save(GenerationActivation.builder()
+                .id(importGeneration.getGeneration())
+                .companies(companies)
+                .activatedAt(LocalDateTime.now())
+                .build());
+        //The previous generations are already invisible so they can be deleted company by company.
+        for ( String company : companies ) {
+            long numberOfDeletedStopTimes = stopTimeRepository.deleteByCompanyAndImportedIsTrueAndGenerationNot(company, importGeneration.getGeneration());
+            removeCompany(company, importGeneration.getGeneration());
+            LOG.info("Activated generation {} for {} and deleted {} stop times of previous imports",
+                    importGeneration.getGeneration(), company, numberOfDeletedStopTimes);
+        }
+        importCheckpointRepository.deleteById(importGeneration.getCheckpointId());
+    }
+
+    /**
+     * Delete the stop times and the checkpoint of the supplied generation e.g. because the import was cancelled.
+     * @param importGeneration a <code>ImportGeneration</code> object containing the generation to discard.
+     */
+    public void discard ( final ImportGeneration importGeneration ) {
+        stopTimeRepository.deleteByGeneration(importGeneration.getGeneration());
+        importCheckpointRepository.deleteById(importGeneration.getCheckpointId());
+    }
+
+    /**
+     * Return the active generation of imported stop times of the supplied company. The stop times of the active
+     * generation and the stop times which were not imported are visible.
+     * @param company a <code>String</code> containing the name of the company.
+     * @return a <code>String</code> containing the active generation which is null if the company has no active generation.
+     */
+    public String getActiveGeneration ( final String company ) {
+        return generationActivationRepository.findFirstByCompaniesOrderByActivatedAtDesc(company)
+                .map(GenerationActivation::getId)
+                .orElse(null);
+    }
+
+    /**
+     * Discard all imports which have not been completed and have written stop times for the supplied company e.g.
+     * because all data of the company is deleted. Otherwise running such an import again would skip the rows up to its
+     * last checkpoint although their stop times no longer exist.
+     * @param company a <code>String</code> containing the name of the company to discard imports for.
+     * @return a <code>long</code> with the number of discarded checkpoints.
+     */
+    public long deleteCheckpoints ( final String company ) {
+        List<ImportCheckpoint> importCheckpoints = importCheckpointRepository.findByCompanies(company);
+        for ( ImportCheckpoint importCheckpoint : importCheckpoints ) {
+            stopTimeRepository.deleteByGeneration(importCheckpoint.getGeneration());
+            importCheckpointRepository.deleteById(importCheckpoint.getId());
+        }
+        return importCheckpoints.size();
+    }
+
+    /**
+     * Remove the supplied company from all activations so that the company has no active generation anymore.
+     * @param company a <code>String</code> containing the name of the company to remove the activations for.
+     * @return a <code>long</code> with the number of activations which the company was removed from.
+     */
+    public long deleteActivations ( final String company ) {
+        return removeCompany(company, null);
+    }
+
+    /**
+     * This is a private helper method to remove the supplied company from its activations. Activations without any
+     * companies are deleted.
+     * @param company a <code>String</code> containing the name of the company to remove.
+     * @param keepGeneration a <code>String</code> containing the generation whose activation should be kept which may be null.
+     * @return a <code>long</code> with the number of activations which the company was removed from.
+     */
+    private long removeCompany ( final String company, final String keepGeneration ) {
+        long numberOfActivations = 0;
+        for ( GenerationActivation generationActivation : generationActivationRepository.findByCompanies(company) ) {
+            if ( generationActivation.getId().equals(keepGeneration) ) {
+                continue;
+            }
+            List<String> companies = new ArrayList<>(generationActivation.getCompanies());
+            companies.remove(company);
+            if ( companies.isEmpty() ) {
+                generationActivationRepository.deleteById(generationActivation.getId());
+            } else {
+                generationActivation.setCompanies(companies);
+                generationActivationRepository.save(generationActivation);
+            }
+            numberOfActivations++;
+        }
+        return numberOfActivations;
+    }
+
+}
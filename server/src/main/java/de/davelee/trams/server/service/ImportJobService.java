@@ -0,0 +1,338 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.constant.ImportPhase;
+import de.davelee.trams.server.model.ImportJob;
+import de.davelee.trams.server.model.ImportStatistics;
+import de.davelee.trams.server.repository.ImportJobRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * This class provides a service for running imports of uploaded GTFS and CSV files in the background. Jobs are run by
+ * a bounded number of workers with a bounded queue so that concurrent uploads cannot exhaust the server. The phase and
+ * progress of each job are written to the database regularly so that the status can be retrieved and the job can be
+ * cancelled on any server node. A job whose progress has not been written for too long belonged to a server node which
+ * has stopped and fails when its status is retrieved.
+ * @author Dave Lee
+ */
+@Service
+public class ImportJobService {
+
+    /**
+     * The file format of feeds fulfilling the GTFS specification.
+     */
+    public static final String GTFS_FORMAT = "General Transit Feed Specification (GTFS)";
+
+    /**
+     * The file format of feeds in the CSV format of TraMS.
+     */
+    public static final String CSV_FORMAT = "Comma Separated Value (CSV)";
+
+    private final static Logger LOG = LoggerFactory.getLogger(ImportJobService.class);
+
+    @Autowired
+    private ImportJobRepository importJobRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ImportGTFSDataService gtfsDataService;
+
+    @Autowired
+    private ImportCSVDataService csvDataService;
+
+    @Autowired
+    private FileSystemStorageService fileSystemStorageService;
+
+    @Value("${import.gtfsStreaming}")
+    private boolean gtfsStreaming;
+
+    @Value("${importJob.workers}")
+    private int workers;
+
+    @Value("${importJob.queueSize}")
+    private int queueSize;
+
+    @Value("${importJob.progressSeconds}")
+    private int progressSeconds;
+
+    @Value("${importJob.staleMinutes}")
+    private int staleMinutes;
+
+    private final Map<String, ImportStatistics> runningJobs = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor importExecutor;
+
+    private ScheduledExecutorService progressExecutor;
+
+    /**
+     * Submit the import of a zip file which has already been stored. The job is queued and run in the background.
+     * @param archive a <code>String</code> with the path to the stored zip file which is deleted after the import.
+     * @param fileName a <code>String</code> with the name of the uploaded file.
+     * @param fileFormat a <code>String</code> with the format of the file which is either GTFS or CSV.
+     * @param routesToImport a <code>List</code> of <code>String</code> containing the routes to import which is empty if all routes should be imported.
+     * @param validFromDate a <code>String</code> containing the valid from date of a csv import in format yyyy-MM-dd
+     * @param validToDate a <code>String</code> containing the valid to date of a csv import in format yyyy-MM-dd
+     * @return a <code>ImportJob</code> object containing the id of the queued job.
+     * @throws RejectedExecutionException if the maximum number of jobs are already running or waiting.
+     */
+    public ImportJob submitJob ( final String archive, final String fileName, final String fileFormat, final List<String> routesToImport,
+                                 final String validFromDate, final String validToDate ) {
+        ImportJob importJob = ImportJob.builder()
+                .id(UUID.randomUUID().toString())
+                .fileName(fileName)
+                .fileFormat(fileFormat)
+                .phase(ImportPhase.QUEUED)
+                .createdAt(LocalDateTime.now())
+                .build();
+        importJob.setUpdatedAt(importJob.getCreatedAt());
+        importJobRepository.save(importJob);
+        ImportStatistics importStatistics = new ImportStatistics();
+        runningJobs.put(importJob.getId(), importStatistics);
+        try {
+            getImportExecutor().execute(() -> runJob(importJob, importStatistics, archive, routesToImport, validFromDate, validToDate));
+        } catch ( RejectedExecutionException rejectedExecutionException ) {
+            //The job never started so it is removed completely.
+            runningJobs.remove(importJob.getId());
+            importJobRepository.deleteById(importJob.getId());
+            fileSystemStorageService.delete(archive);
+            throw rejectedExecutionException;
+        }
+        return importJob;
+    }
+
+    /**
+     * Return the current status of the supplied job. Jobs which run on this server node return their current
+     * progress while the progress of jobs on other server nodes is as recent as their last update in the database.
+     * Jobs of server nodes which have stopped are failed.
+     * @param id a <code>String</code> with the id of the job.
+     * @return a <code>ImportJob</code> object containing the status of the job which is null if no job exists with this id.
+     */
+    public ImportJob getJob ( final String id ) {
+        ImportJob importJob = findJob(id, LocalDateTime.now());
+        ImportStatistics importStatistics = runningJobs.get(id);
+        if ( importJob != null && importStatistics != null ) {
+            updateJob(importJob, importStatistics);
+        }
+        return importJob;
+    }
+
+    /**
+     * Cancel the supplied job. A job running on this server node stops as soon as possible while a job running on
+     * another server node stops after that server node has read the cancellation from the database. The stop times
+     * which were staged in the generation of the job are discarded while routes and stops which have already been
+     * imported remain.
+     * @param id a <code>String</code> with the id of the job.
+     * @return a <code>ImportJob</code> object containing the status of the job which is null if no job exists with this id.
+     */
+    public ImportJob cancelJob ( final String id ) {
+        ImportStatistics importStatistics = runningJobs.get(id);
+        if ( importStatistics != null ) {
+            importStatistics.cancel();
+        }
+        ImportJob importJob = findJob(id, LocalDateTime.now());
+        if ( importJob != null && !importJob.getPhase().isFinished() ) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)), Update.update("cancelRequested", true), ImportJob.class);
+            importJob.setCancelRequested(true);
+        }
+        return importJob;
+    }
+
+    /**
+     * Write the progress of all jobs running on this server node to the database and cancel those jobs which have
+     * been cancelled on another server node.
+     */
+    public void writeProgress ( ) {
+        runningJobs.forEach((id, importStatistics) -> {
+            try {
+                ImportJob importJob = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(id)),
+                        new Update().set("phase", importStatistics.getPhase())
+                                .set("rowsRead", importStatistics.getNumberOfRowsRead())
+                                .set("rowsWritten", importStatistics.getNumberOfRowsWritten())
+                                .set("bytesRead", importStatistics.getBytesRead())
+                                .set("totalBytes", importStatistics.getTotalBytes())
+                                .set("updatedAt", LocalDateTime.now()),
+                        FindAndModifyOptions.options().returnNew(true), ImportJob.class);
+                if ( importJob != null && importJob.isCancelRequested() ) {
+                    importStatistics.cancel();
+                }
+            } catch ( RuntimeException runtimeException ) {
+                //The progress is written again with the next update.
+                LOG.warn("Could not write progress of import job " + id, runtimeException);
+            }
+        });
+    }
+
+    /**
+     * Return the number of jobs which are running or waiting on this server node.
+     * @return a <code>int</code> with the number of jobs.
+     */
+    public int getNumberOfRunningJobs ( ) {
+        return runningJobs.size();
+    }
+
+    /**
+     * Stop all jobs which are running on this server node.
+     */
+    @PreDestroy
+    public synchronized void stopJobs ( ) {
+        runningJobs.values().forEach(ImportStatistics::cancel);
+        if ( progressExecutor != null ) {
+            progressExecutor.shutdownNow();
+            progressExecutor = null;
+        }
+        if ( importExecutor != null ) {
+            importExecutor.shutdown();
+            importExecutor = null;
+        }
+    }
+
+    /**
+     * Run the import of a single job and store the result of the job in the database. The uploaded file is deleted
+     * once the import has finished. A job whose data has been activated is completed even if it was cancelled
+     * afterwards since the data is already visible.
+     * @param importJob a <code>ImportJob</code> object containing the job to run.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this job.
+     * @param archive a <code>String</code> with the path to the stored zip file.
+     * @param routesToImport a <code>List</code> of <code>String</code> containing the routes to import.
+     * @param validFromDate a <code>String</code> containing the valid from date of a csv import.
+     * @param validToDate a <code>String</code> containing the valid to date of a csv import.
+     */
+    void runJob ( final ImportJob importJob, final ImportStatistics importStatistics, final String archive,
+                  final List<String> routesToImport, final String validFromDate, final String validToDate ) {
+        importJob.setStartedAt(LocalDateTime.now());
+        try {
+            if ( !importStatistics.isCancelled() ) {
+                mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(importJob.getId())),
+                        Update.update("startedAt", importJob.getStartedAt()).set("updatedAt", importJob.getStartedAt()), ImportJob.class);
+                if ( !runImport(importJob.getFileFormat(), importStatistics, archive, routesToImport, validFromDate, validToDate) ) {
+                    importStatistics.markFailed();
+                }
+            }
+        } catch ( RuntimeException runtimeException ) {
+            LOG.error("Import job " + importJob.getId() + " failed", runtimeException);
+            importStatistics.markFailed();
+        } finally {
+            fileSystemStorageService.delete(archive);
+            importStatistics.setPhase(getFinalPhase(importStatistics));
+            //Keep a cancellation which was requested on another server node since the last progress update.
+            importJob.setCancelRequested(importJobRepository.findById(importJob.getId()).map(ImportJob::isCancelRequested).orElse(false));
+            importJob.setFinishedAt(LocalDateTime.now());
+            importJob.setUpdatedAt(importJob.getFinishedAt());
+            updateJob(importJob, importStatistics);
+            importJobRepository.save(importJob);
+            runningJobs.remove(importJob.getId());
+        }
+    }
+
+    /**
+     * This is a private helper method to determine the phase of a finished job from the outcome of its import.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this job.
+     * @return a <code>ImportPhase</code> which is completed if the imported data was activated.
+     */
+    private ImportPhase getFinalPhase ( final ImportStatistics importStatistics ) {
+        if ( importStatistics.isActivated() ) {
+            return ImportPhase.COMPLETED;
+        }
+        if ( importStatistics.isCancelled() ) {
+            return ImportPhase.CANCELLED;
+        }
+        return importStatistics.isSuccessful() ? ImportPhase.COMPLETED : ImportPhase.FAILED;
+    }
+
+    /**
+     * This is a private helper method to load a job and fail it if it is not finished but has not been updated for
+     * longer than the stale period by any server node. The job is only failed if it has not been updated in the meantime.
+     * @param id a <code>String</code> with the id of the job.
+     * @param currentTime a <code>LocalDateTime</code> object containing the current date and time.
+     * @return a <code>ImportJob</code> object containing the status of the job which is null if no job exists with this id.
+     */
+    private ImportJob findJob ( final String id, final LocalDateTime currentTime ) {
+        ImportJob importJob = importJobRepository.findById(id).orElse(null);
+        if ( importJob == null || importJob.getPhase().isFinished() || runningJobs.containsKey(id) ) {
+            return importJob;
+        }
+        LocalDateTime lastUpdate = importJob.getUpdatedAt() != null ? importJob.getUpdatedAt() : importJob.getCreatedAt();
+        if ( lastUpdate == null || !lastUpdate.isBefore(currentTime.minusMinutes(staleMinutes)) ) {
+            return importJob;
+        }
+        LOG.warn("Import job " + id + " has not been updated since " + lastUpdate + " and is failed");
+        ImportJob expiredJob = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(id)
+                        .and("phase").is(importJob.getPhase()).and("updatedAt").is(importJob.getUpdatedAt())),
+                new Update().set("phase", ImportPhase.FAILED).set("finishedAt", currentTime).set("updatedAt", currentTime),
+                FindAndModifyOptions.options().returnNew(true), ImportJob.class);
+        //If the job has been updated in the meantime then its server node is still running it.
+        return expiredJob != null ? expiredJob : importJobRepository.findById(id).orElse(null);
+    }
+
+    /**
+     * This is a private helper method to run the import of the supplied file with the import service for its format.
+     * @param fileFormat a <code>String</code> with the format of the file.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this job.
+     * @param archive a <code>String</code> with the path to the stored zip file.
+     * @param routesToImport a <code>List</code> of <code>String</code> containing the routes to import.
+     * @param validFromDate a <code>String</code> containing the valid from date of a csv import.
+     * @param validToDate a <code>String</code> containing the valid to date of a csv import.
+     * @return a <code>boolean</code> which is true iff the file could be imported successfully.
+     */
+    private boolean runImport ( final String fileFormat, final ImportStatistics importStatistics, final String archive,
+                                final List<String> routesToImport, final String validFromDate, final String validToDate ) {
+        //In streaming mode GTFS feeds are read directly from the zip file without extracting or loading them completely.
+        if ( GTFS_FORMAT.contentEquals(fileFormat) ) {
+            if ( gtfsStreaming ) {
+                return gtfsDataService.readGTFSFileStreaming(archive, routesToImport, importStatistics);
+            }
+            importStatistics.setPhase(ImportPhase.EXTRACTING);
+            return gtfsDataService.readGTFSFile(fileSystemStorageService.extract(archive), routesToImport, importStatistics);
+        } else if ( CSV_FORMAT.contentEquals(fileFormat) ) {
+            //Csv files are also read directly from the zip file.
+            return csvDataService.importCSVFiles(archive, validFromDate, validToDate, importStatistics).isSuccessful();
+        }
+        return false;
+    }
+
+    /**
+     * This is a private helper method to copy the phase and progress of a running job into the job.
+     * @param importJob a <code>ImportJob</code> object to update.
+     * @param importStatistics a <code>ImportStatistics</code> object containing the counters of this job.
+     */
+    private void updateJob ( final ImportJob importJob, final ImportStatistics importStatistics ) {
+        importJob.setPhase(importStatistics.getPhase());
+        importJob.setRowsRead(importStatistics.getNumberOfRowsRead());
+        importJob.setRowsWritten(importStatistics.getNumberOfRowsWritten());
+        importJob.setBytesRead(importStatistics.getBytesRead());
+        importJob.setTotalBytes(importStatistics.getTotalBytes());
+    }
+
+    /**
+     * This is a private helper method to return the executor running the jobs which is created when the first job is
+     * submitted. The progress of the jobs is written to the database regularly from then on.
+     * @return a <code>ThreadPoolExecutor</code> object with a bounded number of workers and a bounded queue.
+     */
+    private synchronized ThreadPoolExecutor getImportExecutor ( ) {
+        if ( importExecutor == null ) {
+            importExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                    Thread.ofPlatform().daemon().name("import-job-", 1).factory());
+            progressExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("import-job-progress").factory());
+            progressExecutor.scheduleAtFixedRate(this::writeProgress, progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        }
+        return importExecutor;
+    }
+
+}
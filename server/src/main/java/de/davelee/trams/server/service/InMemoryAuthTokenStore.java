@@ -0,0 +1,116 @@
+package de.davelee.trams.server.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class provides a store for authentication tokens which keeps the tokens of this server node in a concurrent map
+ * so that logins and token checks never block each other. Expired tokens are removed by a sweeper which runs at a
+ * fixed interval so that the map only contains the tokens of logins within the logout period. The map is keyed by the
+ * token itself so that checking a token is a single map lookup without any hashing on each request. This is the
+ * default store.
+ * @author Dave Lee
+ */
+@Service
+@ConditionalOnProperty(name="token.store", havingValue="memory", matchIfMissing=true)
+public class InMemoryAuthTokenStore implements AuthTokenStore {
+
+    @Value("${token.sweepSeconds}")
+    private int sweepSeconds;
+
+    private final Map<String, Long> expiryTimes = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService sweepExecutor;
+
+    /**
+     * Store the supplied token until the supplied expiry time and start the sweeper if it is not running yet.
+     * @param token a <code>String</code> containing the token to store.
+     * @param expiryTime a <code>long</code> with the time in milliseconds after which the token is no longer valid.
+     */
+    @Override
+    public void store ( final String token, final long expiryTime ) {
+        expiryTimes.put(token, expiryTime);
+        startSweeper();
+    }
+
+    /**
+     * Check if the supplied token is stored and has not expired at the supplied time with a single lookup.
+     * @param token a <code>String</code> containing the token to check.
+     * @param currentTime a <code>long</code> with the current time in milliseconds.
+     * @return a <code>boolean</code> which is true iff the token is valid.
+     */
+    @Override
+    public boolean isValid ( final String token, final long currentTime ) {
+        Long expiryTime = expiryTimes.get(token);
+        return expiryTime != null && expiryTime >= currentTime;
+    }
+
+    /**
+     * Remove the supplied token so that it is no longer valid.
+     * @param token a <code>String</code> containing the token to remove.
+     */
+    @Override
+    public void remove ( final String token ) {
+        expiryTimes.remove(token);
+    }
+
+    /**
+     * Remove all tokens which have expired before the supplied time.
+     * @param currentTime a <code>long</code> with the current time in milliseconds.
+     * @return a <code>long</code> with the number of removed tokens.
+     */
+    @Override
+    public long removeExpired ( final long currentTime ) {
+        long numberOfRemovedTokens = 0;
+        for ( Map.Entry<String, Long> entry : expiryTimes.entrySet() ) {
+            //Only remove the token if it has not been stored again in the meantime.
+            if ( entry.getValue() < currentTime && expiryTimes.remove(entry.getKey(), entry.getValue()) ) {
+                numberOfRemovedTokens++;
+            }
+        }
+        return numberOfRemovedTokens;
+    }
+
+    /**
+     * Return the number of tokens which are currently stored including expired tokens which have not been swept yet.
+     * @return a <code>int</code> with the number of stored tokens.
+     */
+    public int size ( ) {
+        return expiryTimes.size();
+    }
+
+    /**
+     * Stop the sweeper. The sweeper is started again when the next token is stored.
+     */
+    @PreDestroy
+    public synchronized void stopSweeper ( ) {
+        if ( sweepExecutor != null ) {
+            sweepExecutor.shutdownNow();
+            sweepExecutor = null;
+        }
+    }
+
+    /**
+     * This is a private helper method to start the sweeper when the first token is stored.
+     */
+    private void startSweeper ( ) {
+        if ( sweepExecutor == null ) {
+            synchronized ( this ) {
+                if ( sweepExecutor == null ) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("auth-token-sweeper").factory());
+                    executor.scheduleAtFixedRate(() -> removeExpired(System.currentTimeMillis()), sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+                    sweepExecutor = executor;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.AuthToken;
+import de.davelee.trams.server.repository.AuthTokenRepository;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * This class provides a store for authentication tokens which keeps the tokens in the database so that several server
+ * nodes can share the logins of their users. Only the hash of each token is stored and expired tokens are removed by
+ * the database using a time-to-live index. This store is used if the token.store property is set to mongo.
+ * @author Dave Lee
+ */
+@Service
+@ConditionalOnProperty(name="token.store", havingValue="mongo")
+public class MongoAuthTokenStore implements AuthTokenStore {
+
+    @Autowired
+    private AuthTokenRepository authTokenRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Create the time-to-live index which removes tokens as soon as they have expired.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureExpiryIndex ( ) {
+        mongoTemplate.indexOps(AuthToken.class).ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC)
+                .named("expiresAt_ttl").expire(Duration.ZERO));
+    }
+
+    /**
+     * Store the hash of the supplied token until the supplied expiry time.
+     * @param token a <code>String</code> containing the token to store.
+     * @param expiryTime a <code>long</code> with the time in milliseconds after which the token is no longer valid.
+     */
+    @Override
+    public void store ( final String token, final long expiryTime ) {
+        authTokenRepository.save(AuthToken.builder().id(hash(token)).expiresAt(Instant.ofEpochMilli(expiryTime)).build());
+    }
+
+    /**
+     * Check if the supplied token is stored and has not expired at the supplied time. The expiry time is checked as
+     * well because the database only removes expired tokens periodically.
+     * @param token a <code>String</code> containing the token to check.
+     * @param currentTime a <code>long</code> with the current time in milliseconds.
+     * @return a <code>boolean</code> which is true iff the token is valid.
+     */
+    @Override
+    public boolean isValid ( final String token, final long currentTime ) {
+        return authTokenRepository.findById(hash(token))
+                .map(authToken -> authToken.getExpiresAt().toEpochMilli() >= currentTime)
+                .orElse(false);
+    }
+
+    /**
+     * Remove the supplied token so that it is no longer valid on any server node.
+     * @param token a <code>String</code> containing the token to remove.
+     */
+    @Override
+    public void remove ( final String token ) {
+        authTokenRepository.deleteById(hash(token));
+    }
+
+    /**
+     * Remove all tokens which have expired before the supplied time without waiting for the database.
+     * @param currentTime a <code>long</code> with the current time in milliseconds.
+     * @return a <code>long</code> with the number of removed tokens.
+     */
+    @Override
+    public long removeExpired ( final long currentTime ) {
+        return authTokenRepository.deleteByExpiresAtBefore(Instant.ofEpochMilli(currentTime));
+    }
+
+    /**
+     * This is a private helper method to calculate the hash of a token which is stored instead of the token itself.
+     * @param token a <code>String</code> containing the token.
+     * @return a <code>String</code> containing the hexadecimal SHA-256 hash of the token.
+     */
+    private static String hash ( final String token ) {
+        return DigestUtils.sha256Hex(token);
+    }
+
+}
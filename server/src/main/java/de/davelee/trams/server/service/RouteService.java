@@ -1,22 +1,58 @@
 package de.davelee.trams.server.service;
 
+import de.davelee.trams.server.model.CacheInvalidation;
 import de.davelee.trams.server.model.Route;
 import de.davelee.trams.server.repository.RouteRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
- * This class provides a service for managing routes in Trams Server.
+ * This class provides a service for managing routes in Trams Server. The routes of each company are cached after they
+ * have been loaded once so that route lookups for departures and journeys do not need a database query per route.
+ * The cache is limited in the number of companies and the age of the entries and the company entry is invalidated
+ * whenever the routes of the company change on any server node. The number of hits, misses and evictions are published as metrics.
  * @author Dave Lee
  */
 @Service
-public class RouteService {
+public class RouteService implements MeterBinder {
+
+    /**
+     * The name of this cache in the invalidations shared with the other server nodes.
+     */
+    public static final String CACHE_NAME = "routes";
 
     @Autowired
     private RouteRepository routeRepository;
 
+    @Autowired
+    private CacheInvalidationService cacheInvalidationService;
+
+    @Value("${routeCache.maximumCompanies}")
+    private int maximumCompanies;
+
+    @Value("${routeCache.timeToLiveSeconds}")
+    private long timeToLiveSeconds;
+
+    private final Map<String, CompanyRoutes> routeCache = new ConcurrentHashMap<>();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    private final AtomicLong cacheEvictions = new AtomicLong();
+
     /**
      * Add the supplied route to the database.
      * @param route a <code>Route</code> object containing the information about the route to be added.
@@ -24,26 +60,48 @@ public class RouteService {
      */
     public boolean addRoute ( final Route route) {
         //Attempt to add the route to the database.
-        return routeRepository.save(route) != null;
+        try {
+            return routeRepository.save(route) != null;
+        } finally {
+            invalidateRoutes(route.getCompany());
+        }
     }
 
     /**
      * Return all routes for the specified company that are currently stored in the database.
      * @param company a <code>String</code> containing the name of the company to search for.
-     * @return a <code>List</code> of <code>Route</code> objects which may be null if there are no routes in the database.
+     * @return a <code>List</code> of <code>Route</code> objects which may be empty if there are no routes in the database.
      */
     public List<Route> getRoutesByCompany ( final String company ) {
-        return routeRepository.findByCompany(company);
+        return getCompanyRoutes(company).routes();
     }
 
     /**
      * Return all routes for the specified company that are currently stored in the database.
      * @param company a <code>String</code> containing the name of the company to search for.
      * @param routeNumber a <code>String</code> containing the route number to search for.
-     * @return a <code>List</code> of <code>Route</code> objects which may be null if there are no routes in the database matching the criteria.
+     * @return a <code>List</code> of <code>Route</code> objects which may be empty if there are no routes in the database matching the criteria.
      */
     public List<Route> getRoutesByCompanyAndRouteNumber ( final String company, final String routeNumber ) {
-        return routeRepository.findByCompanyAndRouteNumber(company, routeNumber);
+        return getCompanyRoutes(company).routesByNumber().getOrDefault(routeNumber, List.of());
+    }
+
+    /**
+     * Return the routes for many route numbers of the specified company at once.
+     * @param company a <code>String</code> containing the name of the company to search for.
+     * @param routeNumbers a <code>Collection</code> of <code>String</code> objects containing the route numbers to search for.
+     * @return a <code>Map</code> with each route number which exists for this company and its routes.
+     */
+    public Map<String, List<Route>> getRoutesByCompanyAndRouteNumbers ( final String company, final Collection<String> routeNumbers ) {
+        Map<String, List<Route>> routesByNumber = getCompanyRoutes(company).routesByNumber();
+        Map<String, List<Route>> routes = new LinkedHashMap<>();
+        for ( String routeNumber : routeNumbers ) {
+            List<Route> numberRoutes = routesByNumber.get(routeNumber);
+            if ( numberRoutes != null ) {
+                routes.put(routeNumber, numberRoutes);
+            }
+        }
+        return routes;
     }
 
     /**
@@ -51,8 +109,186 @@ public class RouteService {
      * @param route a <code>Route</code> object which should be deleted from the database.
      */
     public void deleteRoute ( final Route route ) {
-        routeRepository.delete(route);
+        try {
+            routeRepository.delete(route);
+        } finally {
+            invalidateRoutes(route.getCompany());
+        }
+    }
+
+    /**
+     * Delete all routes for the specified company from the database.
+     * @param company a <code>String</code> containing the name of the company to delete routes for.
+     * @return a <code>long</code> with the number of deleted routes.
+     */
+    public long deleteRoutes ( final String company ) {
+        try {
+            return routeRepository.deleteByCompany(company);
+        } finally {
+            invalidateRoutes(company);
+        }
+    }
+
+    /**
+     * Invalidate the cached routes for the supplied company. This method should be called whenever routes for the
+     * company are added, imported or deleted without using this service.
+     * @param company a <code>String</code> containing the name of the company to invalidate the routes for.
+     */
+    public void invalidateRoutes ( final String company ) {
+        if ( company != null ) {
+            routeCache.remove(company);
+            cacheInvalidationService.publish(CACHE_NAME, company);
+        }
+    }
+
+    /**
+     * Invalidate the cached routes of this server node after another server node has invalidated them.
+     * @param cacheInvalidation a <code>CacheInvalidation</code> object containing the invalidation of the other server node.
+     */
+    @EventListener
+    public void onCacheInvalidation ( final CacheInvalidation cacheInvalidation ) {
+        if ( CACHE_NAME.equals(cacheInvalidation.getCache()) ) {
+            if ( cacheInvalidation.getCompany() == null ) {
+                routeCache.clear();
+            } else {
+                routeCache.remove(cacheInvalidation.getCompany());
+            }
+        }
+    }
+
+    /**
+     * Return the number of route lookups which could be answered from the cache.
+     * @return a <code>long</code> with the number of cache hits.
+     */
+    public long getCacheHits ( ) {
+        return cacheHits.get();
     }
 
+    /**
+     * Return the number of route lookups which had to load the routes from the database.
+     * @return a <code>long</code> with the number of cache misses.
+     */
+    public long getCacheMisses ( ) {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Return the number of companies whose routes were removed from the cache because the cache was full.
+     * @return a <code>long</code> with the number of cache evictions.
+     */
+    public long getCacheEvictions ( ) {
+        return cacheEvictions.get();
+    }
+
+    /**
+     * Publish the hits, misses, evictions and size of the route cache as metrics.
+     * @param meterRegistry a <code>MeterRegistry</code> object to register the metrics with.
+     */
+    @Override
+    public void bindTo ( final MeterRegistry meterRegistry ) {
+        FunctionCounter.builder("trams.routeCache.hits", cacheHits, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("trams.routeCache.misses", cacheMisses, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("trams.routeCache.evictions", cacheEvictions, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("trams.routeCache.companies", routeCache, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * This is a private helper method to return the cached routes of a company. If the routes are not cached or the
+     * cached routes have expired, then the routes are loaded from the database with a single query.
+     * @param company a <code>String</code> containing the name of the company to return the routes for.
+     * @return a <code>CompanyRoutes</code> object containing all routes of the company.
+     */
+    private CompanyRoutes getCompanyRoutes ( final String company ) {
+        long now = System.nanoTime();
+        CompanyRoutes companyRoutes = routeCache.get(company);
+        if ( companyRoutes != null && !companyRoutes.hasExpired(now, timeToLiveSeconds) ) {
+            cacheHits.incrementAndGet();
+            companyRoutes.lastAccess = now;
+            return companyRoutes;
+        }
+        //Load the routes while holding the entry so that an invalidation during loading waits for the load to finish.
+        companyRoutes = routeCache.compute(company, (key, cachedRoutes) -> {
+            if ( cachedRoutes != null && !cachedRoutes.hasExpired(now, timeToLiveSeconds) ) {
+                cacheHits.incrementAndGet();
+                return cachedRoutes;
+            }
+            cacheMisses.incrementAndGet();
+            return new CompanyRoutes(routeRepository.findByCompany(company), now);
+        });
+        evictLeastRecentlyUsed();
+        return companyRoutes;
+    }
+
+    /**
+     * This is a private helper method to remove the companies which were used least recently until the cache does
+     * not contain more than the maximum number of companies.
+     */
+    private void evictLeastRecentlyUsed ( ) {
+        while ( routeCache.size() > maximumCompanies ) {
+            Optional<Map.Entry<String, CompanyRoutes>> leastRecentlyUsed = routeCache.entrySet().stream()
+                    .min(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+            if ( leastRecentlyUsed.isEmpty() ) {
+                return;
+            }
+            if ( routeCache.remove(leastRecentlyUsed.get().getKey(), leastRecentlyUsed.get().getValue()) ) {
+                cacheEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * This class represents the cached routes of a company in the order of the database and grouped by route number.
+     */
+    private static class CompanyRoutes {
+
+        private final List<Route> routes;
+
+        private final Map<String, List<Route>> routesByNumber;
+
+        private final long loadedAt;
+
+        private volatile long lastAccess;
+
+        /**
+         * Create a new cache entry for the supplied routes.
+         * @param routes a <code>List</code> of <code>Route</code> objects which may be null if the company has no routes.
+         * @param loadedAt a <code>long</code> with the time in nanoseconds when the routes were loaded.
+         */
+        CompanyRoutes ( final List<Route> routes, final long loadedAt ) {
+            this.routes = routes != null ? List.copyOf(routes) : List.of();
+            this.routesByNumber = this.routes.stream()
+                    .filter(route -> route.getRouteNumber() != null)
+                    .collect(Collectors.groupingBy(Route::getRouteNumber, Collectors.toUnmodifiableList()));
+            this.loadedAt = loadedAt;
+            this.lastAccess = loadedAt;
+        }
+
+        /**
+         * Return the routes in the order of the database.
+         * @return a <code>List</code> of <code>Route</code> objects which cannot be modified.
+         */
+        List<Route> routes ( ) {
+            return routes;
+        }
+
+        /**
+         * Return the routes grouped by route number.
+         * @return a <code>Map</code> with each route number and its routes.
+         */
+        Map<String, List<Route>> routesByNumber ( ) {
+            return routesByNumber;
+        }
+
+        /**
+         * Check whether the routes were loaded longer ago than the supplied time to live.
+         * @param now a <code>long</code> with the current time in nanoseconds.
+         * @param timeToLiveSeconds a <code>long</code> with the number of seconds that routes may be cached.
+         * @return a <code>boolean</code> which is true iff the routes must be loaded again.
+         */
+        boolean hasExpired ( final long now, final long timeToLiveSeconds ) {
+            return now - loadedAt > TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+        }
+
+    }
 
 }
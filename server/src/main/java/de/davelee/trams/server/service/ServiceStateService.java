@@ -0,0 +1,87 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.ServiceState;
+import de.davelee.trams.server.model.ServiceTrip;
+import de.davelee.trams.server.repository.ServiceStateRepository;
+import de.davelee.trams.server.request.ServiceChangeRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * This class provides a service for managing the state of services in Trams Server. Only services which have been
+ * changed have a state so that a change or a reset of the services is a single write and the stop times of the
+ * company are not touched.
+ * @author Dave Lee
+ */
+@Service
+public class ServiceStateService {
+
+    @Autowired
+    private ServiceStateRepository serviceStateRepository;
+
+    /**
+     * Save the state of the service in the supplied change request replacing any previous state of this service.
+     * @param serviceChangeRequest a <code>ServiceChangeRequest</code> object containing the new state of the service.
+     */
+    public void updateServiceState ( final ServiceChangeRequest serviceChangeRequest ) {
+        //The id is derived from the service so that saving replaces the previous state without loading it.
+        serviceStateRepository.save(ServiceState.builder()
+                .id(ServiceState.buildId(serviceChangeRequest.getCompany(), serviceChangeRequest.getScheduleId(), serviceChangeRequest.getServiceId()))
+                .company(serviceChangeRequest.getCompany())
+                .scheduleId(serviceChangeRequest.getScheduleId())
+                .serviceId(serviceChangeRequest.getServiceId())
+                .outOfService(serviceChangeRequest.isOutOfService())
+                .tempStartStopPos(serviceChangeRequest.getTempStartStopPos())
+                .tempEndStopPos(serviceChangeRequest.getTempEndStopPos())
+                .build());
+    }
+
+    /**
+     * Reset all services of the supplied company so that they run normally again.
+     * @param company a <code>String</code> containing the name of the company to reset the services for.
+     * @return a <code>long</code> with the number of services which were reset.
+     */
+    public long resetServiceStates ( final String company ) {
+        return serviceStateRepository.deleteByCompany(company);
+    }
+
+    /**
+     * Return the states of all changed services of the supplied company.
+     * @param company a <code>String</code> containing the name of the company to retrieve the service states for.
+     * @return a <code>Map</code> with the id of each service state and the service state which is empty if all services run normally.
+     */
+    public Map<String, ServiceState> getServiceStates ( final String company ) {
+        return serviceStateRepository.findByCompany(company).stream()
+                .collect(Collectors.toMap(ServiceState::getId, Function.identity(), (first, second) -> second));
+    }
+
+    /**
+     * Return the supplied service with its current state. The supplied service is not changed since it may be shared
+     * by many stop times.
+     * @param company a <code>String</code> containing the name of the company running the service.
+     * @param service a <code>ServiceTrip</code> object containing the service as it was compiled.
+     * @param serviceStates a <code>Map</code> with the service states of the company as returned by getServiceStates.
+     * @return a <code>ServiceTrip</code> object containing the service with its current state.
+     */
+    public static ServiceTrip applyServiceState ( final String company, final ServiceTrip service, final Map<String, ServiceState> serviceStates ) {
+        if ( service == null || service.getRouteSchedule() == null ) {
+            return service;
+        }
+        ServiceState serviceState = serviceStates.get(ServiceState.buildId(company, service.getRouteSchedule().getRouteNumberAndScheduleId(), service.getServiceId()));
+        //Services without a state run normally from the first to the last stop.
+        int lastStopPos = service.getStopList() != null ? service.getStopList().size() - 1 : 0;
+        return ServiceTrip.builder()
+                .serviceId(service.getServiceId())
+                .routeSchedule(service.getRouteSchedule())
+                .stopList(service.getStopList())
+                .outOfService(serviceState != null && serviceState.isOutOfService())
+                .tempStartStopPos(serviceState != null ? serviceState.getTempStartStopPos() : 0)
+                .tempEndStopPos(serviceState != null ? serviceState.getTempEndStopPos() : lastStopPos)
+                .build();
+    }
+
+}
@@ -51,10 +51,10 @@ public class StopService {
     /**
      * Delete all stops currently stored in the database for the specified company.
      * @param company a <code>String</code> object containing the name of the company to return stops for.
+     * @return a <code>long</code> with the number of deleted stops.
      */
-    public void deleteStops(final String company) {
-        List<Stop> stops = getStopsByCompany(company);
-        stops.forEach(stopRepository::delete);
+    public long deleteStops(final String company) {
+        return stopRepository.deleteByCompany(company);
     }
 
 }
@@ -0,0 +1,174 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.CacheInvalidation;
+import de.davelee.trams.server.model.RaptorTimetable;
+import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.model.StopTimeIndex;
+import de.davelee.trams.server.model.TimetableSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * This class provides a service which holds an in-memory timetable snapshot of all stop times per company so that
+ * departure and arrival boards, positions and journeys do not have to reload stop times from the database on every
+ * request. Each snapshot is built once from a single streamed query for the company and shared by the stop indexes and
+ * the journey planning timetable of the company. Concurrent requests for a company which is being loaded wait for the
+ * same load instead of loading the company again. The snapshot for a company must be invalidated whenever the stop
+ * times of the company change. Invalidations are shared with the other server nodes.
+ * @author Dave Lee
+ */
+@Service
+public class StopTimeIndexService {
+
+    /**
+     * The name of this cache in the invalidations shared with the other server nodes.
+     */
+    public static final String CACHE_NAME = "stopTimes";
+
+    @Autowired
+    private CacheInvalidationService cacheInvalidationService;
+
+    private final Map<String, CompletableFuture<TimetableSnapshot>> companySnapshots = new ConcurrentHashMap<>();
+
+    private final Map<String, CompanyTimetable> companyTimetables = new ConcurrentHashMap<>();
+
+    /**
+     * Return the timetable snapshot for the supplied company. If no snapshot exists yet, then the stop times are loaded
+     * with the supplied loader and a new snapshot is built. Only one request loads the stop times of a company and all
+     * other requests for the company wait for this load.
+     * @param company a <code>String</code> containing the name of the company to retrieve the snapshot for.
+     * @param loader a <code>Supplier</code> which streams all stop times for this company from the database.
+     * @return a <code>TimetableSnapshot</code> object containing all stop times for this company.
+     */
+    public TimetableSnapshot getSnapshot ( final String company, final Supplier<Stream<StopTime>> loader ) {
+        CompletableFuture<TimetableSnapshot> snapshot = companySnapshots.get(company);
+        if ( snapshot == null ) {
+            //The stop times are loaded outside of the map so that other companies and invalidations are not blocked.
+            CompletableFuture<TimetableSnapshot> loadingSnapshot = new CompletableFuture<>();
+            snapshot = companySnapshots.putIfAbsent(company, loadingSnapshot);
+            if ( snapshot == null ) {
+                return loadSnapshot(company, loader, loadingSnapshot);
+            }
+        }
+        try {
+            return snapshot.join();
+        } catch ( CompletionException completionException ) {
+            if ( completionException.getCause() instanceof RuntimeException runtimeException ) {
+                throw runtimeException;
+            }
+            throw completionException;
+        }
+    }
+
+    /**
+     * Return the index for the supplied company and stop. If no snapshot exists for the company yet, then the stop
+     * times are loaded with the supplied loader and a new snapshot is built.
+     * @param company a <code>String</code> containing the name of the company to retrieve the index for.
+     * @param stopName a <code>String</code> containing the name of the stop to retrieve the index for.
+     * @param loader a <code>Supplier</code> which streams all stop times for this company from the database.
+     * @return a <code>StopTimeIndex</code> object containing all stop times for this company and stop.
+     */
+    public StopTimeIndex getIndex ( final String company, final String stopName, final Supplier<Stream<StopTime>> loader ) {
+        return getSnapshot(company, loader).getIndex(stopName);
+    }
+
+    /**
+     * Return the journey planning timetable for the supplied company. If no timetable exists yet, then it is built
+     * from the snapshot of the company which is loaded with the supplied loader if necessary. A timetable is only
+     * rebuilt if the snapshot of the company has changed.
+     * @param company a <code>String</code> containing the name of the company to retrieve the timetable for.
+     * @param loader a <code>Supplier</code> which streams all stop times for this company from the database.
+     * @return a <code>RaptorTimetable</code> object containing all trips of this company.
+     */
+    public RaptorTimetable getTimetable ( final String company, final Supplier<Stream<StopTime>> loader ) {
+        TimetableSnapshot snapshot = getSnapshot(company, loader);
+        CompanyTimetable companyTimetable = companyTimetables.get(company);
+        if ( companyTimetable == null || companyTimetable.snapshot() != snapshot ) {
+            companyTimetable = new CompanyTimetable(snapshot, new RaptorTimetable(snapshot));
+            companyTimetables.put(company, companyTimetable);
+        }
+        return companyTimetable.timetable();
+    }
+
+    /**
+     * Invalidate all indexes for the supplied company. This method should be called whenever stop times for the company
+     * are imported, generated, changed or deleted.
+     * @param company a <code>String</code> containing the name of the company to invalidate the indexes for.
+     */
+    public void invalidate ( final String company ) {
+        if ( company != null ) {
+            evict(company);
+            cacheInvalidationService.publish(CACHE_NAME, company);
+        }
+    }
+
+    /**
+     * Invalidate the indexes for all companies.
+     */
+    public void invalidateAll ( ) {
+        evict(null);
+        cacheInvalidationService.publish(CACHE_NAME, null);
+    }
+
+    /**
+     * Invalidate the indexes of this server node after another server node has invalidated them.
+     * @param cacheInvalidation a <code>CacheInvalidation</code> object containing the invalidation of the other server node.
+     */
+    @EventListener
+    public void onCacheInvalidation ( final CacheInvalidation cacheInvalidation ) {
+        if ( CACHE_NAME.equals(cacheInvalidation.getCache()) ) {
+            evict(cacheInvalidation.getCompany());
+        }
+    }
+
+    /**
+     * This is a private helper method to build the snapshot of a company from the stop times streamed by the supplied
+     * loader and complete the supplied future which the other requests for the company wait for. If the load fails then
+     * the future is removed so that the next request loads the company again.
+     * @param company a <code>String</code> containing the name of the company to load the snapshot for.
+     * @param loader a <code>Supplier</code> which streams all stop times for this company from the database.
+     * @param loadingSnapshot a <code>CompletableFuture</code> which is completed with the snapshot.
+     * @return a <code>TimetableSnapshot</code> object containing all stop times for this company.
+     */
+    private TimetableSnapshot loadSnapshot ( final String company, final Supplier<Stream<StopTime>> loader, final CompletableFuture<TimetableSnapshot> loadingSnapshot ) {
+        try ( Stream<StopTime> stopTimes = loader.get() ) {
+            TimetableSnapshot snapshot = new TimetableSnapshot(company, stopTimes);
+            loadingSnapshot.complete(snapshot);
+            return snapshot;
+        } catch ( RuntimeException | Error exception ) {
+            companySnapshots.remove(company, loadingSnapshot);
+            loadingSnapshot.completeExceptionally(exception);
+            throw exception;
+        }
+    }
+
+    /**
+     * This is a private helper method to remove the snapshot and timetable of a company from this server node.
+     * @param company a <code>String</code> containing the name of the company which is null for all companies.
+     */
+    private void evict ( final String company ) {
+        if ( company == null ) {
+            companySnapshots.clear();
+            companyTimetables.clear();
+        } else {
+            companySnapshots.remove(company);
+            companyTimetables.remove(company);
+        }
+    }
+
+    /**
+     * The journey planning timetable of a company together with the snapshot which it was built from.
+     * @param snapshot a <code>TimetableSnapshot</code> object which the timetable was built from.
+     * @param timetable a <code>RaptorTimetable</code> object containing all trips of the company.
+     */
+    private record CompanyTimetable ( TimetableSnapshot snapshot, RaptorTimetable timetable ) { }
+
+}
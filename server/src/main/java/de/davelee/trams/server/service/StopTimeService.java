@@ -1,18 +1,26 @@
 package de.davelee.trams.server.service;
 
 import de.davelee.trams.server.model.*;
+import de.davelee.trams.server.repository.CompilationActivationRepository;
 import de.davelee.trams.server.repository.StopTimeRepository;
+import de.davelee.trams.server.repository.TripRepository;
 import de.davelee.trams.server.request.GenerateStopTimesRequest;
 import de.davelee.trams.server.request.ServiceChangeRequest;
 import de.davelee.trams.server.utils.DateUtils;
 import de.davelee.trams.server.utils.FrequencyPatternUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class provides a service for managing stop times in Trams Server.
@@ -24,22 +32,40 @@ public class StopTimeService {
     @Autowired
     private StopTimeRepository stopTimeRepository;
 
+    @Autowired
+    private TripRepository tripRepository;
+
+    @Autowired
+    private CompilationActivationRepository compilationActivationRepository;
+
     @Autowired
     private CompanyService companyService;
 
+    @Autowired
+    private StopTimeIndexService stopTimeIndexService;
+
+    @Autowired
+    private ServiceStateService serviceStateService;
+
+    @Autowired
+    private ImportGenerationService importGenerationService;
+
+    @Value("${import.batchSize}")
+    private int batchSize;
+
     /**
      * Add the supplied list of stop times to the database.
      * @param stopTimeList a <code>List</code> of <code>StopTime</code> objects containing the list of stop times to be added.
      * @return a <code>boolean</code> which is true iff all of the stop times were added successfully.
      */
     public boolean addStopTimes ( final List<StopTime> stopTimeList ) {
-        //Attempt to add all of the stop times to the database.
-        for ( StopTime stopTime : stopTimeList ) {
-            if ( stopTimeRepository.save(stopTime) == null ) {
-                return false;
-            }
+        //Attempt to add all of the stop times to the database with their services stored as trips.
+        try {
+            return stopTimeRepository.insertUnordered(stopTimeList) == stopTimeList.size();
+        } finally {
+            //Invalidate after the write so that no snapshot without the new stop times is cached.
+            stopTimeList.stream().map(StopTime::getCompany).distinct().forEach(stopTimeIndexService::invalidate);
         }
-        return true;
     }
 
     /**
@@ -51,7 +77,7 @@ public class StopTimeService {
      * are no departures in next 2 hours.
      */
     public List<StopTime> getDepartures (final String stopName, final String company, final String startingTime, final String scheduleNumber ) {
-        return getTimes(stopName, company, startingTime, "Departure", Comparator.comparing(StopTime::getDepartureTime), scheduleNumber);
+        return getTimes(stopName, company, startingTime, "Departure", scheduleNumber);
     }
 
     /**
@@ -63,7 +89,7 @@ public class StopTimeService {
      * are no arrivals in next 2 hours.
      */
     public List<StopTime> getArrivals (final String stopName, final String company, final String startingTime, final String scheduleNumber ) {
-        return getTimes(stopName, company, startingTime, "Arrival", Comparator.comparing(StopTime::getArrivalTime), scheduleNumber);
+        return getTimes(stopName, company, startingTime, "Arrival", scheduleNumber);
     }
 
     /**
@@ -72,42 +98,29 @@ public class StopTimeService {
      * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
      * @param startingTime a <code>String</code> containing the time to start retrieving stop times from which may be null if current time should be used.
      * @param type a <code>String</code> which can be either Departure to return the departures or Arrival to return the arrivals.
-     * @param comparator a <code>Comparator</code> of <code>StopTime</code> which defines how the departures or arrivals will be sorted.
+     * @param scheduleNumber a <code>String</code> containing the schedule number to filter by which may be empty.
      * @return a <code>List</code> of <code>StopTime</code> objects which may be null if the stop times were not found or there
      *       are no stop times in next 2 hours.
      */
-    public List<StopTime> getTimes (final String stopName, final String company, final String startingTime, final String type, final Comparator<StopTime> comparator, final String scheduleNumber ) {
+    public List<StopTime> getTimes (final String stopName, final String company, final String startingTime, final String type, final String scheduleNumber ) {
         //Initial time to starting time or current time if no starting time was supplied.
         final LocalTime time = startingTime != null ? convertToLocalTime(startingTime) : LocalTime.now();
+        //Retrieve the index of all stop times for this stop which is already sorted by time.
+        final StopTimeIndex stopTimeIndex = getStopTimeIndex(company, stopName);
+        final LocalDate today = LocalDate.now();
 
         //Special processing if between 22 and 24 - otherwise normal processing.
         if ( time.isAfter(LocalTime.of(21,59))) {
-            //First of all get stop times between now and midnight.
-            List<StopTime> stopTimes = stopTimeRepository.findByCompanyAndStopName(company, stopName).stream()
-                    //Filter stop times which do not run on this day.
-                    .filter(stopTime -> stopTime.getOperatingDays().checkIfOperatingDay(LocalDateTime.now()))
-                    //Filter so that stop times in the past are not shown.
-                    .filter(stopTime -> !stopTime.getTime(type).isBefore(time))
-                    //Filter remove stop times which lie much further in the future
-                    .filter(stopTime -> !stopTime.getTime(type).isAfter(LocalTime.of(23,59)))
-                    //Sort the stop times by time.
-                    .sorted(comparator)
-                    //Only show next 3 stop times.
-                    .limit(3)
-                    .collect(Collectors.toList());
+            //First of all get the next 3 stop times between now and midnight which run on this day.
+            List<StopTime> stopTimes = stopTimeIndex.getTimesBetween(type, time, LocalTime.of(23,59),
+                    stopTime -> stopTime.getServiceCalendar().runsOn(today), 3);
             //If we already have 3 stop times then no need to look further.
             if ( stopTimes.size() == 3 ) {
                 return stopTimes;
             }
             //Otherwise add the remaining stop times from the next day.
-            stopTimes.addAll(stopTimeRepository.findByCompanyAndStopName(company, stopName).stream()
-                    //Filter remove stop times which lie much further in the future
-                    .filter(stopTime -> !stopTime.getTime(type).isAfter(time.plusHours(2)))
-                    //Sort the stop times by time.
-                    .sorted(comparator)
-                    //Only show next 3 stop times.
-                    .limit(3- stopTimes.size())
-                    .collect(Collectors.toList()));
+            stopTimes.addAll(stopTimeIndex.getTimesBetween(type, LocalTime.MIDNIGHT, time.plusHours(2),
+                    stopTime -> true, 3 - stopTimes.size()));
             // If schedule number is not empty then filter the schedule number.
             if ( !scheduleNumber.equalsIgnoreCase("")) {
                 stopTimes = stopTimes.stream()
@@ -116,34 +129,31 @@ public class StopTimeService {
             }
             return stopTimes;
         }
-        //Normal processing
-        List<StopTime> filteredStopTimes = stopTimeRepository.findByCompanyAndStopName(company, stopName).stream()
-                //Filter stop times which do not run on this day.
-                .filter(stopTime -> stopTime.getOperatingDays().checkIfOperatingDay(LocalDateTime.now()))
-                //Filter so that stop times in the past are not shown.
-                .filter(stopTime -> !stopTime.getTime(type).isBefore(time))
-                //Filter remove stop times which lie much further in the future
-                .filter(stopTime -> !stopTime.getTime(type).isAfter(time.plusHours(2)))
-                //Sort the stop times by time.
-                .sorted(comparator)
-                .collect(Collectors.toList());
-
-        //Remove any duplicates.
-        for (int i = 0; i < filteredStopTimes.size()-1; i++ ) {
-            for (int j = (i+1); j < filteredStopTimes.size(); j++ ) {
-                if ( filteredStopTimes.get(i).getDestination().contentEquals(filteredStopTimes.get(j).getDestination()) &&
-                        filteredStopTimes.get(i).getTime(type).compareTo(filteredStopTimes.get(j).getTime(type)) == 0) {
-                    filteredStopTimes.remove(i);
-                }
+        //Normal processing - the index returns the stop times in the next 2 hours sorted by time.
+        List<StopTime> filteredStopTimes = new ArrayList<>();
+        Set<String> destinationsAtTime = new HashSet<>();
+        LocalTime lastTime = null;
+        for ( StopTime stopTime : stopTimeIndex.getTimesBetween(type, time, time.plusHours(2),
+                stopTime -> stopTime.getServiceCalendar().runsOn(today), Integer.MAX_VALUE) ) {
+            //Remove any duplicates which have the same destination at the same time.
+            if ( !stopTime.getTime(type).equals(lastTime) ) {
+                destinationsAtTime.clear();
+                lastTime = stopTime.getTime(type);
+            }
+            if ( destinationsAtTime.add(stopTime.getDestination()) ) {
+                filteredStopTimes.add(stopTime);
+            }
+            //Only show next 3 stop times.
+            if ( filteredStopTimes.size() == 3 ) {
+                break;
             }
         }
-
-        //Only show next 3 stop times and remove.
-        return filteredStopTimes.stream().limit(3).collect(Collectors.toList());
+        return filteredStopTimes;
     }
 
     /**
-     * Return all stop times for this stop with a departure today.
+     * Return all stop times for this stop with a departure on the supplied date. A stop time is returned if it runs on
+     * the day and the date lies within its validity window where the valid from and valid to dates are both included.
      * @param stopName a <code>String</code> containing the name of the stop to retrieve stop times for.
      * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
      * @param date a <code>String</code> containing the date to retrieve stop times for in format yyyy-MM-dd.
@@ -155,16 +165,12 @@ public class StopTimeService {
         LocalDateTime departureDate = DateUtils.convertDateToLocalDateTime(date);
         if ( departureDate != null ) {
             //Return the stop times between now and midnight with the filter criteria.
-            List<StopTime> stopTimes = stopTimeRepository.findByCompanyAndStopName(company, stopName).stream()
+            List<StopTime> stopTimes = getStopTimeIndex(company, stopName).getSortedStopTimes("Departure").stream()
                 //Filter stop times which do not run on this day.
-                .filter(stopTime -> stopTime.getOperatingDays().checkIfOperatingDay(departureDate))
-                //Filter stop times that are before the valid from date.
-                .filter(stopTime -> departureDate.isAfter(stopTime.getValidFromDate()))
-                //Filter remove stop times are after the valid to date.
-                .filter(stopTime -> departureDate.isBefore(stopTime.getValidToDate()))
-                //Sort the stop times by time.
-                .sorted(Comparator.comparing(StopTime::getDepartureTime))
-                //Collect list as output.
+                .filter(stopTime -> stopTime.getServiceCalendar().runsOn(departureDate.toLocalDate()))
+                //Filter stop times where the date is outside the validity window (both dates inclusive).
+                .filter(stopTime -> stopTime.getServiceCalendar().isValidOn(departureDate.toLocalDate()))
+                //Collect list as output which is already sorted by time.
                 .collect(Collectors.toList());
             // If schedule number is not empty then filter the schedule number.
             if ( !scheduleNumber.equalsIgnoreCase("")) {
@@ -178,6 +184,48 @@ public class StopTimeService {
         }
     }
 
+    /**
+     * Return all departures for this stop on each date of the supplied range. The stop times of the stop are only
+     * retrieved once and the calendar of each distinct stop time calendar is evaluated once against the whole range by
+     * intersecting its service days with its validity window. The departures of each date are only collected when the
+     * date is reached in the returned stream so that the dates can be processed one at a time.
+     * @param stopName a <code>String</code> containing the name of the stop to retrieve departures for.
+     * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
+     * @param fromDate a <code>LocalDate</code> with the first date of the range (inclusive).
+     * @param toDate a <code>LocalDate</code> with the last date of the range (inclusive).
+     * @param scheduleNumber a <code>String</code> containing the schedule number to filter by which may be empty.
+     * @return a <code>Stream</code> of <code>DateStopTimes</code> objects with one entry per date in the range which
+     * contains the departures of this date sorted by time.
+     */
+    public Stream<DateStopTimes> getDeparturesByDateRange ( final String stopName, final String company, final LocalDate fromDate,
+                                                            final LocalDate toDate, final String scheduleNumber ) {
+        //Retrieve the stop times of the stop once which are already sorted by time.
+        List<StopTime> stopTimes = getStopTimeIndex(company, stopName).getSortedStopTimes("Departure");
+        // If schedule number is not empty then filter the schedule number.
+        if ( !scheduleNumber.equalsIgnoreCase("")) {
+            stopTimes = stopTimes.stream()
+                    .filter(stopTime -> Integer.parseInt(stopTime.getService().getRouteSchedule().getScheduleId()) == Integer.parseInt(scheduleNumber.split("/")[1]))
+                    .toList();
+        }
+        //Determine the days of the range on which each stop time runs - equal calendars are only evaluated once.
+        Map<ServiceCalendar, BitSet> calendarDays = new HashMap<>();
+        BitSet[] stopTimeDays = new BitSet[stopTimes.size()];
+        for ( int i = 0; i < stopTimeDays.length; i++ ) {
+            stopTimeDays[i] = calendarDays.computeIfAbsent(stopTimes.get(i).getServiceCalendar(), serviceCalendar -> {
+                BitSet days = serviceCalendar.getServiceDays(fromDate, toDate);
+                days.and(serviceCalendar.getValidDays(fromDate, toDate));
+                return days;
+            });
+        }
+        final List<StopTime> rangeStopTimes = stopTimes;
+        int numDays = (int) (toDate.toEpochDay() - fromDate.toEpochDay() + 1);
+        return IntStream.range(0, numDays).mapToObj(day -> new DateStopTimes(fromDate.plusDays(day),
+                IntStream.range(0, stopTimeDays.length)
+                        .filter(i -> stopTimeDays[i].get(day))
+                        .mapToObj(rangeStopTimes::get)
+                        .toList()));
+    }
+
     /**
      * Count all stop times for the supplied company, stop name and route number.
      * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
@@ -186,7 +234,7 @@ public class StopTimeService {
      * @return a <code>long</code> with the number of stop times for this route number.
      */
     public long countStopTimes ( final String company, final String stopName, final String routeNumber ) {
-        return stopTimeRepository.countByCompanyAndStopNameAndRouteNumber(company, stopName, routeNumber);
+        return stopTimeRepository.countVisible(company, stopName, routeNumber, importGenerationService.getActiveGeneration(company));
     }
 
     /**
@@ -197,7 +245,7 @@ public class StopTimeService {
      */
     public List<String> getAllRouteNumbersByStop (final String company, final String stop ) {
         List<String> routeNumbers = new ArrayList<>();
-        for ( StopTime stopTime : stopTimeRepository.findByCompanyAndStopName(company, stop) ) {
+        for ( StopTime stopTime : getStopTimeIndex(company, stop).getStopTimes() ) {
             if ( !routeNumbers.contains(stopTime.getRouteNumber()) ) {
                 routeNumbers.add(stopTime.getRouteNumber());
             }
@@ -205,6 +253,16 @@ public class StopTimeService {
         return routeNumbers;
     }
 
+    /**
+     * Get the journey planning timetable containing all trips for a particular company. The timetable is only built
+     * from the database if it does not exist yet or the stop times of the company have changed.
+     * @param company a <code>String</code> containing the name of the company to retrieve the timetable for.
+     * @return a <code>RaptorTimetable</code> object containing all trips of this company.
+     */
+    public RaptorTimetable getTimetable ( final String company ) {
+        return stopTimeIndexService.getTimetable(company, () -> loadCompanyStopTimes(company));
+    }
+
     /**
      * This helper method contains a String in the format HH:mm to a <code>LocalTime</code> object.
      * @param time a <code>String</code> in the format HH:mm
@@ -215,121 +273,253 @@ public class StopTimeService {
         return LocalTime.of(Integer.parseInt(timeHoursMinArray[0]), Integer.parseInt(timeHoursMinArray[1]));
     }
 
+    /**
+     * This helper method returns the in-memory index of all stop times for the supplied company and stop. The index
+     * is a view of the timetable snapshot of the company which is only loaded from the database if it does not exist
+     * yet or has been invalidated.
+     * @param company a <code>String</code> containing the name of the company to retrieve stop times for.
+     * @param stopName a <code>String</code> containing the name of the stop to retrieve stop times for.
+     * @return a <code>StopTimeIndex</code> object containing all stop times for this company and stop.
+     */
+    private StopTimeIndex getStopTimeIndex ( final String company, final String stopName ) {
+        return stopTimeIndexService.getIndex(company, stopName, () -> loadCompanyStopTimes(company));
+    }
+
+    /**
+     * This helper method streams all stop times of the supplied company including their services from the database to
+     * build the timetable snapshot of the company. Stop times of imports which have not been completed and compiled
+     * trips which are not part of the activated compilation of their timetable are not loaded. The stop times are read
+     * in batches and only the trips which are referenced by a batch and have not been loaded for a previous batch are
+     * loaded with a single query per batch so that trips without visible stop times are never read. Each trip is
+     * converted once for all of its stop times.
+     * @param company a <code>String</code> containing the name of the company to load stop times for.
+     * @return a <code>Stream</code> of <code>StopTime</code> objects which may be empty if the company has no stop times.
+     */
+    private Stream<StopTime> loadCompanyStopTimes ( final String company ) {
+        Map<String, Set<String>> activeTripHashes = new HashMap<>();
+        compilationActivationRepository.findByCompany(company).forEach(compilationActivation -> activeTripHashes.put(
+                compilationActivation.getId(), new HashSet<>(compilationActivation.getTripHashes())));
+        Stream<StopTime> visibleStopTimes = stopTimeRepository.streamVisible(company, importGenerationService.getActiveGeneration(company)).filter(stopTime -> {
+            //Timetables which were compiled before compilations were activated have no activation and stay visible.
+            Set<String> tripHashes = stopTime.getTimetableName() == null ? null
+                    : activeTripHashes.get(CompilationActivation.getId(company, stopTime.getRouteNumber(), stopTime.getTimetableName()));
+            return tripHashes == null || tripHashes.contains(stopTime.getTripHash());
+        });
+        Iterator<StopTime> stopTimes = visibleStopTimes.iterator();
+        Map<String, ServiceTrip> services = new HashMap<>();
+        Iterator<List<StopTime>> batches = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return stopTimes.hasNext();
+            }
+
+            @Override
+            public List<StopTime> next() {
+                List<StopTime> batch = new ArrayList<>(batchSize);
+                while ( stopTimes.hasNext() && batch.size() < batchSize ) {
+                    batch.add(stopTimes.next());
+                }
+                setServices(batch, services);
+                return batch;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED), false)
+                .flatMap(List::stream)
+                .onClose(visibleStopTimes::close);
+    }
+
+    /**
+     * This helper method sets the services of all stop times of a batch which only store the id of their trip. The
+     * trips which have not been loaded yet are retrieved with a single query and added to the supplied services.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects containing the batch of stop times.
+     * @param services a <code>Map</code> of the trip ids to the services which have already been loaded. A trip id
+     *                 which does not exist in the database is mapped to null so that it is not retrieved again.
+     */
+    private void setServices ( final List<StopTime> stopTimes, final Map<String, ServiceTrip> services ) {
+        Set<String> missingTripIds = stopTimes.stream()
+                .filter(stopTime -> stopTime.getService() == null && stopTime.getTripId() != null && !services.containsKey(stopTime.getTripId()))
+                .map(StopTime::getTripId)
+                .collect(Collectors.toSet());
+        if ( !missingTripIds.isEmpty() ) {
+            tripRepository.findAllById(missingTripIds).forEach(trip -> services.put(trip.getId(), trip.toServiceTrip()));
+            missingTripIds.forEach(tripId -> services.putIfAbsent(tripId, null));
+        }
+        stopTimes.stream()
+                .filter(stopTime -> stopTime.getService() == null && stopTime.getTripId() != null)
+                .forEach(stopTime -> stopTime.setService(services.get(stopTime.getTripId())));
+    }
+
+    /**
+     * Move the services which are still embedded in stop times into trips so that each service is only stored once.
+     * @return a <code>long</code> with the number of stop times which were migrated.
+     */
+    public long migrateTrips ( ) {
+        try {
+            return stopTimeRepository.migrateEmbeddedTrips(batchSize);
+        } finally {
+            stopTimeIndexService.invalidateAll();
+        }
+    }
+
     /**
      * Delete all stop times currently stored in the database for the specified company.
      * @param company a <code>String</code> object containing the name of the company to delete stop times for.
      * @param routeNumber a <code>String</code> object containing the route number to be deleted (optional).
+     * @return a <code>long</code> with the number of deleted stop times.
      */
-    public void deleteStopTimes(final String company, final Optional<String> routeNumber) {
-        if (routeNumber.isPresent() ) {
-            List<StopTime> stopTimes = stopTimeRepository.findByCompanyAndRouteNumber(company, routeNumber.get());
-            stopTimes.forEach(stopTimeRepository::delete);
-        } else {
-            List<StopTime> stopTimes = stopTimeRepository.findByCompany(company);
-            stopTimes.forEach(stopTimeRepository::delete);
+    public long deleteStopTimes(final String company, final Optional<String> routeNumber) {
+        long numberOfDeletedStopTimes = routeNumber.isPresent() ?
+                stopTimeRepository.deleteByCompanyAndRouteNumber(company, routeNumber.get()) :
+                stopTimeRepository.deleteByCompany(company);
+        stopTimeIndexService.invalidate(company);
+        return numberOfDeletedStopTimes;
+    }
+
+    /**
+     * Return the hashes of all trips which are currently compiled for a timetable.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @return a <code>List</code> of <code>String</code> objects containing the trip hashes.
+     */
+    public List<String> getTripHashes(final String company, final String routeNumber, final String timetableName) {
+        return stopTimeRepository.findTripHashes(company, routeNumber, timetableName);
+    }
+
+    /**
+     * Return the hashes of the trips which are visible in the activated compilation of a timetable.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @return a <code>Optional</code> containing the trip hashes which is empty if no compilation of the timetable has been activated.
+     */
+    public Optional<List<String>> getActiveTripHashes(final String company, final String routeNumber, final String timetableName) {
+        return compilationActivationRepository.findById(CompilationActivation.getId(company, routeNumber, timetableName))
+                .map(CompilationActivation::getTripHashes);
+    }
+
+    /**
+     * Make the supplied trips the visible trips of a timetable with a single write. All other compiled trips of the
+     * timetable are invisible from now on.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @param compilationId a <code>String</code> containing the id of the compilation which is activated.
+     * @param tripHashes a <code>Collection</code> of <code>String</code> objects containing the hashes of the visible trips.
+     */
+    public void activateCompilation(final String company, final String routeNumber, final String timetableName,
+                                    final String compilationId, final Collection<String> tripHashes) {
+        try {
+            compilationActivationRepository.save(CompilationActivation.builder()
+                    .id(CompilationActivation.getId(company, routeNumber, timetableName))
+                    .company(company)
+                    .routeNumber(routeNumber)
+                    .timetableName(timetableName)
+                    .compilationId(compilationId)
+                    .tripHashes(List.copyOf(tripHashes))
+                    .activatedAt(LocalDateTime.now())
+                    .build());
+        } finally {
+            stopTimeIndexService.invalidate(company);
+        }
+    }
+
+    /**
+     * Delete the stop times of the supplied compiled trips of a timetable and all stop times of the timetable which
+     * were compiled without a trip hash.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @param tripHashes a <code>Collection</code> of <code>String</code> objects containing the hashes of the trips to delete.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    public long deleteTrips(final String company, final String routeNumber, final String timetableName, final Collection<String> tripHashes) {
+        try {
+            long numberOfDeletedStopTimes = stopTimeRepository.deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIsNull(company, routeNumber, timetableName);
+            if ( !tripHashes.isEmpty() ) {
+                numberOfDeletedStopTimes += stopTimeRepository.deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn(company, routeNumber, timetableName, tripHashes);
+            }
+            return numberOfDeletedStopTimes;
+        } finally {
+            stopTimeIndexService.invalidate(company);
         }
     }
 
     /**
-     * Generate the stop times.
+     * Delete the stop times of the supplied compilation of a timetable e.g. if the compilation could not be completed.
+     * @param company a <code>String</code> containing the name of the company which the timetable belongs to.
+     * @param routeNumber a <code>String</code> containing the route number of the timetable.
+     * @param timetableName a <code>String</code> containing the name of the timetable.
+     * @param compilationId a <code>String</code> containing the id of the compilation which should be deleted.
+     * @return a <code>long</code> with the number of deleted stop times.
+     */
+    public long deleteCompilation(final String company, final String routeNumber, final String timetableName, final String compilationId) {
+        try {
+            return stopTimeRepository.deleteByCompanyAndRouteNumberAndTimetableNameAndCompilationId(company, routeNumber, timetableName, compilationId);
+        } finally {
+            stopTimeIndexService.invalidate(company);
+        }
+    }
+
+    /**
+     * Generate the stop times and save them to the database in bulk writes.
+     * @param generateStopTimesRequest the request to generate stop times.
+     * @return a <code>long</code> with the number of stop times which were saved.
+     */
+    public long generateStopTimes(final GenerateStopTimesRequest generateStopTimesRequest) {
+        return insertStopTimes(generateStopTimesRequest.getCompany(), calculateStopTimes(generateStopTimesRequest));
+    }
+
+    /**
+     * Calculate the stop times for all tours of the request in memory without saving them. The request is parsed once
+     * so that the distances between the stops and the calendar are shared by all trips.
      * @param generateStopTimesRequest the request to generate stop times.
+     * @return a <code>List</code> of <code>StopTime</code> objects sorted by tour and trip.
      */
-    public void generateStopTimes(final GenerateStopTimesRequest generateStopTimesRequest) {
+    public List<StopTime> calculateStopTimes(final GenerateStopTimesRequest generateStopTimesRequest) {
+        List<StopTime> stopTimes = new ArrayList<>();
+        if ( generateStopTimesRequest.getNumTours() <= 0 ) {
+            return stopTimes;
+        }
+        StopTimeGenerator stopTimeGenerator = new StopTimeGenerator(generateStopTimesRequest);
+        LocalTime startTime = DateUtils.convertTimeToLocalTime(generateStopTimesRequest.getStartTime());
+        long operatingMinutes = Duration.between(startTime, DateUtils.convertTimeToLocalTime(generateStopTimesRequest.getEndTime())).toMinutes();
+        //If the end time is before the start time then the services run past midnight until the end time on the next day.
+        if ( operatingMinutes < 0 ) {
+            operatingMinutes += Duration.ofDays(1).toMinutes();
+        }
+        // Note the duration which is the frequency * num Tours - each direction takes half of the duration but at least one minute.
+        int halfDuration = Math.max((generateStopTimesRequest.getFrequency() * generateStopTimesRequest.getNumTours()) / 2, 1);
         // Now we go through the tours which are the schedules.
         for (int j = 0; j < generateStopTimesRequest.getNumTours(); j++) {
             RouteSchedule routeSchedule = new RouteSchedule(generateStopTimesRequest.getRouteNumber(), "" + (j + 1));
-            // Note the duration which is the frequency * num Tours
-            int duration = generateStopTimesRequest.getFrequency() * generateStopTimesRequest.getNumTours();
-            // Set the loop time to the starting time.
-            LocalTime loopTime = DateUtils.convertTimeToLocalTime(generateStopTimesRequest.getStartTime());
             int serviceCounter = 1;
-            // Now repeat until we reach the end time.
-            while (!loopTime.isAfter(DateUtils.convertTimeToLocalTime(generateStopTimesRequest.getEndTime()))) {
-                // Add an outgoing service.
-                generateService(generateStopTimesRequest, loopTime, serviceCounter,(j+1), true,
-                        routeSchedule);
-                // Add half of duration to cover outgoing service.
-                loopTime = loopTime.plusMinutes(duration / 2);
-                // Increase service counter
-                serviceCounter++;
-                // Add return service.
-                generateService(generateStopTimesRequest, loopTime, serviceCounter, (j+1), false,
-                        routeSchedule);
-                // Add half of duration to cover return service.
-                loopTime = loopTime.plusMinutes((duration / 2));
-                // Increase service counter
-                serviceCounter++;
+            // Now repeat until we reach the end time - the minutes are counted so that the loop also ends after midnight.
+            for ( long loopMinutes = 0; loopMinutes <= operatingMinutes; loopMinutes += 2L * halfDuration ) {
+                // Add an outgoing service and the return service after half of the duration.
+                stopTimeGenerator.addService(stopTimes, startTime.plusMinutes(loopMinutes), serviceCounter++, (j+1), true, routeSchedule);
+                stopTimeGenerator.addService(stopTimes, startTime.plusMinutes(loopMinutes + halfDuration), serviceCounter++, (j+1), false, routeSchedule);
             }
         }
+        return stopTimes;
     }
 
     /**
-     * This is a helper method to generate a service based on the information provided.
-     * @param generateStopTimesRequest the request to generate stop times.
-     * @param startTime a <code>LocalTime</code> object with the start time for generating stop times.
-     * @param serviceNumber a <code>int</code> with the first service number to generate.
-     * @param tourNumber a <code>int</code> with the second service number to generate.
-     * @param outgoing a <code>boolean</code> which is true iff we are generating in the outgoing direction.
-     * @param routeSchedule a <code>RouteSchedule</code> object matching the route schedule that we are currently generating.
-     * @return the service that we generated as a <code>ServiceTrip</code> object.
-     */
-    public ServiceTrip generateService( final GenerateStopTimesRequest generateStopTimesRequest, final LocalTime startTime,
-                                        final int serviceNumber, final int tourNumber, final boolean outgoing,
-                                        final RouteSchedule routeSchedule) {
-        // Now we start generating the services.
-        String serviceId = "" + serviceNumber;
-        List<Stop> stopList = new ArrayList<>();
-        List<StopTime> stopTimeList = new ArrayList<>();
-        // Go through stops for the route.
-        int distance = 0;
-        if ( outgoing ) {
-            for ( int k = 0; k < generateStopTimesRequest.getStopNames().length; k++ ) {
-                // Get the distance between this stop and the last stop.
-                distance += (k == 0 ) ? getDistanceBetweenStop(generateStopTimesRequest.getStartStop(), generateStopTimesRequest.getStopNames()[k], generateStopTimesRequest.getStopDistances())
-                        : getDistanceBetweenStop(generateStopTimesRequest.getStopNames()[k-1], generateStopTimesRequest.getStopNames()[k], generateStopTimesRequest.getStopDistances());
-                stopList.add(Stop.builder().name(generateStopTimesRequest.getStopNames()[k]).build());
-                stopTimeList.add(StopTime.builder()
-                                .arrivalTime(startTime.plusMinutes(((tourNumber * generateStopTimesRequest.getFrequency()) + distance)))
-                                .departureTime(startTime.plusMinutes(((tourNumber * generateStopTimesRequest.getFrequency()) + distance)))
-                                .destination(generateStopTimesRequest.getEndStop())
-                                .stopName(generateStopTimesRequest.getStopNames()[k])
-                                .company(generateStopTimesRequest.getCompany())
-                                .operatingDays(FrequencyPatternUtils.convertDaysOfOperation(generateStopTimesRequest.getOperatingDays().split(",")))
-                                .validFromDate(DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidFromDate()))
-                                .validToDate(DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidToDate()))
-                                .routeNumber(generateStopTimesRequest.getRouteNumber())
-                                .build());
-            }
-        } else {
-            for ( int m = generateStopTimesRequest.getStopNames().length - 1; m >= 0; m-- ) {
-                // Get the distance between this stop and the last stop.
-                distance += ( m == generateStopTimesRequest.getStopNames().length - 1 ) ? getDistanceBetweenStop(generateStopTimesRequest.getStopNames()[m], generateStopTimesRequest.getEndStop(), generateStopTimesRequest.getStopDistances())
-                        : getDistanceBetweenStop(generateStopTimesRequest.getStopNames()[m], generateStopTimesRequest.getStopNames()[m+1], generateStopTimesRequest.getStopDistances());
-                stopList.add(Stop.builder().name(generateStopTimesRequest.getStopNames()[m]).build());
-                stopTimeList.add(StopTime.builder()
-                                .arrivalTime(startTime.plusMinutes(((tourNumber * generateStopTimesRequest.getFrequency()) + distance)))
-                                .departureTime(startTime.plusMinutes(((tourNumber * generateStopTimesRequest.getFrequency()) + distance)))
-                                .destination(generateStopTimesRequest.getStartStop())
-                                .stopName(generateStopTimesRequest.getStopNames()[m])
-                                .company(generateStopTimesRequest.getCompany())
-                                .operatingDays(FrequencyPatternUtils.convertDaysOfOperation(generateStopTimesRequest.getOperatingDays().split(",")))
-                                .validFromDate(DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidFromDate()))
-                                .validToDate(DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidToDate()))
-                                .routeNumber(generateStopTimesRequest.getRouteNumber())
-                                .build());
+     * Save the supplied stop times to the database in unordered bulk writes.
+     * @param company a <code>String</code> containing the name of the company which the stop times belong to.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects which should be saved.
+     * @return a <code>long</code> with the number of stop times which were saved.
+     */
+    public long insertStopTimes(final String company, final List<StopTime> stopTimes) {
+        long numberOfStopTimes = 0;
+        try {
+            for ( int i = 0; i < stopTimes.size(); i += batchSize ) {
+                numberOfStopTimes += stopTimeRepository.insertUnordered(stopTimes.subList(i, Math.min(i + batchSize, stopTimes.size())));
             }
+        } finally {
+            stopTimeIndexService.invalidate(company);
         }
-        // Now we need to do the end stop.
-        ServiceTrip serviceTrip = ServiceTrip.builder()
-                .serviceId(serviceId)
-                .stopList(stopList)
-                .routeSchedule(routeSchedule)
-                .build();
-        for ( StopTime stopTime : stopTimeList ) {
-            stopTime.setService(serviceTrip);
-            stopTimeRepository.save(stopTime);
-        }
-        return serviceTrip;
+        return numberOfStopTimes;
     }
 
     /**
@@ -361,86 +551,239 @@ public class StopTimeService {
      * @param currentDateTime the current date and time as a <code>LocalDateTime</code> object.
      */
     public Position retrievePositionForAllocatedTour ( final String company, final String allocatedTour, final LocalDateTime currentDateTime, final int delay) {
-        // Get all of the stop times for this company and route number,
-        List<StopTime> stopTimes = stopTimeRepository.findByCompanyAndRouteNumber(company, allocatedTour.split("/")[0]);
-        // Filter any of the stop times that are not valid and that do not match the allocated tour,
-        stopTimes = stopTimes.stream()
-                // Filter out stop times that are not valid as not yet reached.
-                .filter(stopTime -> stopTime.getValidFromDate().minusDays(1).isBefore(currentDateTime))
-                // Filter out stop times that are not valid because they are past.
-                .filter(stopTime -> stopTime.getValidToDate().plusDays(1).isAfter(currentDateTime))
-                // Filter out services that are not run by the allocated tour,
-                .filter(stopTime -> stopTime.getService().getRouteSchedule().getRouteNumberAndScheduleId().contentEquals(allocatedTour))
-                //Sort the stop times by time.
-                .sorted(Comparator.comparing(StopTime::getDepartureTime))
-                //Collect list as output.
-                .collect(Collectors.toList());
-        // Now we should have all stop times for this allocated tour,
-        // Go through the remaining stop times until we get the departure time that is after current time and then it is the previous one.
-        for ( int i = 0; i < stopTimes.size(); i++ ) {
-            if ( stopTimes.get(i).getDepartureTime().isAfter(currentDateTime.toLocalTime().minusMinutes(delay)) ) {
-                // If i is 0, then we are still at depot since we have not started.
-                if ( i == 0  ) {
-                    return Position.builder()
-                            .stop("Depot")
-                            .destination("N/A")
-                            .delay(delay)
-                            .service(null)
-                            .company(company).build();
-                }
-                // Otherwise we have the position.
-                return Position.builder()
-                        .stop(stopTimes.get(i-1).getStopName())
-                        .destination(stopTimes.get(i-1).getDestination())
-                        .delay(delay)
-                        .service(stopTimes.get(i-1).getService())
-                        .company(stopTimes.get(i-1).getCompany()).build();
+        // Get the stop times of this tour from the index of its route.
+        return retrievePosition(company, retrieveTourStopTimes(company, allocatedTour, currentDateTime), currentDateTime, delay,
+                serviceStateService.getServiceStates(company));
+    }
+
+    /**
+     * Retrieve the current positions for all supplied vehicles which are allocated to a tour. The stop times of each
+     * tour are read from the index of its route which is only built once for all tours of the route.
+     * @param company the company that we should retrieve the vehicles for.
+     * @param vehicles a <code>List</code> of <code>Vehicle</code> objects which are allocated to a tour.
+     * @param currentDateTime the current date and time as a <code>LocalDateTime</code> object.
+     * @return a <code>Map</code> with the fleet number of each vehicle and its current position.
+     */
+    public Map<String, Position> retrievePositionsForVehicles ( final String company, final List<Vehicle> vehicles, final LocalDateTime currentDateTime ) {
+        Map<String, ServiceState> serviceStates = serviceStateService.getServiceStates(company);
+        Map<String, Position> positions = new LinkedHashMap<>();
+        for ( Vehicle vehicle : vehicles ) {
+            positions.put(vehicle.getFleetNumber(), retrievePosition(company, retrieveTourStopTimes(company, vehicle.getAllocatedTour(), currentDateTime),
+                    currentDateTime, vehicle.getDelayInMinutes(), serviceStates));
+        }
+        return positions;
+    }
+
+    /**
+     * This is a private helper method to retrieve all stop times of a tour which are valid at the supplied date and
+     * time sorted by departure time. The stop times are read from the index of the route in the timetable snapshot
+     * which is already grouped by tour and sorted by departure time.
+     * @param company the company that we should retrieve the stop times for.
+     * @param allocatedTour the allocated tour in the format route / route schedule.
+     * @param currentDateTime the current date and time as a <code>LocalDateTime</code> object.
+     * @return a <code>List</code> of <code>StopTime</code> objects for this tour sorted by departure time.
+     */
+    private List<StopTime> retrieveTourStopTimes ( final String company, final String allocatedTour, final LocalDateTime currentDateTime ) {
+        return stopTimeIndexService.getSnapshot(company, () -> loadCompanyStopTimes(company)).getStopTimesOfTour(allocatedTour.split("/")[0], allocatedTour,
+                // Filter out stop times that are not valid as not yet reached or because they are past.
+                stopTime -> stopTime.getValidFromDate().minusDays(1).isBefore(currentDateTime)
+                        && stopTime.getValidToDate().plusDays(1).isAfter(currentDateTime));
+    }
+
+    /**
+     * This is a private helper method to determine the position of a tour from its stop times sorted by departure time.
+     * The position is the last stop which has been departed from taking the delay into account.
+     * @param company the company running the tour.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects for this tour sorted by departure time.
+     * @param currentDateTime the current date and time as a <code>LocalDateTime</code> object.
+     * @param delay the current delay of the vehicle in minutes.
+     * @param serviceStates a <code>Map</code> with the states of the changed services of the company.
+     * @return a <code>Position</code> object containing the current position which is the depot if the tour has not started or has finished.
+     */
+    private Position retrievePosition ( final String company, final List<StopTime> stopTimes, final LocalDateTime currentDateTime,
+                                        final int delay, final Map<String, ServiceState> serviceStates ) {
+        // Binary search for the first departure time that is after the current time and then it is the previous one.
+        LocalTime currentTime = currentDateTime.toLocalTime().minusMinutes(delay);
+        int low = 0; int high = stopTimes.size();
+        while ( low < high ) {
+            int middle = (low + high) >>> 1;
+            if ( stopTimes.get(middle).getDepartureTime().isAfter(currentTime) ) {
+                high = middle;
+            } else {
+                low = middle + 1;
             }
         }
+        // If it is the first stop time then we are still at depot since we have not started and if there is none then we have finished.
+        if ( low == 0 || low == stopTimes.size() ) {
+            return Position.builder()
+                    .stop("Depot")
+                    .destination("N/A")
+                    .delay(delay)
+                    .service(null)
+                    .company(company).build();
+        }
+        // Otherwise we have the position.
+        StopTime stopTime = stopTimes.get(low - 1);
         return Position.builder()
-                .stop("Depot")
-                .destination("N/A")
+                .stop(stopTime.getStopName())
+                .destination(stopTime.getDestination())
                 .delay(delay)
-                .service(null)
-                .company(company).build();
+                .service(ServiceStateService.applyServiceState(company, stopTime.getService(), serviceStates))
+                .company(stopTime.getCompany()).build();
     }
 
     /**
-     * Update a service with the supplied information from the change request.
+     * Update a service with the supplied information from the change request. The stop times of the service are not
+     * changed since the state of the service is stored separately.
      * @param serviceChangeRequest the change request with the new information for the service.
      */
     public void updateServices(final ServiceChangeRequest serviceChangeRequest) {
-        // Retrieve all stop times for this company.
-        List<StopTime> stopTimes = stopTimeRepository.findByCompany(serviceChangeRequest.getCompany());
-        // For those which match the service id and schedule id.
-        for ( StopTime stopTime : stopTimes ) {
-            if ( stopTime.getService().getServiceId().contentEquals(serviceChangeRequest.getServiceId())
-                    && stopTime.getService().getRouteSchedule().getRouteNumberAndScheduleId().contentEquals(serviceChangeRequest.getScheduleId()) ) {
-                ServiceTrip service = stopTime.getService();
-                service.setOutOfService(serviceChangeRequest.isOutOfService());
-                service.setTempStartStopPos(serviceChangeRequest.getTempStartStopPos());
-                service.setTempEndStopPos(serviceChangeRequest.getTempEndStopPos());
-                stopTime.setService(service);
-                stopTimeRepository.save(stopTime);
+        serviceStateService.updateServiceState(serviceChangeRequest);
+    }
+
+    /**
+     * Reset all services of the company to ensure that no services are out of service or shortened any more.
+     * @param company the company to reset the services for.
+     */
+    public void resetServices(final String company) {
+        serviceStateService.resetServiceStates(company);
+    }
+
+    /**
+     * This class generates the stop times of single trips from a request which is parsed only once. The offset of each
+     * stop from the start of the trip is calculated once per direction and all stop times share the same calendar.
+     */
+    private static class StopTimeGenerator {
+
+        private final GenerateStopTimesRequest generateStopTimesRequest;
+
+        private final List<Stop> outgoingStops = new ArrayList<>();
+
+        private final List<Stop> returnStops = new ArrayList<>();
+
+        private final int[] outgoingOffsets;
+
+        private final int[] returnOffsets;
+
+        private final OperatingDays operatingDays;
+
+        private final LocalDateTime validFromDate;
+
+        private final LocalDateTime validToDate;
+
+        /**
+         * Create a new generator by parsing the supplied request.
+         * @param generateStopTimesRequest the request to generate stop times.
+         */
+        StopTimeGenerator ( final GenerateStopTimesRequest generateStopTimesRequest ) {
+            this.generateStopTimesRequest = generateStopTimesRequest;
+            String[] stopNames = generateStopTimesRequest.getStopNames();
+            StopDistances stopDistances = new StopDistances(generateStopTimesRequest.getStopDistances());
+            // Sum up the distances between each stop and the previous stop in both directions.
+            outgoingOffsets = new int[stopNames.length];
+            int distance = 0;
+            for ( int k = 0; k < stopNames.length; k++ ) {
+                distance += (k == 0) ? stopDistances.getDistance(generateStopTimesRequest.getStartStop(), stopNames[k])
+                        : stopDistances.getDistance(stopNames[k-1], stopNames[k]);
+                outgoingOffsets[k] = distance;
+                outgoingStops.add(Stop.builder().name(stopNames[k]).build());
+            }
+            returnOffsets = new int[stopNames.length];
+            distance = 0;
+            for ( int m = stopNames.length - 1; m >= 0; m-- ) {
+                distance += (m == stopNames.length - 1) ? stopDistances.getDistance(stopNames[m], generateStopTimesRequest.getEndStop())
+                        : stopDistances.getDistance(stopNames[m], stopNames[m+1]);
+                returnOffsets[stopNames.length - 1 - m] = distance;
+                returnStops.add(Stop.builder().name(stopNames[m]).build());
+            }
+            operatingDays = FrequencyPatternUtils.convertDaysOfOperation(generateStopTimesRequest.getOperatingDays().split(","));
+            validFromDate = DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidFromDate());
+            validToDate = DateUtils.convertDateToLocalDateTime(generateStopTimesRequest.getValidToDate());
+        }
+
+        /**
+         * Generate the stop times of a single service and add them to the supplied list.
+         * @param stopTimes a <code>List</code> of <code>StopTime</code> objects to add the stop times of the service to.
+         * @param startTime a <code>LocalTime</code> object with the start time of the service.
+         * @param serviceNumber a <code>int</code> with the number of the service within the tour.
+         * @param tourNumber a <code>int</code> with the number of the tour running the service.
+         * @param outgoing a <code>boolean</code> which is true iff we are generating in the outgoing direction.
+         * @param routeSchedule a <code>RouteSchedule</code> object matching the tour running the service.
+         */
+        void addService ( final List<StopTime> stopTimes, final LocalTime startTime, final int serviceNumber,
+                          final int tourNumber, final boolean outgoing, final RouteSchedule routeSchedule ) {
+            List<Stop> stops = outgoing ? outgoingStops : returnStops;
+            int[] offsets = outgoing ? outgoingOffsets : returnOffsets;
+            ServiceTrip serviceTrip = ServiceTrip.builder()
+                    .serviceId("" + serviceNumber)
+                    .stopList(stops)
+                    .routeSchedule(routeSchedule)
+                    .tempEndStopPos(stops.size() - 1)
+                    .build();
+            for ( int i = 0; i < stops.size(); i++ ) {
+                LocalTime time = startTime.plusMinutes((tourNumber * generateStopTimesRequest.getFrequency()) + offsets[i]);
+                stopTimes.add(StopTime.builder()
+                        .arrivalTime(time)
+                        .departureTime(time)
+                        .destination(outgoing ? generateStopTimesRequest.getEndStop() : generateStopTimesRequest.getStartStop())
+                        .stopName(stops.get(i).getName())
+                        .company(generateStopTimesRequest.getCompany())
+                        .operatingDays(operatingDays)
+                        .validFromDate(validFromDate)
+                        .validToDate(validToDate)
+                        .routeNumber(generateStopTimesRequest.getRouteNumber())
+                        .service(serviceTrip)
+                        .build());
             }
         }
+
     }
 
     /**
-     * Reset all services in all stop times to ensure that all information is reset and out of service
-     * and shortening services.
-     * @param company the company to reset the stop times for.
+     * This class provides the distances between stops in the format stopName:distance1,distance2 per entry. Each entry
+     * is only split once and the distances are parsed when they are needed.
      */
-    public void resetServices(final String company) {
-        List<StopTime> stopTimes = stopTimeRepository.findByCompany(company);
-        for ( StopTime stopTime : stopTimes ) {
-            ServiceTrip service = stopTime.getService();
-            service.setOutOfService(false);
-            service.setTempStartStopPos(0);
-            service.setTempEndStopPos(service.getStopList().size()-1);
-            stopTime.setService(service);
-            stopTimeRepository.save(stopTime);
+    private static class StopDistances {
+
+        private final Map<String, Integer> stopPositions = new HashMap<>();
+
+        private final String[][] distances;
+
+        /**
+         * Create a new distance lookup for the supplied entries.
+         * @param stopDistances the distances between stops in the format stopName:distance1,distance2 per entry.
+         */
+        StopDistances ( final String[] stopDistances ) {
+            distances = new String[stopDistances != null ? stopDistances.length : 0][];
+            for ( int i = 0; i < distances.length; i++ ) {
+                String[] entry = stopDistances[i].split(":");
+                stopPositions.put(entry[0], i);
+                distances[i] = entry.length > 1 ? entry[1].split(",") : new String[0];
+            }
+        }
+
+        /**
+         * Get the distance between two particular stops in the same way as getDistanceBetweenStop.
+         * @param stop1 the first stop as a string to measure the distance to the second stop.
+         * @param stop2 the second stop as a string to measure the distance from the first stop.
+         * @return the distance between the stops in minutes as a number which is -1 if one of the stops is unknown.
+         */
+        int getDistance ( final String stop1, final String stop2 ) {
+            Integer stop1Pos = stopPositions.get(stop1);
+            Integer stop2Pos = stopPositions.get(stop2);
+            if ( stop1Pos != null && stop2Pos != null && !stop1.contentEquals(stop2) ) {
+                return Integer.parseInt(distances[stop1Pos][stop2Pos]);
+            }
+            return -1;
         }
+
     }
 
+    /**
+     * The departures or arrivals of a single date of a date range.
+     * @param date the date of the stop times.
+     * @param stopTimes the stop times on this date sorted by time.
+     */
+    public record DateStopTimes ( LocalDate date, List<StopTime> stopTimes ) { }
+
 }
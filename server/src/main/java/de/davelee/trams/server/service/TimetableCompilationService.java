@@ -0,0 +1,234 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.*;
+import de.davelee.trams.server.request.GenerateStopTimesRequest;
+import de.davelee.trams.server.utils.DateUtils;
+import de.davelee.trams.server.utils.FrequencyPatternUtils;
+import de.davelee.trams.server.utils.StopTimeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * This class provides a service for compiling the frequency patterns of a timetable into stop times in Trams Server.
+ * The frequency patterns are expanded in parallel and each trip is identified by a hash of its content. When a
+ * timetable is compiled again only the trips whose hash has changed are saved and deleted in bulk writes. The new
+ * trips are saved and activated before the old trips are deleted so that the route always has exactly one complete
+ * set of stop times.
+ * @author Dave Lee
+ */
+@Service
+public class TimetableCompilationService {
+
+    @Autowired
+    private RouteService routeService;
+
+    @Autowired
+    private StopService stopService;
+
+    @Autowired
+    private StopTimeService stopTimeService;
+
+    private final Map<String, Lock> compilationLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Compile the supplied timetable into stop times. Only the trips which are not compiled yet are saved and only
+     * the compiled trips which are no longer part of the timetable are deleted. The new trips are invisible until the
+     * compilation is activated with a single write which hides the obsolete trips at the same time. A timetable is
+     * never compiled several times at once.
+     * @param timetable a <code>Timetable</code> object containing the frequency patterns to compile.
+     * @return a <code>TimetableCompilation</code> object containing the id and the number of changed stop times and trips.
+     */
+    public TimetableCompilation compileTimetable ( final Timetable timetable ) {
+        Lock compilationLock = compilationLocks.computeIfAbsent(CompilationActivation.getId(timetable.getCompany(),
+                timetable.getRouteNumber(), timetable.getName()), id -> new ReentrantLock());
+        compilationLock.lock();
+        try {
+            return compile(timetable);
+        } finally {
+            compilationLock.unlock();
+        }
+    }
+
+    /**
+     * This is a private helper method to compile the supplied timetable while no other compilation of the timetable
+     * is running.
+     * @param timetable a <code>Timetable</code> object containing the frequency patterns to compile.
+     * @return a <code>TimetableCompilation</code> object containing the id and the number of changed stop times and trips.
+     */
+    private TimetableCompilation compile ( final Timetable timetable ) {
+        String company = timetable.getCompany();
+        String routeNumber = timetable.getRouteNumber();
+        String compilationId = UUID.randomUUID().toString();
+        Map<String, List<StopTime>> trips = groupTripsByHash(calculateStopTimes(timetable));
+        //Only the stored trips which are part of the activated compilation are visible.
+        Set<String> storedTripHashes = new HashSet<>(stopTimeService.getTripHashes(company, routeNumber, timetable.getName()));
+        Optional<List<String>> activeTripHashes = stopTimeService.getActiveTripHashes(company, routeNumber, timetable.getName());
+        Set<String> obsoleteTripHashes = new HashSet<>(storedTripHashes);
+        if ( activeTripHashes.isPresent() ) {
+            obsoleteTripHashes.retainAll(activeTripHashes.get());
+            //Trips of compilations which were never activated are invisible and can be deleted at once.
+            Set<String> inactiveTripHashes = new HashSet<>(storedTripHashes);
+            inactiveTripHashes.removeAll(obsoleteTripHashes);
+            if ( !inactiveTripHashes.isEmpty() ) {
+                stopTimeService.deleteTrips(company, routeNumber, timetable.getName(), inactiveTripHashes);
+            }
+        } else {
+            //Hide the new trips until they are activated - the stored trips stay visible.
+            stopTimeService.activateCompilation(company, routeNumber, timetable.getName(), null, storedTripHashes);
+        }
+        //Compare the trips with the trips which are already compiled - the remaining hashes are the trips to delete.
+        List<StopTime> newStopTimes = new ArrayList<>();
+        int numberOfInsertedTrips = 0;
+        for ( Map.Entry<String, List<StopTime>> trip : trips.entrySet() ) {
+            if ( !obsoleteTripHashes.remove(trip.getKey()) ) {
+                trip.getValue().forEach(stopTime -> {
+                    stopTime.setTimetableName(timetable.getName());
+                    stopTime.setCompilationId(compilationId);
+                    stopTime.setTripHash(trip.getKey());
+                });
+                newStopTimes.addAll(trip.getValue());
+                numberOfInsertedTrips++;
+            }
+        }
+        //Save the new trips first - if this fails then remove the partially saved trips and keep the previous trips.
+        long numberOfStopTimes;
+        try {
+            numberOfStopTimes = stopTimeService.insertStopTimes(company, newStopTimes);
+        } catch ( RuntimeException runtimeException ) {
+            stopTimeService.deleteCompilation(company, routeNumber, timetable.getName(), compilationId);
+            throw runtimeException;
+        }
+        //Switch to the new trips before the obsolete trips are deleted.
+        stopTimeService.activateCompilation(company, routeNumber, timetable.getName(), compilationId, trips.keySet());
+        return TimetableCompilation.builder()
+                .compilationId(compilationId)
+                .numberOfStopTimes(numberOfStopTimes)
+                .numberOfReplacedStopTimes(stopTimeService.deleteTrips(company, routeNumber, timetable.getName(), obsoleteTripHashes))
+                .numberOfInsertedTrips(numberOfInsertedTrips)
+                .numberOfDeletedTrips(obsoleteTripHashes.size())
+                .numberOfUnchangedTrips(trips.size() - numberOfInsertedTrips)
+                .build();
+    }
+
+    /**
+     * Calculate the stop times for all frequency patterns of the supplied timetable in parallel without saving them.
+     * The route and the stops of the company are loaded once for all frequency patterns.
+     * @param timetable a <code>Timetable</code> object containing the frequency patterns to compile.
+     * @return a <code>List</code> of <code>StopTime</code> objects sorted by frequency pattern, tour and trip.
+     */
+    public List<StopTime> calculateStopTimes ( final Timetable timetable ) {
+        if ( timetable.getFrequencyPatterns() == null ) {
+            return new ArrayList<>();
+        }
+        List<Route> routes = routeService.getRoutesByCompanyAndRouteNumber(timetable.getCompany(), timetable.getRouteNumber());
+        String[] routeStops = routes.isEmpty() || routes.getFirst().getStops() == null ? new String[0] : routes.getFirst().getStops();
+        List<Stop> companyStops = stopService.getStopsByCompany(timetable.getCompany());
+        Map<String, Stop> stops = companyStops == null ? Map.of() : companyStops.stream()
+                .collect(Collectors.toMap(Stop::getName, Function.identity(), (first, second) -> first));
+        //Expand all frequency patterns at the same time - closing the executor waits until all patterns have been expanded.
+        List<CompletableFuture<List<StopTime>>> results = new ArrayList<>();
+        try ( ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor() ) {
+            for ( FrequencyPattern frequencyPattern : timetable.getFrequencyPatterns() ) {
+                results.add(CompletableFuture.supplyAsync(() -> calculateStopTimes(timetable, frequencyPattern, routeStops, stops), executorService));
+            }
+        }
+        List<StopTime> stopTimes = new ArrayList<>();
+        results.forEach(result -> stopTimes.addAll(result.join()));
+        return stopTimes;
+    }
+
+    /**
+     * This is a private helper method to calculate the stop times of a single frequency pattern in the same way as
+     * they are generated for a route by the timetable creator.
+     * @param timetable a <code>Timetable</code> object which the frequency pattern belongs to.
+     * @param frequencyPattern a <code>FrequencyPattern</code> object which should be expanded.
+     * @param routeStops a <code>String</code> array containing the stops which are served between the start and end stop.
+     * @param stops a <code>Map</code> containing the stops of the company with their distances indexed by name.
+     * @return a <code>List</code> of <code>StopTime</code> objects for this frequency pattern.
+     */
+    private List<StopTime> calculateStopTimes ( final Timetable timetable, final FrequencyPattern frequencyPattern,
+                                                final String[] routeStops, final Map<String, Stop> stops ) {
+        if ( frequencyPattern.getDaysOfOperation() == null || frequencyPattern.getDaysOfOperation().getOperatingDays() == null
+                || frequencyPattern.getDaysOfOperation().getOperatingDays().isEmpty() ) {
+            return List.of();
+        }
+        List<String> stopNames = new ArrayList<>();
+        stopNames.add(frequencyPattern.getStartStop());
+        stopNames.addAll(Arrays.asList(routeStops));
+        stopNames.add(frequencyPattern.getEndStop());
+        List<StopTime> stopTimes = stopTimeService.calculateStopTimes(GenerateStopTimesRequest.builder()
+                .company(timetable.getCompany())
+                .stopNames(stopNames.toArray(String[]::new))
+                .routeNumber(timetable.getRouteNumber())
+                .startTime(DateUtils.convertLocalTimeToTime(frequencyPattern.getStartTime()))
+                .endTime(DateUtils.convertLocalTimeToTime(frequencyPattern.getEndTime()))
+                .startStop(frequencyPattern.getStartStop())
+                .endStop(frequencyPattern.getEndStop())
+                .frequency(frequencyPattern.getFrequencyInMinutes())
+                .numTours(frequencyPattern.getNumTours())
+                .validFromDate(DateUtils.convertLocalDateTimeToDate(timetable.getValidFromDate()))
+                .validToDate(DateUtils.convertLocalDateTimeToDate(timetable.getValidToDate()))
+                .operatingDays(String.join(",", FrequencyPatternUtils.convertOperatingDays(frequencyPattern.getDaysOfOperation())))
+                .stopDistances(createStopDistances(stopNames, stops))
+                .build());
+        //Keep the special and disrupted operating days of the frequency pattern.
+        stopTimes.forEach(stopTime -> stopTime.setOperatingDays(frequencyPattern.getDaysOfOperation()));
+        return stopTimes;
+    }
+
+    /**
+     * This is a private helper method to group the supplied stop times into trips indexed by the hash of each trip.
+     * The stop times of a trip follow each other and share the same service. If several trips have the same content,
+     * then the hashes are numbered so that each hash identifies exactly one trip.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects sorted by trip.
+     * @return a <code>Map</code> with the hash of each trip and its stop times.
+     */
+    private static Map<String, List<StopTime>> groupTripsByHash ( final List<StopTime> stopTimes ) {
+        Map<String, List<StopTime>> trips = new LinkedHashMap<>();
+        int tripStart = 0;
+        for ( int i = 1; i <= stopTimes.size(); i++ ) {
+            if ( i == stopTimes.size() || stopTimes.get(i).getService() != stopTimes.get(tripStart).getService() ) {
+                List<StopTime> tripStopTimes = stopTimes.subList(tripStart, i);
+                String tripHash = StopTimeUtils.calculateTripHash(tripStopTimes);
+                for ( int duplicate = 2; trips.containsKey(tripHash); duplicate++ ) {
+                    tripHash = StopTimeUtils.calculateTripHash(tripStopTimes) + "-" + duplicate;
+                }
+                trips.put(tripHash, tripStopTimes);
+                tripStart = i;
+            }
+        }
+        return trips;
+    }
+
+    /**
+     * This is a private helper method to create the distances between the supplied stops in the format
+     * stopName:distance1,distance2 per entry from the distances stored for each stop.
+     * @param stopNames a <code>List</code> of <code>String</code> objects containing the stops in the order that they are served.
+     * @param stops a <code>Map</code> containing the stops of the company with their distances indexed by name.
+     * @return a <code>String</code> array with one entry per distinct stop where unknown distances are -1.
+     */
+    private static String[] createStopDistances ( final List<String> stopNames, final Map<String, Stop> stops ) {
+        List<String> distinctStopNames = stopNames.stream().filter(Objects::nonNull).distinct().toList();
+        String[] stopDistances = new String[distinctStopNames.size()];
+        for ( int i = 0; i < stopDistances.length; i++ ) {
+            String stopName = distinctStopNames.get(i);
+            Stop stop = stops.get(stopName);
+            stopDistances[i] = stopName + ":" + distinctStopNames.stream()
+                    .map(otherStopName -> stopName.equals(otherStopName) ? "0"
+                            : "" + (stop == null || stop.getDistances() == null ? -1 : stop.getDistances().getOrDefault(otherStopName, -1)))
+                    .collect(Collectors.joining(","));
+        }
+        return stopDistances;
+    }
+
+}
@@ -64,10 +64,10 @@ public class TimetableService {
     /**
      * Delete all timetables currently stored in the database for the specified company.
      * @param company a <code>String</code> object containing the name of the company to delete timetables for.
+     * @return a <code>long</code> with the number of deleted timetables.
      */
-    public void deleteTimetables(final String company) {
-        List<Timetable> timetables = retrieveTimetablesByCompany(company);
-        timetables.forEach(timetableRepository::delete);
+    public long deleteTimetables(final String company) {
+        return timetableRepository.deleteByCompany(company);
     }
 
     /**
@@ -75,15 +75,13 @@ public class TimetableService {
      * @param company a <code>String</code> object containing the name of the company to delete timetables for.
      * @param name a <code>String</code> containing the name of the timetable to delete (which is optional).
      * @param routeNumber a <code>String</code> containing the route number of the timetable to delete.
+     * @return a <code>long</code> with the number of deleted timetables.
      */
-    public void deleteTimetable(final String company, final Optional<String> name, final String routeNumber) {
+    public long deleteTimetable(final String company, final Optional<String> name, final String routeNumber) {
         if ( name.isPresent() ) {
-            List<Timetable> timetables = timetableRepository.findByCompanyAndRouteNumberAndName(company, routeNumber, name.get());
-            timetables.forEach(timetableRepository::delete);
-        } else {
-            List<Timetable> timetables = timetableRepository.findByCompanyAndRouteNumber(company, routeNumber);
-            timetables.forEach(timetableRepository::delete);
+            return timetableRepository.deleteByCompanyAndRouteNumberAndName(company, routeNumber, name.get());
         }
+        return timetableRepository.deleteByCompanyAndRouteNumber(company, routeNumber);
     }
 
 }
@@ -8,8 +8,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class to provide service operations for users in the TraMS Server program.
@@ -21,14 +20,15 @@ public class UserService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private AuthTokenStore authTokenStore;
+
     @Value("${token.length}")
     private int tokenLength;
 
     @Value("${logout.minutes}")
     private int timeoutInMinutes;
 
-    private final HashMap<String, LocalDateTime> loggedInTokens = new HashMap<>();
-
     /**
      * Save the specified user object in the database.
      * @param user a <code>User</code> object to save in the database.
@@ -73,7 +73,7 @@ public class UserService {
      */
     public String generateAuthToken ( final String userName ) {
         String token = userName + "-" + RandomStringUtils.randomAlphanumeric(tokenLength);
-        loggedInTokens.put(token, LocalDateTime.now().plusMinutes(timeoutInMinutes));
+        authTokenStore.store(token, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(timeoutInMinutes));
         return token;
     }
 
@@ -83,7 +83,7 @@ public class UserService {
      * @return a <code>boolean</code> which is true iff the token is valid.
      */
     public boolean checkAuthToken ( final String token ) {
-        return loggedInTokens.containsKey(token) && (loggedInTokens.get(token).isEqual(LocalDateTime.now()) || loggedInTokens.get(token).isAfter(LocalDateTime.now()));
+        return token != null && authTokenStore.isValid(token, System.currentTimeMillis());
     }
 
     /**
@@ -91,7 +91,9 @@ public class UserService {
      * @param token a <code>String</code> containing the token to remove from the list of logged in tokens.
      */
     public void removeAuthToken ( final String token ) {
-        loggedInTokens.remove(token);
+        if ( token != null ) {
+            authTokenStore.remove(token);
+        }
     }
 
     /**
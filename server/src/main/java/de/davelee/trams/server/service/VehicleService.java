@@ -6,7 +6,14 @@ import de.davelee.trams.server.constant.VehicleType;
 import de.davelee.trams.server.model.*;
 import de.davelee.trams.server.repository.VehicleRepository;
 import org.apache.commons.lang.StringUtils;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -26,6 +33,9 @@ public class VehicleService {
     @Autowired
     private VehicleRepository vehicleRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     /**
      * Add the supplied vehicle to the database.
      * @param vehicle a <code>Vehicle</code> object containing the information about the vehicle to be added.
@@ -143,12 +153,14 @@ public class VehicleService {
      * @return a <code>int</code> containing the current delay of the vehicle.
      */
     public int adjustVehicleDelay ( final Vehicle vehicle, final int delayInMinutes ) {
-        vehicle.setDelayInMinutes(vehicle.getDelayInMinutes() + delayInMinutes);
-        if ( vehicle.getDelayInMinutes() < 0 ) {
-            vehicle.setDelayInMinutes(0);
-        }
-        if ( vehicleRepository.save(vehicle) != null ) {
-            return vehicle.getDelayInMinutes();
+        //Add the delay in the database in a single atomic operation and ensure that it does not become negative.
+        Document adjustedDelay = new Document("$max", List.of(0, new Document("$add", List.of("$delayInMinutes", delayInMinutes))));
+        Vehicle updatedVehicle = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(vehicle.getId())),
+                AggregationUpdate.update().set("delayInMinutes").toValue((AggregationExpression) context -> adjustedDelay),
+                FindAndModifyOptions.options().returnNew(true), Vehicle.class);
+        if ( updatedVehicle != null ) {
+            vehicle.setDelayInMinutes(updatedVehicle.getDelayInMinutes());
+            return updatedVehicle.getDelayInMinutes();
         }
         return Integer.MIN_VALUE;
     }
@@ -207,10 +219,10 @@ public class VehicleService {
     /**
      * Delete all vehicles currently stored in the database for the specified company.
      * @param company a <code>String</code> object containing the name of the company to return stops for.
+     * @return a <code>long</code> with the number of deleted vehicles.
      */
-    public void deleteVehicles(final String company) {
-        List<Vehicle> vehicles = retrieveVehiclesByCompany(company);
-        vehicles.forEach(vehicleRepository::delete);
+    public long deleteVehicles(final String company) {
+        return vehicleRepository.deleteByCompany(company);
     }
 
 }
@@ -1,10 +1,17 @@
 package de.davelee.trams.server.utils;
 
 import de.davelee.trams.server.model.OperatingDays;
+import de.davelee.trams.server.model.ServiceTrip;
+import de.davelee.trams.server.model.Stop;
+import de.davelee.trams.server.model.StopTime;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.DayOfWeek;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
 
 /**
@@ -57,4 +64,75 @@ public class StopTimeUtils {
         return OperatingDays.builder().operatingDays(operatingDaysList).specialOperatingDays(specialOperatingDaysList).build();
     }
 
+    /**
+     * This helper method calculates a hash of the content of a trip which only changes if the times, stops, calendar
+     * or service of the trip change.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects belonging to the trip in the order that they are served.
+     * @return a <code>String</code> with the SHA-256 hash of the trip as hexadecimal characters.
+     */
+    public static String calculateTripHash ( final List<StopTime> stopTimes ) {
+        StringBuilder content = new StringBuilder();
+        for ( StopTime stopTime : stopTimes ) {
+            content.append(stopTime.getStopName()).append('\u001F')
+                    .append(stopTime.getArrivalTime()).append('\u001F')
+                    .append(stopTime.getDepartureTime()).append('\u001F')
+                    .append(stopTime.getDestination()).append('\u001F')
+                    .append(stopTime.getRouteNumber()).append('\u001F')
+                    .append(stopTime.getJourneyNumber()).append('\u001F')
+                    .append(stopTime.getFootnote()).append('\u001F')
+                    .append(stopTime.getValidFromDate()).append('\u001F')
+                    .append(stopTime.getValidToDate()).append('\u001F');
+            if ( stopTime.getOperatingDays() != null ) {
+                content.append(stopTime.getOperatingDays().getOperatingDays()).append('\u001F')
+                        .append(stopTime.getOperatingDays().getSpecialOperatingDays()).append('\u001F')
+                        .append(stopTime.getOperatingDays().getDisruptedOperatingDays()).append('\u001F');
+            }
+            if ( stopTime.getService() != null ) {
+                content.append(stopTime.getService().getServiceId()).append('\u001F');
+                if ( stopTime.getService().getRouteSchedule() != null ) {
+                    content.append(stopTime.getService().getRouteSchedule().getRouteNumberAndScheduleId());
+                }
+            }
+            content.append('\u001E');
+        }
+        return calculateHash(content.toString());
+    }
+
+    /**
+     * This helper method calculates the id of the trip which stores the supplied service. Services with the same
+     * schedule, service id and stops have the same id so that they are only stored once.
+     * @param company a <code>String</code> containing the company running the service.
+     * @param service a <code>ServiceTrip</code> object containing the service to calculate the id for.
+     * @return a <code>String</code> with the SHA-256 hash of the service as hexadecimal characters.
+     */
+    public static String calculateTripId ( final String company, final ServiceTrip service ) {
+        StringBuilder content = new StringBuilder();
+        content.append(company).append('\u001F')
+                .append(service.getServiceId()).append('\u001F');
+        if ( service.getRouteSchedule() != null ) {
+            content.append(service.getRouteSchedule().getRouteNumberAndScheduleId());
+        }
+        content.append('\u001E');
+        if ( service.getStopList() != null ) {
+            for ( Stop stop : service.getStopList() ) {
+                content.append(stop.getName()).append('\u001F');
+            }
+        }
+        return calculateHash(content.toString());
+    }
+
+    /**
+     * This is a private helper method to calculate the SHA-256 hash of the supplied content.
+     * @param content a <code>String</code> containing the content to hash.
+     * @return a <code>String</code> with the hash as hexadecimal characters.
+     */
+    private static String calculateHash ( final String content ) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch ( NoSuchAlgorithmException noSuchAlgorithmException ) {
+            //Every Java platform must support SHA-256.
+            throw new IllegalStateException(noSuchAlgorithmException);
+        }
+    }
+
 }
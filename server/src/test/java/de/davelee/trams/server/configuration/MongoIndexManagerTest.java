@@ -0,0 +1,97 @@
+package de.davelee.trams.server.configuration;
+
+import com.mongodb.client.MongoDatabase;
+import de.davelee.trams.server.model.StopTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the MongoIndexManager class and ensures that indexes are created and collection scans are detected.
+ * Mocks are used for the database layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class MongoIndexManagerTest {
+
+    @InjectMocks
+    private MongoIndexManager mongoIndexManager;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private IndexOperations indexOperations;
+
+    @Mock
+    private MongoDatabase mongoDatabase;
+
+    @Mock
+    private QueryShapeListener queryShapeListener;
+
+    /**
+     * Verify that all indexes are ensured and that a failing index does not stop the other indexes.
+     */
+    @Test
+    public void testEnsureIndexes ( ) {
+        Mockito.when(mongoTemplate.getCollectionName(Mockito.any())).thenReturn("collection");
+        Mockito.when(mongoTemplate.indexOps(Mockito.any(Class.class))).thenReturn(indexOperations);
+        Mockito.when(indexOperations.ensureIndex(Mockito.any())).thenReturn("index");
+        assertEquals(MongoIndexManager.MANAGED_INDEXES.size(), mongoIndexManager.ensureIndexes());
+        Mockito.when(indexOperations.ensureIndex(Mockito.any())).thenReturn("index").thenThrow(new IllegalStateException());
+        assertEquals(1, mongoIndexManager.ensureIndexes());
+    }
+
+    /**
+     * Verify the name and definition of a managed index and that the managed indexes are distinct.
+     */
+    @Test
+    public void testManagedIndex ( ) {
+        MongoIndexManager.ManagedIndex managedIndex = MongoIndexManager.MANAGED_INDEXES.getFirst();
+        assertEquals(StopTime.class, managedIndex.entityClass());
+        assertEquals("company_stopName_departureTime_idx", managedIndex.getName());
+        Index index = managedIndex.toIndex();
+        assertEquals(3, index.getIndexKeys().size());
+        assertEquals(new MongoIndexManager.ManagedIndex(StopTime.class, List.of("company", "stopName", "departureTime")), managedIndex);
+        assertEquals(MongoIndexManager.MANAGED_INDEXES.size(), MongoIndexManager.MANAGED_INDEXES.stream().distinct().count());
+    }
+
+    /**
+     * Verify that recorded queries falling back to a collection scan are detected with their real filter.
+     */
+    @Test
+    public void testLogCollectionScans ( ) {
+        QueryShapeListener.ObservedQuery stopTimeQuery = new QueryShapeListener.ObservedQuery("stopTime", "{}",
+                new BsonDocument("company", new BsonString("Mustermann Bus GmbH")));
+        QueryShapeListener.ObservedQuery messageQuery = new QueryShapeListener.ObservedQuery("message", "{}",
+                new BsonDocument("subject", new BsonString("Test")));
+        Mockito.when(queryShapeListener.pollUnexplainedQueries()).thenReturn(List.of(stopTimeQuery, messageQuery)).thenReturn(List.of());
+        Mockito.when(mongoTemplate.getDb()).thenReturn(mongoDatabase);
+        Document indexScan = new Document("queryPlanner", new Document("winningPlan", new Document("stage", "FETCH")
+                .append("inputStage", new Document("stage", "IXSCAN"))));
+        Document collectionScan = new Document("queryPlanner", new Document("winningPlan", new Document("stage", "SUBPLAN")
+                .append("inputStages", List.of(new Document("stage", "COLLSCAN")))));
+        Mockito.when(mongoDatabase.runCommand(Mockito.any())).thenAnswer(invocation -> {
+            BsonDocument command = invocation.getArgument(0);
+            return "message".equals(command.getDocument("explain").getString("find").getValue()) ? collectionScan : indexScan;
+        });
+        assertEquals(List.of(messageQuery), mongoIndexManager.logCollectionScans());
+        Mockito.verify(mongoDatabase).runCommand(Mockito.argThat(command -> ((BsonDocument) command).getDocument("explain")
+                .getDocument("filter").equals(stopTimeQuery.filter())));
+        //Queries which have already been explained are not explained again.
+        assertTrue(mongoIndexManager.logCollectionScans().isEmpty());
+    }
+
+}
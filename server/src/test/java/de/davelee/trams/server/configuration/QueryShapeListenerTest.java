@@ -0,0 +1,72 @@
+package de.davelee.trams.server.configuration;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the QueryShapeListener class and ensures that each query shape is only recorded once.
+ * @author Dave Lee
+ */
+public class QueryShapeListenerTest {
+
+    /**
+     * Verify that queries which only differ in their values are recorded once with their first filter.
+     */
+    @Test
+    public void testRecordCommand ( ) {
+        QueryShapeListener queryShapeListener = new QueryShapeListener();
+        queryShapeListener.recordCommand("find", new BsonDocument("find", new BsonString("stopTime"))
+                .append("filter", createVisibleFilter("Mustermann Bus GmbH")));
+        queryShapeListener.recordCommand("find", new BsonDocument("find", new BsonString("stopTime"))
+                .append("filter", createVisibleFilter("Lee Transport")));
+        //Commands without a filter or which do not query a collection are ignored.
+        queryShapeListener.recordCommand("find", new BsonDocument("find", new BsonString("stopTime")));
+        queryShapeListener.recordCommand("insert", new BsonDocument("insert", new BsonString("stopTime")));
+        queryShapeListener.recordCommand("aggregate", new BsonDocument("aggregate", new BsonInt32(1))
+                .append("pipeline", new BsonArray(List.of(new BsonDocument("$match", new BsonDocument("active", BsonBoolean.TRUE))))));
+        List<QueryShapeListener.ObservedQuery> observedQueries = queryShapeListener.pollUnexplainedQueries();
+        assertEquals(1, observedQueries.size());
+        assertEquals("stopTime", observedQueries.getFirst().collectionName());
+        assertEquals(createVisibleFilter("Mustermann Bus GmbH"), observedQueries.getFirst().filter());
+        //Aggregations and deletes are recorded with the filter of their match stage and delete statement.
+        queryShapeListener.recordCommand("aggregate", new BsonDocument("aggregate", new BsonString("stopTime"))
+                .append("pipeline", new BsonArray(List.of(new BsonDocument("$match", new BsonDocument("company", new BsonString("Lee Transport")))))));
+        queryShapeListener.recordCommand("delete", new BsonDocument("delete", new BsonString("trip"))
+                .append("deletes", new BsonArray(List.of(new BsonDocument("q", new BsonDocument("company", new BsonString("Lee Transport")))))));
+        observedQueries = queryShapeListener.pollUnexplainedQueries();
+        assertEquals(List.of("stopTime", "trip"), observedQueries.stream().map(QueryShapeListener.ObservedQuery::collectionName).toList());
+        assertTrue(queryShapeListener.pollUnexplainedQueries().isEmpty());
+    }
+
+    /**
+     * Verify that the shape keeps fields and operators and replaces the values by their type.
+     */
+    @Test
+    public void testToShape ( ) {
+        BsonDocument filter = new BsonDocument("company", new BsonString("Lee Transport"))
+                .append("stopName", new BsonDocument("$in", new BsonArray(List.of(new BsonString("Lakeside"), new BsonString("Greenfield")))));
+        assertEquals(new BsonDocument("company", new BsonString("STRING"))
+                .append("stopName", new BsonDocument("$in", new BsonArray(List.of(new BsonString("STRING"))))),
+                QueryShapeListener.toShape(filter));
+    }
+
+    /**
+     * This is a private helper method to create the filter which is used to read the visible stop times of a company.
+     * @param company a <code>String</code> containing the name of the company.
+     * @return a <code>BsonDocument</code> containing the filter.
+     */
+    private BsonDocument createVisibleFilter ( final String company ) {
+        return new BsonDocument("company", new BsonString(company))
+                .append("$or", new BsonArray(List.of(new BsonDocument("generation", new BsonString("g1")),
+                        new BsonDocument("imported", new BsonDocument("$ne", BsonBoolean.TRUE)))));
+    }
+
+}
@@ -0,0 +1,37 @@
+package de.davelee.trams.server.configuration;
+
+import de.davelee.trams.server.service.StopTimeService;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the TripMigration class and ensures that a failing migration does not stop the application.
+ * Mocks are used for the service layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class TripMigrationTest {
+
+    @InjectMocks
+    private TripMigration tripMigration;
+
+    @Mock
+    private StopTimeService stopTimeService;
+
+    /**
+     * Verify that the number of migrated stop times is returned and errors are only logged.
+     */
+    @Test
+    public void testMigrateTrips ( ) {
+        Mockito.when(stopTimeService.migrateTrips()).thenReturn(100L);
+        assertEquals(100, tripMigration.migrateTrips());
+        Mockito.when(stopTimeService.migrateTrips()).thenThrow(new IllegalStateException("Database not available"));
+        assertEquals(0, tripMigration.migrateTrips());
+    }
+
+}
@@ -3,6 +3,8 @@ package de.davelee.trams.server.controller;
 import de.davelee.trams.server.model.Company;
 import de.davelee.trams.server.request.*;
 import de.davelee.trams.server.response.ExportCompanyResponse;
+import de.davelee.trams.server.response.PurgeCompanyResponse;
+import de.davelee.trams.server.service.CompanyPurgeService;
 import de.davelee.trams.server.service.CompanyService;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Test;
@@ -16,6 +18,7 @@ import org.springframework.http.ResponseEntity;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -35,6 +38,9 @@ public class CompanyControllerTest {
     @Mock
     private CompanyService companyService;
 
+    @Mock
+    private CompanyPurgeService companyPurgeService;
+
     /**
      * Test case: add a company to the system based on a valid company request.
      * Expected Result: company added successfully.
@@ -230,4 +236,18 @@ public class CompanyControllerTest {
         return company;
     }
 
+    /**
+     * Test case: purge the data of a company.
+     * Expected Result: the number of deleted documents per collection is returned or bad request if no company is supplied.
+     */
+    @Test
+    public void testPurgeCompany() {
+        Mockito.when(companyPurgeService.purgeCompany("Mustermann GmbH")).thenReturn(Map.of("stopTime", 500000L, "vehicle", 20L));
+        ResponseEntity<PurgeCompanyResponse> responseEntity = companyController.purgeCompany("Mustermann GmbH");
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals("Mustermann GmbH", responseEntity.getBody().getCompany());
+        assertEquals(500000L, responseEntity.getBody().getDeletedDocuments().get("stopTime"));
+        assertEquals(HttpStatus.BAD_REQUEST, companyController.purgeCompany("").getStatusCode());
+    }
+
 }
@@ -0,0 +1,101 @@
+package de.davelee.trams.server.controller;
+
+import de.davelee.trams.server.constant.ImportPhase;
+import de.davelee.trams.server.model.ImportJob;
+import de.davelee.trams.server.request.ImportZipRequest;
+import de.davelee.trams.server.response.ImportJobResponse;
+import de.davelee.trams.server.service.FileSystemStorageService;
+import de.davelee.trams.server.service.ImportJobService;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ImportJobController and ensures that the endpoints work successfully. It uses
+ * mocks for the service and database layers.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class ImportJobControllerTest {
+
+    @InjectMocks
+    private ImportJobController controller;
+
+    @Mock
+    private ImportJobService importJobService;
+
+    @Mock
+    private FileSystemStorageService fileSystemStorageService;
+
+    /**
+     * Test the submit endpoint of this controller.
+     */
+    @Test
+    public void testSubmitImportJob ( ) {
+        ImportZipRequest importZipRequest = new ImportZipRequest();
+        importZipRequest.setZipFile(new MockMultipartFile("test", "feed.zip", "multipart/form-data", new byte[8]));
+        importZipRequest.setFileFormat("General Transit Feed Specification (GTFS)");
+        importZipRequest.setRoutesToImport("1A,2B");
+        Mockito.when(fileSystemStorageService.storeArchive(importZipRequest.getZipFile())).thenReturn("upload/feed.zip");
+        Mockito.when(importJobService.submitJob("upload/feed.zip", "feed.zip", "General Transit Feed Specification (GTFS)", List.of("1A", "2B"), null, null))
+                .thenReturn(ImportJob.builder().id("123").fileName("feed.zip").phase(ImportPhase.QUEUED).build());
+        ResponseEntity<ImportJobResponse> responseEntity = controller.submitImportJob(importZipRequest);
+        assertEquals(HttpStatus.ACCEPTED, responseEntity.getStatusCode());
+        assertEquals("123", responseEntity.getBody().getId());
+        assertEquals("QUEUED", responseEntity.getBody().getPhase());
+        assertNull(responseEntity.getBody().getEstimatedSecondsRemaining());
+        //Too many jobs.
+        Mockito.when(importJobService.submitJob(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.anyList(), Mockito.any(), Mockito.any()))
+                .thenThrow(new RejectedExecutionException());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, controller.submitImportJob(importZipRequest).getStatusCode());
+        //Unknown format.
+        importZipRequest.setFileFormat("Excel");
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, controller.submitImportJob(importZipRequest).getStatusCode());
+    }
+
+    /**
+     * Test the status and cancel endpoints of this controller.
+     */
+    @Test
+    public void testGetAndCancelImportJob ( ) {
+        ImportJob importJob = ImportJob.builder()
+                .id("123")
+                .phase(ImportPhase.IMPORTING_STOP_TIMES)
+                .rowsRead(1000)
+                .rowsWritten(900)
+                .bytesRead(250)
+                .totalBytes(1000)
+                .startedAt(LocalDateTime.now().minusSeconds(10))
+                .build();
+        Mockito.when(importJobService.getJob("123")).thenReturn(importJob);
+        ResponseEntity<ImportJobResponse> responseEntity = controller.getImportJob("123");
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        //A quarter has been read after 10 seconds so about 30 seconds remain.
+        assertTrue(responseEntity.getBody().getRowsPerSecond() > 90 && responseEntity.getBody().getRowsPerSecond() <= 100);
+        assertTrue(responseEntity.getBody().getEstimatedSecondsRemaining() >= 29 && responseEntity.getBody().getEstimatedSecondsRemaining() <= 31);
+        assertEquals(900L, responseEntity.getBody().getRowsWritten());
+        assertEquals(HttpStatus.NOT_FOUND, controller.getImportJob("456").getStatusCode());
+        //Cancel the running job.
+        Mockito.when(importJobService.cancelJob("123")).thenReturn(importJob);
+        assertEquals(HttpStatus.ACCEPTED, controller.cancelImportJob("123").getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, controller.cancelImportJob("456").getStatusCode());
+        //Finished jobs cannot be cancelled.
+        importJob.setPhase(ImportPhase.COMPLETED);
+        importJob.setFinishedAt(LocalDateTime.now());
+        ResponseEntity<ImportJobResponse> cancelResponse = controller.cancelImportJob("123");
+        assertEquals(HttpStatus.CONFLICT, cancelResponse.getStatusCode());
+        assertEquals(0L, cancelResponse.getBody().getEstimatedSecondsRemaining());
+    }
+
+}
@@ -55,11 +55,7 @@ public class RoutesControllerTest {
      */
     @Test
     public void testDeleteRoutesEndpoint() {
-        Mockito.when(routeService.getRoutesByCompany("Mustermann Bus GmbH")).thenReturn(Lists.newArrayList(Route.builder()
-                .company("Mustermann Bus GmbH")
-                .id("123")
-                .routeNumber("405")
-                .build()));
+        Mockito.when(routeService.deleteRoutes("Mustermann Bus GmbH")).thenReturn(1L);
         ResponseEntity<Void> responseEntity = routesController.deleteRoutesByCompany("Mustermann Bus GmbH");
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         //Second test - do not supply company.
@@ -1,28 +1,42 @@
 package de.davelee.trams.server.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.davelee.trams.server.model.*;
 import de.davelee.trams.server.request.GenerateStopTimesRequest;
+import de.davelee.trams.server.response.GenerateStopTimesResponse;
+import de.davelee.trams.server.response.PositionsResponse;
 import de.davelee.trams.server.response.StopTimesResponse;
 import de.davelee.trams.server.service.CompanyService;
+import de.davelee.trams.server.service.DepartureBoardService;
 import de.davelee.trams.server.service.StopService;
 import de.davelee.trams.server.service.StopTimeService;
+import de.davelee.trams.server.service.VehicleService;
+import de.davelee.trams.server.utils.DateUtils;
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 
 /**
@@ -45,6 +59,15 @@ public class StopTimesControllerTest {
     @Mock
     private CompanyService companyService;
 
+    @Mock
+    private VehicleService vehicleService;
+
+    @Mock
+    private DepartureBoardService departureBoardService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     /**
      * Test the departure endpoint of this controller.
      */
@@ -66,13 +89,13 @@ public class StopTimesControllerTest {
                 .validFromDate(LocalDateTime.of(2020,12,12,0,0))
                 .validToDate(LocalDateTime.of(2021,12,11,0,0))
                 .build()));
-        ResponseEntity<StopTimesResponse> responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.of("22:00"), "15-03-2020", null,true, false, Optional.empty());
+        ResponseEntity<StopTimesResponse> responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.of("22:00"), "15-03-2020", null,true, false, Optional.empty(), Optional.empty(), Optional.empty());
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(1L, responseEntity.getBody().getCount());
         assertEquals("101", responseEntity.getBody().getStopTimeResponses()[0].getJourneyNumber());
-        ResponseEntity<StopTimesResponse> responseEntity2 = stopTimesController.getStopTimes("Lakeside", "", Optional.of("22:00"), "15-03-2020", null, true, false, Optional.empty());
+        ResponseEntity<StopTimesResponse> responseEntity2 = stopTimesController.getStopTimes("Lakeside", "", Optional.of("22:00"), "15-03-2020", null, true, false, Optional.empty(), Optional.empty(), Optional.empty());
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity2.getStatusCode());
-        ResponseEntity<StopTimesResponse> responseEntity3 = stopTimesController.getStopTimes("Lakeside", "Mustermann Buses GmbH", Optional.of("22:00"), "15-03-2020", null,true, false, Optional.empty());
+        ResponseEntity<StopTimesResponse> responseEntity3 = stopTimesController.getStopTimes("Lakeside", "Mustermann Buses GmbH", Optional.of("22:00"), "15-03-2020", null,true, false, Optional.empty(), Optional.empty(), Optional.empty());
         assertEquals(HttpStatus.NO_CONTENT, responseEntity3.getStatusCode());
     }
 
@@ -97,7 +120,7 @@ public class StopTimesControllerTest {
                 .validFromDate(LocalDateTime.of(2020,12,12,0,0))
                 .validToDate(LocalDateTime.of(2021,12,11,0,0))
                 .build()));
-        ResponseEntity<StopTimesResponse> responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.of("22:00"), "15-03-2020", null, false, true, Optional.empty());
+        ResponseEntity<StopTimesResponse> responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.of("22:00"), "15-03-2020", null, false, true, Optional.empty(), Optional.empty(), Optional.empty());
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(1L, responseEntity.getBody().getCount());
         assertEquals("22:11", responseEntity.getBody().getStopTimeResponses()[0].getArrivalTime());
@@ -108,7 +131,7 @@ public class StopTimesControllerTest {
      */
     @Test
     public void testDeparturesDateEndpoints() {
-        Mockito.when(stopTimeService.getDeparturesByDate(anyString(), anyString(), anyString(), anyString())).thenReturn(Lists.newArrayList(StopTime.builder()
+        mockDeparturesByDateRange(Lists.newArrayList(StopTime.builder()
                 .arrivalTime(LocalTime.of(22,11))
                 .departureTime(LocalTime.of(22,13))
                 .destination("Greenfield")
@@ -123,12 +146,67 @@ public class StopTimesControllerTest {
                 .validFromDate(LocalDateTime.of(2020,12,12,0,0))
                 .validToDate(LocalDateTime.of(2021,12,11,0,0))
                 .build()));
-        ResponseEntity<StopTimesResponse> responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", null, true, false, Optional.empty());
+        ResponseEntity<StopTimesResponse> responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", null, true, false, Optional.empty(), Optional.empty(), Optional.empty());
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(1L, responseEntity.getBody().getCount());
         assertEquals("101", responseEntity.getBody().getStopTimeResponses()[0].getJourneyNumber());
     }
 
+    /**
+     * Test that stop times of a date range are returned in pages which continue where the previous page stopped.
+     */
+    @Test
+    public void testPagedStopTimes() {
+        mockDeparturesByDateRange(List.of(
+                createStopTime("101"), createStopTime("102"), createStopTime("103")));
+        //First page contains all stop times of the first date and the first stop time of the second date.
+        ResponseEntity<StopTimesResponse> responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", "12-04-2021", true, false, Optional.empty(), Optional.of(4), Optional.empty());
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(4L, responseEntity.getBody().getCount());
+        assertEquals("101", responseEntity.getBody().getStopTimeResponses()[3].getJourneyNumber());
+        assertNotNull(responseEntity.getBody().getNextPageToken());
+        //The token is rejected for other query parameters.
+        String firstPageToken = responseEntity.getBody().getNextPageToken();
+        assertEquals(HttpStatus.BAD_REQUEST, stopTimesController.getStopTimes("Greenfield", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", "12-04-2021", true, false, Optional.empty(), Optional.of(4), Optional.of(firstPageToken)).getStatusCode());
+        //Second page continues with the second stop time of the second date.
+        responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", "12-04-2021", true, false, Optional.empty(), Optional.of(4), Optional.of(firstPageToken));
+        assertEquals(4L, responseEntity.getBody().getCount());
+        assertEquals("102", responseEntity.getBody().getStopTimeResponses()[0].getJourneyNumber());
+        assertEquals("102", responseEntity.getBody().getStopTimeResponses()[3].getJourneyNumber());
+        //Last page has no continuation token.
+        responseEntity = stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", "12-04-2021", true, false, Optional.empty(), Optional.of(4), Optional.of(responseEntity.getBody().getNextPageToken()));
+        assertEquals(1L, responseEntity.getBody().getCount());
+        assertEquals("103", responseEntity.getBody().getStopTimeResponses()[0].getJourneyNumber());
+        assertNull(responseEntity.getBody().getNextPageToken());
+        //Each page retrieves the stop times of the stop once for the remaining range.
+        Mockito.verify(stopTimeService, Mockito.times(3)).getDeparturesByDateRange(anyString(), anyString(), any(), any(), anyString());
+        Mockito.verify(stopTimeService, Mockito.never()).getDeparturesByDate(anyString(), anyString(), anyString(), anyString());
+        //Invalid page sizes and tokens are rejected.
+        assertEquals(HttpStatus.BAD_REQUEST, stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", "12-04-2021", true, false, Optional.empty(), Optional.of(0), Optional.empty()).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, stopTimesController.getStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", "12-04-2021", true, false, Optional.empty(), Optional.of(4), Optional.of("invalid")).getStatusCode());
+    }
+
+    /**
+     * Test that stop times of a date range can be streamed as newline-delimited JSON.
+     * @throws Exception if the stream cannot be written.
+     */
+    @Test
+    public void testStreamStopTimes() throws Exception {
+        mockDeparturesByDateRange(List.of(
+                createStopTime("101"), createStopTime("102"), createStopTime("103")));
+        ResponseEntity<StreamingResponseBody> responseEntity = stopTimesController.streamStopTimes("Lakeside", "Mustermann Bus GmbH", Optional.empty(), "10-04-2021", "11-04-2021", true, false, Optional.empty());
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        responseEntity.getBody().writeTo(outputStream);
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(6, lines.length);
+        assertTrue(lines[0].contains("\"journeyNumber\":\"101\""));
+        assertTrue(lines[5].contains("\"journeyNumber\":\"103\""));
+        //The stop times are written with the object mapper of the application.
+        Mockito.verify(objectMapper, Mockito.times(6)).writeValueAsBytes(any());
+        assertEquals(HttpStatus.BAD_REQUEST, stopTimesController.streamStopTimes("Lakeside", "", Optional.empty(), "10-04-2021", null, true, false, Optional.empty()).getStatusCode());
+    }
+
     /**
      * Test the generate endpoint of this controller.
      */
@@ -189,7 +267,7 @@ public class StopTimesControllerTest {
                 .operatingDays("Monday,Tuesday,Wednesday,Thursday,Friday,25-12-2021,01-01-2022")
                 .build();
         assertEquals("GenerateStopTimesRequest(company=Lee Transport, stopNames=[Ferry Terminal, Arena, Cathedral, Bus Station, Airport], routeNumber=TravelExpress, startTime=05:00, endTime=23:00, startStop=null, endStop=null, frequency=90, numTours=0, validFromDate=11-12-2021, validToDate=10-12-2022, operatingDays=Monday,Tuesday,Wednesday,Thursday,Friday,25-12-2021,01-01-2022, stopDistances=null)", generateStopTimesRequest.toString());
-        stopTimesController.generateStopTimes(generateStopTimesRequest);
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, stopTimesController.generateStopTimes(generateStopTimesRequest, false).getStatusCode());
         //Mocks for 2nd test
         Mockito.when(stopService.getStop("Lee Transport", "Bus Station")).thenReturn(
                 Stop.builder()
@@ -218,7 +296,97 @@ public class StopTimesControllerTest {
         generateStopTimesRequest2.setValidFromDate("11-12-2021");
         generateStopTimesRequest2.setValidToDate("25-12-2021");
         generateStopTimesRequest2.setOperatingDays("Saturday,Sunday");
-        stopTimesController.generateStopTimes(generateStopTimesRequest2);
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, stopTimesController.generateStopTimes(generateStopTimesRequest2, false).getStatusCode());
+        //3rd test - dry run within the validity period returns the count and the first trip without saving.
+        generateStopTimesRequest2.setValidFromDate(DateUtils.convertLocalDateTimeToDate(LocalDateTime.now().minusDays(1)));
+        generateStopTimesRequest2.setValidToDate(DateUtils.convertLocalDateTimeToDate(LocalDateTime.now().plusDays(1)));
+        ServiceTrip serviceTrip = ServiceTrip.builder().serviceId("1").routeSchedule(RouteSchedule.builder().routeNumber("ParkExpress").scheduleId("1").build()).build();
+        Mockito.when(stopTimeService.calculateStopTimes(generateStopTimesRequest2)).thenReturn(List.of(
+                StopTime.builder().stopName("Bus Station").company("Lee Transport").routeNumber("ParkExpress").arrivalTime(LocalTime.of(10,0)).departureTime(LocalTime.of(10,0)).operatingDays(OperatingDays.builder().operatingDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY)).build()).service(serviceTrip).build(),
+                StopTime.builder().stopName("Country Park").company("Lee Transport").routeNumber("ParkExpress").arrivalTime(LocalTime.of(10,40)).departureTime(LocalTime.of(10,40)).operatingDays(OperatingDays.builder().operatingDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY)).build()).service(serviceTrip).build(),
+                StopTime.builder().stopName("Country Park").company("Lee Transport").routeNumber("ParkExpress").arrivalTime(LocalTime.of(11,0)).departureTime(LocalTime.of(11,0)).operatingDays(OperatingDays.builder().operatingDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY)).build()).service(serviceTrip).build()));
+        ResponseEntity<GenerateStopTimesResponse> responseEntity = stopTimesController.generateStopTimes(generateStopTimesRequest2, true);
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(3L, responseEntity.getBody().getCount());
+        assertEquals(2, responseEntity.getBody().getPreviewStopTimeResponses().length);
+        assertEquals("10:40", responseEntity.getBody().getPreviewStopTimeResponses()[1].getDepartureTime());
+        Mockito.verify(stopTimeService, Mockito.never()).insertStopTimes(anyString(), Mockito.anyList());
+        //4th test - without dry run the stop times are saved.
+        Mockito.when(stopTimeService.insertStopTimes(Mockito.eq("Lee Transport"), Mockito.anyList())).thenReturn(3L);
+        assertEquals(3L, stopTimesController.generateStopTimes(generateStopTimesRequest2, false).getBody().getCount());
+    }
+
+    /**
+     * Test the positions endpoint of this controller.
+     */
+    @Test
+    public void testPositionsEndpoint() {
+        List<Vehicle> vehicles = List.of(Vehicle.builder().fleetNumber("201").allocatedTour("405A/1").build(),
+                Vehicle.builder().fleetNumber("202").allocatedTour("").build());
+        Mockito.when(vehicleService.retrieveVehiclesByCompany("Mustermann Bus GmbH")).thenReturn(vehicles);
+        Mockito.when(stopTimeService.retrievePositionsForVehicles(Mockito.eq("Mustermann Bus GmbH"), Mockito.anyList(), Mockito.any())).thenReturn(Map.of("201",
+                Position.builder().stop("Lakeside").destination("Greenfield").delay(2).company("Mustermann Bus GmbH")
+                        .service(ServiceTrip.builder().serviceId("1").stopList(List.of(Stop.builder().name("Lakeside").build()))
+                                .routeSchedule(RouteSchedule.builder().routeNumber("405A").scheduleId("1").build()).build()).build()));
+        ResponseEntity<PositionsResponse> responseEntity = stopTimesController.getPositions("Mustermann Bus GmbH", "15-03-2021 08:15");
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        //Only the allocated vehicle is returned.
+        assertEquals(1L, responseEntity.getBody().getCount());
+        assertEquals("201", responseEntity.getBody().getPositionResponses()[0].getFleetNumber());
+        assertEquals("Lakeside", responseEntity.getBody().getPositionResponses()[0].getStop());
+        assertEquals("405A/1", responseEntity.getBody().getPositionResponses()[0].getService().getScheduleId());
+        //Second test - do not supply company.
+        assertEquals(HttpStatus.BAD_REQUEST, stopTimesController.getPositions("", "15-03-2021 08:15").getStatusCode());
+        //Third test - company has no allocated vehicles.
+        Mockito.when(vehicleService.retrieveVehiclesByCompany("Lee Transport")).thenReturn(List.of());
+        assertEquals(HttpStatus.NO_CONTENT, stopTimesController.getPositions("Lee Transport", "15-03-2021 08:15").getStatusCode());
+    }
+
+    /**
+     * Test the next departures stream endpoint of this controller.
+     */
+    @Test
+    public void testNextDeparturesStreamEndpoint() {
+        SseEmitter sseEmitter = new SseEmitter();
+        Mockito.when(departureBoardService.subscribe("Lakeside", 3, "Mustermann Bus GmbH", null)).thenReturn(sseEmitter);
+        ResponseEntity<SseEmitter> responseEntity = stopTimesController.streamNextDepartures("Lakeside", 3, "Mustermann Bus GmbH", null);
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(sseEmitter, responseEntity.getBody());
+        //Second test - do not supply operator.
+        assertEquals(HttpStatus.BAD_REQUEST, stopTimesController.streamNextDepartures("Lakeside", 3, "", null).getStatusCode());
+    }
+
+    /**
+     * Private helper method to return the supplied stop times as the departures of each date of a date range.
+     * @param stopTimes a <code>List</code> of <code>StopTime</code> objects which depart on each date.
+     */
+    private void mockDeparturesByDateRange ( final List<StopTime> stopTimes ) {
+        Mockito.when(stopTimeService.getDeparturesByDateRange(anyString(), anyString(), any(), any(), anyString())).thenAnswer(invocation ->
+                invocation.<LocalDate>getArgument(2).datesUntil(invocation.<LocalDate>getArgument(3).plusDays(1))
+                        .map(date -> new StopTimeService.DateStopTimes(date, stopTimes)));
+    }
+
+    /**
+     * Private helper method to create test stop time data.
+     * @param journeyNumber a <code>String</code> containing the journey number.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createStopTime ( final String journeyNumber ) {
+        return StopTime.builder()
+                .arrivalTime(LocalTime.of(22,11))
+                .departureTime(LocalTime.of(22,13))
+                .destination("Greenfield")
+                .journeyNumber(journeyNumber)
+                .operatingDays(OperatingDays.builder()
+                        .operatingDays(List.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY, DayOfWeek.MONDAY))
+                        .build())
+                .routeNumber("405A")
+                .stopName("Lakeside")
+                .tripId("405A-" + journeyNumber)
+                .service(ServiceTrip.builder().routeSchedule(RouteSchedule.builder().routeNumber("405A").scheduleId("1").build()).build())
+                .validFromDate(LocalDateTime.of(2020,12,12,0,0))
+                .validToDate(LocalDateTime.of(2021,12,11,0,0))
+                .build();
     }
 
 }
@@ -2,6 +2,7 @@ package de.davelee.trams.server.controller;
 
 import de.davelee.trams.server.request.ImportZipRequest;
 import de.davelee.trams.server.service.*;
+import org.apache.commons.lang.reflect.FieldUtils;
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -65,13 +66,37 @@ public class UploadControllerTest {
             importCsvZipRequest.setFileFormat("Comma Separated Value (CSV)");
             importCsvZipRequest.setValidFromDate("09-08-2020");
             importCsvZipRequest.setValidToDate("16-08-2020");
-            Mockito.when(fileSystemStorageService.store(importCsvZipRequest.getZipFile())).thenReturn("testCsvFolder");
+            Mockito.when(fileSystemStorageService.storeArchive(importCsvZipRequest.getZipFile())).thenReturn("testCsv.zip");
             Mockito.when(csvDataService.readCSVFile(anyString(), anyString(), anyString())).thenReturn(true);
             ResponseEntity<Void> uploadGoodResponse = controller.handleFileUpload(importCsvZipRequest);
             assertEquals(HttpStatus.OK, uploadGoodResponse.getStatusCode());
+            //Csv files are read directly from the zip file which is not extracted.
+            Mockito.verify(csvDataService).readCSVFile("testCsv.zip", "09-08-2020", "16-08-2020");
+            Mockito.verify(fileSystemStorageService, Mockito.never()).store(importCsvZipRequest.getZipFile());
         } catch ( Exception e ) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Test the file upload endpoint of this controller when gtfs feeds are read in streaming mode.
+     * @throws Exception if the streaming mode cannot be activated.
+     */
+    @Test
+    public void testHandleFileUploadStreaming() throws Exception {
+        FieldUtils.writeField(controller, "gtfsStreaming", true, true);
+        ImportZipRequest importZipRequest = new ImportZipRequest();
+        importZipRequest.setZipFile(new MockMultipartFile("test", new byte[8]));
+        importZipRequest.setFileFormat("General Transit Feed Specification (GTFS)");
+        importZipRequest.setRoutesToImport("1A,2B");
+        Mockito.when(fileSystemStorageService.storeArchive(importZipRequest.getZipFile())).thenReturn("test.zip");
+        Mockito.when(importGTFSDataService.readGTFSFileStreaming("test.zip", Lists.newArrayList("1A", "2B"))).thenReturn(true);
+        assertEquals(HttpStatus.OK, controller.handleFileUpload(importZipRequest).getStatusCode());
+        //The zip file should not have been extracted.
+        Mockito.verify(fileSystemStorageService, Mockito.never()).store(importZipRequest.getZipFile());
+        importZipRequest.setRoutesToImport("3C");
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, controller.handleFileUpload(importZipRequest).getStatusCode());
+        FieldUtils.writeField(controller, "gtfsStreaming", false, true);
+    }
+
 }
@@ -0,0 +1,29 @@
+package de.davelee.trams.server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the AuthToken class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class AuthTokenTest {
+
+    /**
+     * Ensure that an AuthToken class can be correctly instantiated.
+     */
+    @Test
+    public void testBuilderGetterSetterToString ( ) {
+        AuthToken authToken = AuthToken.builder()
+                .id("abc")
+                .expiresAt(Instant.ofEpochMilli(1000L))
+                .build();
+        authToken.setId("def");
+        assertEquals("def", authToken.getId());
+        assertEquals("AuthToken(id=def, expiresAt=1970-01-01T00:00:01Z)", authToken.toString());
+    }
+
+}
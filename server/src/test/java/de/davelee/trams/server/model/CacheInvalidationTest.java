@@ -0,0 +1,31 @@
+package de.davelee.trams.server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the CacheInvalidation class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class CacheInvalidationTest {
+
+    /**
+     * Ensure that a CacheInvalidation class can be correctly instantiated.
+     */
+    @Test
+    public void testBuilderGetterSetterToString ( ) {
+        CacheInvalidation cacheInvalidation = CacheInvalidation.builder()
+                .cache("routes")
+                .company("Mustermann Bus GmbH")
+                .instanceId("1")
+                .createdAt(Instant.ofEpochMilli(1000L))
+                .build();
+        cacheInvalidation.setId("abc");
+        assertEquals("abc", cacheInvalidation.getId());
+        assertEquals("CacheInvalidation(id=abc, cache=routes, company=Mustermann Bus GmbH, instanceId=1, createdAt=1970-01-01T00:00:01Z)", cacheInvalidation.toString());
+    }
+
+}
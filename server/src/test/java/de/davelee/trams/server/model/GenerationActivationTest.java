@@ -0,0 +1,31 @@
+package de.davelee.trams.server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the GenerationActivation class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class GenerationActivationTest {
+
+    /**
+     * Ensure that a GenerationActivation class can be correctly instantiated.
+     */
+    @Test
+    public void testBuilderGetterSetterToString ( ) {
+        GenerationActivation generationActivation = GenerationActivation.builder()
+                .id("1")
+                .companies(List.of("Mustermann Bus GmbH"))
+                .build();
+        generationActivation.setCompanies(List.of("Mustermann Bus GmbH", "Mustermann Tram GmbH"));
+        generationActivation.setActivatedAt(LocalDateTime.of(2021,3,15,8,0));
+        assertEquals(2, generationActivation.getCompanies().size());
+        assertEquals("GenerationActivation(id=1, companies=[Mustermann Bus GmbH, Mustermann Tram GmbH], activatedAt=2021-03-15T08:00)", generationActivation.toString());
+    }
+
+}
@@ -0,0 +1,35 @@
+package de.davelee.trams.server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ImportCheckpoint class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class ImportCheckpointTest {
+
+    /**
+     * Ensure that an ImportCheckpoint class can be correctly instantiated.
+     */
+    @Test
+    public void testBuilderGetterSetterToString ( ) {
+        ImportCheckpoint importCheckpoint = ImportCheckpoint.builder()
+                .id("abc")
+                .generation("1")
+                .checkpointNumber(2)
+                .files(List.of(ImportFileCheckpoint.builder().fileName("stop_times.txt").committedRows(100).build()))
+                .companies(List.of("Mustermann Bus GmbH"))
+                .createdAt(LocalDateTime.of(2021,3,15,8,0))
+                .build();
+        importCheckpoint.setCheckpointNumber(3);
+        importCheckpoint.setUpdatedAt(LocalDateTime.of(2021,3,15,8,5));
+        assertEquals(100, importCheckpoint.getFiles().getFirst().getCommittedRows());
+        assertEquals("ImportCheckpoint(id=abc, generation=1, checkpointNumber=3, files=[ImportFileCheckpoint(fileName=stop_times.txt, committedRows=100)], companies=[Mustermann Bus GmbH], createdAt=2021-03-15T08:00, updatedAt=2021-03-15T08:05)", importCheckpoint.toString());
+    }
+
+}
@@ -0,0 +1,84 @@
+package de.davelee.trams.server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ImportGeneration class and ensures that stop times are tagged and checkpoints are written correctly.
+ * @author Dave Lee
+ */
+public class ImportGenerationTest {
+
+    /**
+     * Ensure that written stop times are tagged with the generation and that a checkpoint is written after the configured number of batches.
+     */
+    @Test
+    public void testWriteBatch ( ) {
+        List<ImportCheckpoint> writtenCheckpoints = new ArrayList<>();
+        ImportGeneration importGeneration = new ImportGeneration(ImportCheckpoint.builder().id("abc").generation("1").build(),
+                false, 2, writtenCheckpoints::add);
+        assertEquals(0, importGeneration.getCommittedRows("stop_times.txt"));
+        List<StopTime> stopTimes = List.of(StopTime.builder().company("Mustermann Bus GmbH").build());
+        List<StopTime> writtenStopTimes = new ArrayList<>();
+        importGeneration.writeBatch("stop_times.txt", 10, stopTimes, () -> writtenStopTimes.addAll(stopTimes));
+        assertEquals("1", writtenStopTimes.getFirst().getGeneration());
+        assertEquals(1, writtenStopTimes.getFirst().getCheckpoint());
+        assertEquals(10, importGeneration.getCommittedRows("stop_times.txt"));
+        assertTrue(writtenCheckpoints.isEmpty());
+        //The second batch completes the first checkpoint.
+        importGeneration.writeBatch("stop_times.txt", 20, List.of(), () -> { });
+        assertEquals(1, writtenCheckpoints.size());
+        assertEquals(1, importGeneration.getCheckpointNumber());
+        assertEquals(20, writtenCheckpoints.getFirst().getFiles().getFirst().getCommittedRows());
+        assertEquals(List.of("Mustermann Bus GmbH"), writtenCheckpoints.getFirst().getCompanies());
+        //Stop times after the checkpoint belong to the next checkpoint.
+        importGeneration.writeBatch("stop_times.txt", 30, stopTimes, () -> { });
+        assertEquals(2, stopTimes.getFirst().getCheckpoint());
+        assertEquals(List.of("Mustermann Bus GmbH"), importGeneration.getCompanies());
+    }
+
+    /**
+     * Ensure that a failed batch prevents any further checkpoint which could cover its partially written stop times.
+     */
+    @Test
+    public void testFailedBatch ( ) {
+        List<ImportCheckpoint> writtenCheckpoints = new ArrayList<>();
+        ImportGeneration importGeneration = new ImportGeneration(ImportCheckpoint.builder().id("abc").generation("1").build(),
+                false, 2, writtenCheckpoints::add);
+        List<StopTime> stopTimes = List.of(StopTime.builder().company("Mustermann Bus GmbH").build());
+        assertThrows(IllegalArgumentException.class, () -> importGeneration.writeBatch("stop_times.txt", 10, stopTimes, () -> {
+            throw new IllegalArgumentException("Write failed");
+        }));
+        assertTrue(importGeneration.isFailed());
+        assertEquals(0, importGeneration.getCommittedRows("stop_times.txt"));
+        //Another worker can neither write a batch nor a checkpoint.
+        assertThrows(IllegalStateException.class, () -> importGeneration.writeBatch("other.csv", 10, List.of(), () -> { }));
+        assertThrows(IllegalStateException.class, importGeneration::writeCheckpoint);
+        assertTrue(writtenCheckpoints.isEmpty());
+    }
+
+    /**
+     * Ensure that a resumed generation continues with the committed rows of its last checkpoint.
+     */
+    @Test
+    public void testResume ( ) {
+        ImportGeneration importGeneration = new ImportGeneration(ImportCheckpoint.builder()
+                .id("abc")
+                .generation("1")
+                .checkpointNumber(4)
+                .files(List.of(ImportFileCheckpoint.builder().fileName("stop_times.txt").committedRows(500).build()))
+                .companies(List.of("Mustermann Bus GmbH"))
+                .build(), true, 10, importCheckpoint -> { });
+        assertTrue(importGeneration.isResumed());
+        assertEquals("abc", importGeneration.getCheckpointId());
+        assertEquals("1", importGeneration.getGeneration());
+        assertEquals(4, importGeneration.getCheckpointNumber());
+        assertEquals(500, importGeneration.getCommittedRows("stop_times.txt"));
+        assertEquals(List.of("Mustermann Bus GmbH"), importGeneration.getCompanies());
+    }
+
+}
@@ -0,0 +1,35 @@
+package de.davelee.trams.server.model;
+
+import de.davelee.trams.server.constant.ImportPhase;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ImportJob class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class ImportJobTest {
+
+    /**
+     * Ensure that an ImportJob class can be correctly instantiated.
+     */
+    @Test
+    public void testBuilderGetterSetterToString ( ) {
+        ImportJob importJob = ImportJob.builder()
+                .id("123")
+                .fileName("feed.zip")
+                .fileFormat("General Transit Feed Specification (GTFS)")
+                .phase(ImportPhase.QUEUED)
+                .createdAt(LocalDateTime.of(2021,3,15,8,0))
+                .build();
+        importJob.setPhase(ImportPhase.CANCELLED);
+        importJob.setCancelRequested(true);
+        assertTrue(importJob.getPhase().isFinished());
+        assertFalse(ImportPhase.IMPORTING_STOP_TIMES.isFinished());
+        assertEquals("ImportJob(id=123, fileName=feed.zip, fileFormat=General Transit Feed Specification (GTFS), phase=CANCELLED, rowsRead=0, rowsWritten=0, bytesRead=0, totalBytes=0, createdAt=2021-03-15T08:00, startedAt=null, finishedAt=null, updatedAt=null, cancelRequested=true)", importJob.toString());
+    }
+
+}
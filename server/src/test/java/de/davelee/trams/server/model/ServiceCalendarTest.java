@@ -0,0 +1,115 @@
+package de.davelee.trams.server.model;
+
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ServiceCalendar class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class ServiceCalendarTest {
+
+    /**
+     * Ensure that the compiled calendar matches the operating days including special and disrupted days.
+     */
+    @Test
+    public void testRunsOn ( ) {
+        OperatingDays operatingDays = OperatingDays.builder()
+                .operatingDays(List.of(DayOfWeek.MONDAY, DayOfWeek.SATURDAY))
+                .specialOperatingDays(List.of(LocalDateTime.of(2021,12,25,0,0)))
+                .disruptedOperatingDays(List.of(LocalDateTime.of(2021,12,13,0,0)))
+                .build();
+        ServiceCalendar serviceCalendar = ServiceCalendar.compile(operatingDays,
+                LocalDateTime.of(2021,12,1,0,0), LocalDateTime.of(2021,12,31,0,0));
+        //Monday within the validity window.
+        assertTrue(serviceCalendar.runsOn(LocalDate.of(2021,12,6)));
+        //Disrupted Monday.
+        assertFalse(serviceCalendar.runsOn(LocalDate.of(2021,12,13)));
+        //Special operating day which is a Saturday anyway and Christmas Day is a special day.
+        assertTrue(serviceCalendar.runsOn(LocalDate.of(2021,12,25)));
+        //Tuesday.
+        assertFalse(serviceCalendar.runsOn(LocalDate.of(2021,12,7)));
+        //Monday outside of the covered range should use the weekday mask.
+        assertTrue(serviceCalendar.runsOn(LocalDate.of(2022,1,3)));
+        //Same results as the operating days themselves even if the time is not midnight.
+        assertEquals(operatingDays.checkIfOperatingDay(LocalDateTime.of(2021,12,13,14,30)), serviceCalendar.runsOn(LocalDate.of(2021,12,13)));
+        assertFalse(operatingDays.checkIfOperatingDay(LocalDateTime.of(2021,12,13,14,30)));
+        assertTrue(operatingDays.checkIfOperatingDay(LocalDateTime.of(2021,12,6,8,15)));
+        //Validity window is inclusive.
+        assertTrue(serviceCalendar.isValidOn(LocalDate.of(2021,12,1)));
+        assertTrue(serviceCalendar.isValidOn(LocalDate.of(2021,12,31)));
+        assertFalse(serviceCalendar.isValidOn(LocalDate.of(2022,1,1)));
+        //Bitset for the first week of December 2021 (Wednesday to Tuesday).
+        BitSet serviceDays = serviceCalendar.getServiceDays(LocalDate.of(2021,12,1), LocalDate.of(2021,12,7));
+        assertEquals(2, serviceDays.cardinality());
+        assertTrue(serviceDays.get(3));
+        assertTrue(serviceDays.get(5));
+        //Valid days of a range which starts before and ends after the validity window.
+        BitSet validDays = serviceCalendar.getValidDays(LocalDate.of(2021,11,29), LocalDate.of(2022,1,2));
+        assertEquals(31, validDays.cardinality());
+        assertEquals(2, validDays.nextSetBit(0));
+        assertTrue(serviceCalendar.getValidDays(LocalDate.of(2022,1,1), LocalDate.of(2022,1,7)).isEmpty());
+        //Service days on the boundary of the validity window.
+        serviceDays = serviceCalendar.getServiceDays(LocalDate.of(2021,12,27), LocalDate.of(2022,1,3));
+        serviceDays.and(serviceCalendar.getValidDays(LocalDate.of(2021,12,27), LocalDate.of(2022,1,3)));
+        assertEquals(1, serviceDays.cardinality());
+        assertTrue(serviceDays.get(0));
+    }
+
+    /**
+     * Ensure that calendars with the same operating days are equal even if they were compiled after the cache of
+     * calendars was cleared.
+     * @throws Exception if the cache cannot be accessed.
+     */
+    @Test
+    public void testCalendarEquality ( ) throws Exception {
+        ServiceCalendar serviceCalendar = createStopTime(List.of(DayOfWeek.MONDAY, DayOfWeek.TUESDAY)).getServiceCalendar();
+        ((Map<?, ?>) FieldUtils.readStaticField(ServiceCalendar.class, "CALENDARS", true)).clear();
+        ServiceCalendar recompiledCalendar = createStopTime(List.of(DayOfWeek.TUESDAY, DayOfWeek.MONDAY)).getServiceCalendar();
+        assertNotSame(serviceCalendar, recompiledCalendar);
+        assertEquals(serviceCalendar, recompiledCalendar);
+        assertEquals(serviceCalendar.hashCode(), recompiledCalendar.hashCode());
+        assertNotEquals(serviceCalendar, createStopTime(List.of(DayOfWeek.SUNDAY)).getServiceCalendar());
+    }
+
+    /**
+     * Ensure that the same calendar object is shared between stop times with the same operating days.
+     */
+    @Test
+    public void testSharedCalendar ( ) {
+        StopTime stopTime1 = createStopTime(List.of(DayOfWeek.MONDAY, DayOfWeek.TUESDAY));
+        StopTime stopTime2 = createStopTime(List.of(DayOfWeek.TUESDAY, DayOfWeek.MONDAY));
+        assertSame(stopTime1.getServiceCalendar(), stopTime2.getServiceCalendar());
+        //Changing the operating days should recompile the calendar.
+        stopTime2.setOperatingDays(OperatingDays.builder().operatingDays(List.of(DayOfWeek.SUNDAY)).build());
+        assertNotSame(stopTime1.getServiceCalendar(), stopTime2.getServiceCalendar());
+        assertTrue(stopTime2.getServiceCalendar().runsOnDayOfWeek(DayOfWeek.SUNDAY));
+        //No operating days means that the service never runs.
+        stopTime2.setOperatingDays(null);
+        assertFalse(stopTime2.getServiceCalendar().runsOn(LocalDate.of(2021,12,6)));
+    }
+
+    /**
+     * Private helper method to create test stop time data.
+     * @param daysOfWeek a <code>List</code> of <code>DayOfWeek</code> objects on which the stop time takes place.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createStopTime ( final List<DayOfWeek> daysOfWeek ) {
+        return StopTime.builder()
+                .stopName("Lakeside")
+                .operatingDays(OperatingDays.builder().operatingDays(daysOfWeek).build())
+                .validFromDate(LocalDateTime.of(2021,12,1,0,0))
+                .validToDate(LocalDateTime.of(2021,12,31,0,0))
+                .build();
+    }
+
+}
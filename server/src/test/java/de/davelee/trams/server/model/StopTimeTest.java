@@ -50,7 +50,7 @@ public class StopTimeTest {
         assertEquals(LocalDateTime.of(2021,12,11,0,0), stopTime.getValidToDate());
         assertEquals("Continues as 405B to Brownfield", stopTime.getFootnote());
         //Verify the toString method
-        assertEquals("StopTime(id=null, stopName=Lakeside, company=Mustermann Bus GmbH, arrivalTime=19:46, departureTime=19:48, destination=Greenfield, routeNumber=405A, service=null, validFromDate=2020-12-12T00:00, validToDate=2021-12-11T00:00, operatingDays=OperatingDays(operatingDays=[MONDAY], specialOperatingDays=[2020-12-25T00:00], disruptedOperatingDays=null), journeyNumber=123, footnote=Continues as 405B to Brownfield)", stopTime.toString());
+        assertEquals("StopTime(id=null, stopName=Lakeside, company=Mustermann Bus GmbH, arrivalTime=19:46, departureTime=19:48, destination=Greenfield, routeNumber=405A, service=null, tripId=null, validFromDate=2020-12-12T00:00, validToDate=2021-12-11T00:00, operatingDays=OperatingDays(operatingDays=[MONDAY], specialOperatingDays=[2020-12-25T00:00], disruptedOperatingDays=null), journeyNumber=123, footnote=Continues as 405B to Brownfield, timetableName=null, compilationId=null, tripHash=null, generation=null, checkpoint=null, imported=false)", stopTime.toString());
         //Now use the setter methods
         stopTime.setArrivalTime(LocalTime.of(20, 46));
         stopTime.setCompany("Mustermann Bus GmbH");
@@ -66,9 +66,12 @@ public class StopTimeTest {
         stopTime.setStopName("Old Town");
         stopTime.setValidFromDate(LocalDateTime.of(2020,11,12,0,0));
         stopTime.setValidToDate(LocalDateTime.of(2021,11,11,0,0));
+        stopTime.setTimetableName("Winter");
+        stopTime.setCompilationId("1");
+        stopTime.setTripHash("abc");
         //And verify again through the toString methods
         //assertEquals("", stopTime.getOperatingDays().toString());
-        assertEquals("StopTime(id=null, stopName=Old Town, company=Mustermann Bus GmbH, arrivalTime=20:46, departureTime=20:48, destination=Lake Way, routeNumber=405B, service=null, validFromDate=2020-11-12T00:00, validToDate=2021-11-11T00:00, operatingDays=OperatingDays(operatingDays=[MONDAY], specialOperatingDays=[2020-12-25T00:00], disruptedOperatingDays=null), journeyNumber=1234, footnote=null)", stopTime.toString());
+        assertEquals("StopTime(id=null, stopName=Old Town, company=Mustermann Bus GmbH, arrivalTime=20:46, departureTime=20:48, destination=Lake Way, routeNumber=405B, service=null, tripId=null, validFromDate=2020-11-12T00:00, validToDate=2021-11-11T00:00, operatingDays=OperatingDays(operatingDays=[MONDAY], specialOperatingDays=[2020-12-25T00:00], disruptedOperatingDays=null), journeyNumber=1234, footnote=null, timetableName=Winter, compilationId=1, tripHash=abc, generation=null, checkpoint=null, imported=false)", stopTime.toString());
     }
 
     /**
@@ -0,0 +1,131 @@
+package de.davelee.trams.server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the TimetableSnapshot class and ensures that stop times are stored compactly and returned correctly.
+ * @author Dave Lee
+ */
+public class TimetableSnapshotTest {
+
+    /**
+     * Ensure that the stop times returned by the snapshot contain the same information as the loaded stop times.
+     */
+    @Test
+    public void testStopTimes ( ) {
+        ServiceTrip serviceTrip = ServiceTrip.builder().serviceId("1").build();
+        StopTime firstStopTime = createStopTime("Lakeside", LocalTime.of(8,0), "1", serviceTrip);
+        firstStopTime.setTripId("trip1");
+        TimetableSnapshot snapshot = new TimetableSnapshot(List.of(
+                firstStopTime,
+                createStopTime("Greenfield", LocalTime.of(8,10), "1", serviceTrip),
+                createStopTime("Lakeside", LocalTime.of(8,30), "2", null),
+                createStopTime(null, LocalTime.of(8,40), "2", null)));
+        //Stop times without a stop cannot be queried.
+        assertEquals(3, snapshot.size());
+        StopTime stopTime = snapshot.getStopTime(0);
+        assertEquals("Lakeside", stopTime.getStopName());
+        assertEquals("Mustermann Bus GmbH", stopTime.getCompany());
+        assertEquals(LocalTime.of(8,0), stopTime.getDepartureTime());
+        assertEquals(LocalTime.of(7,59), stopTime.getArrivalTime());
+        assertEquals("405A", stopTime.getRouteNumber());
+        assertEquals("1", stopTime.getJourneyNumber());
+        assertNull(stopTime.getFootnote());
+        assertEquals("trip1", stopTime.getTripId());
+        assertNull(snapshot.getStopTime(2).getTripId());
+        assertSame(serviceTrip, stopTime.getService());
+        assertNull(snapshot.getStopTime(2).getService());
+        assertEquals(LocalDateTime.of(2020,12,12,0,0), stopTime.getValidFromDate());
+        assertTrue(stopTime.getServiceCalendar().runsOn(LocalDateTime.of(2021,3,15,0,0).toLocalDate()));
+        assertFalse(stopTime.getServiceCalendar().runsOn(LocalDateTime.of(2021,3,14,0,0).toLocalDate()));
+        //Texts, times and calendars are shared between the returned stop times.
+        assertSame(stopTime.getCompany(), snapshot.getStopTime(2).getCompany());
+        assertSame(stopTime.getDepartureTime(), snapshot.getStopTime(0).getDepartureTime());
+        assertSame(stopTime.getServiceCalendar(), snapshot.getStopTime(1).getServiceCalendar());
+        assertEquals(1, snapshot.getNumberOfCalendars());
+        //Stop times can be retrieved by route.
+        assertEquals(3, snapshot.getStopTimesOfRoute("405A").size());
+        assertTrue(snapshot.getStopTimesOfRoute("405B").isEmpty());
+    }
+
+    /**
+     * Ensure that the index of a stop returns the stop times of this stop sorted by time.
+     */
+    @Test
+    public void testIndex ( ) {
+        TimetableSnapshot snapshot = new TimetableSnapshot(List.of(
+                createStopTime("Lakeside", LocalTime.of(9,0), "3", null),
+                createStopTime("Greenfield", LocalTime.of(8,10), "1", null),
+                createStopTime("Lakeside", LocalTime.of(8,0), "1", null),
+                createStopTime("Lakeside", LocalTime.of(8,30), "2", null)));
+        StopTimeIndex stopTimeIndex = snapshot.getIndex("Lakeside");
+        assertEquals(3, stopTimeIndex.size());
+        assertEquals("3", stopTimeIndex.getStopTimes().getFirst().getJourneyNumber());
+        assertEquals("1", stopTimeIndex.getSortedStopTimes("Departure").getFirst().getJourneyNumber());
+        assertEquals("3", stopTimeIndex.getSortedStopTimes("Arrival").getLast().getJourneyNumber());
+        List<StopTime> stopTimes = stopTimeIndex.getTimesBetween("Departure", LocalTime.of(8,0), LocalTime.of(8,59), stopTime -> true, 10);
+        assertEquals(2, stopTimes.size());
+        assertEquals("2", stopTimes.getLast().getJourneyNumber());
+        //The stop times of a route are sorted by departure time.
+        assertEquals(List.of(LocalTime.of(8,0), LocalTime.of(8,10), LocalTime.of(8,30), LocalTime.of(9,0)),
+                snapshot.getStopTimesOfRoute("405A").stream().map(StopTime::getDepartureTime).toList());
+        //Unknown stops have an empty index.
+        assertEquals(0, snapshot.getIndex("Airport").size());
+        assertTrue(snapshot.getIndex("Airport").getTimesBetween("Departure", LocalTime.MIDNIGHT, LocalTime.of(23,59), stopTime -> true, 10).isEmpty());
+    }
+
+    /**
+     * Ensure that the stop times of a tour are returned sorted by departure time.
+     */
+    @Test
+    public void testTour ( ) {
+        ServiceTrip firstTour = ServiceTrip.builder().serviceId("1").routeSchedule(RouteSchedule.builder().routeNumber("405A").scheduleId("1").build()).build();
+        ServiceTrip secondTour = ServiceTrip.builder().serviceId("2").routeSchedule(RouteSchedule.builder().routeNumber("405A").scheduleId("2").build()).build();
+        TimetableSnapshot snapshot = new TimetableSnapshot(List.of(
+                createStopTime("Greenfield", LocalTime.of(8,10), "1", firstTour),
+                createStopTime("Lakeside", LocalTime.of(8,5), "2", secondTour),
+                createStopTime("Lakeside", LocalTime.of(8,0), "1", firstTour),
+                createStopTime("Airport", LocalTime.of(8,20), "3", null)));
+        List<StopTime> stopTimes = snapshot.getStopTimesOfTour("405A", "405A/1", stopTime -> true);
+        assertEquals(List.of("Lakeside", "Greenfield"), stopTimes.stream().map(StopTime::getStopName).toList());
+        assertEquals(1, snapshot.getStopTimesOfTour("405A", "405A/2", stopTime -> true).size());
+        //Only the stop times matching the filter are returned.
+        assertEquals(1, snapshot.getStopTimesOfTour("405A", "405A/1", stopTime -> stopTime.getStopName().equals("Greenfield")).size());
+        assertTrue(snapshot.getStopTimesOfTour("405A", "405A/3", stopTime -> true).isEmpty());
+        assertTrue(snapshot.getStopTimesOfTour("405B", "405B/1", stopTime -> true).isEmpty());
+    }
+
+    /**
+     * Private helper method to create test stop time data.
+     * @param stopName a <code>String</code> with the name of the stop.
+     * @param departureTime a <code>LocalTime</code> object containing the departure time which is one minute after the arrival.
+     * @param journeyNumber a <code>String</code> containing the journey number.
+     * @param serviceTrip a <code>ServiceTrip</code> object with the service running the stop time which may be null.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createStopTime ( final String stopName, final LocalTime departureTime, final String journeyNumber, final ServiceTrip serviceTrip ) {
+        return StopTime.builder()
+                .stopName(stopName)
+                .company("Mustermann Bus GmbH")
+                .arrivalTime(departureTime.minusMinutes(1))
+                .departureTime(departureTime)
+                .destination("Greenfield")
+                .journeyNumber(journeyNumber)
+                .routeNumber("405A")
+                .service(serviceTrip)
+                .operatingDays(OperatingDays.builder()
+                        .operatingDays(List.of(DayOfWeek.MONDAY, DayOfWeek.TUESDAY))
+                        .build())
+                .validFromDate(LocalDateTime.of(2020,12,12,0,0))
+                .validToDate(LocalDateTime.of(2021,12,11,0,0))
+                .build();
+    }
+
+}
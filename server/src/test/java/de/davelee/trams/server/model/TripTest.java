@@ -0,0 +1,38 @@
+package de.davelee.trams.server.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the Trip class and ensures that trips can be converted from and to services.
+ * @author Dave Lee
+ */
+public class TripTest {
+
+    /**
+     * Verify that a service can be stored as a trip and converted back without its state.
+     */
+    @Test
+    public void testConvertServiceTrip ( ) {
+        ServiceTrip service = ServiceTrip.builder()
+                .serviceId("1")
+                .routeSchedule(RouteSchedule.builder().routeNumber("405A").scheduleId("2").build())
+                .stopList(List.of(Stop.builder().name("Lakeside").build(), Stop.builder().name("Greenfield").build()))
+                .outOfService(true)
+                .build();
+        Trip trip = Trip.fromServiceTrip("123", "Mustermann Bus GmbH", service);
+        assertEquals("123", trip.getId());
+        assertEquals("Mustermann Bus GmbH", trip.getCompany());
+        assertEquals("405A/2", trip.getRouteSchedule().getRouteNumberAndScheduleId());
+        ServiceTrip storedService = trip.toServiceTrip();
+        assertEquals("1", storedService.getServiceId());
+        assertEquals(2, storedService.getStopList().size());
+        assertFalse(storedService.isOutOfService());
+        assertEquals(0, storedService.getTempStartStopPos());
+        assertEquals(1, storedService.getTempEndStopPos());
+    }
+
+}
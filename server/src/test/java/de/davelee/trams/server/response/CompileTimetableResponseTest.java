@@ -0,0 +1,33 @@
+package de.davelee.trams.server.response;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the CompileTimetableResponse class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class CompileTimetableResponseTest {
+
+    /**
+     * Ensure that a CompileTimetableResponse class can be correctly instantiated.
+     */
+    @Test
+    public void testCreateResponse() {
+        CompileTimetableResponse compileTimetableResponse = new CompileTimetableResponse();
+        compileTimetableResponse.setCompany("Lee Transport");
+        compileTimetableResponse.setRouteNumber("1");
+        compileTimetableResponse.setName("Spring");
+        compileTimetableResponse.setCompilationId("123");
+        compileTimetableResponse.setNumberOfStopTimes(12L);
+        compileTimetableResponse.setNumberOfReplacedStopTimes(24L);
+        compileTimetableResponse.setNumberOfInsertedTrips(1);
+        compileTimetableResponse.setNumberOfDeletedTrips(2);
+        compileTimetableResponse.setNumberOfUnchangedTrips(4);
+        assertEquals("Spring", compileTimetableResponse.getName());
+        assertEquals(4, compileTimetableResponse.getNumberOfUnchangedTrips());
+        assertEquals("CompileTimetableResponse(company=Lee Transport, routeNumber=1, name=Spring, compilationId=123, numberOfStopTimes=12, numberOfReplacedStopTimes=24, numberOfInsertedTrips=1, numberOfDeletedTrips=2, numberOfUnchangedTrips=4)", compileTimetableResponse.toString());
+    }
+
+}
@@ -0,0 +1,39 @@
+package de.davelee.trams.server.response;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class tests the GenerateStopTimesResponse class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class GenerateStopTimesResponseTest {
+
+    @Test
+    public void testSetters() {
+        GenerateStopTimesResponse generateStopTimesResponse = new GenerateStopTimesResponse();
+        generateStopTimesResponse.setCount(20L);
+        generateStopTimesResponse.setDryRun(true);
+        generateStopTimesResponse.setPreviewStopTimeResponses(new StopTimeResponse[] {
+                StopTimeResponse.builder()
+                        .company("Mustermann Bus GmbH")
+                        .stopName("Greenfield")
+                        .routeNumber("101")
+                        .destination("Lakeside")
+                        .arrivalTime("22:10")
+                        .departureTime("22:10")
+                        .operatingDays(List.of("Friday","Saturday"))
+                        .validFromDate("23-04-2021")
+                        .validToDate("23-10-2021")
+                        .build()
+        });
+        assertEquals(20L, generateStopTimesResponse.getCount());
+        assertTrue(generateStopTimesResponse.isDryRun());
+        assertEquals("Greenfield", generateStopTimesResponse.getPreviewStopTimeResponses()[0].getStopName());
+    }
+
+}
@@ -0,0 +1,35 @@
+package de.davelee.trams.server.response;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the ImportJobResponse class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class ImportJobResponseTest {
+
+    /**
+     * Ensure that a ImportJobResponse class can be correctly instantiated.
+     */
+    @Test
+    public void testCreateResponse() {
+        ImportJobResponse importJobResponse = new ImportJobResponse();
+        importJobResponse.setId("123");
+        importJobResponse.setFileName("feed.zip");
+        importJobResponse.setFileFormat("Comma Separated Value (CSV)");
+        importJobResponse.setPhase("IMPORTING_STOP_TIMES");
+        importJobResponse.setRowsRead(1000L);
+        importJobResponse.setRowsWritten(800L);
+        importJobResponse.setRowsPerSecond(100L);
+        importJobResponse.setEstimatedSecondsRemaining(30L);
+        importJobResponse.setStartedAt("15-03-2021 08:00");
+        importJobResponse.setFinishedAt(null);
+        importJobResponse.setCancelRequested(false);
+        assertEquals("IMPORTING_STOP_TIMES", importJobResponse.getPhase());
+        assertEquals(30L, importJobResponse.getEstimatedSecondsRemaining());
+        assertEquals("ImportJobResponse(id=123, fileName=feed.zip, fileFormat=Comma Separated Value (CSV), phase=IMPORTING_STOP_TIMES, rowsRead=1000, rowsWritten=800, rowsPerSecond=100, estimatedSecondsRemaining=30, startedAt=15-03-2021 08:00, finishedAt=null, cancelRequested=false)", importJobResponse.toString());
+    }
+
+}
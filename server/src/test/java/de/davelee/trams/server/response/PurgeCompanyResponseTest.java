@@ -0,0 +1,28 @@
+package de.davelee.trams.server.response;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the PurgeCompanyResponse class and ensures that its works correctly.
+ * @author Dave Lee
+ */
+public class PurgeCompanyResponseTest {
+
+    /**
+     * Ensure that a PurgeCompanyResponse class can be correctly instantiated.
+     */
+    @Test
+    public void testCreateResponse() {
+        PurgeCompanyResponse purgeCompanyResponse = new PurgeCompanyResponse();
+        purgeCompanyResponse.setCompany("Lee Transport");
+        purgeCompanyResponse.setDeletedDocuments(Map.of("stopTime", 1000L));
+        assertEquals("Lee Transport", purgeCompanyResponse.getCompany());
+        assertEquals(1000L, purgeCompanyResponse.getDeletedDocuments().get("stopTime"));
+        assertEquals("PurgeCompanyResponse(company=Lee Transport, deletedDocuments={stopTime=1000})", purgeCompanyResponse.toString());
+    }
+
+}
@@ -30,7 +30,9 @@ public class StopTimesResponseTest {
                         .validToDate("23-10-2021")
                         .build()
         });
+        stopTimesResponse.setNextPageToken("MjAyMS0wNC0xMC8y");
         assertEquals(1L, stopTimesResponse.getCount());
+        assertEquals("MjAyMS0wNC0xMC8y", stopTimesResponse.getNextPageToken());
         assertEquals("Mustermann Bus GmbH", stopTimesResponse.getStopTimeResponses()[0].getCompany());
     }
 
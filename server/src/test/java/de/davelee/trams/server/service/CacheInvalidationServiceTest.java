@@ -0,0 +1,99 @@
+package de.davelee.trams.server.service;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import de.davelee.trams.server.model.CacheInvalidation;
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.Message;
+
+import java.util.Collection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the CacheInvalidationService class and ensures that invalidations are only shared if enabled and
+ * only invalidations of other server nodes are published. Mocks are used for the database layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class CacheInvalidationServiceTest {
+
+    @InjectMocks
+    private CacheInvalidationService cacheInvalidationService;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * Verify that invalidations are only written to the database if sharing is enabled.
+     * @throws Exception if the property cannot be set.
+     */
+    @Test
+    public void testPublish ( ) throws Exception {
+        FieldUtils.writeField(cacheInvalidationService, "enabled", false, true);
+        cacheInvalidationService.publish("routes", "Mustermann Bus GmbH");
+        cacheInvalidationService.startListening();
+        Mockito.verifyNoInteractions(mongoTemplate);
+        FieldUtils.writeField(cacheInvalidationService, "enabled", true, true);
+        cacheInvalidationService.publish("routes", "Mustermann Bus GmbH");
+        Mockito.verify(mongoTemplate, Mockito.times(1)).insert(Mockito.argThat((CacheInvalidation cacheInvalidation) ->
+                cacheInvalidation.getCache().equals("routes") && cacheInvalidation.getCompany().equals("Mustermann Bus GmbH")
+                        && cacheInvalidation.getInstanceId() != null && cacheInvalidation.getCreatedAt() != null));
+    }
+
+    /**
+     * Verify that repeated invalidations of the same cache and company are written once.
+     * @throws Exception if the property cannot be set.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPublishCoalesced ( ) throws Exception {
+        FieldUtils.writeField(cacheInvalidationService, "enabled", true, true);
+        FieldUtils.writeField(cacheInvalidationService, "coalesceMillis", 60000L, true);
+        for ( int i = 0; i < 100; i++ ) {
+            cacheInvalidationService.publish("stopTimes", "Mustermann Bus GmbH");
+        }
+        cacheInvalidationService.publish("routes", "Mustermann Bus GmbH");
+        Mockito.verifyNoInteractions(mongoTemplate);
+        cacheInvalidationService.flush();
+        ArgumentCaptor<Collection<CacheInvalidation>> cacheInvalidations = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(mongoTemplate, Mockito.times(1)).insertAll(cacheInvalidations.capture());
+        assertEquals(2, cacheInvalidations.getValue().size());
+        //Nothing is left to write when the service stops.
+        cacheInvalidationService.stopListening();
+        Mockito.verify(mongoTemplate, Mockito.times(1)).insertAll(Mockito.anyCollection());
+    }
+
+    /**
+     * Verify that only the invalidations of other server nodes are published to the caches.
+     * @throws Exception if the property cannot be set.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReceive ( ) throws Exception {
+        Message<ChangeStreamDocument<Document>, CacheInvalidation> message = Mockito.mock(Message.class);
+        Mockito.when(message.getBody()).thenReturn(CacheInvalidation.builder().cache("routes").instanceId("other").build());
+        cacheInvalidationService.receive(message);
+        Mockito.verify(applicationEventPublisher, Mockito.times(1)).publishEvent(Mockito.any(Object.class));
+        //Invalidations of this server node have already been applied.
+        FieldUtils.writeField(cacheInvalidationService, "enabled", true, true);
+        cacheInvalidationService.publish("routes", null);
+        ArgumentCaptor<CacheInvalidation> ownInvalidation = ArgumentCaptor.forClass(CacheInvalidation.class);
+        Mockito.verify(mongoTemplate).insert(ownInvalidation.capture());
+        Mockito.when(message.getBody()).thenReturn(ownInvalidation.getValue());
+        cacheInvalidationService.receive(message);
+        Mockito.verify(applicationEventPublisher, Mockito.times(1)).publishEvent(Mockito.any(Object.class));
+    }
+
+}
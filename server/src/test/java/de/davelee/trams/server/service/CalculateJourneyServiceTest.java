@@ -0,0 +1,180 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.*;
+import de.davelee.trams.server.request.JourneyRequest;
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test cases for the CalculateJourneyService class - the other services are mocked.
+ * @author Dave Lee
+ */
+@SpringBootTest(properties = { "journeyPlanner.maxRounds=5", "journeyPlanner.changeMinutes=2" })
+public class CalculateJourneyServiceTest {
+
+    @InjectMocks
+    private CalculateJourneyService calculateJourneyService;
+
+    @Mock
+    private RouteService routeService;
+
+    @Mock
+    private StopService stopService;
+
+    @Mock
+    private SuggestStopService suggestStopService;
+
+    @Mock
+    private StopTimeService stopTimeService;
+
+    /**
+     * Initialise the spring properties which otherwise with Mockito would not be set
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setSpringProperties() throws Exception {
+        FieldUtils.writeField(calculateJourneyService, "maxRounds", 5, true);
+        FieldUtils.writeField(calculateJourneyService, "changeMinutes", 2, true);
+    }
+
+    /**
+     * Test case: calculate a journey which needs two changes.
+     * Expected Result: three routes with two changes in between.
+     */
+    @Test
+    public void testCalculateJourneyWithChanges() {
+        //Mock important methods in the other services.
+        Mockito.when(stopService.getStop("Mustermann Bus GmbH", "Lakeside")).thenReturn(Stop.builder().name("Lakeside").build());
+        Mockito.when(stopService.getStop("Mustermann Bus GmbH", "Airport")).thenReturn(Stop.builder().name("Airport").build());
+        Mockito.when(routeService.getRoutesByCompanyAndRouteNumber(Mockito.anyString(), Mockito.anyString())).thenReturn(List.of());
+        Mockito.when(stopTimeService.getTimetable("Mustermann Bus GmbH")).thenReturn(new RaptorTimetable(createStopTimes()));
+        //Do actual test - Monday 6th December 2021.
+        List<JourneyInstruction> journeyInstructions = calculateJourneyService.calculateJourney(new JourneyRequest("Mustermann Bus GmbH",
+                "Lakeside", "Airport", "06-12-2021 08:00", null, "en"));
+        assertEquals(5, journeyInstructions.size());
+        assertEquals("ROUTE", journeyInstructions.get(0).getMethod());
+        assertEquals("08:05", journeyInstructions.get(0).getTime());
+        assertEquals(10, journeyInstructions.get(0).getDurationInMins());
+        //The destination of a route instruction is the destination of the route and the direction is empty.
+        assertEquals("Greenfield", journeyInstructions.get(0).getDestination());
+        assertEquals("", journeyInstructions.get(0).getDirection());
+        assertEquals("CHANGE", journeyInstructions.get(1).getMethod());
+        assertEquals(5, journeyInstructions.get(1).getDurationInMins());
+        assertEquals("Old Town", journeyInstructions.get(1).getDestination());
+        assertEquals("ROUTE", journeyInstructions.get(2).getMethod());
+        assertEquals("Central Park", journeyInstructions.get(2).getDestination());
+        assertEquals("CHANGE", journeyInstructions.get(3).getMethod());
+        assertEquals("Main Station", journeyInstructions.get(3).getDestination());
+        assertEquals("ROUTE", journeyInstructions.get(4).getMethod());
+        assertEquals("Airport", journeyInstructions.get(4).getDestination());
+        assertEquals("09:00", journeyInstructions.get(4).getTime());
+        //The same journey on a Sunday is not possible.
+        assertEquals(0, calculateJourneyService.calculateJourney(new JourneyRequest("Mustermann Bus GmbH",
+                "Lakeside", "Airport", "05-12-2021 08:00", null, "en")).size());
+    }
+
+    /**
+     * Test case: calculate a journey on a trip which runs past midnight.
+     * Expected Result: the trip started before midnight is taken and its duration continues past midnight.
+     */
+    @Test
+    public void testCalculateJourneyPastMidnight() {
+        //Mock important methods in the other services.
+        Mockito.when(stopService.getStop("Mustermann Bus GmbH", "Lakeside")).thenReturn(Stop.builder().name("Lakeside").build());
+        Mockito.when(stopService.getStop("Mustermann Bus GmbH", "Airport")).thenReturn(Stop.builder().name("Airport").build());
+        Mockito.when(routeService.getRoutesByCompanyAndRouteNumber(Mockito.anyString(), Mockito.anyString())).thenReturn(List.of());
+        //Two imported trips with the same route and journey number are kept apart by their trip id.
+        List<StopTime> stopTimes = new ArrayList<>();
+        stopTimes.add(createStopTime("Lakeside", LocalTime.of(23,50), "N1", "1", "Airport", "N1-1"));
+        stopTimes.add(createStopTime("Old Town", LocalTime.of(0,5), "N1", "1", "Airport", "N1-1"));
+        stopTimes.add(createStopTime("Airport", LocalTime.of(0,20), "N1", "1", "Airport", "N1-1"));
+        stopTimes.add(createStopTime("Lakeside", LocalTime.of(22,50), "N1", "1", "Airport", "N1-2"));
+        stopTimes.add(createStopTime("Old Town", LocalTime.of(23,5), "N1", "1", "Airport", "N1-2"));
+        stopTimes.add(createStopTime("Airport", LocalTime.of(23,20), "N1", "1", "Airport", "N1-2"));
+        RaptorTimetable raptorTimetable = new RaptorTimetable(stopTimes);
+        assertEquals(2, raptorTimetable.getNumberOfTrips());
+        Mockito.when(stopTimeService.getTimetable("Mustermann Bus GmbH")).thenReturn(raptorTimetable);
+        //Do actual test - Monday 6th December 2021.
+        List<JourneyInstruction> journeyInstructions = calculateJourneyService.calculateJourney(new JourneyRequest("Mustermann Bus GmbH",
+                "Lakeside", "Airport", "06-12-2021 23:45", null, "en"));
+        assertEquals(1, journeyInstructions.size());
+        assertEquals("ROUTE", journeyInstructions.getFirst().getMethod());
+        assertEquals("23:50", journeyInstructions.getFirst().getTime());
+        assertEquals(30, journeyInstructions.getFirst().getDurationInMins());
+        assertEquals("Airport", journeyInstructions.getFirst().getDestination());
+    }
+
+    /**
+     * Private helper method to create test stop time data for three routes which are connected at Old Town and
+     * Main Station.
+     * @return a <code>List</code> of <code>StopTime</code> objects which contains the test data.
+     */
+    private List<StopTime> createStopTimes ( ) {
+        List<StopTime> stopTimes = new ArrayList<>();
+        stopTimes.add(createStopTime("Lakeside", LocalTime.of(8,5), "1", "1", "Greenfield"));
+        stopTimes.add(createStopTime("Old Town", LocalTime.of(8,15), "1", "1", "Greenfield"));
+        //Change at Old Town is not possible within 2 minutes so the later journey must be taken.
+        stopTimes.add(createStopTime("Old Town", LocalTime.of(8,16), "2", "1", "Central Park"));
+        stopTimes.add(createStopTime("Main Station", LocalTime.of(8,30), "2", "1", "Central Park"));
+        stopTimes.add(createStopTime("Old Town", LocalTime.of(8,20), "2", "2", "Central Park"));
+        stopTimes.add(createStopTime("Main Station", LocalTime.of(8,34), "2", "2", "Central Park"));
+        stopTimes.add(createStopTime("Main Station", LocalTime.of(9,0), "3", "1", "Airport"));
+        stopTimes.add(createStopTime("Airport", LocalTime.of(9,25), "3", "1", "Airport"));
+        return stopTimes;
+    }
+
+    /**
+     * Private helper method to create test stop time data running on weekdays.
+     * @param stopName a <code>String</code> with the name of the stop.
+     * @param time a <code>LocalTime</code> object containing the desired arrival and departure time.
+     * @param routeNumber a <code>String</code> with the route number.
+     * @param journeyNumber a <code>String</code> with the journey number.
+     * @param destination a <code>String</code> with the destination of the route.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createStopTime ( final String stopName, final LocalTime time, final String routeNumber, final String journeyNumber, final String destination ) {
+        return createStopTime(stopName, time, routeNumber, journeyNumber, destination, null);
+    }
+
+    /**
+     * Private helper method to create test stop time data for a trip running on weekdays.
+     * @param stopName a <code>String</code> with the name of the stop.
+     * @param time a <code>LocalTime</code> object containing the desired arrival and departure time.
+     * @param routeNumber a <code>String</code> with the route number.
+     * @param journeyNumber a <code>String</code> with the journey number.
+     * @param destination a <code>String</code> with the destination of the route.
+     * @param tripId a <code>String</code> with the id of the trip which may be null.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createStopTime ( final String stopName, final LocalTime time, final String routeNumber, final String journeyNumber,
+                                      final String destination, final String tripId ) {
+        return StopTime.builder()
+                .tripId(tripId)
+                .stopName(stopName)
+                .arrivalTime(time)
+                .departureTime(time)
+                .routeNumber(routeNumber)
+                .journeyNumber(journeyNumber)
+                .destination(destination)
+                .company("Mustermann Bus GmbH")
+                .operatingDays(OperatingDays.builder().operatingDays(List.of(DayOfWeek.MONDAY, DayOfWeek.TUESDAY,
+                        DayOfWeek.WEDNESDAY, DayOfWeek.THURSDAY, DayOfWeek.FRIDAY)).build())
+                .validFromDate(LocalDateTime.of(2021,1,1,0,0))
+                .validToDate(LocalDateTime.of(2021,12,31,0,0))
+                .build();
+    }
+
+}
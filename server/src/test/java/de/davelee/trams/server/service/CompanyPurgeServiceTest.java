@@ -0,0 +1,101 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.repository.*;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * This class tests the CompanyPurgeService class and ensures that all data of a company is deleted. Mocks are used
+ * for the database layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class CompanyPurgeServiceTest {
+
+    @InjectMocks
+    private CompanyPurgeService companyPurgeService;
+
+    @Mock
+    private StopTimeRepository stopTimeRepository;
+
+    @Mock
+    private StopRepository stopRepository;
+
+    @Mock
+    private RouteRepository routeRepository;
+
+    @Mock
+    private TimetableRepository timetableRepository;
+
+    @Mock
+    private VehicleRepository vehicleRepository;
+
+    @Mock
+    private DriverRepository driverRepository;
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private TicketRepository ticketRepository;
+
+    @Mock
+    private CustomerRepository customerRepository;
+
+    @Mock
+    private FeedbackRepository feedbackRepository;
+
+    @Mock
+    private ServiceStateRepository serviceStateRepository;
+
+    @Mock
+    private TripRepository tripRepository;
+
+    @Mock
+    private CompilationActivationRepository compilationActivationRepository;
+
+    @Mock
+    private ImportGenerationService importGenerationService;
+
+    @Mock
+    private StopTimeIndexService stopTimeIndexService;
+
+    @Mock
+    private RouteService routeService;
+
+    /**
+     * Verify that all collections are purged and the number of deleted documents is returned per collection.
+     */
+    @Test
+    public void testPurgeCompany ( ) {
+        //Mock important methods in repositories.
+        Mockito.when(stopTimeRepository.deleteByCompany("Mustermann Bus GmbH")).thenReturn(500000L);
+        Mockito.when(stopRepository.deleteByCompany("Mustermann Bus GmbH")).thenReturn(120L);
+        Mockito.when(vehicleRepository.deleteByCompany("Mustermann Bus GmbH")).thenReturn(20L);
+        Mockito.when(importGenerationService.deleteCheckpoints("Mustermann Bus GmbH")).thenReturn(1L);
+        //Do actual test.
+        Map<String, Long> deletedDocuments = companyPurgeService.purgeCompany("Mustermann Bus GmbH");
+        assertEquals(15, deletedDocuments.size());
+        assertEquals(500000L, deletedDocuments.get("stopTime"));
+        assertEquals(120L, deletedDocuments.get("stop"));
+        assertEquals(20L, deletedDocuments.get("vehicle"));
+        assertEquals(0L, deletedDocuments.get("feedback"));
+        //Imports of the purged company can neither be resumed nor stay active.
+        assertEquals(1L, deletedDocuments.get("importCheckpoint"));
+        Mockito.verify(importGenerationService).deleteActivations("Mustermann Bus GmbH");
+        Mockito.verify(customerRepository).deleteByCompany("Mustermann Bus GmbH");
+        Mockito.verify(serviceStateRepository).deleteByCompany("Mustermann Bus GmbH");
+        Mockito.verify(tripRepository).deleteByCompany("Mustermann Bus GmbH");
+        Mockito.verify(compilationActivationRepository).deleteByCompany("Mustermann Bus GmbH");
+        Mockito.verify(stopTimeIndexService).invalidate("Mustermann Bus GmbH");
+        Mockito.verify(routeService).invalidateRoutes("Mustermann Bus GmbH");
+    }
+
+}
@@ -2,12 +2,20 @@ package de.davelee.trams.server.service;
 
 import de.davelee.trams.server.model.Company;
 import de.davelee.trams.server.repository.CompanyRepository;
+import org.bson.Document;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -15,6 +23,7 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 
 /**
  * Test cases for the CompanyService class - the CompanyRepository is mocked.
@@ -29,6 +38,9 @@ public class CompanyServiceTest {
     @Mock
     private CompanyRepository companyRepository;
 
+    @Mock
+    private MongoTemplate mongoTemplate;
+
     /**
      * Test case: save a new company.
      * Expected Result: true.
@@ -74,14 +86,17 @@ public class CompanyServiceTest {
     public void testAdjustBalance ( ) {
         //Generate test data.
         Company company = generateValidCompany();
-        //Mock important method in repository.
-        Mockito.when(companyRepository.save(any())).thenReturn(company);
+        //Mock important method in template.
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Company.class)))
+                .thenReturn(Company.builder().balance(BigDecimal.valueOf(15000.0)).build());
         //Do test.
         assertEquals(BigDecimal.valueOf(15000.0), companyService.adjustBalance(company, BigDecimal.valueOf(5000.0)));
-        assertEquals(BigDecimal.valueOf(7000.0), companyService.adjustBalance(company, BigDecimal.valueOf(-8000.0)));
-        assertEquals(BigDecimal.valueOf(-1000.0), companyService.adjustBalance(company, BigDecimal.valueOf(-8000.0)));
+        assertEquals(BigDecimal.valueOf(15000.0), company.getBalance());
+        //Verify that the balance is added in the database.
+        assertEquals(new Document("$set", new Document("balance", new Document("$toString", new Document("$add",
+                List.of(new Document("$toDecimal", "$balance"), new Decimal128(BigDecimal.valueOf(5000.0))))))), captureUpdate());
         //Do test if database does not work.
-        Mockito.when(companyRepository.save(any())).thenReturn(null);
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Company.class))).thenReturn(null);
         assertEquals(BigDecimal.valueOf(Integer.MIN_VALUE), companyService.adjustBalance(company, BigDecimal.valueOf(5000.0)));
     }
 
@@ -92,14 +107,20 @@ public class CompanyServiceTest {
     public void testAdjustSatisfaction ( ) {
         //Generate test data.
         Company company = generateValidCompany();
-        //Mock important method in repository.
-        Mockito.when(companyRepository.save(any())).thenReturn(company);
+        //Mock important method in template.
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Company.class)))
+                .thenReturn(Company.builder().satisfactionRate(BigDecimal.valueOf(40.0)).build());
         //Do test.
-        assertEquals(BigDecimal.valueOf(100.0), companyService.adjustSatisfactionRate(company, BigDecimal.valueOf(10.0)));
         assertEquals(BigDecimal.valueOf(40.0), companyService.adjustSatisfactionRate(company, BigDecimal.valueOf(-60.0)));
-        assertEquals(BigDecimal.valueOf(0), companyService.adjustSatisfactionRate(company, BigDecimal.valueOf(-60.0)));
+        assertEquals(BigDecimal.valueOf(40.0), company.getSatisfactionRate());
+        //Verify that the satisfaction rate is kept between 0 and 100 in the database.
+        Document adjustedSatisfactionRate = new Document("$add", List.of(new Document("$toDecimal", "$satisfactionRate"),
+                new Decimal128(BigDecimal.valueOf(-60.0))));
+        assertEquals(new Document("$set", new Document("satisfactionRate", new Document("$toString", new Document("$min",
+                List.of(new Decimal128(BigDecimal.valueOf(100.0)), new Document("$max", List.of(new Decimal128(BigDecimal.ZERO), adjustedSatisfactionRate))))))),
+                captureUpdate());
         //Do test if database does not work.
-        Mockito.when(companyRepository.save(any())).thenReturn(null);
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Company.class))).thenReturn(null);
         assertEquals(BigDecimal.valueOf(Integer.MIN_VALUE), companyService.adjustSatisfactionRate(company, BigDecimal.valueOf(10.0)));
     }
 
@@ -110,12 +131,14 @@ public class CompanyServiceTest {
     public void testAddTime ( ) {
         //Generate test data.
         Company company = generateValidCompany();
-        //Mock important method in repository.
-        Mockito.when(companyRepository.save(any())).thenReturn(company);
+        //Mock important method in template.
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Company.class)))
+                .thenReturn(Company.builder().time(LocalDateTime.of(2020,12,28,14,37)).build());
         //Do test.
         assertEquals(LocalDateTime.of(2020,12,28,14,37), companyService.addTime(company, 15));
+        assertEquals(new Document("$set", new Document("time", new Document("$add", List.of("$time", 900000L)))), captureUpdate());
         //Do test if database does not work.
-        Mockito.when(companyRepository.save(any())).thenReturn(null);
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Company.class))).thenReturn(null);
         assertNull(companyService.addTime(company, 10));
     }
 
@@ -150,4 +173,14 @@ public class CompanyServiceTest {
         return company;
     }
 
+    /**
+     * Private helper method to capture the last update which was sent to the database.
+     * @return a <code>Document</code> containing the first stage of the update pipeline.
+     */
+    private Document captureUpdate ( ) {
+        ArgumentCaptor<AggregationUpdate> updateCaptor = ArgumentCaptor.forClass(AggregationUpdate.class);
+        Mockito.verify(mongoTemplate, Mockito.atLeastOnce()).findAndModify(any(Query.class), updateCaptor.capture(), any(FindAndModifyOptions.class), eq(Company.class));
+        return updateCaptor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).getFirst();
+    }
+
 }
@@ -0,0 +1,227 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.*;
+import de.davelee.trams.server.response.DepartureBoardDeltaResponse;
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the DepartureBoardService class and ensures that boards are shared and only changes are pushed.
+ * Mocks are used for the other services.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class DepartureBoardServiceTest {
+
+    @InjectMocks
+    private DepartureBoardService departureBoardService;
+
+    @Mock
+    private StopTimeService stopTimeService;
+
+    @Mock
+    private RouteService routeService;
+
+    @Mock
+    private VehicleService vehicleService;
+
+    /**
+     * Initialise the spring properties which otherwise with Mockito would not be set
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setSpringProperties() throws Exception {
+        //Refresh rarely so that only the refreshes triggered by the tests are run.
+        FieldUtils.writeField(departureBoardService, "refreshSeconds", 3600, true);
+        FieldUtils.writeField(departureBoardService, "timeoutMinutes", 30, true);
+        //Send the events in the refreshing thread so that they can be verified at once.
+        FieldUtils.writeField(departureBoardService, "sendExecutor", (Executor) Runnable::run, true);
+        Mockito.when(routeService.getRoutesByCompany("Mustermann Bus GmbH")).thenReturn(List.of(
+                Route.builder().routeNumber("1").company("Mustermann Bus GmbH").build(),
+                Route.builder().routeNumber("2").company("Mustermann Bus GmbH").build()));
+        Mockito.when(stopTimeService.getDeparturesByDate(Mockito.eq("Lakeside"), Mockito.eq("Mustermann Bus GmbH"), Mockito.anyString(), Mockito.eq(""))).thenReturn(List.of(
+                createStopTime(LocalTime.of(8,5), "1", "1", "Greenfield"),
+                createStopTime(LocalTime.of(8,10), "2", "1", "Lakeside"),
+                createStopTime(LocalTime.of(8,20), "1", "2", "Greenfield")));
+    }
+
+    /**
+     * Stop the refresh after each test.
+     */
+    @AfterEach
+    public void stopRefresh() {
+        departureBoardService.stopRefresh();
+    }
+
+    /**
+     * Verify that the next departures are calculated with the routes loaded only once and with the scheduled minutes.
+     */
+    @Test
+    public void testGetNextDepartures ( ) {
+        RealTimeModel realTimeModel = departureBoardService.getNextDepartures("Lakeside", 2, "Mustermann Bus GmbH", null, LocalDateTime.of(2021,3,15,8,0));
+        assertEquals(2, realTimeModel.getRealTimeEntryModelList().size());
+        assertEquals(5, realTimeModel.getRealTimeEntryModelList().get(0).getMins());
+        assertEquals("1", realTimeModel.getRealTimeEntryModelList().get(0).getRoute().getRouteNumber());
+        assertEquals("Journey Terminates Here", realTimeModel.getRealTimeEntryModelList().get(1).getDestination());
+        //Only departures of the supplied route.
+        realTimeModel = departureBoardService.getNextDepartures("Lakeside", 5, "Mustermann Bus GmbH", "1", LocalDateTime.of(2021,3,15,8,0));
+        assertEquals(2, realTimeModel.getRealTimeEntryModelList().size());
+        assertEquals(20, realTimeModel.getRealTimeEntryModelList().get(1).getMins());
+        Mockito.verify(routeService, Mockito.never()).getRoutesByCompanyAndRouteNumber(Mockito.anyString(), Mockito.anyString());
+        //The delays of the vehicles are not added to the scheduled minutes.
+        Mockito.when(vehicleService.retrieveVehiclesByCompany("Mustermann Bus GmbH")).thenReturn(List.of(
+                Vehicle.builder().fleetNumber("201").allocatedTour("1/1").delayInMinutes(3).build()));
+        realTimeModel = departureBoardService.getNextDepartures("Lakeside", 2, "Mustermann Bus GmbH", null, LocalDateTime.of(2021,3,15,8,0));
+        assertEquals(5, realTimeModel.getRealTimeEntryModelList().get(0).getMins());
+        assertEquals(0, realTimeModel.getRealTimeEntryModelList().get(0).getDelay());
+        Mockito.verify(vehicleService, Mockito.never()).retrieveVehiclesByCompany(Mockito.anyString());
+    }
+
+    /**
+     * Verify that subscribers share a board and only receive changes.
+     * @throws Exception if the events cannot be sent.
+     */
+    @Test
+    public void testSubscribeAndRefresh ( ) throws Exception {
+        SseEmitter firstEmitter = Mockito.mock(SseEmitter.class);
+        SseEmitter secondEmitter = Mockito.mock(SseEmitter.class);
+        //The complete board is sent before the subscriber is added to the board.
+        Mockito.doAnswer(invocation -> {
+            assertEquals(0, departureBoardService.getNumberOfBoards());
+            return null;
+        }).when(firstEmitter).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        departureBoardService.subscribe("Lakeside", 3, "Mustermann Bus GmbH", null, firstEmitter);
+        Mockito.doNothing().when(firstEmitter).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        departureBoardService.subscribe("Lakeside", 3, "Mustermann Bus GmbH", "2", secondEmitter);
+        assertEquals(1, departureBoardService.getNumberOfBoards());
+        //The complete board is sent to each subscriber.
+        Mockito.verify(firstEmitter, Mockito.times(1)).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        Mockito.verify(secondEmitter, Mockito.times(1)).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        //The board is calculated once for both subscribers.
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,0));
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,0));
+        Mockito.verify(stopTimeService, Mockito.times(3)).getDeparturesByDate(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+        //Nothing has changed since the second refresh so at most one delta was sent to each subscriber.
+        Mockito.verify(firstEmitter, Mockito.atMost(2)).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        Mockito.clearInvocations(firstEmitter, secondEmitter);
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,0));
+        Mockito.verify(firstEmitter, Mockito.never()).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        //A minute later nothing is pushed since the subscribers count down the minutes themselves.
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,1));
+        Mockito.verify(firstEmitter, Mockito.never()).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        //A delay is only pushed to the subscribers which display the delayed departure.
+        Mockito.when(vehicleService.retrieveVehiclesByCompany("Mustermann Bus GmbH")).thenReturn(List.of(
+                Vehicle.builder().fleetNumber("201").allocatedTour("1/1").delayInMinutes(3).build()));
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,1));
+        Mockito.verify(firstEmitter, Mockito.times(1)).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        Mockito.verify(secondEmitter, Mockito.never()).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        //A subscriber which cannot receive events any more is removed.
+        Mockito.doThrow(new IllegalStateException()).when(firstEmitter).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        Mockito.doThrow(new IllegalStateException()).when(secondEmitter).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,2));
+        assertEquals(0, departureBoardService.getNumberOfBoards());
+    }
+
+    /**
+     * Verify that the routes and vehicles of an operator are loaded once per refresh for all of its boards.
+     */
+    @Test
+    public void testRefreshLoadsOperatorOnce ( ) {
+        departureBoardService.subscribe("Lakeside", 3, "Mustermann Bus GmbH", null, Mockito.mock(SseEmitter.class));
+        departureBoardService.subscribe("Greenfield", 3, "Mustermann Bus GmbH", null, Mockito.mock(SseEmitter.class));
+        assertEquals(2, departureBoardService.getNumberOfBoards());
+        Mockito.clearInvocations(routeService, vehicleService);
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,0));
+        Mockito.verify(routeService, Mockito.times(1)).getRoutesByCompany("Mustermann Bus GmbH");
+        Mockito.verify(vehicleService, Mockito.times(1)).retrieveVehiclesByCompany("Mustermann Bus GmbH");
+    }
+
+    /**
+     * Verify that a subscriber which is slow to receive its events does not delay the other subscribers.
+     * @throws Exception if the fields cannot be set or the events cannot be sent.
+     */
+    @Test
+    public void testSlowSubscriber ( ) throws Exception {
+        FieldUtils.writeField(departureBoardService, "sendExecutor", null, true);
+        SseEmitter slowEmitter = Mockito.mock(SseEmitter.class);
+        SseEmitter fastEmitter = Mockito.mock(SseEmitter.class);
+        departureBoardService.subscribe("Lakeside", 3, "Mustermann Bus GmbH", null, slowEmitter);
+        departureBoardService.subscribe("Lakeside", 3, "Mustermann Bus GmbH", null, fastEmitter);
+        //The slow subscriber blocks while receiving the next delta.
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> release.await(10, TimeUnit.SECONDS)).when(slowEmitter).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,6));
+        Mockito.verify(fastEmitter, Mockito.timeout(5000).times(2)).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        //The slow subscriber is skipped while it is still receiving its delta.
+        departureBoardService.refreshBoards(LocalDateTime.of(2021,3,15,8,11));
+        Mockito.verify(fastEmitter, Mockito.timeout(5000).times(3)).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        Mockito.verify(slowEmitter, Mockito.timeout(5000).times(2)).send(Mockito.any(SseEmitter.SseEventBuilder.class));
+        release.countDown();
+    }
+
+    /**
+     * Verify that the delta contains only new, changed and removed departures.
+     */
+    @Test
+    public void testCalculateDelta ( ) {
+        List<RealTimeEntryModel> previousEntries = departureBoardService.calculateDepartures("Lakeside", "Mustermann Bus GmbH", LocalDateTime.of(2021,3,15,8,4));
+        List<RealTimeEntryModel> currentEntries = departureBoardService.calculateDepartures("Lakeside", "Mustermann Bus GmbH", LocalDateTime.of(2021,3,15,8,5));
+        DepartureBoardDeltaResponse delta = DepartureBoardService.calculateDelta(previousEntries, currentEntries, "15-03-2021 08:05");
+        assertEquals(List.of("1/1/08:05"), delta.getRemovedDepartureIds());
+        //The minutes until departure have changed but the departures have not.
+        assertTrue(delta.getChangedEntries().isEmpty());
+        assertEquals("08:10", currentEntries.get(0).getDepartureTime());
+        assertEquals(5, currentEntries.get(0).getMins());
+        //A delay changes the departure.
+        Mockito.when(vehicleService.retrieveVehiclesByCompany("Mustermann Bus GmbH")).thenReturn(List.of(
+                Vehicle.builder().fleetNumber("201").allocatedTour("1/2").delayInMinutes(4).build()));
+        List<RealTimeEntryModel> delayedEntries = departureBoardService.calculateDepartures("Lakeside", "Mustermann Bus GmbH", LocalDateTime.of(2021,3,15,8,5));
+        delta = DepartureBoardService.calculateDelta(currentEntries, delayedEntries, "15-03-2021 08:05");
+        assertEquals(1, delta.getChangedEntries().size());
+        assertEquals(4, delta.getChangedEntries().get(0).getDelay());
+        assertEquals(19, delta.getChangedEntries().get(0).getMins());
+        //No changes if the board is the same.
+        delta = DepartureBoardService.calculateDelta(currentEntries, currentEntries, "15-03-2021 08:05");
+        assertTrue(delta.getChangedEntries().isEmpty());
+        assertTrue(delta.getRemovedDepartureIds().isEmpty());
+    }
+
+    /**
+     * Private helper method to create a departure for the test data.
+     * @param departureTime a <code>LocalTime</code> object containing the departure time.
+     * @param routeNumber a <code>String</code> with the route number.
+     * @param journeyNumber a <code>String</code> with the journey number.
+     * @param destination a <code>String</code> with the destination.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createStopTime ( final LocalTime departureTime, final String routeNumber, final String journeyNumber, final String destination ) {
+        return StopTime.builder()
+                .stopName("Lakeside")
+                .company("Mustermann Bus GmbH")
+                .arrivalTime(departureTime)
+                .departureTime(departureTime)
+                .routeNumber(routeNumber)
+                .journeyNumber(journeyNumber)
+                .destination(destination)
+                .service(ServiceTrip.builder().serviceId(journeyNumber)
+                        .routeSchedule(RouteSchedule.builder().routeNumber(routeNumber).scheduleId(journeyNumber).build()).build())
+                .build();
+    }
+
+}
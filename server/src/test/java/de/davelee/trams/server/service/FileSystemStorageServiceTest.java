@@ -10,9 +10,16 @@ import org.springframework.mock.web.MockMultipartFile;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
 
 /**
  * This class tests the FileSystemStorageService class and ensures that the file operations work successfully.
@@ -34,9 +41,14 @@ public class FileSystemStorageServiceTest {
             fileSystemStorageService.init();
             FileInputStream inputFile = new FileInputStream("src/test/resources/testfiles.zip");
             //This ensures that we can work on different computers but still verify results by checking only relative part.
-            assertThat(fileSystemStorageService.store(
-                    new MockMultipartFile("file", "testfiles.zip", "multipart/form-data", inputFile)),
-                    containsString("/src/test/resources/upload-dir/testfiles"));
+            String folderName = fileSystemStorageService.store(
+                    new MockMultipartFile("file", "testfiles.zip", "multipart/form-data", inputFile));
+            assertThat(folderName, containsString("/src/test/resources/upload-dir/"));
+            assertThat(folderName, endsWith("/testfiles"));
+            //Deleting the upload removes the zip file and the extracted files.
+            fileSystemStorageService.delete(folderName);
+            Assertions.assertFalse(Files.exists(Paths.get(folderName).getParent()));
+            Assertions.assertTrue(Files.exists(Paths.get("src/test/resources/upload-dir")));
             fileSystemStorageService.deleteAll();
         } catch ( Exception exception ) {
             exception.printStackTrace();
@@ -106,4 +118,84 @@ public class FileSystemStorageServiceTest {
         }
     }
 
+    /**
+     * Verify that a single file can be read from a directory and directly from a zip file and that its size is known.
+     * @throws IOException if the files cannot be read.
+     */
+    @Test
+    public void testOpenFile ( ) throws IOException {
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        storageConfiguration.setLocation("src/test/resources/upload-dir");
+        FileSystemStorageService fileSystemStorageService = new FileSystemStorageService(storageConfiguration);
+        try ( InputStream inputStream = fileSystemStorageService.openFile("src/test/resources/sample-feed-1.zip", "agency.txt") ) {
+            assertThat(new String(inputStream.readAllBytes()), containsString("Demo Transit Authority"));
+        }
+        try ( InputStream inputStream = fileSystemStorageService.openFile("src/test/resources/sample-feed-1", "agency.txt") ) {
+            assertThat(new String(inputStream.readAllBytes()), containsString("Demo Transit Authority"));
+        }
+        Assertions.assertNull(fileSystemStorageService.openFile("src/test/resources/sample-feed-1.zip", "missing.txt"));
+        Assertions.assertNull(fileSystemStorageService.openFile("src/test/resources/sample-feed-1", "missing.txt"));
+        Assertions.assertTrue(fileSystemStorageService.getFileSize("src/test/resources/sample-feed-1", "stop_times.txt") > 0);
+        Assertions.assertTrue(fileSystemStorageService.getFileSize("src/test/resources/sample-feed-1.zip", "stop_times.txt") > 0);
+        Assertions.assertEquals(0, fileSystemStorageService.getFileSize("src/test/resources/sample-feed-1", "missing.txt"));
+        Assertions.assertEquals(0, fileSystemStorageService.getFileSize("src/test/resources/sample-feed-1.zip", "missing.txt"));
+    }
+
+    /**
+     * Verify that the files of a directory and a zip file can be listed without extracting the zip file.
+     * @throws IOException if the files cannot be listed.
+     */
+    @Test
+    public void testListFiles ( ) throws IOException {
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        storageConfiguration.setLocation("src/test/resources/upload-dir");
+        FileSystemStorageService fileSystemStorageService = new FileSystemStorageService(storageConfiguration);
+        List<String> csvFiles = fileSystemStorageService.listFiles("src/test/resources/my-network-landuff", ".csv");
+        Assertions.assertFalse(csvFiles.isEmpty());
+        Assertions.assertEquals(csvFiles, fileSystemStorageService.listFiles("src/test/resources/my-network-landuff.zip", ".csv"));
+        //Meta data of Mac OS in the zip file is ignored.
+        Assertions.assertEquals(List.of("testfile1.txt", "testfile2.txt"), fileSystemStorageService.listFiles("src/test/resources/testfiles.zip", ".txt"));
+        Assertions.assertTrue(fileSystemStorageService.listFiles("src/test/resources/testemptyfiles.zip", ".txt").isEmpty());
+        Assertions.assertTrue(fileSystemStorageService.listFiles("src/test/resources/missing", ".csv").isEmpty());
+    }
+
+    /**
+     * Verify that a zip file containing entries outside of the extraction directory cannot be extracted.
+     * @throws IOException if the zip file cannot be created.
+     */
+    @Test
+    public void testExtractOutsideDirectory ( ) throws IOException {
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        storageConfiguration.setLocation("src/test/resources/upload-dir");
+        FileSystemStorageService fileSystemStorageService = new FileSystemStorageService(storageConfiguration);
+        fileSystemStorageService.deleteAll();
+        fileSystemStorageService.init();
+        Path zipFile = Paths.get("src/test/resources/upload-dir/evil.zip");
+        try ( ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(zipFile)) ) {
+            zipOutputStream.putNextEntry(new ZipEntry("../evil.txt"));
+            zipOutputStream.write("evil".getBytes());
+            zipOutputStream.closeEntry();
+        }
+        Assertions.assertThrows(StorageException.class, () -> fileSystemStorageService.extract(zipFile.toString()));
+        Assertions.assertFalse(Files.exists(Paths.get("src/test/resources/upload-dir/evil.txt")));
+        fileSystemStorageService.deleteAll();
+    }
+
+    /**
+     * Verify that the fingerprint of a directory or zip file only changes if its content changes.
+     * @throws IOException if the files cannot be read.
+     */
+    @Test
+    public void testGetFingerprint ( ) throws IOException {
+        StorageConfiguration storageConfiguration = new StorageConfiguration();
+        storageConfiguration.setLocation("src/test/resources/upload-dir");
+        FileSystemStorageService fileSystemStorageService = new FileSystemStorageService(storageConfiguration);
+        String directoryFingerprint = fileSystemStorageService.getFingerprint("src/test/resources/sample-feed-1");
+        String zipFingerprint = fileSystemStorageService.getFingerprint("src/test/resources/sample-feed-1.zip");
+        Assertions.assertEquals(directoryFingerprint, fileSystemStorageService.getFingerprint("src/test/resources/sample-feed-1"));
+        Assertions.assertEquals(zipFingerprint, fileSystemStorageService.getFingerprint("src/test/resources/sample-feed-1.zip"));
+        Assertions.assertNotEquals(zipFingerprint, fileSystemStorageService.getFingerprint("src/test/resources/my-network-landuff.zip"));
+        Assertions.assertNotEquals(directoryFingerprint, fileSystemStorageService.getFingerprint("src/test/resources/my-network-landuff"));
+    }
+
 }
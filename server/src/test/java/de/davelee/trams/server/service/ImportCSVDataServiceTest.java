@@ -1,17 +1,28 @@
 package de.davelee.trams.server.service;
 
+import de.davelee.trams.server.configuration.StorageConfiguration;
+import de.davelee.trams.server.constant.ImportPhase;
+import de.davelee.trams.server.model.ImportStatistics;
+import de.davelee.trams.server.model.Route;
+import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.repository.GenerationActivationRepository;
+import de.davelee.trams.server.repository.ImportCheckpointRepository;
 import de.davelee.trams.server.repository.RouteRepository;
 import de.davelee.trams.server.repository.StopRepository;
 import de.davelee.trams.server.repository.StopTimeRepository;
+import org.apache.commons.lang.reflect.FieldUtils;
 import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.io.File;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -20,7 +31,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
  * for the database layer.
  * @author Dave Lee
  */
-@SpringBootTest
+@SpringBootTest(properties = { "import.batchSize=5" })
 public class ImportCSVDataServiceTest {
 
     @InjectMocks
@@ -35,6 +46,38 @@ public class ImportCSVDataServiceTest {
     @Mock
     private StopTimeRepository stopTimeRepository;
 
+    @Mock
+    private StopTimeIndexService stopTimeIndexService;
+
+    @Mock
+    private RouteService routeService;
+
+    @Spy
+    private FileSystemStorageService fileSystemStorageService = new FileSystemStorageService(new StorageConfiguration());
+
+    @Spy
+    private ImportGenerationService importGenerationService = new ImportGenerationService();
+
+    @Mock
+    private ImportCheckpointRepository importCheckpointRepository;
+
+    @Mock
+    private GenerationActivationRepository generationActivationRepository;
+
+    /**
+     * Initialise the spring properties which otherwise with Mockito would not be set
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setSpringProperties() throws Exception {
+        FieldUtils.writeField(importGenerationService, "importCheckpointRepository", importCheckpointRepository, true);
+        FieldUtils.writeField(importGenerationService, "generationActivationRepository", generationActivationRepository, true);
+        FieldUtils.writeField(importGenerationService, "stopTimeRepository", stopTimeRepository, true);
+        FieldUtils.writeField(importGenerationService, "fileSystemStorageService", fileSystemStorageService, true);
+        FieldUtils.writeField(importGenerationService, "checkpointBatches", 2, true);
+        FieldUtils.writeField(importCSVDataService, "batchSize", 5, true);
+    }
+
     /**
      * Verify that it is possible to import the sample directory.
      */
@@ -47,4 +90,65 @@ public class ImportCSVDataServiceTest {
         assertFalse(importCSVDataService.readCSVFile("no-feed", "2021-01-01 00:00", "2021-12-31 00:00"));
     }
 
+    /**
+     * Verify that the statistics of an import count all files, routes, stops and stop times and that routes and stops
+     * which already exist are not imported again.
+     */
+    @Test
+    public void testImportCSVFilesStatistics ( ) {
+        File file = new File("src/test/resources/my-network-landuff");
+        ImportStatistics importStatistics = importCSVDataService.importCSVFiles(file.getAbsolutePath(), "2021-01-01 00:00", "2021-12-31 00:00");
+        assertTrue(importStatistics.isSuccessful());
+        assertEquals(file.listFiles((dir, name) -> name.endsWith(".csv")).length, importStatistics.getNumberOfFiles());
+        assertTrue(importStatistics.getNumberOfRoutes() > 0);
+        assertTrue(importStatistics.getNumberOfStops() > 0);
+        assertTrue(importStatistics.getNumberOfStopTimes() > 0);
+        //Stop times are written in batches and each route is only imported once.
+        Mockito.verify(stopTimeRepository, Mockito.atLeast(2)).insertUnordered(Mockito.anyList());
+        Mockito.verify(stopTimeRepository, Mockito.never()).insert(Mockito.any(StopTime.class));
+        Mockito.verify(routeRepository, Mockito.times((int) importStatistics.getNumberOfRoutes())).insert(Mockito.any(Route.class));
+        //The progress of the import is counted.
+        assertEquals(ImportPhase.IMPORTING_STOP_TIMES, importStatistics.getPhase());
+        assertTrue(importStatistics.getNumberOfRowsRead() > 0);
+        assertTrue(importStatistics.getBytesRead() > 0 && importStatistics.getBytesRead() <= importStatistics.getTotalBytes());
+        //Checkpoints are written while importing and the generation is activated at the end.
+        Mockito.verify(importCheckpointRepository, Mockito.atLeast(2)).save(Mockito.any());
+        Mockito.verify(generationActivationRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByCompanyAndImportedIsTrueAndGenerationNot(Mockito.eq("My Network Landuff"), Mockito.anyString());
+        Mockito.verify(importCheckpointRepository, Mockito.times(1)).deleteById(Mockito.anyString());
+    }
+
+    /**
+     * Verify that the csv files of a zip file are imported directly from the zip file without extracting it.
+     * @throws Exception if the zip file cannot be read.
+     */
+    @Test
+    public void testImportCSVZipFile ( ) throws Exception {
+        File file = new File("src/test/resources/my-network-landuff.zip");
+        ImportStatistics importStatistics = importCSVDataService.importCSVFiles(file.getAbsolutePath(), "2021-01-01 00:00", "2021-12-31 00:00");
+        assertTrue(importStatistics.isSuccessful());
+        assertEquals(new File("src/test/resources/my-network-landuff").listFiles((dir, name) -> name.endsWith(".csv")).length, importStatistics.getNumberOfFiles());
+        assertTrue(importStatistics.getNumberOfStopTimes() > 0);
+        assertTrue(importStatistics.getBytesRead() > 0 && importStatistics.getBytesRead() <= importStatistics.getTotalBytes());
+        //The operator is named after the zip file.
+        Mockito.verify(routeService, Mockito.times(1)).invalidateRoutes("My Network Landuff");
+        Mockito.verify(fileSystemStorageService, Mockito.never()).extract(Mockito.anyString());
+    }
+
+    /**
+     * Verify that a cancelled import does not import any stop times.
+     */
+    @Test
+    public void testCancelImportCSVFiles ( ) {
+        File file = new File("src/test/resources/my-network-landuff");
+        ImportStatistics importStatistics = new ImportStatistics();
+        importStatistics.cancel();
+        assertFalse(importCSVDataService.importCSVFiles(file.getAbsolutePath(), "2021-01-01 00:00", "2021-12-31 00:00", importStatistics).isSuccessful());
+        assertEquals(0, importStatistics.getNumberOfStopTimes());
+        Mockito.verify(stopTimeRepository, Mockito.never()).insertUnordered(Mockito.anyList());
+        //The staging generation of the cancelled import is discarded and never activated.
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByGeneration(Mockito.anyString());
+        Mockito.verify(generationActivationRepository, Mockito.never()).save(Mockito.any());
+    }
+
 }
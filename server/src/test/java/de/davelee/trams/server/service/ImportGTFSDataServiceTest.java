@@ -1,22 +1,37 @@
 package de.davelee.trams.server.service;
 
+import de.davelee.trams.server.configuration.StorageConfiguration;
+import de.davelee.trams.server.constant.ImportPhase;
 import de.davelee.trams.server.exception.StorageException;
+import de.davelee.trams.server.model.ImportCheckpoint;
+import de.davelee.trams.server.model.ImportStatistics;
+import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.repository.GenerationActivationRepository;
+import de.davelee.trams.server.repository.ImportCheckpointRepository;
 import de.davelee.trams.server.repository.RouteRepository;
 import de.davelee.trams.server.repository.StopRepository;
 import de.davelee.trams.server.repository.StopTimeRepository;
+import org.apache.commons.lang.reflect.FieldUtils;
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.onebusaway.csv_entities.exceptions.MissingRequiredEntityException;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -25,7 +40,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
  * for the database layer.
  * @author Dave Lee
  */
-@SpringBootTest
+@SpringBootTest(properties = { "import.batchSize=1000" })
 public class ImportGTFSDataServiceTest {
 
     @InjectMocks
@@ -40,6 +55,38 @@ public class ImportGTFSDataServiceTest {
     @Mock
     private StopTimeRepository stopTimeRepository;
 
+    @Mock
+    private StopTimeIndexService stopTimeIndexService;
+
+    @Mock
+    private RouteService routeService;
+
+    @Spy
+    private FileSystemStorageService fileSystemStorageService = new FileSystemStorageService(new StorageConfiguration());
+
+    @Spy
+    private ImportGenerationService importGenerationService = new ImportGenerationService();
+
+    @Mock
+    private ImportCheckpointRepository importCheckpointRepository;
+
+    @Mock
+    private GenerationActivationRepository generationActivationRepository;
+
+    /**
+     * Initialise the spring properties which otherwise with Mockito would not be set
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setSpringProperties() throws Exception {
+        FieldUtils.writeField(importGenerationService, "importCheckpointRepository", importCheckpointRepository, true);
+        FieldUtils.writeField(importGenerationService, "generationActivationRepository", generationActivationRepository, true);
+        FieldUtils.writeField(importGenerationService, "stopTimeRepository", stopTimeRepository, true);
+        FieldUtils.writeField(importGenerationService, "fileSystemStorageService", fileSystemStorageService, true);
+        FieldUtils.writeField(importGenerationService, "checkpointBatches", 2, true);
+        FieldUtils.writeField(importGTFSDataService, "batchSize", 1000, true);
+    }
+
     /**
      * Verify that it is possible to import the sample feed.
      */
@@ -50,8 +97,103 @@ public class ImportGTFSDataServiceTest {
         File file = new File("src/test/resources/sample-feed-1");
         assertTrue(importGTFSDataService.readGTFSFile(file.getAbsolutePath(), Lists.newArrayList()));
         assertTrue(importGTFSDataService.readGTFSFile(file.getAbsolutePath(), List.of("10", "20")));
+        //Stop times should be written in bulk rather than one by one.
+        Mockito.verify(stopTimeRepository, Mockito.atLeastOnce()).insertUnordered(Mockito.anyList());
+        Mockito.verify(stopTimeRepository, Mockito.never()).insert(Mockito.any(StopTime.class));
         File zipFile = new File("src/test/resources/sample-feed-1.zip");
         Assertions.assertThrows(MissingRequiredEntityException.class, () -> importGTFSDataService.readGTFSFile(zipFile.getAbsolutePath(), Lists.newArrayList()));
         assertFalse(importGTFSDataService.readGTFSFile("no-feed", Lists.newArrayList()));
     }
+
+    /**
+     * Verify that it is possible to import the sample feed in streaming mode both from a directory and a zip file.
+     */
+    @Test
+    public void testGTFSDataServiceStreaming ( ) {
+        AtomicInteger stopTimeCounter = new AtomicInteger();
+        Mockito.when(stopTimeRepository.insertUnordered(Mockito.anyList())).thenAnswer(invocation -> {
+            stopTimeCounter.addAndGet(invocation.<List<StopTime>>getArgument(0).size());
+            return invocation.<List<StopTime>>getArgument(0).size();
+        });
+        File file = new File("src/test/resources/sample-feed-1");
+        assertTrue(importGTFSDataService.readGTFSFileStreaming(file.getAbsolutePath(), Lists.newArrayList()));
+        assertEquals(28, stopTimeCounter.get());
+        //The zip file contains the feed in a sub folder which should be found.
+        File zipFile = new File("src/test/resources/sample-feed-1.zip");
+        assertTrue(importGTFSDataService.readGTFSFileStreaming(zipFile.getAbsolutePath(), List.of("10", "20")));
+        assertEquals(28 + 8, stopTimeCounter.get());
+        assertFalse(importGTFSDataService.readGTFSFileStreaming("no-feed", Lists.newArrayList()));
+    }
+
+    /**
+     * Verify that the progress of an import is counted and that a cancelled import stops reading the feed.
+     */
+    @Test
+    public void testGTFSDataServiceProgressAndCancel ( ) {
+        File file = new File("src/test/resources/sample-feed-1");
+        ImportStatistics importStatistics = new ImportStatistics();
+        assertTrue(importGTFSDataService.readGTFSFileStreaming(file.getAbsolutePath(), Lists.newArrayList(), importStatistics));
+        assertEquals(ImportPhase.IMPORTING_STOP_TIMES, importStatistics.getPhase());
+        assertEquals(28, importStatistics.getNumberOfStopTimes());
+        assertTrue(importStatistics.getNumberOfRowsRead() > 28);
+        //All bytes of the stop times except the last row have been read before the last row.
+        assertTrue(importStatistics.getTotalBytes() > 0);
+        assertTrue(importStatistics.getBytesRead() > 0 && importStatistics.getBytesRead() < importStatistics.getTotalBytes());
+        //A cancelled import does not read any stop times.
+        ImportStatistics cancelledStatistics = new ImportStatistics();
+        cancelledStatistics.cancel();
+        assertFalse(importGTFSDataService.readGTFSFileStreaming(file.getAbsolutePath(), Lists.newArrayList(), cancelledStatistics));
+        assertEquals(0, cancelledStatistics.getNumberOfRowsRead());
+        assertFalse(importGTFSDataService.readGTFSFile(file.getAbsolutePath(), Lists.newArrayList(), cancelledStatistics));
+        assertEquals(0, cancelledStatistics.getNumberOfStopTimes());
+        //The staging generation of the cancelled import is discarded.
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByGeneration(Mockito.anyString());
+    }
+
+    /**
+     * Verify that the stop times are written to a staging generation which is activated at the end, that the caches
+     * are invalidated after a failed import and that a failed import is resumed from its last checkpoint without
+     * writing the committed stop times again.
+     * @throws Exception if the batch size cannot be set.
+     */
+    @Test
+    public void testResumeGTFSDataServiceStreaming ( ) throws Exception {
+        FieldUtils.writeField(importGTFSDataService, "batchSize", 5, true);
+        List<StopTime> insertedStopTimes = new ArrayList<>();
+        AtomicInteger numberOfBatches = new AtomicInteger();
+        Mockito.when(stopTimeRepository.insertUnordered(Mockito.anyList())).thenAnswer(invocation -> {
+            //The database fails while the fourth batch is written.
+            if ( numberOfBatches.incrementAndGet() == 4 ) {
+                throw new IllegalStateException("Database not available");
+            }
+            insertedStopTimes.addAll(invocation.getArgument(0));
+            return invocation.<List<StopTime>>getArgument(0).size();
+        });
+        ArgumentCaptor<ImportCheckpoint> importCheckpointCaptor = ArgumentCaptor.forClass(ImportCheckpoint.class);
+        File file = new File("src/test/resources/sample-feed-1");
+        assertFalse(importGTFSDataService.readGTFSFileStreaming(file.getAbsolutePath(), Lists.newArrayList()));
+        assertEquals(15, insertedStopTimes.size());
+        //The routes and stop times written before the failure are not served from stale caches.
+        Mockito.verify(stopTimeIndexService, Mockito.times(1)).invalidate("Demo Transit Authority");
+        Mockito.verify(routeService, Mockito.times(1)).invalidateRoutes("Demo Transit Authority");
+        //The first two batches are covered by the checkpoint and the generation was not activated.
+        Mockito.verify(importCheckpointRepository, Mockito.times(2)).save(importCheckpointCaptor.capture());
+        ImportCheckpoint importCheckpoint = importCheckpointCaptor.getValue();
+        assertEquals(1, importCheckpoint.getCheckpointNumber());
+        assertEquals(10, importCheckpoint.getFiles().getFirst().getCommittedRows());
+        assertEquals(2, insertedStopTimes.getLast().getCheckpoint());
+        assertEquals(importCheckpoint.getGeneration(), insertedStopTimes.getFirst().getGeneration());
+        Mockito.verify(generationActivationRepository, Mockito.never()).save(Mockito.any());
+        //Running the import again resumes from the checkpoint.
+        insertedStopTimes.clear();
+        Mockito.when(importCheckpointRepository.findById(importCheckpoint.getId())).thenReturn(Optional.of(importCheckpoint));
+        assertTrue(importGTFSDataService.readGTFSFileStreaming(file.getAbsolutePath(), Lists.newArrayList()));
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByGenerationAndCheckpointGreaterThan(importCheckpoint.getGeneration(), 1);
+        assertEquals(28 - 10, insertedStopTimes.size());
+        assertTrue(insertedStopTimes.stream().allMatch(stopTime -> importCheckpoint.getGeneration().equals(stopTime.getGeneration())));
+        //The generation is activated and the checkpoint is no longer needed.
+        Mockito.verify(generationActivationRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByCompanyAndImportedIsTrueAndGenerationNot(Mockito.eq("Demo Transit Authority"), Mockito.anyString());
+        Mockito.verify(importCheckpointRepository, Mockito.times(1)).deleteById(importCheckpoint.getId());
+    }
 }
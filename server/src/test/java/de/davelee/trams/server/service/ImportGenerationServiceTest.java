@@ -0,0 +1,180 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.GenerationActivation;
+import de.davelee.trams.server.model.ImportCheckpoint;
+import de.davelee.trams.server.model.ImportGeneration;
+import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.repository.GenerationActivationRepository;
+import de.davelee.trams.server.repository.ImportCheckpointRepository;
+import de.davelee.trams.server.repository.StopTimeRepository;
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ImportGenerationService class and ensures that imports are started, resumed, activated and
+ * discarded correctly. Mocks are used for the database layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class ImportGenerationServiceTest {
+
+    @InjectMocks
+    private ImportGenerationService importGenerationService;
+
+    @Mock
+    private ImportCheckpointRepository importCheckpointRepository;
+
+    @Mock
+    private GenerationActivationRepository generationActivationRepository;
+
+    @Mock
+    private StopTimeRepository stopTimeRepository;
+
+    @Mock
+    private FileSystemStorageService fileSystemStorageService;
+
+    /**
+     * Set the number of batches between checkpoints and the fingerprint of the test feed.
+     * @throws Exception if the property cannot be set.
+     */
+    @BeforeEach
+    public void setUp ( ) throws Exception {
+        FieldUtils.writeField(importGenerationService, "checkpointBatches", 2, true);
+        Mockito.when(fileSystemStorageService.getFingerprint("feed.zip")).thenReturn("abc");
+    }
+
+    /**
+     * Verify that a new import creates a new generation and stores its checkpoint at once.
+     * @throws IOException if the fingerprint cannot be calculated.
+     */
+    @Test
+    public void testStartImport ( ) throws IOException {
+        ImportGeneration importGeneration = importGenerationService.startImport("feed.zip", "GTFS", "[]");
+        assertFalse(importGeneration.isResumed());
+        assertNotNull(importGeneration.getGeneration());
+        assertEquals(0, importGeneration.getCheckpointNumber());
+        Mockito.verify(importCheckpointRepository, Mockito.times(1)).save(Mockito.any(ImportCheckpoint.class));
+        Mockito.verify(stopTimeRepository, Mockito.never()).deleteByGenerationAndCheckpointGreaterThan(Mockito.anyString(), Mockito.anyLong());
+        //Different parameters are a different import of the same file.
+        assertNotEquals(importGeneration.getCheckpointId(), importGenerationService.startImport("feed.zip", "GTFS", "[10]").getCheckpointId());
+        assertEquals(importGeneration.getCheckpointId(), importGenerationService.startImport("feed.zip", "GTFS", "[]").getCheckpointId());
+    }
+
+    /**
+     * Verify that an import which was not completed is resumed from its last checkpoint.
+     * @throws IOException if the fingerprint cannot be calculated.
+     */
+    @Test
+    public void testResumeImport ( ) throws IOException {
+        String checkpointId = importGenerationService.startImport("feed.zip", "GTFS", "[]").getCheckpointId();
+        Mockito.when(importCheckpointRepository.findById(checkpointId)).thenReturn(Optional.of(ImportCheckpoint.builder()
+                .id(checkpointId)
+                .generation("1")
+                .checkpointNumber(3)
+                .build()));
+        ImportGeneration importGeneration = importGenerationService.startImport("feed.zip", "GTFS", "[]");
+        assertTrue(importGeneration.isResumed());
+        assertEquals("1", importGeneration.getGeneration());
+        assertEquals(3, importGeneration.getCheckpointNumber());
+        //Stop times written after the last checkpoint are removed.
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByGenerationAndCheckpointGreaterThan("1", 3);
+    }
+
+    /**
+     * Verify that activating a generation makes it visible for all of its companies with a single write and deletes the
+     * imported stop times of the previous generations of its companies afterwards.
+     * @throws IOException if the fingerprint cannot be calculated.
+     */
+    @Test
+    public void testActivate ( ) throws IOException {
+        ImportGeneration importGeneration = importGenerationService.startImport("feed.zip", "GTFS", "[]");
+        importGeneration.writeBatch("stop_times.txt", 2, List.of(StopTime.builder().company("Mustermann Bus GmbH").build(),
+                StopTime.builder().company("Mustermann Tram GmbH").build()), () -> { });
+        assertNull(importGenerationService.getActiveGeneration("Mustermann Bus GmbH"));
+        //The tram company was part of an earlier import together with another company.
+        Mockito.when(generationActivationRepository.findByCompanies("Mustermann Tram GmbH")).thenReturn(List.of(GenerationActivation.builder()
+                .id("0")
+                .companies(List.of("Mustermann Tram GmbH", "Mustermann Ferry GmbH"))
+                .build()));
+        importGenerationService.activate(importGeneration);
+        InOrder inOrder = Mockito.inOrder(generationActivationRepository, stopTimeRepository);
+        inOrder.verify(generationActivationRepository, Mockito.times(1)).save(Mockito.argThat(generationActivation ->
+                generationActivation.getId().equals(importGeneration.getGeneration())
+                        && generationActivation.getCompanies().size() == 2));
+        inOrder.verify(stopTimeRepository, Mockito.times(1)).deleteByCompanyAndImportedIsTrueAndGenerationNot("Mustermann Bus GmbH",
+                importGeneration.getGeneration());
+        //The earlier activation only remains for the other company.
+        Mockito.verify(generationActivationRepository, Mockito.times(1)).save(Mockito.argThat(generationActivation ->
+                generationActivation.getId().equals("0") && generationActivation.getCompanies().equals(List.of("Mustermann Ferry GmbH"))));
+        Mockito.verify(importCheckpointRepository, Mockito.times(1)).deleteById(importGeneration.getCheckpointId());
+        Mockito.when(generationActivationRepository.findFirstByCompaniesOrderByActivatedAtDesc("Mustermann Bus GmbH")).thenReturn(Optional.of(GenerationActivation.builder()
+                .id(importGeneration.getGeneration())
+                .build()));
+        assertEquals(importGeneration.getGeneration(), importGenerationService.getActiveGeneration("Mustermann Bus GmbH"));
+    }
+
+    /**
+     * Verify that an import which cannot be resumed discards the stop times of its previous attempt.
+     * @throws IOException if the fingerprint cannot be calculated.
+     */
+    @Test
+    public void testStartNewImport ( ) throws IOException {
+        String checkpointId = importGenerationService.startNewImport("feed.zip", "GTFS-STORE", "[]").getCheckpointId();
+        Mockito.when(importCheckpointRepository.findById(checkpointId)).thenReturn(Optional.of(ImportCheckpoint.builder()
+                .id(checkpointId)
+                .generation("1")
+                .checkpointNumber(3)
+                .build()));
+        ImportGeneration importGeneration = importGenerationService.startNewImport("feed.zip", "GTFS-STORE", "[]");
+        assertFalse(importGeneration.isResumed());
+        assertNotEquals("1", importGeneration.getGeneration());
+        assertEquals(0, importGeneration.getCommittedRows("stop_times.txt"));
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByGeneration("1");
+    }
+
+    /**
+     * Verify that the imports and activations of a purged company are removed.
+     */
+    @Test
+    public void testDeleteCheckpointsAndActivations ( ) {
+        Mockito.when(importCheckpointRepository.findByCompanies("Mustermann Bus GmbH")).thenReturn(List.of(ImportCheckpoint.builder()
+                .id("abc")
+                .generation("1")
+                .build()));
+        assertEquals(1, importGenerationService.deleteCheckpoints("Mustermann Bus GmbH"));
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByGeneration("1");
+        Mockito.verify(importCheckpointRepository, Mockito.times(1)).deleteById("abc");
+        Mockito.when(generationActivationRepository.findByCompanies("Mustermann Bus GmbH")).thenReturn(List.of(GenerationActivation.builder()
+                .id("2")
+                .companies(List.of("Mustermann Bus GmbH"))
+                .build()));
+        assertEquals(1, importGenerationService.deleteActivations("Mustermann Bus GmbH"));
+        Mockito.verify(generationActivationRepository, Mockito.times(1)).deleteById("2");
+    }
+
+    /**
+     * Verify that discarding a generation deletes its stop times and its checkpoint.
+     * @throws IOException if the fingerprint cannot be calculated.
+     */
+    @Test
+    public void testDiscard ( ) throws IOException {
+        ImportGeneration importGeneration = importGenerationService.startImport("feed.zip", "GTFS", "[]");
+        importGenerationService.discard(importGeneration);
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).deleteByGeneration(importGeneration.getGeneration());
+        Mockito.verify(importCheckpointRepository, Mockito.times(1)).deleteById(importGeneration.getCheckpointId());
+        Mockito.verify(generationActivationRepository, Mockito.never()).save(Mockito.any());
+    }
+
+}
@@ -0,0 +1,219 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.constant.ImportPhase;
+import de.davelee.trams.server.model.ImportJob;
+import de.davelee.trams.server.model.ImportStatistics;
+import de.davelee.trams.server.repository.ImportJobRepository;
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ImportJobService class and ensures that jobs are run in the background with a bounded queue,
+ * report their progress and can be cancelled. Mocks are used for the database layer and the import services.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class ImportJobServiceTest {
+
+    @InjectMocks
+    private ImportJobService importJobService;
+
+    @Mock
+    private ImportJobRepository importJobRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ImportGTFSDataService gtfsDataService;
+
+    @Mock
+    private ImportCSVDataService csvDataService;
+
+    @Mock
+    private FileSystemStorageService fileSystemStorageService;
+
+    /**
+     * Initialise the spring properties which otherwise with Mockito would not be set
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setSpringProperties() throws Exception {
+        FieldUtils.writeField(importJobService, "gtfsStreaming", true, true);
+        FieldUtils.writeField(importJobService, "workers", 1, true);
+        FieldUtils.writeField(importJobService, "queueSize", 1, true);
+        //Write the progress rarely so that only the updates triggered by the tests are run.
+        FieldUtils.writeField(importJobService, "progressSeconds", 3600, true);
+        FieldUtils.writeField(importJobService, "staleMinutes", 5, true);
+    }
+
+    /**
+     * Stop the jobs after each test.
+     */
+    @AfterEach
+    public void stopJobs() {
+        importJobService.stopJobs();
+    }
+
+    /**
+     * Verify that jobs run in the background and that jobs are rejected if all workers and the queue are busy.
+     * @throws Exception if the jobs do not finish.
+     */
+    @Test
+    public void testSubmitJobs ( ) throws Exception {
+        CountDownLatch importStarted = new CountDownLatch(1);
+        CountDownLatch finishImport = new CountDownLatch(1);
+        Mockito.when(gtfsDataService.readGTFSFileStreaming(Mockito.anyString(), Mockito.anyList(), Mockito.any(ImportStatistics.class))).thenAnswer(invocation -> {
+            importStarted.countDown();
+            return finishImport.await(10, TimeUnit.SECONDS);
+        });
+        ImportJob firstJob = importJobService.submitJob("first.zip", "first.zip", ImportJobService.GTFS_FORMAT, List.of(), null, null);
+        assertEquals(ImportPhase.QUEUED, firstJob.getPhase());
+        assertTrue(importStarted.await(10, TimeUnit.SECONDS));
+        //The second job waits in the queue and the third job is rejected.
+        importJobService.submitJob("second.zip", "second.zip", ImportJobService.GTFS_FORMAT, List.of(), null, null);
+        assertThrows(RejectedExecutionException.class, () -> importJobService.submitJob("third.zip", "third.zip", ImportJobService.GTFS_FORMAT, List.of(), null, null));
+        Mockito.verify(fileSystemStorageService, Mockito.times(1)).delete("third.zip");
+        assertEquals(2, importJobService.getNumberOfRunningJobs());
+        //Both jobs complete once the import finishes.
+        finishImport.countDown();
+        for ( int i = 0; i < 100 && importJobService.getNumberOfRunningJobs() > 0; i++ ) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, importJobService.getNumberOfRunningJobs());
+        Mockito.verify(importJobRepository, Mockito.atLeast(2)).save(Mockito.argThat(importJob ->
+                importJob.getPhase() == ImportPhase.COMPLETED && importJob.getFinishedAt() != null));
+        Mockito.verify(fileSystemStorageService, Mockito.times(1)).delete("first.zip");
+    }
+
+    /**
+     * Verify that a job reports its phase and progress and that a failed or cancelled import is stored as such.
+     */
+    @Test
+    public void testRunJob ( ) {
+        ImportJob importJob = ImportJob.builder().id("1").fileFormat(ImportJobService.CSV_FORMAT).phase(ImportPhase.QUEUED).build();
+        Mockito.when(csvDataService.importCSVFiles(Mockito.eq("feed.zip"), Mockito.any(), Mockito.any(), Mockito.any(ImportStatistics.class))).thenAnswer(invocation -> {
+            ImportStatistics importStatistics = invocation.getArgument(3);
+            importStatistics.setPhase(ImportPhase.IMPORTING_STOP_TIMES);
+            importStatistics.addRowsRead(10);
+            importStatistics.addStopTimes(8);
+            importStatistics.markFailed();
+            return importStatistics;
+        });
+        importJobService.runJob(importJob, new ImportStatistics(), "feed.zip", List.of(), "2021-01-01", "2021-12-31");
+        assertEquals(ImportPhase.FAILED, importJob.getPhase());
+        assertEquals(10, importJob.getRowsRead());
+        assertEquals(8, importJob.getRowsWritten());
+        assertNotNull(importJob.getStartedAt());
+        Mockito.verify(fileSystemStorageService, Mockito.times(1)).delete("feed.zip");
+        //Csv files are read directly from the zip file.
+        Mockito.verify(fileSystemStorageService, Mockito.never()).extract(Mockito.anyString());
+        //A job which is cancelled before it starts does not import anything.
+        ImportStatistics cancelledStatistics = new ImportStatistics();
+        cancelledStatistics.cancel();
+        importJobService.runJob(importJob, cancelledStatistics, "feed.zip", List.of(), "2021-01-01", "2021-12-31");
+        assertEquals(ImportPhase.CANCELLED, importJob.getPhase());
+        Mockito.verify(csvDataService, Mockito.times(1)).importCSVFiles(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(ImportStatistics.class));
+        //A job which is cancelled after its data has been activated is completed since the data is visible.
+        Mockito.when(csvDataService.importCSVFiles(Mockito.eq("activated.zip"), Mockito.any(), Mockito.any(), Mockito.any(ImportStatistics.class))).thenAnswer(invocation -> {
+            ImportStatistics importStatistics = invocation.getArgument(3);
+            importStatistics.markActivated();
+            importStatistics.cancel();
+            return importStatistics;
+        });
+        importJobService.runJob(importJob, new ImportStatistics(), "activated.zip", List.of(), "2021-01-01", "2021-12-31");
+        assertEquals(ImportPhase.COMPLETED, importJob.getPhase());
+    }
+
+    /**
+     * Verify that the status of a job is returned and that jobs can be cancelled on this and on other server nodes.
+     * @throws Exception if the jobs do not finish.
+     */
+    @Test
+    public void testGetAndCancelJob ( ) throws Exception {
+        CountDownLatch importStarted = new CountDownLatch(1);
+        Mockito.when(gtfsDataService.readGTFSFileStreaming(Mockito.anyString(), Mockito.anyList(), Mockito.any(ImportStatistics.class))).thenAnswer(invocation -> {
+            ImportStatistics importStatistics = invocation.getArgument(2);
+            importStatistics.setPhase(ImportPhase.IMPORTING_STOP_TIMES);
+            importStatistics.addRowsRead(5);
+            importStatistics.addTotalBytes(100);
+            importStatistics.addBytesRead(50);
+            importStatistics.addStopTimes(5);
+            importStarted.countDown();
+            //Read until the import is cancelled.
+            while ( !importStatistics.isCancelled() ) {
+                Thread.sleep(10);
+            }
+            return false;
+        });
+        ImportJob submittedJob = importJobService.submitJob("feed.zip", "feed.zip", ImportJobService.GTFS_FORMAT, List.of(), null, null);
+        assertTrue(importStarted.await(10, TimeUnit.SECONDS));
+        Mockito.when(importJobRepository.findById(submittedJob.getId())).thenReturn(Optional.of(submittedJob));
+        //The current progress is returned for jobs running on this server node.
+        ImportJob importJob = importJobService.getJob(submittedJob.getId());
+        assertEquals(ImportPhase.IMPORTING_STOP_TIMES, importJob.getPhase());
+        assertEquals(5, importJob.getRowsRead());
+        assertEquals(50, importJob.getBytesRead());
+        assertNull(importJobService.getJob("unknown"));
+        //A cancellation on another server node is read with the progress update.
+        Mockito.when(mongoTemplate.findAndModify(Mockito.any(Query.class), Mockito.any(Update.class), Mockito.any(FindAndModifyOptions.class), Mockito.eq(ImportJob.class)))
+                .thenReturn(ImportJob.builder().id(submittedJob.getId()).cancelRequested(true).build());
+        importJobService.writeProgress();
+        for ( int i = 0; i < 100 && importJobService.getNumberOfRunningJobs() > 0; i++ ) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, importJobService.getNumberOfRunningJobs());
+        assertEquals(ImportPhase.CANCELLED, submittedJob.getPhase());
+        //Finished jobs are not cancelled again and unknown jobs cannot be cancelled.
+        assertEquals(ImportPhase.CANCELLED, importJobService.cancelJob(submittedJob.getId()).getPhase());
+        Mockito.verify(mongoTemplate, Mockito.never()).updateFirst(Mockito.any(Query.class), Mockito.argThat((Update update) -> update.modifies("cancelRequested")), Mockito.eq(ImportJob.class));
+        assertNull(importJobService.cancelJob("unknown"));
+        //Jobs which are still running are cancelled in the database.
+        Mockito.when(importJobRepository.findById("2")).thenReturn(Optional.of(ImportJob.builder().id("2").phase(ImportPhase.READING_FEED).build()));
+        assertTrue(importJobService.cancelJob("2").isCancelRequested());
+        Mockito.verify(mongoTemplate, Mockito.times(1)).updateFirst(Mockito.any(Query.class), Mockito.argThat((Update update) -> update.modifies("cancelRequested")), Mockito.eq(ImportJob.class));
+    }
+
+    /**
+     * Verify that a job which is not updated any more because its server node has stopped is failed while a job which
+     * is still updated by another server node is not.
+     */
+    @Test
+    public void testExpireStaleJob ( ) {
+        LocalDateTime currentTime = LocalDateTime.now();
+        ImportJob staleJob = ImportJob.builder().id("3").phase(ImportPhase.IMPORTING_STOP_TIMES)
+                .createdAt(currentTime.minusMinutes(20)).updatedAt(currentTime.minusMinutes(10)).build();
+        Mockito.when(importJobRepository.findById("3")).thenReturn(Optional.of(staleJob));
+        Mockito.when(mongoTemplate.findAndModify(Mockito.any(Query.class), Mockito.argThat((Update update) -> update.modifies("finishedAt")),
+                Mockito.any(FindAndModifyOptions.class), Mockito.eq(ImportJob.class)))
+                .thenReturn(ImportJob.builder().id("3").phase(ImportPhase.FAILED).finishedAt(currentTime).build());
+        assertEquals(ImportPhase.FAILED, importJobService.getJob("3").getPhase());
+        //A job which was updated recently is still running on another server node.
+        ImportJob runningJob = ImportJob.builder().id("4").phase(ImportPhase.QUEUED)
+                .createdAt(currentTime.minusMinutes(20)).updatedAt(currentTime.minusMinutes(1)).build();
+        Mockito.when(importJobRepository.findById("4")).thenReturn(Optional.of(runningJob));
+        assertEquals(ImportPhase.QUEUED, importJobService.getJob("4").getPhase());
+        Mockito.verify(mongoTemplate, Mockito.times(1)).findAndModify(Mockito.any(Query.class), Mockito.any(Update.class),
+                Mockito.any(FindAndModifyOptions.class), Mockito.eq(ImportJob.class));
+    }
+
+}
@@ -0,0 +1,47 @@
+package de.davelee.trams.server.service;
+
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the InMemoryAuthTokenStore class and ensures that tokens expire and are swept correctly.
+ * @author Dave Lee
+ */
+public class InMemoryAuthTokenStoreTest {
+
+    /**
+     * Verify that tokens are valid until their expiry time and that expired tokens are removed by the sweeper.
+     * @throws Exception if the sweep interval cannot be set.
+     */
+    @Test
+    public void testStoreAndSweep ( ) throws Exception {
+        InMemoryAuthTokenStore authTokenStore = new InMemoryAuthTokenStore();
+        FieldUtils.writeField(authTokenStore, "sweepSeconds", 60, true);
+        try {
+            authTokenStore.store("max.mustermann-abc", 1000L);
+            authTokenStore.store("erika.mustermann-def", 2000L);
+            //Tokens are valid until and including their expiry time.
+            assertTrue(authTokenStore.isValid("max.mustermann-abc", 1000L));
+            assertFalse(authTokenStore.isValid("max.mustermann-abc", 1001L));
+            assertFalse(authTokenStore.isValid("john.doe-ghi", 0L));
+            //The tokens are looked up directly.
+            Map<?, ?> expiryTimes = (Map<?, ?>) FieldUtils.readField(authTokenStore, "expiryTimes", true);
+            assertTrue(expiryTimes.containsKey("max.mustermann-abc"));
+            //Only expired tokens are removed.
+            assertEquals(1, authTokenStore.removeExpired(1500L));
+            assertEquals(1, authTokenStore.size());
+            assertTrue(authTokenStore.isValid("erika.mustermann-def", 1500L));
+            //Removed tokens are no longer valid.
+            authTokenStore.remove("erika.mustermann-def");
+            assertEquals(0, authTokenStore.size());
+            assertFalse(authTokenStore.isValid("erika.mustermann-def", 1500L));
+        } finally {
+            authTokenStore.stopSweeper();
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.AuthToken;
+import de.davelee.trams.server.repository.AuthTokenRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the MongoAuthTokenStore class and ensures that only the hashes of tokens are stored. Mocks are used
+ * for the database layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class MongoAuthTokenStoreTest {
+
+    @InjectMocks
+    private MongoAuthTokenStore mongoAuthTokenStore;
+
+    @Mock
+    private AuthTokenRepository authTokenRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Verify that tokens are stored as hashes and are only valid until their expiry time.
+     */
+    @Test
+    public void testStoreAndCheck ( ) {
+        mongoAuthTokenStore.store("max.mustermann-abc", 1000L);
+        Mockito.verify(authTokenRepository, Mockito.times(1)).save(Mockito.argThat(authToken ->
+                authToken.getId().length() == 64 && !authToken.getId().contains("max.mustermann")
+                        && authToken.getExpiresAt().toEpochMilli() == 1000L));
+        Mockito.when(authTokenRepository.findById(Mockito.anyString())).thenReturn(Optional.of(AuthToken.builder()
+                .expiresAt(Instant.ofEpochMilli(1000L)).build()));
+        assertTrue(mongoAuthTokenStore.isValid("max.mustermann-abc", 1000L));
+        //Expired tokens which have not been removed by the database yet are not valid.
+        assertFalse(mongoAuthTokenStore.isValid("max.mustermann-abc", 1001L));
+        Mockito.when(authTokenRepository.findById(Mockito.anyString())).thenReturn(Optional.empty());
+        assertFalse(mongoAuthTokenStore.isValid("max.mustermann-abc", 0L));
+        Mockito.when(authTokenRepository.deleteByExpiresAtBefore(Instant.ofEpochMilli(1500L))).thenReturn(2L);
+        assertEquals(2, mongoAuthTokenStore.removeExpired(1500L));
+    }
+
+}
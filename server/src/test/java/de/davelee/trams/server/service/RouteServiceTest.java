@@ -1,14 +1,21 @@
 package de.davelee.trams.server.service;
 
+import de.davelee.trams.server.model.CacheInvalidation;
 import de.davelee.trams.server.model.Route;
 import de.davelee.trams.server.repository.RouteRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang.reflect.FieldUtils;
 import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -26,6 +33,19 @@ public class RouteServiceTest {
     @Mock
     private RouteRepository routeRepository;
 
+    @Mock
+    private CacheInvalidationService cacheInvalidationService;
+
+    /**
+     * Initialise the spring properties which otherwise with Mockito would not be set
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setSpringProperties() throws Exception {
+        FieldUtils.writeField(routeService, "maximumCompanies", 2, true);
+        FieldUtils.writeField(routeService, "timeToLiveSeconds", 300L, true);
+    }
+
     /**
      * Verify that a route can be added to the database.
      */
@@ -58,12 +78,78 @@ public class RouteServiceTest {
         assertEquals("1", routeService.getRoutesByCompany("Mustermann Bus GmbH").get(0).getId());
         assertEquals("Mustermann Bus GmbH", routeService.getRoutesByCompany("Mustermann Bus GmbH").get(0).getCompany());
         //Test retrieval of single route.
-        Mockito.when(routeRepository.findByCompanyAndRouteNumber("Mustermann Bus GmbH", "1C")).thenReturn(Lists.newArrayList(Route.builder()
-                .routeNumber("1A")
-                .id("1")
-                .company("Mustermann Bus GmbH")
-                .build()));
-        assertEquals(1, routeService.getRoutesByCompanyAndRouteNumber("Mustermann Bus GmbH", "1C").size());
+        assertEquals(1, routeService.getRoutesByCompanyAndRouteNumber("Mustermann Bus GmbH", "1A").size());
+        assertEquals(0, routeService.getRoutesByCompanyAndRouteNumber("Mustermann Bus GmbH", "1C").size());
+    }
+
+    /**
+     * Verify that the routes of a company are only loaded once until they are invalidated.
+     */
+    @Test
+    public void testRouteCache ( ) {
+        Mockito.when(routeRepository.findByCompany("Mustermann Bus GmbH")).thenReturn(Lists.newArrayList(
+                Route.builder().routeNumber("1A").id("1").company("Mustermann Bus GmbH").build(),
+                Route.builder().routeNumber("2").id("2").company("Mustermann Bus GmbH").build()));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        routeService.bindTo(meterRegistry);
+        //Bulk lookup only returns the route numbers which exist.
+        Map<String, List<Route>> routes = routeService.getRoutesByCompanyAndRouteNumbers("Mustermann Bus GmbH", List.of("2", "1A", "3"));
+        assertEquals(List.of("2", "1A"), List.copyOf(routes.keySet()));
+        assertEquals("2", routeService.getRoutesByCompanyAndRouteNumber("Mustermann Bus GmbH", "2").get(0).getId());
+        assertEquals(2, routeService.getRoutesByCompany("Mustermann Bus GmbH").size());
+        Mockito.verify(routeRepository, Mockito.times(1)).findByCompany("Mustermann Bus GmbH");
+        assertEquals(1, routeService.getCacheMisses());
+        assertEquals(2, routeService.getCacheHits());
+        assertEquals(2.0, meterRegistry.get("trams.routeCache.hits").functionCounter().count());
+        //Adding a route invalidates the routes of the company.
+        Mockito.when(routeRepository.save(any())).thenReturn(Route.builder().routeNumber("3").company("Mustermann Bus GmbH").build());
+        routeService.addRoute(Route.builder().routeNumber("3").company("Mustermann Bus GmbH").build());
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        Mockito.verify(routeRepository, Mockito.times(2)).findByCompany("Mustermann Bus GmbH");
+        //The company which was used least recently is evicted if the cache is full.
+        routeService.getRoutesByCompany("Lee Transport");
+        routeService.getRoutesByCompany("Bus Company");
+        assertEquals(1, routeService.getCacheEvictions());
+        routeService.getRoutesByCompany("Bus Company");
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        Mockito.verify(routeRepository, Mockito.times(3)).findByCompany("Mustermann Bus GmbH");
+        Mockito.verify(routeRepository, Mockito.times(1)).findByCompany("Bus Company");
+    }
+
+    /**
+     * Verify that invalidations are shared with the other server nodes and that invalidations of the other server
+     * nodes are applied to the cache.
+     */
+    @Test
+    public void testSharedInvalidation ( ) {
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        routeService.invalidateRoutes("Mustermann Bus GmbH");
+        Mockito.verify(cacheInvalidationService, Mockito.times(1)).publish("routes", "Mustermann Bus GmbH");
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        //Invalidations of other caches are ignored.
+        routeService.onCacheInvalidation(CacheInvalidation.builder().cache("stopTimes").company("Mustermann Bus GmbH").build());
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        Mockito.verify(routeRepository, Mockito.times(2)).findByCompany("Mustermann Bus GmbH");
+        routeService.onCacheInvalidation(CacheInvalidation.builder().cache("routes").company("Mustermann Bus GmbH").build());
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        routeService.onCacheInvalidation(CacheInvalidation.builder().cache("routes").build());
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        Mockito.verify(routeRepository, Mockito.times(4)).findByCompany("Mustermann Bus GmbH");
+        //Invalidations of other server nodes are not shared again.
+        Mockito.verify(cacheInvalidationService, Mockito.times(1)).publish(Mockito.anyString(), Mockito.any());
+    }
+
+    /**
+     * Verify that routes are loaded again once they have expired.
+     * @throws Exception if the time to live cannot be set.
+     */
+    @Test
+    public void testRouteCacheExpiry ( ) throws Exception {
+        FieldUtils.writeField(routeService, "timeToLiveSeconds", -1L, true);
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        routeService.getRoutesByCompany("Mustermann Bus GmbH");
+        Mockito.verify(routeRepository, Mockito.times(2)).findByCompany("Mustermann Bus GmbH");
+        assertEquals(0, routeService.getCacheHits());
     }
 
     /**
@@ -0,0 +1,80 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.RouteSchedule;
+import de.davelee.trams.server.model.ServiceState;
+import de.davelee.trams.server.model.ServiceTrip;
+import de.davelee.trams.server.model.Stop;
+import de.davelee.trams.server.repository.ServiceStateRepository;
+import de.davelee.trams.server.request.ServiceChangeRequest;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the ServiceStateService class and ensures that service states are written with single writes and
+ * applied to services without changing them. Mocks are used for the database layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class ServiceStateServiceTest {
+
+    @InjectMocks
+    private ServiceStateService serviceStateService;
+
+    @Mock
+    private ServiceStateRepository serviceStateRepository;
+
+    /**
+     * Verify that a change of a service is saved as a single service state and a reset deletes all states.
+     */
+    @Test
+    public void testUpdateAndResetServiceStates ( ) {
+        serviceStateService.updateServiceState(ServiceChangeRequest.builder()
+                .company("Mustermann Bus GmbH")
+                .scheduleId("1/1")
+                .serviceId("2")
+                .outOfService(true)
+                .build());
+        Mockito.verify(serviceStateRepository, Mockito.times(1)).save(Mockito.argThat(serviceState ->
+                "Mustermann Bus GmbH/1/1/2".equals(serviceState.getId()) && serviceState.isOutOfService()));
+        Mockito.when(serviceStateRepository.deleteByCompany("Mustermann Bus GmbH")).thenReturn(1L);
+        assertEquals(1, serviceStateService.resetServiceStates("Mustermann Bus GmbH"));
+        Mockito.verify(serviceStateRepository, Mockito.never()).findByCompany(Mockito.anyString());
+    }
+
+    /**
+     * Verify that the state of a service is applied to a copy of the service and services without state run normally.
+     */
+    @Test
+    public void testApplyServiceState ( ) {
+        Mockito.when(serviceStateRepository.findByCompany("Mustermann Bus GmbH")).thenReturn(List.of(
+                ServiceState.builder().id("Mustermann Bus GmbH/1/1/2").company("Mustermann Bus GmbH").scheduleId("1/1").serviceId("2")
+                        .outOfService(true).tempStartStopPos(1).tempEndStopPos(1).build()));
+        Map<String, ServiceState> serviceStates = serviceStateService.getServiceStates("Mustermann Bus GmbH");
+        assertEquals(1, serviceStates.size());
+        ServiceTrip service = ServiceTrip.builder()
+                .serviceId("2")
+                .routeSchedule(RouteSchedule.builder().routeNumber("1").scheduleId("1").build())
+                .stopList(List.of(Stop.builder().name("Lakeside").build(), Stop.builder().name("Greenfield").build(), Stop.builder().name("Airport").build()))
+                .build();
+        ServiceTrip changedService = ServiceStateService.applyServiceState("Mustermann Bus GmbH", service, serviceStates);
+        assertTrue(changedService.isOutOfService());
+        assertEquals(1, changedService.getTempStartStopPos());
+        assertFalse(service.isOutOfService());
+        //Without state the service runs from the first to the last stop.
+        service.setServiceId("3");
+        ServiceTrip normalService = ServiceStateService.applyServiceState("Mustermann Bus GmbH", service, serviceStates);
+        assertFalse(normalService.isOutOfService());
+        assertEquals(0, normalService.getTempStartStopPos());
+        assertEquals(2, normalService.getTempEndStopPos());
+        assertNull(ServiceStateService.applyServiceState("Mustermann Bus GmbH", null, serviceStates));
+    }
+
+}
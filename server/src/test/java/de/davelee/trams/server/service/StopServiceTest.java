@@ -87,14 +87,8 @@ public class StopServiceTest {
     @Test
     public void testDeleteStop ( ) {
         //Mock important method in repository.
-        Mockito.when(stopRepository.findByCompany("Mustermann Bus GmbH")).thenReturn(Lists.newArrayList(Stop.builder()
-                .id("123")
-                .name("Greenfield")
-                .latitude(50.03)
-                .longitude(123.04)
-                .company("Mustermann Bus GmbH")
-                .build()));
+        Mockito.when(stopRepository.deleteByCompany("Mustermann Bus GmbH")).thenReturn(1L);
         //Do test.
-        stopService.deleteStops("Mustermann Bus GmbH");
+        assertEquals(1L, stopService.deleteStops("Mustermann Bus GmbH"));
     }
 }
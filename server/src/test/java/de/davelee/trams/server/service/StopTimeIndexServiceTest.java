@@ -0,0 +1,200 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.CacheInvalidation;
+import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.model.StopTimeIndex;
+import de.davelee.trams.server.model.TimetableSnapshot;
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the StopTimeIndexService class and ensures that indexes are cached and invalidated correctly.
+ * @author Dave Lee
+ */
+public class StopTimeIndexServiceTest {
+
+    /**
+     * Verify that an index is only loaded once and reloaded after it has been invalidated.
+     * @throws Exception if the service cannot be created.
+     */
+    @Test
+    public void testLoadAndInvalidate ( ) throws Exception {
+        StopTimeIndexService stopTimeIndexService = createStopTimeIndexService(Mockito.mock(CacheInvalidationService.class));
+        AtomicInteger loadCounter = new AtomicInteger();
+        //Load the index twice which should only access the loader once.
+        stopTimeIndexService.getIndex("Mustermann Bus GmbH", "Lakeside", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        stopTimeIndexService.getIndex("Mustermann Bus GmbH", "Lakeside", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(1, loadCounter.get());
+        //Other stops and the journey planning timetable share the snapshot of the company.
+        stopTimeIndexService.getIndex("Mustermann Bus GmbH", "Greenfield", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        stopTimeIndexService.getTimetable("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(1, loadCounter.get());
+        //Invalidating another company should not affect the index.
+        stopTimeIndexService.invalidate("Lee Transport");
+        stopTimeIndexService.getIndex("Mustermann Bus GmbH", "Lakeside", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(1, loadCounter.get());
+        //Invalidating the company should cause the index to be loaded again.
+        stopTimeIndexService.invalidate("Mustermann Bus GmbH");
+        stopTimeIndexService.getIndex("Mustermann Bus GmbH", "Lakeside", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(2, loadCounter.get());
+        stopTimeIndexService.invalidateAll();
+        stopTimeIndexService.getIndex("Mustermann Bus GmbH", "Lakeside", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(3, loadCounter.get());
+    }
+
+    /**
+     * Verify that invalidations are shared with the other server nodes and that invalidations of the other server
+     * nodes are applied to the snapshots.
+     * @throws Exception if the service cannot be created.
+     */
+    @Test
+    public void testSharedInvalidation ( ) throws Exception {
+        CacheInvalidationService cacheInvalidationService = Mockito.mock(CacheInvalidationService.class);
+        StopTimeIndexService stopTimeIndexService = createStopTimeIndexService(cacheInvalidationService);
+        AtomicInteger loadCounter = new AtomicInteger();
+        stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        stopTimeIndexService.invalidate("Mustermann Bus GmbH");
+        stopTimeIndexService.invalidateAll();
+        Mockito.verify(cacheInvalidationService, Mockito.times(1)).publish("stopTimes", "Mustermann Bus GmbH");
+        Mockito.verify(cacheInvalidationService, Mockito.times(1)).publish("stopTimes", null);
+        //Invalidations of other caches are ignored.
+        stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        stopTimeIndexService.onCacheInvalidation(CacheInvalidation.builder().cache("routes").company("Mustermann Bus GmbH").build());
+        stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(2, loadCounter.get());
+        stopTimeIndexService.onCacheInvalidation(CacheInvalidation.builder().cache("stopTimes").company("Mustermann Bus GmbH").build());
+        stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        stopTimeIndexService.onCacheInvalidation(CacheInvalidation.builder().cache("stopTimes").build());
+        stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(4, loadCounter.get());
+        //Invalidations of other server nodes are not shared again.
+        Mockito.verify(cacheInvalidationService, Mockito.times(2)).publish(Mockito.anyString(), Mockito.any());
+    }
+
+    /**
+     * Verify that concurrent requests for a company wait for the same load, that a failed load is not cached and that
+     * an invalidation during a load causes the next request to load the company again.
+     * @throws Exception if the service cannot be created.
+     */
+    @Test
+    public void testConcurrentLoad ( ) throws Exception {
+        StopTimeIndexService stopTimeIndexService = createStopTimeIndexService(Mockito.mock(CacheInvalidationService.class));
+        AtomicInteger loadCounter = new AtomicInteger();
+        try ( ExecutorService executorService = Executors.newFixedThreadPool(2) ) {
+            CountDownLatch loadStarted = new CountDownLatch(1);
+            CountDownLatch loadReleased = new CountDownLatch(1);
+            Supplier<Stream<StopTime>> blockingLoader = createBlockingLoader(loadCounter, loadStarted, loadReleased);
+            Future<TimetableSnapshot> firstSnapshot = executorService.submit(() -> stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", blockingLoader));
+            assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+            Future<TimetableSnapshot> secondSnapshot = executorService.submit(() -> stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", blockingLoader));
+            //Other companies are not blocked by the load.
+            assertEquals(0, stopTimeIndexService.getSnapshot("Lee Transport", Stream::empty).size());
+            loadReleased.countDown();
+            assertSame(firstSnapshot.get(5, TimeUnit.SECONDS), secondSnapshot.get(5, TimeUnit.SECONDS));
+            assertEquals("Mustermann Bus GmbH", firstSnapshot.get().getCompany());
+            assertEquals(1, loadCounter.get());
+            //An invalidation during a load is not blocked by the load and the loaded snapshot is not cached.
+            stopTimeIndexService.invalidate("Mustermann Bus GmbH");
+            CountDownLatch reloadStarted = new CountDownLatch(1);
+            CountDownLatch reloadReleased = new CountDownLatch(1);
+            Future<TimetableSnapshot> reloadedSnapshot = executorService.submit(() -> stopTimeIndexService.getSnapshot("Mustermann Bus GmbH",
+                    createBlockingLoader(loadCounter, reloadStarted, reloadReleased)));
+            assertTrue(reloadStarted.await(5, TimeUnit.SECONDS));
+            stopTimeIndexService.invalidate("Mustermann Bus GmbH");
+            reloadReleased.countDown();
+            assertEquals(1, reloadedSnapshot.get(5, TimeUnit.SECONDS).size());
+        }
+        stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(3, loadCounter.get());
+        //A failed load is not cached.
+        stopTimeIndexService.invalidate("Mustermann Bus GmbH");
+        assertThrows(IllegalStateException.class, () -> stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { throw new IllegalStateException(); }));
+        stopTimeIndexService.getSnapshot("Mustermann Bus GmbH", () -> { loadCounter.incrementAndGet(); return Stream.empty(); });
+        assertEquals(4, loadCounter.get());
+    }
+
+    /**
+     * Verify that the index returns the stop times within a time range in the correct order.
+     * @throws Exception if the service cannot be created.
+     */
+    @Test
+    public void testTimesBetween ( ) throws Exception {
+        StopTimeIndex stopTimeIndex = createStopTimeIndexService(Mockito.mock(CacheInvalidationService.class)).getIndex("Mustermann Bus GmbH", "Lakeside", () -> Stream.of(
+                createStopTime(LocalTime.of(17,21), "103"),
+                createStopTime(LocalTime.of(16,11), "101"),
+                createStopTime(LocalTime.of(16,41), "102"),
+                createStopTime(LocalTime.of(20,21), "104")));
+        assertEquals(4, stopTimeIndex.size());
+        List<StopTime> stopTimes = stopTimeIndex.getTimesBetween("Departure", LocalTime.of(16,11), LocalTime.of(18,0), stopTime -> true, 10);
+        assertEquals(3, stopTimes.size());
+        assertEquals("101", stopTimes.get(0).getJourneyNumber());
+        assertEquals("102", stopTimes.get(1).getJourneyNumber());
+        assertEquals("103", stopTimes.get(2).getJourneyNumber());
+        //Seconds in the starting time should exclude the stop time at the start of the minute.
+        assertEquals("102", stopTimeIndex.getTimesBetween("Departure", LocalTime.of(16,11,30), LocalTime.of(18,0), stopTime -> true, 1).getFirst().getJourneyNumber());
+        //Filter and limit should be respected.
+        assertEquals(1, stopTimeIndex.getTimesBetween("Arrival", LocalTime.MIDNIGHT, LocalTime.of(23,59), stopTime -> !stopTime.getJourneyNumber().contentEquals("101"), 1).size());
+        assertEquals("103", stopTimeIndex.getStopTimes().getFirst().getJourneyNumber());
+        assertEquals("104", stopTimeIndex.getSortedStopTimes("Departure").getLast().getJourneyNumber());
+    }
+
+    /**
+     * Private helper method to create the service with the supplied service for sharing invalidations.
+     * @param cacheInvalidationService a <code>CacheInvalidationService</code> object to share invalidations with.
+     * @return a <code>StopTimeIndexService</code> object which can be tested.
+     * @throws Exception if the field cannot be set.
+     */
+    private StopTimeIndexService createStopTimeIndexService ( final CacheInvalidationService cacheInvalidationService ) throws Exception {
+        StopTimeIndexService stopTimeIndexService = new StopTimeIndexService();
+        FieldUtils.writeField(stopTimeIndexService, "cacheInvalidationService", cacheInvalidationService, true);
+        return stopTimeIndexService;
+    }
+
+    /**
+     * Private helper method to create a loader which blocks until it is released.
+     * @param loadCounter a <code>AtomicInteger</code> which counts the loads.
+     * @param loadStarted a <code>CountDownLatch</code> which is counted down when the load starts.
+     * @param loadReleased a <code>CountDownLatch</code> which releases the load.
+     * @return a <code>Supplier</code> which streams a single stop time once it has been released.
+     */
+    private Supplier<Stream<StopTime>> createBlockingLoader ( final AtomicInteger loadCounter, final CountDownLatch loadStarted, final CountDownLatch loadReleased ) {
+        return () -> {
+            loadCounter.incrementAndGet();
+            loadStarted.countDown();
+            try {
+                loadReleased.await();
+            } catch ( InterruptedException interruptedException ) {
+                Thread.currentThread().interrupt();
+            }
+            return Stream.of(createStopTime(LocalTime.of(16,11), "101"));
+        };
+    }
+
+    /**
+     * Private helper method to create test stop time data.
+     * @param time a <code>LocalTime</code> object containing the desired arrival and departure time.
+     * @param journeyNumber a <code>String</code> containing the journey number.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createStopTime ( final LocalTime time, final String journeyNumber ) {
+        return StopTime.builder()
+                .arrivalTime(time)
+                .departureTime(time)
+                .destination("Greenfield")
+                .journeyNumber(journeyNumber)
+                .routeNumber("405A")
+                .stopName("Lakeside")
+                .build();
+    }
+
+}
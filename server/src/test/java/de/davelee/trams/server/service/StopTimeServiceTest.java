@@ -1,20 +1,30 @@
 package de.davelee.trams.server.service;
 
-import de.davelee.trams.server.model.OperatingDays;
-import de.davelee.trams.server.model.StopTime;
+import de.davelee.trams.server.model.*;
+import de.davelee.trams.server.repository.CompilationActivationRepository;
 import de.davelee.trams.server.repository.StopTimeRepository;
+import de.davelee.trams.server.repository.TripRepository;
+import de.davelee.trams.server.request.GenerateStopTimesRequest;
+import org.apache.commons.lang.reflect.FieldUtils;
 import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -32,13 +42,41 @@ public class StopTimeServiceTest {
     @Mock
     private StopTimeRepository stopTimeRepository;
 
+    @Mock
+    private TripRepository tripRepository;
+
+    @Mock
+    private CompilationActivationRepository compilationActivationRepository;
+
+    @Spy
+    private StopTimeIndexService stopTimeIndexService = new StopTimeIndexService();
+
+    @Mock
+    private ServiceStateService serviceStateService;
+
+    @Mock
+    private CacheInvalidationService cacheInvalidationService;
+
+    @Mock
+    private ImportGenerationService importGenerationService;
+
+    /**
+     * Initialise the spring properties which otherwise with Mockito would not be set
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setSpringProperties() throws Exception {
+        FieldUtils.writeField(stopTimeService, "batchSize", 5, true);
+        FieldUtils.writeField(stopTimeIndexService, "cacheInvalidationService", cacheInvalidationService, true);
+    }
+
     /**
      * Verify that stop times can be retrieved from the database correctly.
      */
     @Test
     public void testService ( ) {
         //Test data
-        Mockito.when(stopTimeRepository.findByCompanyAndStopName("Mustermann Bus GmbH", "Lakeside")).thenReturn(Lists.newArrayList(
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> Stream.of(
                 createStopTime(LocalTime.of(16,11), LocalTime.of(16,12), "101", 1),
                 createStopTime(LocalTime.of(16,41), LocalTime.of(16,42), "102", 2),
                 createStopTime(LocalTime.of(17,21), LocalTime.of(17,22), "103", 3),
@@ -97,13 +135,52 @@ public class StopTimeServiceTest {
         assertEquals(LocalTime.of(23,22), stopTimeDepartureDateList.getLast().getDepartureTime());
     }
 
+    /**
+     * Verify that the departures of a date range are calculated for each date with a single retrieval.
+     */
+    @Test
+    public void testDeparturesByDateRange ( ) {
+        //Test data - the second stop time only runs on Saturdays but is valid for longer.
+        StopTime saturdayStopTime = createStopTime(LocalTime.of(8,59), LocalTime.of(9,0), "102", 2);
+        saturdayStopTime.setOperatingDays(OperatingDays.builder().operatingDays(List.of(DayOfWeek.SATURDAY)).build());
+        saturdayStopTime.setValidToDate(LocalDateTime.of(2022,12,31,0,0));
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> Stream.of(
+                createStopTime(LocalTime.of(9,59), LocalTime.of(10,0), "101", 1), saturdayStopTime));
+        //Friday to Monday where the first stop time is only valid until Saturday.
+        List<StopTimeService.DateStopTimes> dateStopTimes = stopTimeService.getDeparturesByDateRange("Lakeside", "Mustermann Bus GmbH",
+                LocalDate.of(2021,12,10), LocalDate.of(2021,12,13), "").toList();
+        assertEquals(4, dateStopTimes.size());
+        assertEquals(List.of("101"), dateStopTimes.get(0).stopTimes().stream().map(StopTime::getJourneyNumber).toList());
+        assertEquals(List.of("102", "101"), dateStopTimes.get(1).stopTimes().stream().map(StopTime::getJourneyNumber).toList());
+        assertTrue(dateStopTimes.get(2).stopTimes().isEmpty());
+        assertEquals(LocalDate.of(2021,12,13), dateStopTimes.get(3).date());
+        assertTrue(dateStopTimes.get(3).stopTimes().isEmpty());
+        //The results for a single date are the same as the departures by date.
+        assertEquals(2, stopTimeService.getDeparturesByDate("Lakeside", "Mustermann Bus GmbH", "11-12-2021 00:00", "").size());
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any());
+    }
+
+    /**
+     * Verify that the first and last day of the validity window are included in the departures of a date.
+     */
+    @Test
+    public void testDeparturesByDateValidityBoundaries ( ) {
+        //The stop time runs daily and is valid from 12-12-2020 until 11-12-2021.
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> Stream.of(
+                createStopTime(LocalTime.of(9,59), LocalTime.of(10,0), "101", 1)));
+        assertTrue(stopTimeService.getDeparturesByDate("Lakeside", "Mustermann Bus GmbH", "11-12-2020 00:00", "").isEmpty());
+        assertEquals(1, stopTimeService.getDeparturesByDate("Lakeside", "Mustermann Bus GmbH", "12-12-2020 00:00", "").size());
+        assertEquals(1, stopTimeService.getDeparturesByDate("Lakeside", "Mustermann Bus GmbH", "11-12-2021 00:00", "").size());
+        assertTrue(stopTimeService.getDeparturesByDate("Lakeside", "Mustermann Bus GmbH", "12-12-2021 00:00", "").isEmpty());
+    }
+
     /**
      * Verify that the logic of 3 departures after 22:00 works successfully.
      */
     @Test
     public void testStopTimesAfter2200 ( ) {
         //Test data
-        Mockito.when(stopTimeRepository.findByCompanyAndStopName("Mustermann Bus GmbH", "Lakeside")).thenReturn(Lists.newArrayList(
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> Stream.of(
                 createStopTime(LocalTime.of(22,11), LocalTime.of(22,12), "106", 1),
                 createStopTime(LocalTime.of(23,21), LocalTime.of(23,22), "107", 2),
                 createStopTime(LocalTime.of(23,58), LocalTime.of(23,59), "108", 3)
@@ -122,7 +199,7 @@ public class StopTimeServiceTest {
     @Test
     public void testStopTimesAfterDuplicate ( ) {
         //Test data
-        Mockito.when(stopTimeRepository.findByCompanyAndStopName("Mustermann Bus GmbH", "Lakeside")).thenReturn(Lists.newArrayList(
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> Stream.of(
                 createStopTime(LocalTime.of(10,21), LocalTime.of(10,22), "107", 2),
                 createStopTime(LocalTime.of(10,21), LocalTime.of(10,22), "107", 2),
                 createStopTime(LocalTime.of(10,58), LocalTime.of(10,59), "108", 3)
@@ -152,24 +229,198 @@ public class StopTimeServiceTest {
     @Test
     public void testAddStopTimes ( ) {
         //Test data.
-        List<StopTime> stopTimeList = List.of(createStopTime(LocalTime.of(8,15), LocalTime.of(8,17), "1", 1));
+        List<StopTime> stopTimeList = List.of(createStopTime(LocalTime.of(8,15), LocalTime.of(8,17), "1", 1),
+                createStopTime(LocalTime.of(8,45), LocalTime.of(8,47), "2", 1));
+        stopTimeList.forEach(stopTime -> stopTime.setCompany("Mustermann Bus GmbH"));
         //Run actual test - in positive case.
-        Mockito.when(stopTimeRepository.save(any())).thenReturn(createStopTime(LocalTime.of(8,15), LocalTime.of(8,17), "1", 1));
+        Mockito.when(stopTimeRepository.insertUnordered(stopTimeList)).thenReturn(2);
         assertTrue(stopTimeService.addStopTimes(stopTimeList));
+        //The snapshot of the company is invalidated once and only after the stop times have been written.
+        InOrder inOrder = Mockito.inOrder(stopTimeRepository, stopTimeIndexService);
+        inOrder.verify(stopTimeRepository).insertUnordered(stopTimeList);
+        inOrder.verify(stopTimeIndexService).invalidate("Mustermann Bus GmbH");
         //Run actual test - in negative case.
-        Mockito.when(stopTimeRepository.save(any())).thenReturn(null);
+        Mockito.when(stopTimeRepository.insertUnordered(stopTimeList)).thenReturn(0);
         assertFalse(stopTimeService.addStopTimes(stopTimeList));
+        Mockito.verify(stopTimeRepository, Mockito.never()).save(any());
+        Mockito.verify(stopTimeIndexService, Mockito.times(2)).invalidate("Mustermann Bus GmbH");
     }
 
     /**
-     * Verify that counting stop times works successfully.
+     * Verify that counting stop times works successfully and only counts the stop times visible with the active generation.
      */
     @Test
     public void testCountStopTimes ( ) {
-        Mockito.when(stopTimeRepository.countByCompanyAndStopNameAndRouteNumber("Mustermann GmbH", "City Centre", "1A")).thenReturn(1L);
+        Mockito.when(importGenerationService.getActiveGeneration("Mustermann GmbH")).thenReturn("1");
+        Mockito.when(stopTimeRepository.countVisible("Mustermann GmbH", "City Centre", "1A", "1")).thenReturn(1L);
         assertEquals(1, stopTimeService.countStopTimes("Mustermann GmbH", "City Centre", "1A"));
     }
 
+    /**
+     * Verify that the positions of all vehicles are calculated with the stop times of the company loaded only once.
+     */
+    @Test
+    public void testRetrievePositionsForVehicles ( ) {
+        //Test data - two tours on route 405A.
+        List<StopTime> stopTimes = List.of(
+                createTourStopTime("Lakeside", LocalTime.of(8,0), "1"),
+                createTourStopTime("Old Town", LocalTime.of(8,10), "1"),
+                createTourStopTime("Greenfield", LocalTime.of(8,20), "1"),
+                createTourStopTime("Lakeside", LocalTime.of(8,30), "2"),
+                createTourStopTime("Old Town", LocalTime.of(8,40), "2"),
+                createTourStopTime("Greenfield", LocalTime.of(8,50), "2"));
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> stopTimes.stream());
+        //The first tour has been shortened.
+        Mockito.when(serviceStateService.getServiceStates("Mustermann Bus GmbH")).thenReturn(Map.of("Mustermann Bus GmbH/405A/1/1",
+                ServiceState.builder().id("Mustermann Bus GmbH/405A/1/1").tempStartStopPos(1).tempEndStopPos(1).build()));
+        List<Vehicle> vehicles = List.of(
+                Vehicle.builder().fleetNumber("201").allocatedTour("405A/1").delayInMinutes(0).build(),
+                Vehicle.builder().fleetNumber("202").allocatedTour("405A/2").delayInMinutes(0).build(),
+                Vehicle.builder().fleetNumber("203").allocatedTour("405A/1").delayInMinutes(15).build());
+        //Run actual test.
+        Map<String, Position> positions = stopTimeService.retrievePositionsForVehicles("Mustermann Bus GmbH", vehicles,
+                LocalDateTime.of(2021,3,15,8,15));
+        assertEquals(3, positions.size());
+        assertEquals("Old Town", positions.get("201").getStop());
+        assertEquals("Depot", positions.get("202").getStop());
+        assertEquals("Lakeside", positions.get("203").getStop());
+        assertEquals(15, positions.get("203").getDelay());
+        assertEquals(1, positions.get("201").getService().getTempEndStopPos());
+        assertFalse(positions.get("201").getService().isOutOfService());
+        Mockito.verify(stopTimeRepository, Mockito.times(1)).streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any());
+        Mockito.verify(serviceStateService, Mockito.times(1)).getServiceStates("Mustermann Bus GmbH");
+        //The state is not stored in the stop times.
+        assertEquals(0, stopTimes.get(1).getService().getTempEndStopPos());
+        //The single position should be the same as the position in the fleet-wide calculation.
+        assertEquals("Old Town", stopTimeService.retrievePositionForAllocatedTour("Mustermann Bus GmbH", "405A/1",
+                LocalDateTime.of(2021,3,15,8,15), 0).getStop());
+        //After the last departure the tour is back in the depot.
+        assertEquals("Depot", stopTimeService.retrievePositionForAllocatedTour("Mustermann Bus GmbH", "405A/1",
+                LocalDateTime.of(2021,3,15,9,15), 0).getStop());
+    }
+
+    /**
+     * Verify that only the trips referenced by the stop times are loaded with a single query per batch and shared by
+     * their stop times.
+     */
+    @Test
+    public void testLoadTrips ( ) {
+        List<StopTime> stopTimes = List.of(
+                createTourStopTime("Lakeside", LocalTime.of(8,0), "1"),
+                createTourStopTime("Old Town", LocalTime.of(8,10), "1"),
+                createTourStopTime("Greenfield", LocalTime.of(8,20), "1"));
+        //The first two stop times only store the id of their trip - the last one still embeds its service.
+        stopTimes.get(0).setService(null);
+        stopTimes.get(0).setTripId("trip1");
+        stopTimes.get(1).setService(null);
+        stopTimes.get(1).setTripId("trip1");
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> stopTimes.stream());
+        Mockito.when(tripRepository.findAllById(Set.of("trip1"))).thenReturn(List.of(Trip.builder().id("trip1").serviceId("1")
+                .routeSchedule(RouteSchedule.builder().routeNumber("405A").scheduleId("1").build()).build()));
+        Position position = stopTimeService.retrievePositionForAllocatedTour("Mustermann Bus GmbH", "405A/1", LocalDateTime.of(2021,3,15,8,15), 0);
+        assertEquals("Old Town", position.getStop());
+        assertEquals("1", position.getService().getServiceId());
+        assertSame(stopTimes.get(0).getService(), stopTimes.get(1).getService());
+        Mockito.verify(tripRepository, Mockito.times(1)).findAllById(Mockito.any());
+        //Services which are embedded are migrated in batches.
+        Mockito.when(stopTimeRepository.migrateEmbeddedTrips(5)).thenReturn(12L);
+        assertEquals(12, stopTimeService.migrateTrips());
+    }
+
+    /**
+     * Verify that only the compiled trips of the activated compilation of a timetable are loaded.
+     */
+    @Test
+    public void testLoadActivatedCompilation ( ) {
+        List<StopTime> stopTimes = List.of(
+                createTourStopTime("Lakeside", LocalTime.of(8,0), "1"),
+                createTourStopTime("Lakeside", LocalTime.of(8,10), "2"),
+                createTourStopTime("Lakeside", LocalTime.of(8,20), "3"));
+        stopTimes.get(0).setTimetableName("Spring");
+        stopTimes.get(0).setTripHash("abc");
+        stopTimes.get(1).setTimetableName("Spring");
+        stopTimes.get(1).setTripHash("def");
+        Mockito.when(stopTimeRepository.streamVisible(Mockito.eq("Mustermann Bus GmbH"), Mockito.any())).thenAnswer(invocation -> stopTimes.stream());
+        Mockito.when(compilationActivationRepository.findByCompany("Mustermann Bus GmbH")).thenReturn(List.of(CompilationActivation.builder()
+                .id("Mustermann Bus GmbH/405A/Spring")
+                .tripHashes(List.of("abc"))
+                .build()));
+        //The trip which is not activated is hidden while the stop time which was not compiled stays visible.
+        List<StopTime> departures = stopTimeService.getDeparturesByDate("Lakeside", "Mustermann Bus GmbH", "10-04-2021 00:00", "");
+        assertEquals(List.of(LocalTime.of(8,0), LocalTime.of(8,20)), departures.stream().map(StopTime::getDepartureTime).toList());
+    }
+
+    /**
+     * Verify that stop times are generated in memory for all tours and saved in bulk writes.
+     */
+    @Test
+    public void testGenerateStopTimes ( ) {
+        GenerateStopTimesRequest generateStopTimesRequest = GenerateStopTimesRequest.builder()
+                .company("Mustermann Bus GmbH")
+                .stopNames(new String[] { "Lakeside", "Greenfield", "Airport" })
+                .startStop("Lakeside")
+                .endStop("Airport")
+                .stopDistances(new String[] { "Lakeside:0,5,12", "Greenfield:5,0,7", "Airport:12,7,0" })
+                .routeNumber("1")
+                .startTime("06:00")
+                .endTime("07:00")
+                .frequency(10)
+                .numTours(2)
+                .validFromDate("01-03-2021")
+                .validToDate("31-03-2021")
+                .operatingDays("Monday,Tuesday")
+                .build();
+        List<StopTime> stopTimes = stopTimeService.calculateStopTimes(generateStopTimesRequest);
+        //4 outgoing and 4 return trips for each of the 2 tours serving 3 stops.
+        assertEquals(48, stopTimes.size());
+        //The times are the same as calculated with the distances between the stops.
+        assertEquals(LocalTime.of(6,10).plusMinutes(stopTimeService.getDistanceBetweenStop("Lakeside", "Lakeside", generateStopTimesRequest.getStopDistances())), stopTimes.get(0).getDepartureTime());
+        assertEquals(LocalTime.of(6,14), stopTimes.get(1).getDepartureTime());
+        assertEquals(LocalTime.of(6,21), stopTimes.get(2).getDepartureTime());
+        assertEquals("Airport", stopTimes.get(2).getDestination());
+        //The return trip starts after half of the duration.
+        assertEquals("Airport", stopTimes.get(3).getStopName());
+        assertEquals(LocalTime.of(6,26), stopTimes.get(4).getDepartureTime());
+        assertEquals(LocalTime.of(6,31), stopTimes.get(5).getDepartureTime());
+        assertEquals("Lakeside", stopTimes.get(5).getDestination());
+        assertEquals("2", stopTimes.get(5).getService().getServiceId());
+        assertEquals("2", stopTimes.get(24).getService().getRouteSchedule().getScheduleId());
+        //The calendar is only parsed once.
+        assertSame(stopTimes.get(0).getOperatingDays(), stopTimes.get(47).getOperatingDays());
+        assertEquals(LocalDateTime.of(2021,3,1,12,0), stopTimes.get(47).getValidFromDate());
+        //The stop times are saved in batches.
+        Mockito.when(stopTimeRepository.insertUnordered(Mockito.anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+        assertEquals(48, stopTimeService.generateStopTimes(generateStopTimesRequest));
+        Mockito.verify(stopTimeRepository, Mockito.times(10)).insertUnordered(Mockito.anyList());
+        Mockito.verify(stopTimeRepository, Mockito.never()).save(any());
+        //No stop times are generated without tours.
+        generateStopTimesRequest.setNumTours(0);
+        assertTrue(stopTimeService.calculateStopTimes(generateStopTimesRequest).isEmpty());
+        //Services which run past midnight wrap around to the next day.
+        generateStopTimesRequest.setNumTours(2);
+        generateStopTimesRequest.setStartTime("23:00");
+        generateStopTimesRequest.setEndTime("00:00");
+        stopTimes = stopTimeService.calculateStopTimes(generateStopTimesRequest);
+        assertEquals(48, stopTimes.size());
+        assertEquals(LocalTime.of(23,10), stopTimes.get(0).getDepartureTime());
+        assertEquals(LocalTime.of(0,10), stopTimes.get(18).getDepartureTime());
+    }
+
+    /**
+     * Private helper method to create test stop time data for a tour.
+     * @param stopName a <code>String</code> with the name of the stop.
+     * @param departureTime a <code>LocalTime</code> object containing the desired departure time.
+     * @param scheduleId a <code>String</code> with the id of the schedule running the stop time.
+     * @return a <code>StopTime</code> object which contains the test data.
+     */
+    private StopTime createTourStopTime ( final String stopName, final LocalTime departureTime, final String scheduleId ) {
+        StopTime stopTime = createStopTime(departureTime, departureTime, scheduleId, 1);
+        stopTime.setStopName(stopName);
+        stopTime.setCompany("Mustermann Bus GmbH");
+        stopTime.setService(ServiceTrip.builder().serviceId("1").routeSchedule(RouteSchedule.builder().routeNumber("405A").scheduleId(scheduleId).build()).build());
+        return stopTime;
+    }
+
     /**
      * Private helper method to create test stop time data.
      * @param arrivalTime a <code>LocalTime</code> object containing the desired arrival time.
@@ -0,0 +1,233 @@
+package de.davelee.trams.server.service;
+
+import de.davelee.trams.server.model.*;
+import de.davelee.trams.server.repository.CompilationActivationRepository;
+import de.davelee.trams.server.repository.StopTimeRepository;
+import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the TimetableCompilationService class and ensures that timetables are compiled into stop times
+ * and that only changed trips are saved or deleted when a timetable is compiled again. Mocks are used for the database layer.
+ * @author Dave Lee
+ */
+@SpringBootTest
+public class TimetableCompilationServiceTest {
+
+    @InjectMocks
+    private TimetableCompilationService timetableCompilationService;
+
+    @Mock
+    private RouteService routeService;
+
+    @Mock
+    private StopService stopService;
+
+    @Mock
+    private StopTimeRepository stopTimeRepository;
+
+    @Mock
+    private CompilationActivationRepository compilationActivationRepository;
+
+    /**
+     * Use a stop time service with the mocked database layer so that the stop times are really calculated.
+     * @throws Exception if the fields cannot be set
+     */
+    @BeforeEach
+    public void setStopTimeService() throws Exception {
+        StopTimeService stopTimeService = new StopTimeService();
+        FieldUtils.writeField(stopTimeService, "stopTimeRepository", stopTimeRepository, true);
+        FieldUtils.writeField(stopTimeService, "compilationActivationRepository", compilationActivationRepository, true);
+        StopTimeIndexService stopTimeIndexService = new StopTimeIndexService();
+        FieldUtils.writeField(stopTimeIndexService, "cacheInvalidationService", Mockito.mock(CacheInvalidationService.class), true);
+        FieldUtils.writeField(stopTimeService, "stopTimeIndexService", stopTimeIndexService, true);
+        FieldUtils.writeField(stopTimeService, "batchSize", 50, true);
+        FieldUtils.writeField(timetableCompilationService, "stopTimeService", stopTimeService, true);
+        Mockito.when(routeService.getRoutesByCompanyAndRouteNumber("Mustermann Bus GmbH", "1")).thenReturn(List.of(
+                Route.builder().company("Mustermann Bus GmbH").routeNumber("1").stops(new String[] { "Greenfield" }).build()));
+        Mockito.when(stopService.getStopsByCompany("Mustermann Bus GmbH")).thenReturn(List.of(
+                Stop.builder().name("Lakeside").distances(Map.of("Greenfield", 5, "Airport", 12)).build(),
+                Stop.builder().name("Greenfield").distances(Map.of("Lakeside", 5, "Airport", 7)).build(),
+                Stop.builder().name("Airport").distances(Map.of("Lakeside", 12, "Greenfield", 7)).build()));
+    }
+
+    /**
+     * Verify that all frequency patterns of a timetable are expanded into stop times.
+     */
+    @Test
+    public void testCalculateStopTimes ( ) {
+        List<StopTime> stopTimes = timetableCompilationService.calculateStopTimes(createTimetable());
+        //48 stop times for the weekday pattern and 12 stop times for the saturday pattern.
+        assertEquals(60, stopTimes.size());
+        assertEquals(LocalTime.of(6,14), stopTimes.get(1).getDepartureTime());
+        assertEquals("Greenfield", stopTimes.get(1).getStopName());
+        assertEquals(LocalTime.of(6,21), stopTimes.get(2).getDepartureTime());
+        assertEquals(LocalTime.of(18,34), stopTimes.get(49).getDepartureTime());
+        //The operating days of the frequency pattern are kept including special days.
+        assertEquals(List.of(LocalDateTime.of(2021,3,17,0,0)), stopTimes.get(59).getOperatingDays().getSpecialOperatingDays());
+        assertEquals(LocalDateTime.of(2021,3,31,12,0), stopTimes.get(59).getValidToDate());
+        //The route and the stops are only loaded once.
+        Mockito.verify(stopService, Mockito.times(1)).getStopsByCompany("Mustermann Bus GmbH");
+        //No stop times for a timetable without frequency patterns.
+        assertTrue(timetableCompilationService.calculateStopTimes(Timetable.builder().company("Mustermann Bus GmbH").routeNumber("1").build()).isEmpty());
+    }
+
+    /**
+     * Verify that the first compilation saves all trips and replaces stop times without trip hashes.
+     */
+    @Test
+    public void testCompileTimetable ( ) {
+        Mockito.when(stopTimeRepository.insertUnordered(Mockito.anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+        Mockito.when(stopTimeRepository.findTripHashes("Mustermann Bus GmbH", "1", "Spring")).thenReturn(List.of());
+        Mockito.when(stopTimeRepository.deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIsNull("Mustermann Bus GmbH", "1", "Spring")).thenReturn(40L);
+        TimetableCompilation timetableCompilation = timetableCompilationService.compileTimetable(createTimetable());
+        assertEquals(60, timetableCompilation.getNumberOfStopTimes());
+        assertEquals(40, timetableCompilation.getNumberOfReplacedStopTimes());
+        //16 trips for the weekday pattern and 4 trips for the saturday pattern.
+        assertEquals(20, timetableCompilation.getNumberOfInsertedTrips());
+        assertEquals(0, timetableCompilation.getNumberOfDeletedTrips());
+        assertEquals(0, timetableCompilation.getNumberOfUnchangedTrips());
+        Mockito.verify(stopTimeRepository, Mockito.times(2)).insertUnordered(Mockito.argThat(stopTimes -> stopTimes.stream()
+                .allMatch(stopTime -> "Spring".equals(stopTime.getTimetableName()) && stopTime.getTripHash() != null
+                        && timetableCompilation.getCompilationId().equals(stopTime.getCompilationId()))));
+        Mockito.verify(stopTimeRepository, Mockito.never()).deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.anyCollection());
+        //The new trips are activated after they have been saved and before the old stop times are deleted.
+        InOrder inOrder = Mockito.inOrder(stopTimeRepository, compilationActivationRepository);
+        inOrder.verify(compilationActivationRepository).save(Mockito.argThat(compilationActivation -> compilationActivation.getTripHashes().isEmpty()));
+        inOrder.verify(stopTimeRepository, Mockito.times(2)).insertUnordered(Mockito.anyList());
+        inOrder.verify(compilationActivationRepository).save(Mockito.argThat(compilationActivation ->
+                timetableCompilation.getCompilationId().equals(compilationActivation.getCompilationId())
+                        && compilationActivation.getTripHashes().size() == 20
+                        && "Mustermann Bus GmbH/1/Spring".equals(compilationActivation.getId())));
+        inOrder.verify(stopTimeRepository).deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIsNull("Mustermann Bus GmbH", "1", "Spring");
+    }
+
+    /**
+     * Verify that trips of a compilation which was never activated are deleted and compiled again.
+     */
+    @Test
+    public void testCompileTimetableAfterFailedActivation ( ) {
+        Mockito.when(stopTimeRepository.insertUnordered(Mockito.anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+        Mockito.when(stopTimeRepository.findTripHashes("Mustermann Bus GmbH", "1", "Spring")).thenReturn(List.of("abc", "def"));
+        Mockito.when(compilationActivationRepository.findById("Mustermann Bus GmbH/1/Spring")).thenReturn(Optional.of(CompilationActivation.builder()
+                .id("Mustermann Bus GmbH/1/Spring")
+                .tripHashes(List.of("abc"))
+                .build()));
+        Mockito.when(stopTimeRepository.deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn(Mockito.eq("Mustermann Bus GmbH"), Mockito.eq("1"),
+                Mockito.eq("Spring"), Mockito.anyCollection())).thenReturn(3L);
+        TimetableCompilation timetableCompilation = timetableCompilationService.compileTimetable(createTimetable());
+        assertEquals(20, timetableCompilation.getNumberOfInsertedTrips());
+        assertEquals(1, timetableCompilation.getNumberOfDeletedTrips());
+        Mockito.verify(stopTimeRepository).deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn("Mustermann Bus GmbH", "1", "Spring", Set.of("def"));
+        Mockito.verify(stopTimeRepository).deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn("Mustermann Bus GmbH", "1", "Spring", Set.of("abc"));
+        Mockito.verify(compilationActivationRepository, Mockito.times(1)).save(Mockito.any());
+    }
+
+    /**
+     * Verify that a recompilation only saves the changed trips and deletes the obsolete trips.
+     */
+    @Test
+    public void testRecompileTimetable ( ) {
+        //Compile once to find out the trip hashes.
+        List<String> tripHashes = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            List<StopTime> stopTimes = invocation.getArgument(0);
+            stopTimes.stream().map(StopTime::getTripHash).distinct().filter(tripHash -> !tripHashes.contains(tripHash)).forEach(tripHashes::add);
+            return stopTimes.size();
+        }).when(stopTimeRepository).insertUnordered(Mockito.anyList());
+        timetableCompilationService.compileTimetable(createTimetable());
+        assertEquals(20, tripHashes.size());
+        //Change the saturday pattern - only the saturday trips are replaced.
+        Mockito.clearInvocations(stopTimeRepository);
+        Mockito.when(stopTimeRepository.findTripHashes("Mustermann Bus GmbH", "1", "Spring")).thenReturn(List.copyOf(tripHashes));
+        Mockito.when(stopTimeRepository.deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn(Mockito.eq("Mustermann Bus GmbH"), Mockito.eq("1"),
+                Mockito.eq("Spring"), Mockito.anyCollection())).thenReturn(12L);
+        Timetable timetable = createTimetable();
+        timetable.getFrequencyPatterns()[1].setStartTime(LocalTime.of(19,0));
+        timetable.getFrequencyPatterns()[1].setEndTime(LocalTime.of(19,30));
+        TimetableCompilation timetableCompilation = timetableCompilationService.compileTimetable(timetable);
+        assertEquals(12, timetableCompilation.getNumberOfStopTimes());
+        assertEquals(12, timetableCompilation.getNumberOfReplacedStopTimes());
+        assertEquals(4, timetableCompilation.getNumberOfInsertedTrips());
+        assertEquals(4, timetableCompilation.getNumberOfDeletedTrips());
+        assertEquals(16, timetableCompilation.getNumberOfUnchangedTrips());
+        Mockito.verify(stopTimeRepository).deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn("Mustermann Bus GmbH", "1", "Spring", Set.copyOf(tripHashes.subList(16, 20)));
+        //Compile again without changes - nothing is saved or deleted.
+        Mockito.clearInvocations(stopTimeRepository);
+        Mockito.when(stopTimeRepository.findTripHashes("Mustermann Bus GmbH", "1", "Spring")).thenReturn(List.copyOf(tripHashes.subList(0, 16)));
+        timetable = createTimetable();
+        timetable.setFrequencyPatterns(new FrequencyPattern[] { timetable.getFrequencyPatterns()[0] });
+        timetableCompilation = timetableCompilationService.compileTimetable(timetable);
+        assertEquals(0, timetableCompilation.getNumberOfStopTimes());
+        assertEquals(16, timetableCompilation.getNumberOfUnchangedTrips());
+        Mockito.verify(stopTimeRepository, Mockito.never()).insertUnordered(Mockito.anyList());
+        Mockito.verify(stopTimeRepository, Mockito.never()).deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIn(Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.anyCollection());
+    }
+
+    /**
+     * Verify that the previous trips are kept if the new trips cannot be saved.
+     */
+    @Test
+    public void testCompileTimetableFailure ( ) {
+        Mockito.when(stopTimeRepository.insertUnordered(Mockito.anyList())).thenReturn(50).thenThrow(new IllegalStateException("Database not available"));
+        assertThrows(IllegalStateException.class, () -> timetableCompilationService.compileTimetable(createTimetable()));
+        Mockito.verify(stopTimeRepository).deleteByCompanyAndRouteNumberAndTimetableNameAndCompilationId(Mockito.eq("Mustermann Bus GmbH"), Mockito.eq("1"), Mockito.eq("Spring"), Mockito.anyString());
+        Mockito.verify(stopTimeRepository, Mockito.never()).deleteByCompanyAndRouteNumberAndTimetableNameAndTripHashIsNull(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+    }
+
+    /**
+     * Private helper method to create a timetable with a weekday and a saturday frequency pattern.
+     * @return a <code>Timetable</code> object which contains the test data.
+     */
+    private Timetable createTimetable ( ) {
+        return Timetable.builder()
+                .company("Mustermann Bus GmbH")
+                .routeNumber("1")
+                .name("Spring")
+                .validFromDate(LocalDateTime.of(2021,3,1,12,0))
+                .validToDate(LocalDateTime.of(2021,3,31,12,0))
+                .frequencyPatterns(new FrequencyPattern[] {
+                        FrequencyPattern.builder()
+                                .name("Weekday")
+                                .startStop("Lakeside")
+                                .endStop("Airport")
+                                .startTime(LocalTime.of(6,0))
+                                .endTime(LocalTime.of(7,0))
+                                .frequencyInMinutes(10)
+                                .numTours(2)
+                                .daysOfOperation(OperatingDays.builder().operatingDays(List.of(DayOfWeek.MONDAY, DayOfWeek.TUESDAY, DayOfWeek.WEDNESDAY,
+                                        DayOfWeek.THURSDAY, DayOfWeek.FRIDAY)).build())
+                                .build(),
+                        FrequencyPattern.builder()
+                                .name("Saturday")
+                                .startStop("Lakeside")
+                                .endStop("Airport")
+                                .startTime(LocalTime.of(18,0))
+                                .endTime(LocalTime.of(18,30))
+                                .frequencyInMinutes(30)
+                                .numTours(1)
+                                .daysOfOperation(OperatingDays.builder().operatingDays(List.of(DayOfWeek.SATURDAY))
+                                        .specialOperatingDays(List.of(LocalDateTime.of(2021,3,17,0,0))).build())
+                                .build()
+                })
+                .build();
+    }
+
+}
@@ -3,11 +3,13 @@ package de.davelee.trams.server.service;
 import de.davelee.trams.server.model.User;
 import de.davelee.trams.server.repository.UserRepository;
 import org.apache.commons.lang.reflect.FieldUtils;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -25,6 +27,9 @@ public class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Spy
+    private InMemoryAuthTokenStore authTokenStore = new InMemoryAuthTokenStore();
+
     /**
      * Initialise the spring properties which otherwise with Mockito would not be set
      * @throws Exception if the fields cannot be set
@@ -33,6 +38,15 @@ public class UserServiceTest {
     public void setSpringProperties() throws Exception {
         FieldUtils.writeField(userService, "timeoutInMinutes", 30, true);
         FieldUtils.writeField(userService, "tokenLength", 10, true);
+        FieldUtils.writeField(authTokenStore, "sweepSeconds", 60, true);
+    }
+
+    /**
+     * Stop the sweeper of the token store after each test.
+     */
+    @AfterEach
+    public void stopSweeper() {
+        authTokenStore.stopSweeper();
     }
 
     /**
@@ -88,6 +102,21 @@ public class UserServiceTest {
         assertNotNull(token);
         assertTrue(userService.checkAuthToken(token));
         userService.removeAuthToken(token);
+        assertFalse(userService.checkAuthToken(token));
+        assertFalse(userService.checkAuthToken(null));
+    }
+
+    /**
+     * Test case: check a token after the logout period.
+     * Expected result: token is not valid.
+     * @throws Exception if the timeout cannot be set.
+     */
+    @Test
+    public void testExpiredAuthToken() throws Exception {
+        FieldUtils.writeField(userService, "timeoutInMinutes", -1, true);
+        String token = userService.generateAuthToken("max.mustermann");
+        assertFalse(userService.checkAuthToken(token));
+        Mockito.verify(authTokenStore, Mockito.times(1)).isValid(Mockito.eq(token), Mockito.anyLong());
     }
 
     /**
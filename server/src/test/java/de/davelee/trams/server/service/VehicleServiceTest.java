@@ -5,11 +5,18 @@ import de.davelee.trams.server.constant.VehicleStatus;
 import de.davelee.trams.server.constant.VehicleType;
 import de.davelee.trams.server.model.*;
 import de.davelee.trams.server.repository.VehicleRepository;
+import org.bson.Document;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -19,6 +26,7 @@ import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 
 /**
  * This class tests the VehicleService class and ensures that it works successfully. Mocks are used for the database layer.
@@ -33,6 +41,9 @@ public class VehicleServiceTest {
     @Mock
     private VehicleRepository vehicleRepository;
 
+    @Mock
+    private MongoTemplate mongoTemplate;
+
     /**
      * Ensure that a vehicle can be added successfully to the mock database.
      */
@@ -350,8 +361,9 @@ public class VehicleServiceTest {
                 .typeSpecificInfos(Map.of("Bidirectional", "true"))
                 .vehicleType(VehicleType.TRAM)
                 .build()));
+        Mockito.when(vehicleRepository.deleteByCompany("Lee Buses")).thenReturn(1L);
         //Do test.
-        vehicleService.deleteVehicles("Lee Buses");
+        assertEquals(1L, vehicleService.deleteVehicles("Lee Buses"));
     }
 
     /**
@@ -440,14 +452,19 @@ public class VehicleServiceTest {
                 .typeSpecificInfos(Map.of("Bidirectional", "true"))
                 .vehicleType(VehicleType.TRAM)
                 .build();
-        //Mock important method in repository.
-        Mockito.when(vehicleRepository.save(any())).thenReturn(vehicle);
+        //Mock important method in template.
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Vehicle.class)))
+                .thenReturn(Vehicle.builder().delayInMinutes(0).build());
         //Do test.
-        assertEquals(6, vehicleService.adjustVehicleDelay(vehicle, 2));
-        assertEquals(3, vehicleService.adjustVehicleDelay(vehicle, -3));
-        assertEquals(0, vehicleService.adjustVehicleDelay(vehicle, -4));
+        assertEquals(0, vehicleService.adjustVehicleDelay(vehicle, -5));
+        assertEquals(0, vehicle.getDelayInMinutes());
+        //Verify that the delay is added in the database and cannot become negative.
+        ArgumentCaptor<AggregationUpdate> updateCaptor = ArgumentCaptor.forClass(AggregationUpdate.class);
+        Mockito.verify(mongoTemplate).findAndModify(any(Query.class), updateCaptor.capture(), any(FindAndModifyOptions.class), eq(Vehicle.class));
+        assertEquals(new Document("$set", new Document("delayInMinutes", new Document("$max", List.of(0,
+                new Document("$add", List.of("$delayInMinutes", -5)))))), updateCaptor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).getFirst());
         //Do test if database does not work.
-        Mockito.when(vehicleRepository.save(any())).thenReturn(null);
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class), any(FindAndModifyOptions.class), eq(Vehicle.class))).thenReturn(null);
         assertEquals(Integer.MIN_VALUE, vehicleService.adjustVehicleDelay(vehicle, -1));
     }
 
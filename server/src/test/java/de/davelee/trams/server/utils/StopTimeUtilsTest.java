@@ -0,0 +1,71 @@
+package de.davelee.trams.server.utils;
+
+import de.davelee.trams.server.model.RouteSchedule;
+import de.davelee.trams.server.model.ServiceTrip;
+import de.davelee.trams.server.model.Stop;
+import de.davelee.trams.server.model.StopTime;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * This class tests the StopTimeUtils class and ensures that it works successfully.
+ * @author Dave Lee
+ */
+public class StopTimeUtilsTest {
+
+    /**
+     * Verify that trips with the same content have the same hash and changed trips have a different hash.
+     */
+    @Test
+    public void testCalculateTripHash() {
+        String tripHash = StopTimeUtils.calculateTripHash(createTrip(LocalTime.of(6,0)));
+        assertEquals(64, tripHash.length());
+        assertEquals(tripHash, StopTimeUtils.calculateTripHash(createTrip(LocalTime.of(6,0))));
+        assertNotEquals(tripHash, StopTimeUtils.calculateTripHash(createTrip(LocalTime.of(6,1))));
+        //The id of the compilation is not part of the content of the trip.
+        List<StopTime> trip = createTrip(LocalTime.of(6,0));
+        trip.forEach(stopTime -> stopTime.setCompilationId("123"));
+        assertEquals(tripHash, StopTimeUtils.calculateTripHash(trip));
+    }
+
+    /**
+     * Verify that services with the same schedule, service id and stops have the same trip id.
+     */
+    @Test
+    public void testCalculateTripId() {
+        ServiceTrip service = ServiceTrip.builder()
+                .serviceId("1")
+                .routeSchedule(RouteSchedule.builder().routeNumber("1").scheduleId("2").build())
+                .stopList(List.of(Stop.builder().name("Lakeside").build(), Stop.builder().name("Greenfield").build()))
+                .build();
+        String tripId = StopTimeUtils.calculateTripId("Mustermann Bus GmbH", service);
+        assertEquals(tripId, StopTimeUtils.calculateTripId("Mustermann Bus GmbH", ServiceTrip.builder()
+                .serviceId("1")
+                .routeSchedule(RouteSchedule.builder().routeNumber("1").scheduleId("2").build())
+                .stopList(List.of(Stop.builder().name("Lakeside").build(), Stop.builder().name("Greenfield").build()))
+                .outOfService(true)
+                .build()));
+        assertNotEquals(tripId, StopTimeUtils.calculateTripId("Lee Transport", service));
+        service.setStopList(List.of(Stop.builder().name("Greenfield").build(), Stop.builder().name("Lakeside").build()));
+        assertNotEquals(tripId, StopTimeUtils.calculateTripId("Mustermann Bus GmbH", service));
+    }
+
+    /**
+     * Private helper method to create a trip with two stops for the test data.
+     * @param departureTime a <code>LocalTime</code> object containing the departure time at the first stop.
+     * @return a <code>List</code> of <code>StopTime</code> objects which contains the test data.
+     */
+    private List<StopTime> createTrip ( final LocalTime departureTime ) {
+        return List.of(
+                StopTime.builder().stopName("Lakeside").arrivalTime(departureTime).departureTime(departureTime)
+                        .destination("Greenfield").routeNumber("1").journeyNumber("1").build(),
+                StopTime.builder().stopName("Greenfield").arrivalTime(departureTime.plusMinutes(5)).departureTime(departureTime.plusMinutes(5))
+                        .destination("Greenfield").routeNumber("1").journeyNumber("1").build());
+    }
+
+}